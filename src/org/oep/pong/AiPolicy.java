@@ -0,0 +1,137 @@
+package org.oep.pong;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An AI opponent that has done all of its thinking ahead of time. The table
+ * holds a target x for every quantized ball state, as seen by a paddle at
+ * the bottom of the arena: ball x, distance to the paddle, direction and
+ * speed. A paddle at the top looks its state up mirrored. Choosing a target
+ * is then a single read from the buffer.
+ *
+ * Tables are made by the PolicyGen tool, which simulates the ball from the
+ * middle of every cell, and are stored as fractions of the arena so they
+ * work on any screen.
+ *
+ * <pre>
+ * magic:4 version:1 NX:1 ND:1 NA:1 NV:1 then NX*ND*NA*NV target bytes
+ * </pre>
+ * @author OEP
+ *
+ */
+public class AiPolicy {
+	private final ByteBuffer mTable;
+
+	/**
+	 * @param table, a whole policy file, usually mapped or direct
+	 * @throws IOException if the buffer does not hold a policy of this version
+	 */
+	public AiPolicy(ByteBuffer table) throws IOException {
+		if(table.remaining() != SIZE || table.getInt(table.position()) != MAGIC
+				|| table.get(table.position() + 4) != VERSION
+				|| table.get(table.position() + 5) != NX || table.get(table.position() + 6) != ND
+				|| table.get(table.position() + 7) != NA || table.get(table.position() + 8) != NV) {
+			throw new IOException("Not an AI policy of version " + VERSION);
+		}
+		mTable = table.slice();
+	}
+
+	/**
+	 * Maps a policy straight from a file, for instance an uncompressed asset.
+	 */
+	public static AiPolicy map(FileChannel channel, long offset, long length) throws IOException {
+		return new AiPolicy(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+	}
+
+	/**
+	 * Copies a policy from a stream into a direct buffer.
+	 */
+	public static AiPolicy read(InputStream in) throws IOException {
+		ByteBuffer b = ByteBuffer.allocateDirect(SIZE);
+		byte[] chunk = new byte[4096];
+		int n;
+		while(b.hasRemaining() && (n = in.read(chunk, 0, Math.min(chunk.length, b.remaining()))) > 0) {
+			b.put(chunk, 0, n);
+		}
+		b.flip();
+		return new AiPolicy(b);
+	}
+
+	/**
+	 * @return where <code>cpu</code> should head, in pixels
+	 */
+	public int target(Ball ball, Paddle cpu, boolean top, int width, int height) {
+		float vy = ball.vy;
+		float d = cpu.centerY() - ball.y;
+		if(top) {
+			vy = -vy;
+			d = -d;
+		}
+
+		int xb = bin(ball.x / width, NX);
+		int db = bin(d / height, ND);
+		int ab = angleBin(ball.vx, vy);
+		int vb = bin((ball.speed - Ball.SPEED) / SPEED_STEP, NV);
+
+		int t = mTable.get(HEADER + index(xb, db, ab, vb)) & 0xff;
+		return (2 * t + 1) * width / 512;
+	}
+
+	private static int bin(float fraction, int bins) {
+		int b = (int) (fraction * bins);
+		return (b < 0) ? 0 : (b >= bins) ? bins - 1 : b;
+	}
+
+	/**
+	 * Finds the angle cell of a velocity without an atan2. A direction on
+	 * the lower half of the circle is turned half way round and counted
+	 * from the middle, then a binary search over the cell edges on the
+	 * upper half uses cross products to tell which side of each it is on.
+	 */
+	private static int angleBin(float vx, float vy) {
+		int base = 0;
+		if(vy < 0 || (vy == 0 && vx < 0)) {
+			vx = -vx;
+			vy = -vy;
+			base = NA / 2;
+		}
+
+		int lo = 0, hi = NA / 2 - 1;
+		while(lo < hi) {
+			int mid = (lo + hi + 1) >> 1;
+			if(EDGE_COS[mid] * vy - EDGE_SIN[mid] * vx >= 0) lo = mid;
+			else hi = mid - 1;
+		}
+		return base + lo;
+	}
+
+	/**
+	 * @return the position of a cell in the table, after the header
+	 */
+	public static int index(int xb, int db, int ab, int vb) {
+		return ((vb * NA + ab) * ND + db) * NX + xb;
+	}
+
+	/** Cells along each axis: x, distance, angle and speed */
+	public static final int NX = 32, ND = 32, NA = 32, NV = 2;
+
+	/** Lower edges of the angle cells on the upper half of the circle */
+	private static final float[] EDGE_COS = new float[NA / 2], EDGE_SIN = new float[NA / 2];
+	static {
+		for(int i = 0; i < NA / 2; i++) {
+			EDGE_COS[i] = (float) Math.cos(i * 2 * Math.PI / NA);
+			EDGE_SIN[i] = (float) Math.sin(i * 2 * Math.PI / NA);
+		}
+	}
+
+	/** Ball speed above Ball.SPEED covered by one speed cell */
+	public static final float SPEED_STEP = 6;
+
+	public static final int MAGIC = 0x50414950;
+	public static final byte VERSION = 1;
+	public static final int HEADER = 9;
+	public static final int SIZE = HEADER + NX * ND * NA * NV;
+}
@@ -0,0 +1,183 @@
+package org.oep.pong;
+
+/**
+ * Draws a zero-player match for the screensaver, where the screen may be
+ * on for hours. Almost everything is black: the paddles are dim outlines,
+ * the ball is a dim dot, and there is no text, net or lives. After the
+ * first frame only the parts of the screen that something moved across
+ * are drawn again, a box per object that moved, so each frame touches a
+ * few small boxes instead of the whole screen.
+ *
+ * Call dirty() after each tick to find what needs drawing, then draw().
+ * Like PongScene it keeps no platform objects.
+ * @author OEP
+ *
+ */
+public final class AmbientScene {
+	/** Ticks a second. Each tick is drawn, so this is the frame rate too. */
+	public static final int FPS = PongGame.FPS / 2;
+
+	/** The AI decides less often than in a game, to save the CPU the work */
+	public static final int AI_THINK_INTERVAL = 4;
+
+	/** Colors, dim enough for a dark room */
+	public static final int
+		BLACK = 0xff000000,
+		RED = 0xff401010,
+		BLUE = 0xff101040,
+		BALL = 0xff404040;
+
+	/**
+	 * Screen boxes of what is on the screen and of where things are now, as
+	 * left, top, right, bottom of the ball, each extra ball, red and blue
+	 * in turn
+	 */
+	private final int[] mDrawn = new int[4 * OBJECTS];
+	private final int[] mNow = new int[4 * OBJECTS];
+
+	/**
+	 * The parts of the screen the next draw() covers, four ints each: where
+	 * one object was and is now
+	 */
+	private final int[] mDirty = new int[4 * OBJECTS];
+	private int mDirtyCount = 0;
+
+	/** How the arena is fitted to the screen */
+	private float mScale = 1, mOffsetX, mOffsetY;
+	private int mWidth, mHeight;
+
+	/** Set when the whole screen has to be drawn */
+	private boolean mFull = true;
+
+	/**
+	 * Fits the arena to the screen, as PongScene does, and has the next
+	 * frame drawn in full.
+	 */
+	public void fit(int screenWidth, int screenHeight, int worldWidth, int worldHeight) {
+		mScale = Math.min((float) screenWidth / worldWidth, (float) screenHeight / worldHeight);
+		mOffsetX = (screenWidth - worldWidth * mScale) / 2;
+		mOffsetY = (screenHeight - worldHeight * mScale) / 2;
+		mWidth = screenWidth;
+		mHeight = screenHeight;
+		mFull = true;
+	}
+
+	/**
+	 * Works out what has to be drawn since the last frame: a box around
+	 * where each object that moved was drawn and is now. Ticks that pass
+	 * without a draw() are covered by the next call.
+	 * @param out, receives left, top, right, bottom in screen pixels for
+	 * each box. Must hold four ints per object, as dirtyCapacity() says.
+	 * @return how many boxes were written, 0 if nothing moved
+	 */
+	public int dirty(PongGame game, int[] out) {
+		Ball ball = game.getBall();
+		Ball[] extras = game.getExtras();
+		box(0, ball.x, ball.y, ball.visible());
+		for(int i = 0; i < PongGame.MULTIBALL; i++) {
+			boolean shown = i < game.getExtraCount();
+			box(1 + i, (shown) ? extras[i].x : 0, (shown) ? extras[i].y : 0, shown);
+		}
+		box(1 + PongGame.MULTIBALL, game.getRed());
+		box(2 + PongGame.MULTIBALL, game.getBlue());
+
+		int n = 0;
+		if(mFull) {
+			mDirty[0] = 0;
+			mDirty[1] = 0;
+			mDirty[2] = mWidth;
+			mDirty[3] = mHeight;
+			n = 1;
+		}
+		else {
+			for(int o = 0; o < mNow.length; o += 4) {
+				if(mNow[o] == mDrawn[o] && mNow[o + 1] == mDrawn[o + 1] && mNow[o + 2] == mDrawn[o + 2] && mNow[o + 3] == mDrawn[o + 3]) continue;
+
+				int d = 4 * n;
+				mDirty[d] = Math.max(0, Math.min(mDrawn[o], mNow[o]));
+				mDirty[d + 1] = Math.max(0, Math.min(mDrawn[o + 1], mNow[o + 1]));
+				mDirty[d + 2] = Math.min(mWidth, Math.max(mDrawn[o + 2], mNow[o + 2]));
+				mDirty[d + 3] = Math.min(mHeight, Math.max(mDrawn[o + 3], mNow[o + 3]));
+				if(mDirty[d] < mDirty[d + 2] && mDirty[d + 1] < mDirty[d + 3]) n++;
+			}
+		}
+
+		System.arraycopy(mDirty, 0, out, 0, 4 * n);
+		mDirtyCount = n;
+		return n;
+	}
+
+	/**
+	 * Draws the boxes the last dirty() call found, or the whole screen
+	 * after invalidate(). Anything outside them is left as it already was.
+	 */
+	public void draw(Renderer r, PongGame game) {
+		if(mFull) {
+			r.rect(0, 0, mWidth, mHeight, BLACK, true);
+		}
+		else {
+			for(int d = 0; d < 4 * mDirtyCount; d += 4) {
+				r.rect(mDirty[d], mDirty[d + 1], mDirty[d + 2], mDirty[d + 3], BLACK, true);
+			}
+		}
+		System.arraycopy(mNow, 0, mDrawn, 0, mNow.length);
+		mDirtyCount = 0;
+		mFull = false;
+
+		r.pushLayer(mScale, mOffsetX, mOffsetY, game.getWidth(), game.getHeight());
+		Paddle red = game.getRed(), blue = game.getBlue();
+		r.rect(red.getLeft(), red.getTop(), red.getRight(), red.getBottom(), RED, false);
+		r.rect(blue.getLeft(), blue.getTop(), blue.getRight(), blue.getBottom(), BLUE, false);
+
+		Ball ball = game.getBall();
+		if(ball.visible()) r.circle(ball.x, ball.y, Ball.RADIUS, BALL, true);
+		Ball[] extras = game.getExtras();
+		for(int i = 0; i < game.getExtraCount(); i++) r.circle(extras[i].x, extras[i].y, Ball.RADIUS, BALL, true);
+		r.popLayer();
+	}
+
+	/** Ints the out array of dirty() needs */
+	public static int dirtyCapacity() {
+		return 4 * OBJECTS;
+	}
+
+	/**
+	 * Has the next frame drawn in full, as after the screen was lost.
+	 */
+	public void invalidate() {
+		mFull = true;
+	}
+
+	private void box(int object, float x, float y, boolean shown) {
+		if(!shown) {
+			empty(object);
+			return;
+		}
+		screen(object, x - Ball.RADIUS, y - Ball.RADIUS, x + Ball.RADIUS, y + Ball.RADIUS);
+	}
+
+	private void box(int object, Paddle paddle) {
+		screen(object, paddle.getLeft(), paddle.getTop(), paddle.getRight(), paddle.getBottom());
+	}
+
+	/**
+	 * Stores a world box as the screen pixels it covers, with one to spare
+	 * for rounding and outlines.
+	 */
+	private void screen(int object, float left, float top, float right, float bottom) {
+		int o = 4 * object;
+		mNow[o] = (int) (mOffsetX + left * mScale) - 1;
+		mNow[o + 1] = (int) (mOffsetY + top * mScale) - 1;
+		mNow[o + 2] = (int) (mOffsetX + right * mScale) + 2;
+		mNow[o + 3] = (int) (mOffsetY + bottom * mScale) + 2;
+	}
+
+	private void empty(int object) {
+		int o = 4 * object;
+		mNow[o] = mNow[o + 1] = Integer.MAX_VALUE;
+		mNow[o + 2] = mNow[o + 3] = Integer.MIN_VALUE;
+	}
+
+	/** The ball, the extra balls and the two paddles */
+	private static final int OBJECTS = 3 + PongGame.MULTIBALL;
+}
@@ -0,0 +1,92 @@
+package org.oep.pong;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.view.View;
+
+/**
+ * Plays a zero-player match for the screensaver at half the game's usual
+ * rate, asking to be drawn again only where something moved. See
+ * {@link AmbientScene} for how it is drawn.
+ * @author OEP
+ *
+ */
+public class AmbientView extends View {
+	private final AmbientScene mScene = new AmbientScene();
+	private final CanvasRenderer mRenderer = new CanvasRenderer(PongScene.TEXT_SIZE);
+	private final Handler mHandler = new Handler();
+
+	/** Dirty boxes from the scene, four ints each */
+	private final int[] mDirty = new int[AmbientScene.dirtyCapacity()];
+
+	private PongGame mGame;
+	private boolean mRunning = false;
+
+	private final Runnable mTick = new Runnable() {
+		public void run() {
+			if(!mRunning) return;
+			tick();
+			mHandler.postDelayed(this, 1000 / AmbientScene.FPS);
+		}
+	};
+
+	public AmbientView(Context context) {
+		super(context);
+		newGame();
+	}
+
+	/**
+	 * Starts ticking, drawing the whole screen first.
+	 */
+	public void start() {
+		if(mRunning) return;
+		mRunning = true;
+		mScene.invalidate();
+		invalidate();
+		mHandler.postDelayed(mTick, 1000 / AmbientScene.FPS);
+	}
+
+	public void stop() {
+		mRunning = false;
+		mHandler.removeCallbacks(mTick);
+	}
+
+	private void tick() {
+		if(!mGame.running()) newGame();
+		mGame.step();
+
+		int boxes = mScene.dirty(mGame, mDirty);
+		for(int d = 0; d < 4 * boxes; d += 4) {
+			invalidate(mDirty[d], mDirty[d + 1], mDirty[d + 2], mDirty[d + 3]);
+		}
+	}
+
+	private void newGame() {
+		mGame = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, System.currentTimeMillis());
+		mGame.setAiThinkInterval(AmbientScene.AI_THINK_INTERVAL);
+		mGame.initializePaddles(false, false);
+		mScene.invalidate();
+		invalidate();
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int ow, int oh) {
+		super.onSizeChanged(w, h, ow, oh);
+		mScene.fit(w, h, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+		invalidate();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		stop();
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	public void onDraw(Canvas canvas) {
+		// A full redraw asked for by the system rather than by a tick
+		if(!mRunning) mScene.invalidate();
+		mScene.draw(mRenderer.wrap(canvas), mGame);
+	}
+}
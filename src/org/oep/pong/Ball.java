@@ -0,0 +1,555 @@
+package org.oep.pong;
+
+import java.util.Random;
+
+/**
+ * The ball. Its direction is a unit vector and the velocity is that times
+ * the speed, so bouncing flips a sign, bounding the angle compares a
+ * component, and asking which way the ball is headed is a sign test. Only
+ * a serve or an explicit setAngle() needs trigonometry. Anything that
+ * depends on how the position and velocity are represented lives in here
+ * so that {@link FixedBall} can swap in integer math.
+ * @author OEP
+ *
+ */
+public class Ball {
+	public float x, y, xp, yp, vx, vy;
+	public float speed = SPEED;
+
+	/** Unit direction of travel */
+	protected float mDx = 1, mDy = 0;
+
+	/**
+	 * Ticks left before the ball is served. The game sets this from its
+	 * serve timer; the ball only reads it to stay put and to blink.
+	 */
+	protected int mCounter = 0;
+
+	/** True while a power-up has the ball at half speed */
+	protected boolean mSlow = false;
+
+	/** Width of the arena the ball lives in */
+	protected final int mWidth;
+
+	/** Source of random serve angles */
+	protected final Random mRng;
+
+	public Ball(int width, Random rng) {
+		mWidth = width;
+		mRng = rng;
+		findVector();
+	}
+
+	protected void findVector() {
+		float s = (mSlow) ? speed * SLOW : speed;
+		vx = s * mDx;
+		vy = s * mDy;
+	}
+
+	public boolean goingUp() {
+		return mDy < 0;
+	}
+
+	public boolean goingDown() {
+		return !goingUp();
+	}
+
+	public boolean goingLeft() {
+		return mDx < 0;
+	}
+
+	public boolean goingRight() {
+		return !goingLeft();
+	}
+
+	/**
+	 * @return the direction in radians, from 0 to 2 pi. This costs an atan2,
+	 * so it is for tools and tests rather than the game loop.
+	 */
+	public double getAngle() {
+		double angle = Math.atan2(mDy, mDx);
+		return (angle < 0) ? angle + 2 * Math.PI : angle;
+	}
+
+	public boolean serving() {
+		return mCounter > 0;
+	}
+
+	/**
+	 * Tells us if the ball should be drawn this tick. It blinks while serving.
+	 */
+	public boolean visible() {
+		return (mCounter / 10) % 2 == 1 || mCounter == 0;
+	}
+
+	/**
+	 * Ticks left before the ball is served.
+	 */
+	public int getServeCounter() {
+		return mCounter;
+	}
+
+	public void setServeCounter(int c) {
+		mCounter = c;
+	}
+
+	public void move() {
+		xp = x;
+		yp = y;
+		if(mCounter <= 0) {
+			x = keepX(x + vx);
+			y += vy;
+		}
+	}
+
+	/**
+	 * True if the last move() did not change the ball's height.
+	 */
+	public boolean stalled() {
+		return yp == y && serving() == false;
+	}
+
+	public void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public void setSpeed(float s) {
+		speed = s;
+	}
+
+	/**
+	 * Speeds the ball up by one pixel per tick, effective at the next angle
+	 * change, up to MAX_SPEED.
+	 */
+	public void accelerate() {
+		speed = Math.min(speed + 1, MAX_SPEED);
+	}
+
+	/**
+	 * Halves the ball's speed, or puts it back, straight away. The speed
+	 * itself is left alone, so rallies still speed it up underneath.
+	 */
+	public void setSlow(boolean slow) {
+		if(slow == mSlow) return;
+		mSlow = slow;
+		findVector();
+	}
+
+	public boolean isSlow() {
+		return mSlow;
+	}
+
+	public int intX() {
+		return (int) x;
+	}
+
+	public int intY() {
+		return (int) y;
+	}
+
+	public boolean pastTop() {
+		return y <= 0;
+	}
+
+	public boolean pastBottom(int height) {
+		return y >= height;
+	}
+
+	public void randomAngle() {
+		setAngle( Math.PI / 2 + mRng.nextInt(2) * Math.PI + Math.PI / 2 * mRng.nextGaussian() );
+	}
+
+	/**
+	 * Points the ball along an angle in radians, bounded like any other
+	 * direction. Used for serves, so it may take its time.
+	 */
+	public void setAngle(double angle) {
+		angle = boundAngle(angle % (2 * Math.PI));
+		mDx = (float) Math.cos(angle);
+		mDy = (float) Math.sin(angle);
+		findVector();
+	}
+
+	/**
+	 * Writes the ball's state into <code>s</code> starting at <code>i</code>.
+	 * @return the index after the last int written
+	 */
+	public int save(int[] s, int i) {
+		s[i++] = Float.floatToRawIntBits(x);
+		s[i++] = Float.floatToRawIntBits(y);
+		s[i++] = Float.floatToRawIntBits(xp);
+		s[i++] = Float.floatToRawIntBits(yp);
+		s[i++] = Float.floatToRawIntBits(vx);
+		s[i++] = Float.floatToRawIntBits(vy);
+		s[i++] = Float.floatToRawIntBits(speed);
+		s[i++] = Float.floatToRawIntBits(mDx);
+		s[i++] = Float.floatToRawIntBits(mDy);
+		s[i++] = mCounter;
+		s[i++] = (mSlow) ? 1 : 0;
+		return i;
+	}
+
+	/**
+	 * Reads back what save() wrote.
+	 * @return the index after the last int read
+	 */
+	public int load(int[] s, int i) {
+		x = Float.intBitsToFloat(s[i++]);
+		y = Float.intBitsToFloat(s[i++]);
+		xp = Float.intBitsToFloat(s[i++]);
+		yp = Float.intBitsToFloat(s[i++]);
+		vx = Float.intBitsToFloat(s[i++]);
+		vy = Float.intBitsToFloat(s[i++]);
+		speed = Float.intBitsToFloat(s[i++]);
+		mDx = Float.intBitsToFloat(s[i++]);
+		mDy = Float.intBitsToFloat(s[i++]);
+		mCounter = s[i++];
+		mSlow = s[i++] != 0;
+		return i;
+	}
+
+	/**
+	 * Tells us if the ball collides with a rectangle.
+	 * @param r, the rectangle
+	 * @return true if the ball is colliding, false if not
+	 */
+	public boolean collides(Paddle p) {
+		return p.collides(this);
+	}
+
+	/**
+	 * Checks if the ball crossed the bottom edge of a paddle on its way up
+	 * during the last move() and bounces it if it did.
+	 * @param paddle
+	 * @return true if the ball bounced
+	 */
+	public boolean sweepUp(Paddle paddle) {
+		float tx = x;
+		float ty = y - RADIUS;
+		float ptx = xp;
+		float pty = yp - RADIUS;
+		float dyp = ty - paddle.getBottom();
+		float xc = tx - (tx - ptx) * dyp / (ty - pty);
+
+		if(ty < paddle.getBottom() && pty >= paddle.getBottom()
+				&& xc > paddle.getLeft() && xc < paddle.getRight()) {
+
+			x = xc;
+			y = paddle.getBottom() + RADIUS;
+			bouncePaddle(paddle);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the ball crossed the top edge of a paddle on its way down
+	 * during the last move() and bounces it if it did.
+	 * @param paddle
+	 * @return true if the ball bounced
+	 */
+	public boolean sweepDown(Paddle paddle) {
+		float bx = x;
+		float by = y + RADIUS;
+		float pbx = xp;
+		float pby = yp + RADIUS;
+		float dyp = by - paddle.getTop();
+		float xc = bx + (bx - pbx) * dyp / (pby - by);
+
+		if(by > paddle.getTop() && pby <= paddle.getTop()
+				&& xc > paddle.getLeft() && xc < paddle.getRight()) {
+
+			x = xc;
+			y = paddle.getTop() - RADIUS;
+			bouncePaddle(paddle);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Looks through the obstacles a tree query turned up for the first one
+	 * the ball ran into during the last move(), and bounces it off that one.
+	 * The ball's center is tested against each shape grown by RADIUS, with
+	 * square corners on rectangles as the paddles have. A ball that starts
+	 * the move resting on an obstacle, as it does after bouncing off one,
+	 * hits it again straight away if it heads in. One that starts more than
+	 * half a unit inside, which a bar can do by sliding onto it, is let go
+	 * rather than trapped.
+	 * @param candidates, indices into <code>obstacles</code>
+	 * @return the index of the obstacle hit, or -1
+	 */
+	public int sweepObstacles(Obstacle[] obstacles, int[] candidates, int count) {
+		float dx = x - xp, dy = y - yp;
+		float best = Float.MAX_VALUE, nx = 0, ny = 0;
+		int hit = -1;
+
+		for(int c = 0; c < count; c++) {
+			Obstacle o = obstacles[candidates[c]];
+			float t;
+
+			if(o.isCircle()) {
+				float ox = xp - o.centerX(), oy = yp - o.centerY(), reach = o.getRadius() + RADIUS;
+				float a = dx * dx + dy * dy, half = dx * ox + dy * oy, k = ox * ox + oy * oy - reach * reach;
+
+				// Still, heading away, or well inside
+				if(a == 0 || half >= 0 || k < -reach) continue;
+				float disc = half * half - a * k;
+				if(disc < 0) continue;
+
+				t = Math.max(0, (-half - (float) Math.sqrt(disc)) / a);
+				if(t > 1 || t >= best) continue;
+				nx = (ox + dx * t) / reach;
+				ny = (oy + dy * t) / reach;
+			}
+			else {
+				float l = o.getLeft() - RADIUS, top = o.getTop() - RADIUS;
+				float r = o.getRight() + RADIUS, b = o.getBottom() + RADIUS;
+				if((dx == 0 && (xp <= l || xp >= r)) || (dy == 0 && (yp <= top || yp >= b))) continue;
+
+				// When the path enters and leaves each slab; a still axis never limits
+				float enterX = (dx > 0) ? (l - xp) / dx : (dx < 0) ? (r - xp) / dx : -Float.MAX_VALUE;
+				float exitX = (dx > 0) ? (r - xp) / dx : (dx < 0) ? (l - xp) / dx : Float.MAX_VALUE;
+				float enterY = (dy > 0) ? (top - yp) / dy : (dy < 0) ? (b - yp) / dy : -Float.MAX_VALUE;
+				float exitY = (dy > 0) ? (b - yp) / dy : (dy < 0) ? (top - yp) / dy : Float.MAX_VALUE;
+
+				t = Math.max(enterX, enterY);
+				if(t > 1 || t > Math.min(exitX, exitY)) continue;
+
+				// Past the face it came in by, by more than half a unit
+				if(t < 0 && -t * ((enterX > enterY) ? Math.abs(dx) : Math.abs(dy)) > 0.5f) continue;
+				t = Math.max(0, t);
+				if(t >= best) continue;
+				nx = (enterX > enterY) ? -Math.signum(dx) : 0;
+				ny = (enterX > enterY) ? 0 : -Math.signum(dy);
+			}
+
+			best = t;
+			hit = candidates[c];
+		}
+
+		if(hit < 0) return -1;
+		x = xp + dx * best;
+		y = yp + dy * best;
+		bounceNormal(nx, ny);
+		return hit;
+	}
+
+	/**
+	 * Reflects the ball's direction off a surface. If that leaves it too
+	 * flat, it is snapped to the nearest allowed direction that still leads
+	 * away from the surface, so a glancing hit cannot steer the ball back in.
+	 * @param nx, ny, the surface's unit normal
+	 */
+	protected void bounceNormal(float nx, float ny) {
+		float dot = mDx * nx + mDy * ny;
+		mDx -= 2 * dot * nx;
+		mDy -= 2 * dot * ny;
+
+		// A circle's normal is only nearly a unit vector
+		float length = (float) Math.sqrt(mDx * mDx + mDy * mDy);
+		mDx /= length;
+		mDy /= length;
+
+		if(Math.abs(mDy) < SIN_BOUND) {
+			float closest = -2, ex = 0, ey = 0;
+			for(int i = 0; i < 4; i++) {
+				float cx = ((i & 1) == 0) ? COS_BOUND : -COS_BOUND;
+				float cy = ((i & 2) == 0) ? SIN_BOUND : -SIN_BOUND;
+				if(cx * nx + cy * ny < LEAVING) continue;
+
+				float d = cx * mDx + cy * mDy;
+				if(d > closest) {
+					closest = d;
+					ex = cx;
+					ey = cy;
+				}
+			}
+			mDx = ex;
+			mDy = ey;
+		}
+		findVector();
+	}
+
+	/**
+	 * Bounces the ball off the side walls if it has reached one.
+	 * @return true if the ball bounced
+	 */
+	public boolean sweepWalls() {
+		if(x <= RADIUS || x >= mWidth - RADIUS) {
+			bounceWall();
+			if(x == RADIUS)
+				x++;
+			else
+				x--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Bounces the ball off a paddle: the vertical part of the direction is
+	 * flipped, then turned by how far off center the ball hit.
+	 */
+	public void bouncePaddle(Paddle p) {
+		double change = salt(p);
+		double dx = mDx, dy = -mDy;
+
+		// Turn by the salt angle, which stays under 8 pi / 9 either way. The
+		// series are good to about 1e-8 for half of that, so take half and
+		// double it up.
+		double h = change / 2, h2 = h * h;
+		double cos = 1 - h2 / 2 * (1 - h2 / 12 * (1 - h2 / 30 * (1 - h2 / 56 * (1 - h2 / 90 * (1 - h2 / 132)))));
+		double sin = h * (1 - h2 / 6 * (1 - h2 / 20 * (1 - h2 / 42 * (1 - h2 / 72 * (1 - h2 / 110)))));
+		double c = cos * cos - sin * sin, s = 2 * sin * cos;
+		mDx = (float) (dx * c - dy * s);
+		mDy = (float) (dx * s + dy * c);
+		boundDirection(dy < 0, change);
+		findVector();
+	}
+
+	/**
+	 * Bounce the ball off a horizontal axis.
+	 */
+	public void bounceWall() {
+		mDx = -mDx;
+		findVector();
+	}
+
+	/**
+	 * @return how far to turn the ball off a paddle in radians, counterclockwise
+	 */
+	protected double salt(Paddle paddle) {
+		int cx = paddle.centerX();
+		double halfWidth = paddle.getWidth() / 2;
+
+		if(goingUp()) return SALT * ((cx - x) / halfWidth);
+		else return SALT * ((x - cx) / halfWidth);
+	}
+
+	/**
+	 * Computes where the ball will be when it reaches the height of a paddle,
+	 * accounting for bounces off the side walls.
+	 * @param cpuY, center height of the paddle doing the predicting
+	 * @param oppY, center height of its opponent
+	 * @return the predicted x-coordinate
+	 */
+	public int predictX(int cpuY, int oppY) {
+		// Y-Distance from ball to Rect 'cpu'
+		float cpuDist = Math.abs(y - cpuY);
+		// Y-Distance to opponent.
+		float oppDist = Math.abs( y - oppY );
+
+		// Distance between two paddles.
+		float paddleDistance = Math.abs(cpuY - oppY);
+
+		// Is the ball coming at us?
+		boolean coming = (cpuY < y && vy < 0)
+			|| (cpuY > y && vy > 0);
+
+		// Total amount of x-distance the ball covers
+		float total = ((((coming) ? cpuDist : oppDist + paddleDistance)) / Math.abs(vy)) * Math.abs( vx );
+
+		// Playable width of the stage
+		float playWidth = mWidth - 2 * RADIUS;
+
+		float wallDist = (goingLeft()) ? x - RADIUS : playWidth - x + RADIUS;
+
+		// Effective x-translation left over after first bounce
+		float remains = (total - wallDist) % playWidth;
+
+		// Bounces the ball will incur
+		int bounces = (int) ((total) / playWidth);
+
+		boolean left = (bounces % 2 == 0) ? !goingLeft() : goingLeft();
+
+		// Now we need to compute the final x. That's all that matters.
+		if(bounces == 0) {
+			return (int) (x + total * Math.signum(vx));
+		}
+		else if(left) {
+			return (int) (RADIUS + remains);
+		}
+		else { // The ball is going right...
+			return (int) ((RADIUS + playWidth) - remains);
+		}
+	}
+
+	/**
+	 * Seed used by the prediction AI to jitter its target.
+	 */
+	public long aiSeed(int cpuY, int salt) {
+		return (long) (cpuY + vx + vy + salt);
+	}
+
+	/**
+	 * Keeps the direction at least BOUND away from horizontal on the top or
+	 * bottom half of the unit circle. A direction that was turned out of that
+	 * range is snapped to the edge it left by, which is the one it was turned
+	 * towards, as bounding the angle sum would.
+	 * @param top, true to bound to the half where the ball goes up
+	 * @param turn, the counterclockwise turn that was just made, in radians
+	 */
+	protected void boundDirection(boolean top, double turn) {
+		if((top) ? mDy <= -SIN_BOUND : mDy >= SIN_BOUND) return;
+
+		boolean right = (turn == 0) ? mDx >= 0 : (turn > 0) == top;
+		mDx = (right) ? COS_BOUND : -COS_BOUND;
+		mDy = (top) ? -SIN_BOUND : SIN_BOUND;
+	}
+
+	protected double boundAngle(double angle) {
+		return boundAngle(angle, angle >= Math.PI);
+	}
+
+	/**
+	 * Bounds an angle in radians to a subset of the top
+	 * or bottom part of the unit circle.
+	 * @param angle The angle in radians to bound.
+	 * @param top Flag which indicates if we should bound to the top or not.
+	 * @return the bounded angle
+	 */
+	protected double boundAngle(double angle, boolean top) {
+		if(top) {
+			return Math.max(Math.PI + BOUND, Math.min(2 * Math.PI - BOUND, angle));
+		}
+
+		return Math.max(BOUND, Math.min(Math.PI - BOUND, angle));
+	}
+
+	/**
+	 * Given it a coordinate, it transforms it into a proper x-coordinate for the ball.
+	 * @param x, the x-coord to transform
+	 * @return
+	 */
+	protected float keepX(float x) {
+		return Math.max(RADIUS, Math.min(x, mWidth - RADIUS));
+	}
+
+	//change the ball speed from 4.0f to 12.0f
+	public static final double BOUND = Math.PI / 9;
+	public static final float SPEED = 12.0f;
+
+	/** Fastest a rally can make the ball. Beyond this it crosses the arena in a few ticks. */
+	public static final float MAX_SPEED = 64.0f;
+	public static final int RADIUS = 8;
+	public static final double SALT = 4 * Math.PI / 9;
+
+	/** The steepest and flattest directions allowed, as vector components */
+	protected static final float SIN_BOUND = (float) Math.sin(BOUND), COS_BOUND = (float) Math.cos(BOUND);
+
+	/**
+	 * Least a snapped direction may lead away from a surface, as the cosine
+	 * of the angle to its normal. Above zero so rounding cannot leave the
+	 * ball heading back in, and below the cosine of the 70 degrees at least
+	 * one edge is always within.
+	 */
+	protected static final float LEAVING = 0.2f;
+
+	/** Speed of a slowed ball, as a fraction of its own */
+	public static final float SLOW = 0.5f;
+
+	/** Ints written by save() */
+	public static final int STATE_SIZE = 11;
+}
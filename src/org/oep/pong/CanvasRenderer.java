@@ -0,0 +1,84 @@
+package org.oep.pong;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+
+/**
+ * Draws onto an android.graphics.Canvas with one shared Paint. Layers are
+ * the canvas's own save() and restore(), so a layer's scale and offset
+ * end up in the canvas matrix.
+ * @author OEP
+ *
+ */
+public class CanvasRenderer implements Renderer {
+	private final Paint mPaint = new Paint();
+	private Canvas mCanvas;
+
+	/**
+	 * @param textSize, in the units of whatever layer text is drawn in
+	 */
+	public CanvasRenderer(float textSize) {
+		mPaint.setTextSize(textSize);
+	}
+
+	/**
+	 * Points this at the canvas for the frame being drawn.
+	 */
+	public CanvasRenderer wrap(Canvas canvas) {
+		mCanvas = canvas;
+		return this;
+	}
+
+	public void clear(int color) {
+		mCanvas.drawColor(color);
+	}
+
+	public void rect(float left, float top, float right, float bottom, int color, boolean fill) {
+		paint(color, fill);
+		mCanvas.drawRect(left, top, right, bottom, mPaint);
+	}
+
+	public void circle(float cx, float cy, float radius, int color, boolean fill) {
+		paint(color, fill);
+		mCanvas.drawCircle(cx, cy, radius, mPaint);
+	}
+
+	public void line(float x0, float y0, float x1, float y1, int color) {
+		paint(color, false);
+		mCanvas.drawLine(x0, y0, x1, y1, mPaint);
+	}
+
+	public void text(String s, float x, float y, int color) {
+		paint(color, true);
+		mCanvas.drawText(s, x, y, mPaint);
+	}
+
+	public float textWidth(String s) {
+		return mPaint.measureText(s);
+	}
+
+	public float textAscent() {
+		return -mPaint.ascent();
+	}
+
+	public float lineSpacing() {
+		return mPaint.getFontSpacing();
+	}
+
+	public void pushLayer(float scale, float dx, float dy, float clipWidth, float clipHeight) {
+		mCanvas.save();
+		mCanvas.translate(dx, dy);
+		mCanvas.scale(scale, scale);
+		mCanvas.clipRect(0, 0, clipWidth, clipHeight);
+	}
+
+	public void popLayer() {
+		mCanvas.restore();
+	}
+
+	private void paint(int color, boolean fill) {
+		mPaint.setColor(color);
+		mPaint.setStyle((fill) ? Style.FILL : Style.STROKE);
+	}
+}
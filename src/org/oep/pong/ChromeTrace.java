@@ -0,0 +1,127 @@
+package org.oep.pong;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link GameTrace.Tracer} that keeps sections in memory and writes them
+ * as Chrome trace-event JSON, which chrome://tracing and Perfetto open.
+ * Recording is a few array stores with no allocation; once the arrays are
+ * full, later sections are counted and dropped. Only the thread that
+ * created it is recorded.
+ * @author OEP
+ *
+ */
+public class ChromeTrace implements GameTrace.Tracer {
+	private final Thread mThread = Thread.currentThread();
+	private final long mStart = System.nanoTime();
+
+	/** Begin (name index) or end (-1) events and their times in nanoseconds */
+	private final int[] mNames;
+	private final long[] mTimes;
+	private int mCount = 0;
+
+	/** Sections begun and not yet ended */
+	private int mDepth = 0;
+
+	/** Section names, compared by identity since they are all literals */
+	private final String[] mTable = new String[MAX_NAMES];
+	private int mTableSize = 0;
+
+	/** Begins that did not fit, and the ends that go with them */
+	private int mDropped = 0, mDepthDropped = 0;
+
+	/**
+	 * @param capacity, begin and end events to keep
+	 */
+	public ChromeTrace(int capacity) {
+		mNames = new int[capacity];
+		mTimes = new long[capacity];
+	}
+
+	public void begin(String name) {
+		if(Thread.currentThread() != mThread) return;
+
+		// Leave room for every end still owed, so the output stays balanced
+		if(mDepthDropped > 0 || mCount + mDepth + 2 > mNames.length) {
+			mDepthDropped++;
+			mDropped++;
+			return;
+		}
+		mNames[mCount] = intern(name);
+		mTimes[mCount++] = System.nanoTime();
+		mDepth++;
+	}
+
+	public void end() {
+		if(Thread.currentThread() != mThread) return;
+
+		if(mDepthDropped > 0) {
+			mDepthDropped--;
+			return;
+		}
+		if(mDepth == 0) return;
+		mNames[mCount] = -1;
+		mTimes[mCount++] = System.nanoTime();
+		mDepth--;
+	}
+
+	private int intern(String name) {
+		for(int i = 0; i < mTableSize; i++) {
+			if(mTable[i] == name) return i;
+		}
+		for(int i = 0; i < mTableSize; i++) {
+			if(mTable[i].equals(name)) return i;
+		}
+		if(mTableSize == MAX_NAMES) return MAX_NAMES - 1;
+		mTable[mTableSize] = name;
+		return mTableSize++;
+	}
+
+	/**
+	 * @return events recorded, begins and ends together
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	public int getDropped() {
+		return mDropped;
+	}
+
+	/**
+	 * Writes everything recorded as a JSON object with a traceEvents array.
+	 * Times are microseconds from when this trace was created.
+	 */
+	public void write(Writer out) throws IOException {
+		long tid = mThread.getId();
+		int[] open = new int[mCount + 1];
+		int depth = 0;
+
+		out.write("{\"traceEvents\":[\n");
+		for(int i = 0; i < mCount; i++) {
+			int name = mNames[i];
+			String phase = (name < 0) ? "E" : "B";
+			if(name < 0) name = open[--depth];
+			else open[depth++] = name;
+
+			out.write((i == 0) ? "" : ",\n");
+			out.write("{\"name\":\"" + escape(mTable[name]) + "\",\"cat\":\"pong\",\"ph\":\"" + phase
+					+ "\",\"ts\":" + micros(mTimes[i] - mStart) + ",\"pid\":1,\"tid\":" + tid + "}");
+		}
+		out.write("\n],\"displayTimeUnit\":\"ns\"}\n");
+		out.flush();
+	}
+
+	private static String micros(long nanos) {
+		return (nanos / 1000) + "." + (char) ('0' + nanos / 100 % 10) + (char) ('0' + nanos / 10 % 10)
+			+ (char) ('0' + nanos % 10);
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/** Distinct section names kept. Any more share the last slot. */
+	private static final int MAX_NAMES = 64;
+}
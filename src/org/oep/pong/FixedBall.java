@@ -0,0 +1,446 @@
+package org.oep.pong;
+
+import java.util.Random;
+
+import static org.oep.pong.FixedMath.HALF;
+import static org.oep.pong.FixedMath.ONE;
+import static org.oep.pong.FixedMath.QUARTER;
+import static org.oep.pong.FixedMath.SHIFT;
+import static org.oep.pong.FixedMath.TURN;
+
+/**
+ * A ball whose position, velocity and angle are kept in scaled integers.
+ * Every step produces bit-identical results on any device, which lets us
+ * compare simulations across machines. The float fields inherited from
+ * {@link Ball} are only a mirror of the integer state for drawing.
+ * @author OEP
+ *
+ */
+public class FixedBall extends Ball {
+	/** Position, previous position and velocity in Q16.16 */
+	protected int mFx, mFy, mFxp, mFyp, mFvx, mFvy;
+
+	/** Speed in Q16.16 */
+	protected int mFspeed;
+
+	/** Direction in binary angle units */
+	protected int mBam;
+
+	public FixedBall(int width, Random rng) {
+		super(width, rng);
+		mFspeed = (int) (SPEED * ONE);
+		findVector();
+	}
+
+	@Override
+	protected void findVector() {
+		long s = (mSlow) ? mFspeed >> 1 : mFspeed;
+		mFvx = (int) ((s * FixedMath.cos(mBam)) >> SHIFT);
+		mFvy = (int) ((s * FixedMath.sin(mBam)) >> SHIFT);
+		sync();
+	}
+
+	/**
+	 * Copies the integer state into the float fields read by the renderer.
+	 */
+	protected void sync() {
+		x = (float) mFx / ONE;
+		y = (float) mFy / ONE;
+		xp = (float) mFxp / ONE;
+		yp = (float) mFyp / ONE;
+		vx = (float) mFvx / ONE;
+		vy = (float) mFvy / ONE;
+		speed = (float) mFspeed / ONE;
+	}
+
+	@Override
+	public int save(int[] s, int i) {
+		s[i++] = mFx;
+		s[i++] = mFy;
+		s[i++] = mFxp;
+		s[i++] = mFyp;
+		s[i++] = mFvx;
+		s[i++] = mFvy;
+		s[i++] = mFspeed;
+		s[i++] = mBam;
+		s[i++] = 0;
+		s[i++] = mCounter;
+		s[i++] = (mSlow) ? 1 : 0;
+		return i;
+	}
+
+	@Override
+	public int load(int[] s, int i) {
+		mFx = s[i++];
+		mFy = s[i++];
+		mFxp = s[i++];
+		mFyp = s[i++];
+		mFvx = s[i++];
+		mFvy = s[i++];
+		mFspeed = s[i++];
+		mBam = s[i++];
+		i++;
+		mCounter = s[i++];
+		mSlow = s[i++] != 0;
+		sync();
+		return i;
+	}
+
+	@Override
+	public boolean goingUp() {
+		return mBam >= HALF;
+	}
+
+	@Override
+	public boolean goingLeft() {
+		return mBam <= HALF + QUARTER && mBam > QUARTER;
+	}
+
+	@Override
+	public void move() {
+		mFxp = mFx;
+		mFyp = mFy;
+		if(mCounter <= 0) {
+			mFx = keepFixedX(mFx + mFvx);
+			mFy += mFvy;
+		}
+		sync();
+	}
+
+	@Override
+	public boolean stalled() {
+		return mFyp == mFy && serving() == false;
+	}
+
+	@Override
+	public void setPosition(float x, float y) {
+		mFx = (int) (x * ONE);
+		mFy = (int) (y * ONE);
+		sync();
+	}
+
+	@Override
+	public void setSpeed(float s) {
+		mFspeed = (int) (s * ONE);
+		sync();
+	}
+
+	@Override
+	public void accelerate() {
+		mFspeed = Math.min(mFspeed + ONE, (int) (MAX_SPEED * ONE));
+		sync();
+	}
+
+	@Override
+	public int intX() {
+		return FixedMath.toInt(mFx);
+	}
+
+	@Override
+	public int intY() {
+		return FixedMath.toInt(mFy);
+	}
+
+	@Override
+	public boolean pastTop() {
+		return mFy <= 0;
+	}
+
+	@Override
+	public boolean pastBottom(int height) {
+		return mFy >= FixedMath.toFixed(height);
+	}
+
+	/**
+	 * Same distribution shape as the float ball's serve, but the gaussian is
+	 * approximated by summing twelve uniform integers so no floats are involved.
+	 */
+	@Override
+	public void randomAngle() {
+		int gaussian = -6 * QUARTER;
+		for(int i = 0; i < 12; i++) {
+			gaussian += mRng.nextInt(QUARTER);
+		}
+		setBam( QUARTER + mRng.nextInt(2) * HALF + gaussian );
+	}
+
+	@Override
+	public void setAngle(double angle) {
+		setBam(FixedMath.fromRadians(angle));
+	}
+
+	public void setBam(int angle) {
+		mBam = angle % TURN;
+		mBam = boundBam(mBam, mBam >= HALF);
+		findVector();
+	}
+
+	public int getBam() {
+		return mBam;
+	}
+
+	@Override
+	public double getAngle() {
+		return FixedMath.toRadians(mBam);
+	}
+
+	@Override
+	public boolean sweepUp(Paddle paddle) {
+		long bottom = (long) FixedMath.toFixed(paddle.getBottom());
+		long ty = mFy - RADIUS_F;
+		long pty = mFyp - RADIUS_F;
+
+		if(ty < bottom && pty >= bottom) {
+			long xc = mFx - ((long) mFx - mFxp) * (ty - bottom) / (ty - pty);
+
+			if(xc > FixedMath.toFixed(paddle.getLeft()) && xc < FixedMath.toFixed(paddle.getRight())) {
+				mFx = (int) xc;
+				mFy = (int) (bottom + RADIUS_F);
+				bouncePaddle(paddle);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean sweepDown(Paddle paddle) {
+		long top = (long) FixedMath.toFixed(paddle.getTop());
+		long by = mFy + RADIUS_F;
+		long pby = mFyp + RADIUS_F;
+
+		if(by > top && pby <= top) {
+			long xc = mFx + ((long) mFx - mFxp) * (by - top) / (pby - by);
+
+			if(xc > FixedMath.toFixed(paddle.getLeft()) && xc < FixedMath.toFixed(paddle.getRight())) {
+				mFx = (int) xc;
+				mFy = (int) (top - RADIUS_F);
+				bouncePaddle(paddle);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The same test as the float ball's, with hit times kept as fractions so
+	 * nothing is rounded until the ball is placed. Circles are solved in
+	 * sixteenths of a unit so the squares fit in a long.
+	 */
+	@Override
+	public int sweepObstacles(Obstacle[] obstacles, int[] candidates, int count) {
+		long dx = (long) mFx - mFxp, dy = (long) mFy - mFyp;
+		long adx = Math.abs(dx), ady = Math.abs(dy);
+
+		// The earliest hit so far is bestNum / bestDen; 1 / 0 is never
+		long bestNum = 1, bestDen = 0;
+		int hit = -1, normal = 0;
+
+		for(int c = 0; c < count; c++) {
+			Obstacle o = obstacles[candidates[c]];
+			long num, den;
+			int n;
+
+			if(o.isCircle()) {
+				long sdx = dx >> 12, sdy = dy >> 12;
+				long ox = (mFxp - (long) FixedMath.toFixed(o.centerX())) >> 12;
+				long oy = (mFyp - (long) FixedMath.toFixed(o.centerY())) >> 12;
+				long reach = (long) (o.getRadius() + RADIUS) << 4;
+				long a = sdx * sdx + sdy * sdy, half = sdx * ox + sdy * oy, k = ox * ox + oy * oy - reach * reach;
+
+				// Half a unit inside is about reach * 16 under the square
+				if(a == 0 || half >= 0 || k < -(reach << 4)) continue;
+				long disc = half * half - a * k;
+				if(disc < 0) continue;
+
+				num = Math.max(0, -half - FixedMath.sqrt(disc));
+				den = a;
+				if(num > den) continue;
+				n = FixedMath.atan2(oy * den + sdy * num, ox * den + sdx * num);
+			}
+			else {
+				long l = (long) FixedMath.toFixed(o.getLeft()) - RADIUS_F, top = (long) FixedMath.toFixed(o.getTop()) - RADIUS_F;
+				long r = (long) FixedMath.toFixed(o.getRight()) + RADIUS_F, b = (long) FixedMath.toFixed(o.getBottom()) + RADIUS_F;
+				if((dx == 0 && (mFxp <= l || mFxp >= r)) || (dy == 0 && (mFyp <= top || mFyp >= b))) continue;
+
+				// Distances to each slab's near and far side, over adx and ady
+				long enterX = (dx > 0) ? l - mFxp : mFxp - r, exitX = (dx > 0) ? r - mFxp : mFxp - l;
+				long enterY = (dy > 0) ? top - mFyp : mFyp - b, exitY = (dy > 0) ? b - mFyp : mFyp - top;
+
+				boolean byX = dx != 0 && (dy == 0 || enterX * ady > enterY * adx);
+				num = (byX) ? enterX : enterY;
+				den = (byX) ? adx : ady;
+				if(num < -ONE / 2 || num > den) continue;
+				num = Math.max(0, num);
+				if((dx != 0 && exitX * den < num * adx) || (dy != 0 && exitY * den < num * ady)) continue;
+
+				if(byX) n = (dx > 0) ? HALF : 0;
+				else n = (dy > 0) ? HALF + QUARTER : QUARTER;
+			}
+
+			if(num * bestDen >= bestNum * den) continue;
+			bestNum = num;
+			bestDen = den;
+			normal = n;
+			hit = candidates[c];
+		}
+
+		if(hit < 0) return -1;
+		mFx = (int) (mFxp + dx * bestNum / bestDen);
+		mFy = (int) (mFyp + dy * bestNum / bestDen);
+		bounceNormal(normal);
+		return hit;
+	}
+
+	/**
+	 * Reflects the direction off a surface. If that leaves it too flat, it
+	 * is snapped to the nearest allowed direction that still leads away from
+	 * the surface, as the float ball does.
+	 * @param normal, the direction the surface faces, in binary angle units
+	 */
+	protected void bounceNormal(int normal) {
+		int angle = (2 * normal + HALF - mBam) & (TURN - 1);
+
+		if(boundBam(angle, angle >= HALF) != angle) {
+			int closest = TURN;
+			for(int i = 0; i < EDGES.length; i++) {
+				if(gap(EDGES[i], normal) > LEAVING) continue;
+
+				int g = gap(EDGES[i], angle);
+				if(g < closest) {
+					closest = g;
+					angle = EDGES[i];
+				}
+			}
+		}
+		setBam(angle);
+	}
+
+	/**
+	 * @return how far apart two angles are, either way round
+	 */
+	private static int gap(int a, int b) {
+		int d = (a - b) & (TURN - 1);
+		return Math.min(d, TURN - d);
+	}
+
+	@Override
+	public boolean sweepWalls() {
+		if(mFx <= RADIUS_F || mFx >= FixedMath.toFixed(mWidth - RADIUS)) {
+			bounceWall();
+			if(mFx == RADIUS_F)
+				mFx += ONE;
+			else
+				mFx -= ONE;
+			sync();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void bouncePaddle(Paddle p) {
+		int angle;
+
+		// up-right case
+		if(mBam >= HALF) {
+			angle = 2 * TURN - mBam;
+		}
+		// down-left case
+		else {
+			angle = TURN - mBam;
+		}
+
+		angle %= TURN;
+		angle = saltBam(angle, p);
+		setBam(angle);
+	}
+
+	@Override
+	public void bounceWall() {
+		setBam(3 * HALF - mBam);
+	}
+
+	protected int saltBam(int angle, Paddle paddle) {
+		long cx = FixedMath.toFixed(paddle.centerX());
+		long halfWidth = FixedMath.toFixed(paddle.getWidth() / 2);
+		int change;
+
+		if(goingUp()) change = (int) (SALT_BAM * (cx - mFx) / halfWidth);
+		else change = (int) (SALT_BAM * (mFx - cx) / halfWidth);
+
+		return boundBam(angle + change, angle >= HALF);
+	}
+
+	@Override
+	public int predictX(int cpuY, int oppY) {
+		if(mFvy == 0) return intX();
+
+		long cpuF = FixedMath.toFixed(cpuY);
+		long oppF = FixedMath.toFixed(oppY);
+
+		long cpuDist = Math.abs(mFy - cpuF);
+		long oppDist = Math.abs(mFy - oppF);
+		long paddleDistance = Math.abs(cpuF - oppF);
+
+		boolean coming = (cpuF < mFy && mFvy < 0)
+			|| (cpuF > mFy && mFvy > 0);
+
+		long total = ((coming) ? cpuDist : oppDist + paddleDistance)
+			* Math.abs((long) mFvx) / Math.abs((long) mFvy);
+
+		long playWidth = FixedMath.toFixed(mWidth - 2 * RADIUS);
+
+		long wallDist = (goingLeft()) ? mFx - RADIUS_F : playWidth - mFx + RADIUS_F;
+
+		long remains = (total - wallDist) % playWidth;
+
+		long bounces = total / playWidth;
+
+		boolean left = (bounces % 2 == 0) ? !goingLeft() : goingLeft();
+
+		if(bounces == 0) {
+			return FixedMath.toInt(mFx + Long.signum(mFvx) * total);
+		}
+		else if(left) {
+			return FixedMath.toInt(RADIUS_F + remains);
+		}
+		else {
+			return FixedMath.toInt(RADIUS_F + playWidth - remains);
+		}
+	}
+
+	@Override
+	public long aiSeed(int cpuY, int salt) {
+		return cpuY + FixedMath.toInt((long) mFvx + mFvy) + salt;
+	}
+
+	protected int boundBam(int angle, boolean top) {
+		if(top) {
+			return Math.max(HALF + BOUND_BAM, Math.min(TURN - BOUND_BAM, angle));
+		}
+
+		return Math.max(BOUND_BAM, Math.min(HALF - BOUND_BAM, angle));
+	}
+
+	protected int keepFixedX(int fx) {
+		return Math.max(RADIUS_F, Math.min(fx, FixedMath.toFixed(mWidth - RADIUS)));
+	}
+
+	public static final int RADIUS_F = RADIUS << SHIFT;
+
+	/** Ball.BOUND and Ball.SALT in binary angle units */
+	public static final int BOUND_BAM = 228;
+	public static final int SALT_BAM = 910;
+
+	/** The flattest directions allowed */
+	private static final int[] EDGES = { BOUND_BAM, HALF - BOUND_BAM, HALF + BOUND_BAM, TURN - BOUND_BAM };
+
+	/**
+	 * Widest a snapped direction may be from a surface's normal. Short of a
+	 * right angle, so that a rounded hit test cannot call the ball leaving
+	 * still heading in, and wider than the 70 degrees at least one edge is
+	 * always within.
+	 */
+	private static final int LEAVING = QUARTER - QUARTER / 8;
+}
@@ -0,0 +1,107 @@
+package org.oep.pong;
+
+/**
+ * Integer math helpers for the fixed-point physics mode. Lengths are Q16.16
+ * and angles are binary angle units where {@link #TURN} is a full circle.
+ * The sine table is built with StrictMath so it comes out the same on every
+ * device and JVM.
+ * @author OEP
+ *
+ */
+public final class FixedMath {
+	/** Number of fractional bits in a fixed-point length */
+	public static final int SHIFT = 16;
+	public static final int ONE = 1 << SHIFT;
+
+	/** Binary angle units */
+	public static final int
+		TURN = 1 << 12,
+		HALF = TURN / 2,
+		QUARTER = TURN / 4;
+
+	/** One quarter wave of sine, scaled by ONE */
+	private static final int[] SIN = new int[QUARTER + 1];
+
+	static {
+		for(int i = 0; i <= QUARTER; i++) {
+			SIN[i] = (int) Math.round(StrictMath.sin(i * StrictMath.PI / HALF) * ONE);
+		}
+	}
+
+	private FixedMath() { }
+
+	/**
+	 * @param a, an angle in binary angle units
+	 * @return the sine of a, scaled by ONE
+	 */
+	public static int sin(int a) {
+		a &= TURN - 1;
+		if(a < QUARTER) return SIN[a];
+		if(a < HALF) return SIN[HALF - a];
+		if(a < HALF + QUARTER) return -SIN[a - HALF];
+		return -SIN[TURN - a];
+	}
+
+	public static int cos(int a) {
+		return sin(a + QUARTER);
+	}
+
+	/**
+	 * Multiplies two fixed-point numbers.
+	 */
+	public static int mul(int a, int b) {
+		return (int) (((long) a * b) >> SHIFT);
+	}
+
+	public static int toFixed(int i) {
+		return i << SHIFT;
+	}
+
+	/**
+	 * Converts to whole pixels, truncating toward zero like a float cast would.
+	 */
+	public static int toInt(long f) {
+		return (int) (f / ONE);
+	}
+
+	/**
+	 * @return the largest integer whose square is at most <code>v</code>,
+	 * for <code>v</code> from 0 to 2^62. The double square root is only a
+	 * guess, corrected to the exact answer, so the result does not depend
+	 * on how the device rounds.
+	 */
+	public static long sqrt(long v) {
+		long root = (long) Math.sqrt((double) v);
+		while(root * root > v) root--;
+		while((root + 1) * (root + 1) <= v) root++;
+		return root;
+	}
+
+	/**
+	 * @return the direction of <code>(x, y)</code> in binary angle units,
+	 * from 0 to TURN - 1. The lengths may be in any unit but must stay
+	 * under 2^40 so the comparisons cannot overflow.
+	 */
+	public static int atan2(long y, long x) {
+		long ax = Math.abs(x), ay = Math.abs(y);
+
+		// Largest angle in the first quadrant whose tangent is at most ay / ax
+		int low = 0, high = QUARTER;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if((long) SIN[mid] * ax <= (long) SIN[QUARTER - mid] * ay) low = mid;
+			else high = mid - 1;
+		}
+
+		if(x >= 0) return (y >= 0) ? low : (TURN - low) & (TURN - 1);
+		return (y >= 0) ? HALF - low : HALF + low;
+	}
+
+	public static int fromRadians(double radians) {
+		return (int) Math.round(radians * HALF / Math.PI);
+	}
+
+	public static double toRadians(int a) {
+		return a * Math.PI / HALF;
+	}
+}
@@ -1,5 +1,13 @@
 package org.oep.pong;
 
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
@@ -7,21 +15,40 @@ import android.content.Intent;
 import android.media.AudioManager;
 import android.os.Bundle;
 import android.os.PowerManager;
+import android.util.Log;
 import android.view.Window;
 import android.view.WindowManager;
 
 public class GameActivity extends Activity {
+	/** Debug tag */
+	private static final String TAG = "GameActivity";
+	
 	private PongView mPongView;
 	private AlertDialog mAboutBox;
 	protected PowerManager.WakeLock mWakeLock;
 	
 	public static final String
 		EXTRA_RED_PLAYER = "red-is-player",
-		EXTRA_BLUE_PLAYER = "blue-is-player";
+		EXTRA_BLUE_PLAYER = "blue-is-player",
+		EXTRA_NET_MODE = "net-mode",
+		EXTRA_NET_ADDRESS = "net-address";
+	
+	/** Where the match is kept across rotation and process death */
+	private static final String
+		STATE_SNAPSHOT = "snapshot",
+		SNAPSHOT_FILE = "match.snapshot";
+	
+	/**
+	 * Reads and writes the snapshot file away from the UI thread, one at a
+	 * time, so a write from an activity going away lands before the read of
+	 * the one taking its place.
+	 */
+	private static final ExecutorService sFiles = Executors.newSingleThreadExecutor();
 	
     @Override
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        SystemTracer.installIfEnabled();
         
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         
@@ -36,6 +63,28 @@ public class GameActivity extends Activity {
         mPongView.setPlayerControl(b.getBoolean(EXTRA_RED_PLAYER, false),
         	b.getBoolean(EXTRA_BLUE_PLAYER, false)
         );
+        mPongView.setNetwork(b.getInt(EXTRA_NET_MODE, PongView.NET_NONE),
+        	b.getString(EXTRA_NET_ADDRESS)
+        );
+        
+        // A Bundle is this very match coming back; the file is whatever was
+        // left when the process was killed, so only resume it for the same players.
+        if(icicle != null && icicle.getByteArray(STATE_SNAPSHOT) != null) {
+        	mPongView.restoreSnapshot(icicle.getByteArray(STATE_SNAPSHOT), false);
+        }
+        else {
+        	mPongView.awaitSnapshot();
+        	sFiles.execute(new Runnable() {
+        		public void run() {
+        			final byte[] snapshot = readSnapshotFile();
+        			runOnUiThread(new Runnable() {
+        				public void run() {
+        					mPongView.restoreSnapshot(snapshot, true);
+        				}
+        			});
+        		}
+        	});
+        }
         mPongView.update();
         
         this.setVolumeControlStream(AudioManager.STREAM_MUSIC);
@@ -45,6 +94,74 @@ public class GameActivity extends Activity {
         mWakeLock.acquire();
     }
     
+    @Override
+    protected void onSaveInstanceState(Bundle out) {
+    	super.onSaveInstanceState(out);
+    	byte[] snapshot = mPongView.saveSnapshot();
+    	if(snapshot != null) out.putByteArray(STATE_SNAPSHOT, snapshot);
+    }
+    
+    @Override
+    protected void onPause() {
+    	super.onPause();
+    	// Leaving the match on purpose abandons it; the file is only for a
+    	// process killed while it was in the background
+    	final byte[] snapshot = (isFinishing()) ? null : mPongView.saveSnapshot();
+    	final boolean keep = snapshot != null && mPongView.matchUnfinished();
+    	sFiles.execute(new Runnable() {
+    		public void run() {
+    			if(keep) writeSnapshotFile(snapshot);
+    			else deleteFile(SNAPSHOT_FILE);
+    		}
+    	});
+    	MatchHistory.get(this).flush();
+    }
+    
+    private byte[] readSnapshotFile() {
+    	byte[] data = new byte[GameSnapshot.SIZE];
+    	FileInputStream in = null;
+    	try {
+    		in = openFileInput(SNAPSHOT_FILE);
+    		int n = 0, r;
+    		while(n < data.length && (r = in.read(data, n, data.length - n)) > 0) n += r;
+    		return (n == data.length) ? data : null;
+    	}
+    	catch(FileNotFoundException e) {
+    		return null;
+    	}
+    	catch(IOException e) {
+    		Log.w(TAG, "Could not read the saved match", e);
+    		return null;
+    	}
+    	finally {
+    		close(in);
+    	}
+    }
+    
+    private void writeSnapshotFile(byte[] snapshot) {
+    	FileOutputStream out = null;
+    	try {
+    		out = openFileOutput(SNAPSHOT_FILE, MODE_PRIVATE);
+    		out.write(snapshot);
+    	}
+    	catch(IOException e) {
+    		Log.w(TAG, "Could not save the match", e);
+    	}
+    	finally {
+    		close(out);
+    	}
+    }
+    
+    private static void close(Closeable c) {
+    	if(c == null) return;
+    	try {
+    		c.close();
+    	}
+    	catch(IOException e) {
+    		// Nothing left to do with it anyway
+    	}
+    }
+    
     protected void onStop() {
     	super.onStop();
 		mPongView.stop();
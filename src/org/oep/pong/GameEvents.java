@@ -0,0 +1,193 @@
+package org.oep.pong;
+
+/**
+ * A ring of the things that happen during a step: serves, paddle, wall and
+ * obstacle hits, power-ups picked up, misses and wins. Each event is a
+ * tick, a kind, an actor and where and how fast the ball was, kept in
+ * parallel primitive arrays so that publishing one is a handful of stores
+ * and never allocates.
+ *
+ * Events are numbered by a sequence that only grows. Consumers registered
+ * with addConsumer() are handed each new event once the step is over; any
+ * other code can also walk the ring itself, from oldest() to written().
+ * @author OEP
+ *
+ */
+public final class GameEvents {
+	/** Kinds of event */
+	public static final int
+		KIND_SERVE = 0,
+		KIND_PADDLE = 1,
+		KIND_WALL = 2,
+		KIND_MISS = 3,
+		KIND_WIN = 4,
+		KIND_OBSTACLE = 5,
+		KIND_POWERUP = 6;
+
+	/**
+	 * Who caused it. A miss is the paddle that missed, a win the one that
+	 * won, a power-up the one that gets it.
+	 */
+	public static final int
+		ACTOR_NONE = 0,
+		ACTOR_RED = 1,
+		ACTOR_BLUE = 2,
+		ACTOR_GRAY = 3;
+
+	/**
+	 * Reads events after a step.
+	 */
+	public interface Consumer {
+		/**
+		 * @param events, the ring, to be read with the accessors
+		 * @param seq, the event's sequence number
+		 */
+		public void onEvent(GameEvents events, long seq);
+	}
+
+	private final int mMask;
+	private final int[] mTick, mKind, mActor;
+	private final float[] mX, mY, mSpeed;
+
+	/** Events published so far, and how many of those have been handed out */
+	private long mWritten = 0, mDispatched = 0;
+
+	private Consumer[] mConsumers = new Consumer[0];
+
+	/** While false, events are still recorded but skipped by dispatch() */
+	private boolean mDispatching = true;
+
+	/**
+	 * @param capacity, rounded up to a power of two
+	 */
+	public GameEvents(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mMask = size - 1;
+		mTick = new int[size];
+		mKind = new int[size];
+		mActor = new int[size];
+		mX = new float[size];
+		mY = new float[size];
+		mSpeed = new float[size];
+	}
+
+	public void publish(int tick, int kind, int actor, float x, float y, float speed) {
+		int i = (int) mWritten & mMask;
+		mTick[i] = tick;
+		mKind[i] = kind;
+		mActor[i] = actor;
+		mX[i] = x;
+		mY[i] = y;
+		mSpeed[i] = speed;
+		mWritten++;
+	}
+
+	/**
+	 * Hands every event published since the last call to each consumer, in
+	 * the order they were added. Events that were overwritten before this
+	 * was called are lost.
+	 */
+	public void dispatch() {
+		if(!mDispatching) {
+			mDispatched = mWritten;
+			return;
+		}
+
+		long seq = Math.max(mDispatched, oldest());
+		Consumer[] consumers = mConsumers;
+		for(; seq < mWritten; seq++) {
+			for(int c = 0; c < consumers.length; c++) {
+				consumers[c].onEvent(this, seq);
+			}
+		}
+		mDispatched = mWritten;
+	}
+
+	/**
+	 * Drops every event from <code>tick</code> on, for a game that was put
+	 * back to an earlier state.
+	 */
+	public void rewind(int tick) {
+		long oldest = oldest();
+		while(mWritten > oldest && mTick[(int) (mWritten - 1) & mMask] >= tick) {
+			mWritten--;
+		}
+		mDispatched = Math.min(mDispatched, mWritten);
+	}
+
+	/**
+	 * @param d, false to record events without handing them to consumers,
+	 * for instance while a rollback replays ticks that were already seen
+	 */
+	public void setDispatching(boolean d) {
+		mDispatching = d;
+	}
+
+	public boolean isDispatching() {
+		return mDispatching;
+	}
+
+	/**
+	 * Registers a consumer. This copies the list, so do it outside the game loop.
+	 */
+	public void addConsumer(Consumer c) {
+		Consumer[] next = new Consumer[mConsumers.length + 1];
+		System.arraycopy(mConsumers, 0, next, 0, mConsumers.length);
+		next[mConsumers.length] = c;
+		mConsumers = next;
+	}
+
+	public void removeConsumer(Consumer c) {
+		for(int i = 0; i < mConsumers.length; i++) {
+			if(mConsumers[i] != c) continue;
+
+			Consumer[] next = new Consumer[mConsumers.length - 1];
+			System.arraycopy(mConsumers, 0, next, 0, i);
+			System.arraycopy(mConsumers, i + 1, next, i, next.length - i);
+			mConsumers = next;
+			return;
+		}
+	}
+
+	/**
+	 * @return the sequence number the next event will get
+	 */
+	public long written() {
+		return mWritten;
+	}
+
+	/**
+	 * @return the sequence number of the oldest event still in the ring
+	 */
+	public long oldest() {
+		return Math.max(0, mWritten - mMask - 1);
+	}
+
+	public int capacity() {
+		return mMask + 1;
+	}
+
+	public int tick(long seq) {
+		return mTick[(int) seq & mMask];
+	}
+
+	public int kind(long seq) {
+		return mKind[(int) seq & mMask];
+	}
+
+	public int actor(long seq) {
+		return mActor[(int) seq & mMask];
+	}
+
+	public float x(long seq) {
+		return mX[(int) seq & mMask];
+	}
+
+	public float y(long seq) {
+		return mY[(int) seq & mMask];
+	}
+
+	public float speed(long seq) {
+		return mSpeed[(int) seq & mMask];
+	}
+}
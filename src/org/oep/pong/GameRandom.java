@@ -0,0 +1,54 @@
+package org.oep.pong;
+
+import java.util.Random;
+
+/**
+ * The same linear congruential generator as java.util.Random, but with its
+ * state exposed so the game can be saved and rolled back. nextGaussian()
+ * does not cache its second value, so the state really is just one long.
+ * @author OEP
+ *
+ */
+public class GameRandom extends Random {
+	private static final long serialVersionUID = 1L;
+
+	private long mState;
+
+	public GameRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		mState = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	@Override
+	protected int next(int bits) {
+		mState = (mState * MULTIPLIER + ADDEND) & MASK;
+		return (int) (mState >>> (48 - bits));
+	}
+
+	@Override
+	public double nextGaussian() {
+		double v1, v2, s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while(s >= 1 || s == 0);
+		return v1 * StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+	}
+
+	public long getState() {
+		return mState;
+	}
+
+	public void setState(long state) {
+		mState = state & MASK;
+	}
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+}
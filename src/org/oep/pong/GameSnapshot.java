@@ -0,0 +1,103 @@
+package org.oep.pong;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compact, versioned binary copy of a whole match: the settings needed to
+ * rebuild the {@link PongGame} followed by everything saveState() writes.
+ * It is small enough to go in a saved-instance Bundle and fast enough to
+ * write on every pause.
+ *
+ * <pre>
+ * magic:2 version:1 flags:1 fixed:1 width:2 height:2 seed:8
+ * speed:1 lives:1 strategy:1 handicap:1 count:2 then count ints of state
+ * </pre>
+ * @author OEP
+ *
+ */
+public final class GameSnapshot {
+	private GameSnapshot() { }
+
+	/**
+	 * Writes the game into a new array.
+	 * @param flags, any of FLAG_*
+	 */
+	public static byte[] write(PongGame game, int flags) {
+		int[] state = new int[PongGame.STATE_SIZE];
+		game.saveState(state);
+
+		ByteBuffer b = ByteBuffer.allocate(SIZE);
+		b.putShort(MAGIC);
+		b.put(VERSION);
+		b.put((byte) flags);
+		b.put((byte) ((game.isFixed()) ? 1 : 0));
+		b.putShort((short) game.getWidth());
+		b.putShort((short) game.getHeight());
+		b.putLong(game.getSeed());
+		b.put((byte) game.getBallSpeedModifier());
+		b.put((byte) game.getLivesModifier());
+		b.put((byte) game.getAiStrategy());
+		b.put((byte) game.getCpuHandicap());
+		b.putShort((short) state.length);
+		b.asIntBuffer().put(state);
+		return b.array();
+	}
+
+	/**
+	 * Rebuilds a game from what write() produced.
+	 * @return the game, or null if the data is from another version or damaged
+	 */
+	public static PongGame read(byte[] data) {
+		if(data == null || data.length != SIZE) return null;
+
+		ByteBuffer b = ByteBuffer.wrap(data);
+		if(b.getShort() != MAGIC || b.get() != VERSION) return null;
+		b.get();
+
+		boolean fixed = b.get() != 0;
+		int width = b.getShort() & 0xffff;
+		int height = b.getShort() & 0xffff;
+		long seed = b.getLong();
+
+		PongGame game = new PongGame(width, height, fixed, seed);
+		game.setBallSpeedModifier(b.get());
+		game.setLivesModifier(b.get());
+		game.setAiStrategy(b.get());
+		game.setCpuHandicap(b.get());
+		if(b.getShort() != PongGame.STATE_SIZE) return null;
+
+		int[] state = new int[PongGame.STATE_SIZE];
+		b.asIntBuffer().get(state);
+		game.initializePaddles(false, false);
+		game.loadState(state);
+		return game;
+	}
+
+	/**
+	 * @return the flags passed to write(), or 0 if the data is not a snapshot
+	 */
+	public static int flags(byte[] data) {
+		if(data == null || data.length != SIZE) return 0;
+		ByteBuffer b = ByteBuffer.wrap(data);
+		if(b.getShort() != MAGIC || b.get() != VERSION) return 0;
+		return b.get();
+	}
+
+	/** The match was paused when it was saved */
+	public static final int FLAG_PAUSED = 1;
+
+	private static final short MAGIC = 0x5047;
+	/**
+	 * 2: the float ball saves its direction vector instead of an angle.
+	 * 3: the obstacle-bounce run counter. 4: the ball's slow flag, when each
+	 * timer on the wheel is due, the pickup, the last hitter and the
+	 * multiball's extra balls. 5: the match stats, so the summary at the end
+	 * covers all of it.
+	 */
+	private static final byte VERSION = 5;
+
+	private static final int HEADER = 2 + 1 + 1 + 1 + 2 + 2 + 8 + 4 + 2;
+
+	/** Bytes written by write() */
+	public static final int SIZE = HEADER + 4 * PongGame.STATE_SIZE;
+}
@@ -0,0 +1,52 @@
+package org.oep.pong;
+
+/**
+ * Named trace sections around the expensive parts of a tick. The game
+ * brackets its work with begin() and end(), and whoever installed a
+ * {@link Tracer} decides where the sections go: android.os.Trace on a
+ * device, a {@link ChromeTrace} when running headless.
+ *
+ * Every call site is guarded by ENABLED, a compile-time constant, so with
+ * it false the calls and the section names are compiled out entirely.
+ * Flip it to profile.
+ * @author OEP
+ *
+ */
+public final class GameTrace {
+	private GameTrace() { }
+
+	/** Set to true and rebuild to trace */
+	public static final boolean ENABLED = false;
+
+	/**
+	 * Receives the sections. Sections nest and are ended in reverse order,
+	 * on the thread that began them.
+	 */
+	public interface Tracer {
+		public void begin(String name);
+		public void end();
+	}
+
+	private static volatile Tracer sTracer;
+
+	/**
+	 * @param t, where sections go from now on, or null to drop them
+	 */
+	public static void install(Tracer t) {
+		sTracer = t;
+	}
+
+	public static Tracer installed() {
+		return sTracer;
+	}
+
+	public static void begin(String name) {
+		Tracer t = sTracer;
+		if(t != null) t.begin(name);
+	}
+
+	public static void end() {
+		Tracer t = sTracer;
+		if(t != null) t.end();
+	}
+}
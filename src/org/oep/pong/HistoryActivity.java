@@ -0,0 +1,156 @@
+package org.oep.pong;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.HashSet;
+
+import android.app.ListActivity;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Lists finished matches, newest first, under the win rate against each AI
+ * strategy and the player's records. Rows come from {@link MatchHistory}
+ * a page at a time; a page that is not cached shows a placeholder until a
+ * background read fills it in.
+ * @author OEP
+ *
+ */
+public class HistoryActivity extends ListActivity {
+	private MatchHistory mHistory;
+	private MatchAdapter mAdapter;
+	private String[] mStrategies;
+	private DateFormat mDateFormat;
+
+	/** Matches stored, as of the last summary */
+	private int mCount = 0;
+
+	/** Pages being read right now */
+	private final HashSet<Integer> mLoading = new HashSet<Integer>();
+
+	@Override
+	protected void onCreate(Bundle icicle) {
+		super.onCreate(icicle);
+		setContentView(R.layout.act_history);
+
+		mHistory = MatchHistory.get(this);
+		mStrategies = getResources().getStringArray(R.array.labels_ai_strategies);
+		mDateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+		mAdapter = new MatchAdapter(this);
+		setListAdapter(mAdapter);
+
+		MatchHistory.Summary cached = mHistory.getCachedSummary();
+		if(cached != null) showSummary(cached);
+		new SummaryTask().execute();
+	}
+
+	private void showSummary(MatchHistory.Summary s) {
+		mCount = s.matches;
+
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < mStrategies.length && i < s.played.length; i++) {
+			if(s.played[i] == 0) continue;
+			text.append(getString(R.string.history_win_rate, mStrategies[i],
+					100 * s.won[i] / s.played[i], s.played[i])).append('\n');
+		}
+		text.append(getString(R.string.history_bests, s.longestRally,
+				(float) s.longestTicks / PongGame.FPS, s.topSpeed));
+
+		((TextView) findViewById(R.id.history_summary)).setText(text);
+		mAdapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * Starts reading a page unless that is already happening.
+	 */
+	private void requestPage(int page) {
+		if(!mLoading.add(page)) return;
+		new PageTask().execute(page);
+	}
+
+	private String describe(MatchRecord r) {
+		int winner = (r.winner == GameEvents.ACTOR_RED) ? R.string.history_red
+				: (r.winner == GameEvents.ACTOR_BLUE) ? R.string.history_blue
+				: R.string.history_nobody;
+		String strategy = (r.strategy >= 0 && r.strategy < mStrategies.length) ? mStrategies[r.strategy] : "";
+		return getString(R.string.history_row, mDateFormat.format(new Date(r.time)), getString(winner),
+				strategy, r.longestRally, (float) r.ticks / PongGame.FPS);
+	}
+
+	private class SummaryTask extends AsyncTask<Void, Void, MatchHistory.Summary> {
+		@Override
+		protected MatchHistory.Summary doInBackground(Void... params) {
+			return mHistory.readSummary(mStrategies.length);
+		}
+
+		@Override
+		protected void onPostExecute(MatchHistory.Summary s) {
+			showSummary(s);
+		}
+	}
+
+	private class PageTask extends AsyncTask<Integer, Void, Integer> {
+		@Override
+		protected Integer doInBackground(Integer... page) {
+			mHistory.readPage(page[0]);
+			return page[0];
+		}
+
+		@Override
+		protected void onPostExecute(Integer page) {
+			mLoading.remove(page);
+			mAdapter.notifyDataSetChanged();
+		}
+	}
+
+	private class MatchAdapter extends BaseAdapter {
+		private final Context mContext;
+
+		public MatchAdapter(Context context) {
+			mContext = context;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+
+		/**
+		 * @return the match, or null while its page is being read
+		 */
+		public Object getItem(int position) {
+			MatchRecord[] page = mHistory.getCachedPage(position / MatchHistory.PAGE_SIZE);
+			int i = position % MatchHistory.PAGE_SIZE;
+			return (page != null && i < page.length) ? page[i] : null;
+		}
+
+		public long getItemId(int position) {
+			return position;
+		}
+
+		public View getView(int position, View convertView, ViewGroup parent) {
+			TextView view = (convertView instanceof TextView) ? (TextView) convertView : new TextView(mContext);
+			MatchRecord r = (MatchRecord) getItem(position);
+
+			if(r == null) {
+				view.setText(R.string.history_loading);
+				requestPage(position / MatchHistory.PAGE_SIZE);
+			}
+			else {
+				view.setText(describe(r));
+
+				// Read ahead so scrolling down does not hit a placeholder
+				if(position % MatchHistory.PAGE_SIZE == MatchHistory.PAGE_SIZE / 2
+						&& position + MatchHistory.PAGE_SIZE / 2 < mCount
+						&& mHistory.getCachedPage(position / MatchHistory.PAGE_SIZE + 1) == null) {
+					requestPage(position / MatchHistory.PAGE_SIZE + 1);
+				}
+			}
+			return view;
+		}
+	}
+}
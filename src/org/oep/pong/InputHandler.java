@@ -1,23 +1,60 @@
 package org.oep.pong;
 
 import android.os.Build;
+import android.view.InputDevice;
 import android.view.MotionEvent;
 
 public abstract class InputHandler {
 	
 	public static InputHandler getInstance() {
-		if(Integer.parseInt(Build.VERSION.SDK) < 5) {
+		int sdk = Integer.parseInt(Build.VERSION.SDK);
+		if(sdk < 5) {
 			return SingleInput.Holder.sInstance;
 		}
-		else {
+		else if(sdk < 12) {
 			return MultiInput.Holder.sInstance;
 		}
+		else {
+			return AxisInput.Holder.sInstance;
+		}
 	}
 	
 	public abstract int getTouchCount(MotionEvent e);
 	public abstract float getX(MotionEvent e, int i);
 	public abstract float getY(MotionEvent e, int i);
 	
+	/** The id a pointer keeps from going down to coming up */
+	public abstract int getPointerId(MotionEvent e, int i);
+	
+	/** The action without the pointer index, as ACTION_POINTER_DOWN */
+	public abstract int getActionMasked(MotionEvent e);
+	
+	/** Index of the pointer that went down or up */
+	public abstract int getActionIndex(MotionEvent e);
+	
+	/**
+	 * Reads a joystick event's horizontal stick and hat into
+	 * out[InputState.AXIS_STICK] and out[InputState.AXIS_HAT].
+	 * @return false if this is not a joystick event or axes are not supported
+	 */
+	public boolean getAxes(MotionEvent e, float[] out) {
+		return false;
+	}
+	
+	private static class AxisInput extends MultiInput {
+		private static class Holder {
+			private static final AxisInput sInstance = new AxisInput();
+		}
+
+		@Override
+		public boolean getAxes(MotionEvent e, float[] out) {
+			if((e.getSource() & InputDevice.SOURCE_CLASS_JOYSTICK) == 0) return false;
+			out[InputState.AXIS_STICK] = e.getAxisValue(MotionEvent.AXIS_X);
+			out[InputState.AXIS_HAT] = e.getAxisValue(MotionEvent.AXIS_HAT_X);
+			return true;
+		}
+	}
+	
 	private static class MultiInput extends InputHandler {
 		private static class Holder {
 			private static final MultiInput sInstance = new MultiInput();
@@ -37,6 +74,22 @@ public abstract class InputHandler {
 		public float getY(MotionEvent e, int i) {
 			return e.getY(i);
 		}
+
+		@Override
+		public int getPointerId(MotionEvent e, int i) {
+			return e.getPointerId(i);
+		}
+
+		// getActionMasked() and getActionIndex() came later than multitouch
+		@Override
+		public int getActionMasked(MotionEvent e) {
+			return e.getAction() & MotionEvent.ACTION_MASK;
+		}
+
+		@Override
+		public int getActionIndex(MotionEvent e) {
+			return (e.getAction() & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+		}
 	}
 	
 	private static class SingleInput extends InputHandler {
@@ -58,5 +111,20 @@ public abstract class InputHandler {
 		public float getY(MotionEvent e, int i) {
 			return e.getY();
 		}
+
+		@Override
+		public int getPointerId(MotionEvent e, int i) {
+			return 0;
+		}
+
+		@Override
+		public int getActionMasked(MotionEvent e) {
+			return e.getAction();
+		}
+
+		@Override
+		public int getActionIndex(MotionEvent e) {
+			return 0;
+		}
 	}
 }
@@ -0,0 +1,263 @@
+package org.oep.pong;
+
+/**
+ * What the keyboards, D-pads, trackballs and gamepads are doing, kept as a
+ * small table of primitives with a row per device. Events only write into
+ * the table: a key sets or clears a bit, a stick or hat stores its latest
+ * value, a trackball adds to what it has rolled. The game polls the table
+ * once a tick, which is when deadzones and acceleration curves are applied
+ * and each device's movement is added to the paddle it is bound to. However
+ * many events a controller floods us with, a tick costs the same.
+ *
+ * Events and polls both come on the UI thread, so nothing is locked. Has
+ * no Android dependencies; {@link PongView} turns key codes and axes into
+ * the BUTTON_* and AXIS_* used here.
+ * @author OEP
+ *
+ */
+public final class InputState {
+	/** Paddles a device can be bound to */
+	public static final int
+		SIDE_RED = 0,
+		SIDE_BLUE = 1,
+		SIDES = 2;
+
+	/** Buttons, as bits of a device's held mask */
+	public static final int
+		BUTTON_LEFT = 1,
+		BUTTON_RIGHT = 2;
+
+	/** Analog axes. A hat is a D-pad that reports through an axis. */
+	public static final int
+		AXIS_STICK = 0,
+		AXIS_HAT = 1,
+		AXES = 2;
+
+	/** Device ids, then a row of state and settings per device */
+	private final int[] mIds = new int[DEVICES];
+	private final int[] mSide = new int[DEVICES];
+	private final int[] mHeld = new int[DEVICES];
+	private final int[] mHeldTicks = new int[DEVICES];
+	private final float[] mAxes = new float[DEVICES * AXES];
+	private final float[] mRolled = new float[DEVICES];
+	private final float[] mDeadzone = new float[DEVICES];
+	private final float[] mCurve = new float[DEVICES];
+	private int mDevices = 0;
+
+	/** Settings for devices seen from now on */
+	private int mDefaultSide = SIDE_BLUE;
+	private float mDefaultDeadzone = DEADZONE, mDefaultCurve = CURVE;
+
+	/** What the last poll() added up, by side */
+	private final float[] mMoved = new float[SIDES];
+	private final boolean[] mActive = new boolean[SIDES];
+
+	/** Events recorded, for tools */
+	private long mEvents = 0;
+
+	public void keyDown(int device, int button) {
+		int d = device(device);
+		if(d < 0) return;
+		mHeld[d] |= button;
+		mEvents++;
+	}
+
+	public void keyUp(int device, int button) {
+		int d = device(device);
+		if(d < 0) return;
+		mHeld[d] &= ~button;
+		mEvents++;
+	}
+
+	/**
+	 * @param value, from -1 for full left to 1 for full right
+	 */
+	public void axis(int device, int axis, float value) {
+		int d = device(device);
+		if(d < 0) return;
+		mAxes[d * AXES + axis] = value;
+		mEvents++;
+	}
+
+	/**
+	 * @param dx, how far a trackball rolled, in its own units
+	 */
+	public void roll(int device, float dx) {
+		int d = device(device);
+		if(d < 0) return;
+		mRolled[d] += dx;
+		mEvents++;
+	}
+
+	/**
+	 * Binds a device to a paddle. Devices not bound are given the default
+	 * side the first time they are heard from.
+	 * @param side, SIDE_RED or SIDE_BLUE
+	 */
+	public void bind(int device, int side) {
+		int d = device(device);
+		if(d >= 0) mSide[d] = side;
+	}
+
+	/**
+	 * Moves a device over to the other paddle.
+	 */
+	public void swap(int device) {
+		int d = device(device);
+		if(d >= 0) mSide[d] = (mSide[d] == SIDE_RED) ? SIDE_BLUE : SIDE_RED;
+	}
+
+	/**
+	 * @return the side a device is bound to, or -1 if it has not been heard from
+	 */
+	public int sideOf(int device) {
+		for(int d = 0; d < mDevices; d++) {
+			if(mIds[d] == device) return mSide[d];
+		}
+		return -1;
+	}
+
+	/**
+	 * @param deadzone, how far a stick may drift from center and still
+	 * count as centered, from 0 to 1
+	 * @param curve, the power the stick's travel past the deadzone is
+	 * raised to. 1 is linear; higher gives finer control near center.
+	 */
+	public void configure(int device, float deadzone, float curve) {
+		int d = device(device);
+		if(d < 0) return;
+		mDeadzone[d] = bound(deadzone, 0, MAX_DEADZONE);
+		mCurve[d] = Math.max(1, curve);
+	}
+
+	/**
+	 * Settings for devices that have not been heard from yet.
+	 */
+	public void setDefaults(int side, float deadzone, float curve) {
+		mDefaultSide = side;
+		mDefaultDeadzone = bound(deadzone, 0, MAX_DEADZONE);
+		mDefaultCurve = Math.max(1, curve);
+	}
+
+	/**
+	 * Works out how far each paddle should move this tick from everything
+	 * recorded since the last poll. Call once a tick, then read moved() and
+	 * active().
+	 */
+	public void poll() {
+		for(int s = 0; s < SIDES; s++) {
+			mMoved[s] = 0;
+			mActive[s] = false;
+		}
+
+		for(int d = 0; d < mDevices; d++) {
+			float move = 0;
+			boolean active = false;
+
+			// Keys and hats speed up the longer they are held
+			int dir = 0;
+			if((mHeld[d] & BUTTON_LEFT) != 0) dir--;
+			if((mHeld[d] & BUTTON_RIGHT) != 0) dir++;
+			float hat = mAxes[d * AXES + AXIS_HAT];
+			if(dir == 0 && Math.abs(hat) >= 0.5f) dir = (hat > 0) ? 1 : -1;
+			if(dir != 0) {
+				mHeldTicks[d]++;
+				move += dir * Math.min(KEY_MAX, KEY_START + KEY_ACCEL * (mHeldTicks[d] - 1));
+				active = true;
+			}
+			else {
+				mHeldTicks[d] = 0;
+			}
+
+			// Sticks steer by speed, past the deadzone and along the curve
+			float stick = mAxes[d * AXES + AXIS_STICK];
+			float travel = (Math.abs(stick) - mDeadzone[d]) / (1 - mDeadzone[d]);
+			if(travel > 0) {
+				travel = (float) Math.pow(Math.min(1, travel), mCurve[d]);
+				move += Math.signum(stick) * travel * STICK_MAX;
+				active = true;
+			}
+
+			if(mRolled[d] != 0) {
+				move += mRolled[d] * ROLL_SENSITIVITY;
+				mRolled[d] = 0;
+				active = true;
+			}
+
+			mMoved[mSide[d]] += move;
+			mActive[mSide[d]] |= active;
+		}
+	}
+
+	/**
+	 * @return world units the side's paddle should move this tick
+	 */
+	public int moved(int side) {
+		return Math.round(mMoved[side]);
+	}
+
+	/**
+	 * @return true if a device bound to the side was used this tick
+	 */
+	public boolean active(int side) {
+		return mActive[side];
+	}
+
+	/** Events recorded so far */
+	public long events() {
+		return mEvents;
+	}
+
+	/**
+	 * Forgets what every device was holding, as when the view loses focus
+	 * and will not hear the keys come up. Bindings and settings stay.
+	 */
+	public void release() {
+		for(int d = 0; d < mDevices; d++) {
+			mHeld[d] = 0;
+			mHeldTicks[d] = 0;
+			mRolled[d] = 0;
+			for(int a = 0; a < AXES; a++) mAxes[d * AXES + a] = 0;
+		}
+	}
+
+	/**
+	 * @return a device's row, added with the defaults if it is new, or -1
+	 * if the table is full
+	 */
+	private int device(int id) {
+		for(int d = 0; d < mDevices; d++) {
+			if(mIds[d] == id) return d;
+		}
+		if(mDevices == DEVICES) return -1;
+
+		int d = mDevices++;
+		mIds[d] = id;
+		mSide[d] = mDefaultSide;
+		mDeadzone[d] = mDefaultDeadzone;
+		mCurve[d] = mDefaultCurve;
+		return d;
+	}
+
+	private static float bound(float x, float low, float hi) {
+		return Math.max(low, Math.min(x, hi));
+	}
+
+	/** Most devices remembered at once */
+	public static final int DEVICES = 8;
+
+	/** Default stick deadzone and curve */
+	public static final float DEADZONE = 0.15f, CURVE = 2;
+
+	/** Largest deadzone allowed, so the stick keeps some travel */
+	public static final float MAX_DEADZONE = 0.9f;
+
+	/** World units per tick a key moves a paddle on its first tick, how much that grows each tick, and the most */
+	public static final float KEY_START = 4, KEY_ACCEL = 2, KEY_MAX = 24;
+
+	/** World units per tick at full stick */
+	public static final float STICK_MAX = 24;
+
+	/** World units per unit a trackball rolls */
+	public static final float ROLL_SENSITIVITY = 100;
+}
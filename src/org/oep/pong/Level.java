@@ -0,0 +1,155 @@
+package org.oep.pong;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * The obstacles a match is played around, read from a small text file and
+ * put in an {@link ObstacleTree} once, when the level is loaded. Levels are
+ * in world units. One obstacle per line, and # starts a comment:
+ *
+ * <pre>
+ * name Pillars
+ * rect left top right bottom
+ * circle cx cy radius
+ * bar width height legTicks x0 y0 x1 y1 ...
+ * </pre>
+ *
+ * A bar's center goes from each point to the next in legTicks ticks, and
+ * from the last back to the first.
+ * @author OEP
+ *
+ */
+public class Level {
+	private final String mName;
+	private final Obstacle[] mObstacles;
+	private final ObstacleTree mTree;
+
+	/** Indices of the obstacles that move */
+	private final int[] mBars;
+
+	/**
+	 * @throws IllegalArgumentException if an obstacle is too large or in the
+	 * way of the serve
+	 */
+	public Level(String name, Obstacle[] obstacles) {
+		int bars = 0;
+		for(int i = 0; i < obstacles.length; i++) {
+			Obstacle o = obstacles[i];
+			if(o.getRadius() > MAX_RADIUS) throw new IllegalArgumentException("Circle " + i + " is larger than " + MAX_RADIUS);
+			if(o.getReachRight() - o.getReachLeft() > MAX_SIZE || o.getReachBottom() - o.getReachTop() > MAX_SIZE) {
+				throw new IllegalArgumentException("Obstacle " + i + " reaches further than " + MAX_SIZE);
+			}
+			if(o.getReachLeft() <= SERVE_X + Ball.RADIUS && o.getReachRight() >= SERVE_X - Ball.RADIUS
+					&& o.getReachTop() <= SERVE_Y + Ball.RADIUS && o.getReachBottom() >= SERVE_Y - Ball.RADIUS) {
+				throw new IllegalArgumentException("Obstacle " + i + " can cover the serve");
+			}
+			if(o.getKind() == Obstacle.BAR) bars++;
+		}
+
+		mName = name;
+		mObstacles = obstacles;
+		mTree = new ObstacleTree(obstacles);
+		mBars = new int[bars];
+		for(int i = 0, b = 0; i < obstacles.length; i++) {
+			if(obstacles[i].getKind() == Obstacle.BAR) mBars[b++] = i;
+		}
+	}
+
+	/**
+	 * Reads a level in the format above.
+	 * @param name, used if the file does not name itself
+	 */
+	public static Level read(InputStream in, String name) throws IOException {
+		return parse(new InputStreamReader(in, "UTF-8"), name);
+	}
+
+	public static Level parse(Reader reader, String name) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		ArrayList<Obstacle> obstacles = new ArrayList<Obstacle>();
+
+		String line;
+		for(int n = 1; (line = in.readLine()) != null; n++) {
+			int hash = line.indexOf('#');
+			if(hash >= 0) line = line.substring(0, hash);
+			line = line.trim();
+			if(line.length() == 0) continue;
+
+			String[] words = line.split("\\s+");
+			String kind = words[0];
+			try {
+				if(kind.equals("name")) {
+					name = line.substring(kind.length()).trim();
+				}
+				else if(kind.equals("rect") && words.length == 5) {
+					int[] v = numbers(words, 1);
+					if(v[2] <= v[0] || v[3] <= v[1]) throw new IOException("Line " + n + ": empty rect");
+					obstacles.add(Obstacle.rect(v[0], v[1], v[2], v[3]));
+				}
+				else if(kind.equals("circle") && words.length == 4) {
+					int[] v = numbers(words, 1);
+					if(v[2] <= 0) throw new IOException("Line " + n + ": empty circle");
+					obstacles.add(Obstacle.circle(v[0], v[1], v[2]));
+				}
+				else if(kind.equals("bar") && words.length >= 6 && words.length % 2 == 0) {
+					int[] v = numbers(words, 1);
+					int[] path = new int[v.length - 3];
+					System.arraycopy(v, 3, path, 0, path.length);
+					if(v[0] <= 0 || v[1] <= 0 || v[2] <= 0) throw new IOException("Line " + n + ": empty bar");
+					obstacles.add(Obstacle.bar(v[0], v[1], path, v[2]));
+				}
+				else {
+					throw new IOException("Line " + n + ": cannot read \"" + line + "\"");
+				}
+			}
+			catch(NumberFormatException e) {
+				throw new IOException("Line " + n + ": " + e.getMessage());
+			}
+		}
+
+		try {
+			return new Level(name, obstacles.toArray(new Obstacle[obstacles.size()]));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static int[] numbers(String[] words, int from) {
+		int[] v = new int[words.length - from];
+		for(int i = 0; i < v.length; i++) v[i] = Integer.parseInt(words[from + i]);
+		return v;
+	}
+
+	/**
+	 * Puts the moving obstacles where they are on tick <code>tick</code>.
+	 */
+	public void moveTo(int tick) {
+		for(int i = 0; i < mBars.length; i++) mObstacles[mBars[i]].moveTo(tick);
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public Obstacle[] getObstacles() {
+		return mObstacles;
+	}
+
+	public ObstacleTree getTree() {
+		return mTree;
+	}
+
+	/** Where every serve starts */
+	private static final int SERVE_X = PongGame.WORLD_WIDTH / 2, SERVE_Y = PongGame.WORLD_HEIGHT / 2;
+
+	/**
+	 * Largest circle and widest reach. These keep the fixed-point hit tests
+	 * inside a long.
+	 */
+	public static final int MAX_RADIUS = 240, MAX_SIZE = 2 * PongGame.WORLD_HEIGHT;
+}
@@ -0,0 +1,347 @@
+package org.oep.pong;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Every finished match, kept in a small SQLite database. There is one per
+ * process, shared by the game and the history screen.
+ *
+ * Matches handed to record() are held for a moment and then written in one
+ * transaction on a background thread, so neither the UI nor the game loop
+ * ever waits on the disk. Reads are blocking and belong on a background
+ * thread too, but every page and the summary are cached until the next
+ * write, and the getCached*() methods can be called from anywhere.
+ * @author OEP
+ *
+ */
+public class MatchHistory extends SQLiteOpenHelper {
+	/** Debug tag */
+	private static final String TAG = "MatchHistory";
+
+	private static final String DATABASE = "history.db";
+	private static final int VERSION = 1;
+
+	/** Matches per page */
+	public static final int PAGE_SIZE = 50;
+
+	/** Pages kept in memory */
+	private static final int CACHED_PAGES = 32;
+
+	/** How long record() waits for more matches to write with */
+	private static final long BATCH_DELAY_MS = 2000;
+
+	private static final String COLUMNS = "_id, time, players, winner, result, strategy, speed, lives, "
+		+ "handicap, fixed, ticks, longest_rally, hits_red, hits_blue, walls, aim_error, average_rally, top_speed";
+
+	private static MatchHistory sInstance;
+
+	private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor();
+
+	/** Matches waiting to be written, and whether a write is on its way */
+	private final ArrayList<MatchRecord> mPending = new ArrayList<MatchRecord>();
+	private boolean mScheduled = false;
+
+	/** Recently read pages, least recently used first */
+	private final LinkedHashMap<Integer, MatchRecord[]> mPages =
+		new LinkedHashMap<Integer, MatchRecord[]>(CACHED_PAGES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, MatchRecord[]> eldest) {
+				return size() > CACHED_PAGES;
+			}
+		};
+
+	private Summary mSummary;
+
+	/** Bumped by every write, so a read that raced one is not cached */
+	private int mGeneration = 0;
+
+	/**
+	 * Win rates and records, read with a handful of indexed queries.
+	 */
+	public static class Summary {
+		/** Matches stored */
+		public int matches;
+
+		/** Solo matches against each AI strategy, and how many of those the human won */
+		public int[] played, won;
+
+		/** Records from matches a human played in */
+		public int longestRally, longestTicks;
+		public float topSpeed;
+	}
+
+	private final Runnable mFlush = new Runnable() {
+		public void run() {
+			write();
+		}
+	};
+
+	private MatchHistory(Context context) {
+		super(context, DATABASE, null, VERSION);
+	}
+
+	public static synchronized MatchHistory get(Context context) {
+		if(sInstance == null) sInstance = new MatchHistory(context.getApplicationContext());
+		return sInstance;
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE matches (_id INTEGER PRIMARY KEY AUTOINCREMENT, time INTEGER, "
+				+ "players INTEGER, winner INTEGER, result INTEGER, strategy INTEGER, speed INTEGER, "
+				+ "lives INTEGER, handicap INTEGER, fixed INTEGER, ticks INTEGER, human INTEGER, "
+				+ "longest_rally INTEGER, hits_red INTEGER, hits_blue INTEGER, walls INTEGER, "
+				+ "aim_error INTEGER, average_rally REAL, top_speed REAL)");
+
+		// Covering index for the win rates, and one per record so MAX() is a single lookup
+		db.execSQL("CREATE INDEX matches_strategy ON matches (strategy, result)");
+		db.execSQL("CREATE INDEX matches_rally ON matches (human, longest_rally)");
+		db.execSQL("CREATE INDEX matches_speed ON matches (human, top_speed)");
+		db.execSQL("CREATE INDEX matches_ticks ON matches (human, ticks)");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		db.execSQL("DROP TABLE IF EXISTS matches");
+		onCreate(db);
+	}
+
+	/**
+	 * Queues a match to be written with whatever else finishes soon.
+	 */
+	public void record(MatchRecord r) {
+		synchronized(mPending) {
+			mPending.add(r);
+			if(mScheduled) return;
+			mScheduled = true;
+		}
+		mWriter.schedule(mFlush, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes anything queued right away, for instance when the game is paused.
+	 */
+	public void flush() {
+		synchronized(mPending) {
+			if(mPending.isEmpty()) return;
+		}
+		mWriter.execute(mFlush);
+	}
+
+	/**
+	 * Runs on the writer thread.
+	 */
+	private void write() {
+		MatchRecord[] batch;
+		synchronized(mPending) {
+			mScheduled = false;
+			if(mPending.isEmpty()) return;
+			batch = mPending.toArray(new MatchRecord[mPending.size()]);
+			mPending.clear();
+		}
+
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			SQLiteStatement insert = db.compileStatement("INSERT INTO matches (time, players, winner, "
+					+ "result, strategy, speed, lives, handicap, fixed, ticks, human, longest_rally, hits_red, "
+					+ "hits_blue, walls, aim_error, average_rally, top_speed) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			db.beginTransaction();
+			try {
+				for(int i = 0; i < batch.length; i++) {
+					MatchRecord r = batch[i];
+					insert.bindLong(1, r.time);
+					insert.bindLong(2, r.players);
+					insert.bindLong(3, r.winner);
+					insert.bindLong(4, r.result);
+					insert.bindLong(5, r.strategy);
+					insert.bindLong(6, r.speed);
+					insert.bindLong(7, r.lives);
+					insert.bindLong(8, r.handicap);
+					insert.bindLong(9, (r.fixed) ? 1 : 0);
+					insert.bindLong(10, r.ticks);
+					insert.bindLong(11, (r.players != 0) ? 1 : 0);
+					insert.bindLong(12, r.longestRally);
+					insert.bindLong(13, r.hitsRed);
+					insert.bindLong(14, r.hitsBlue);
+					insert.bindLong(15, r.walls);
+					insert.bindLong(16, r.aimError);
+					insert.bindDouble(17, r.averageRally);
+					insert.bindDouble(18, r.topSpeed);
+					r.id = insert.executeInsert();
+				}
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+				insert.close();
+			}
+		}
+		catch(RuntimeException e) {
+			Log.w(TAG, "Could not save " + batch.length + " matches", e);
+			return;
+		}
+
+		// Every page has shifted down
+		synchronized(mPages) {
+			mPages.clear();
+			mSummary = null;
+			mGeneration++;
+		}
+	}
+
+	/**
+	 * @return a page if it is in memory, otherwise null. Does not touch the disk.
+	 */
+	public MatchRecord[] getCachedPage(int page) {
+		synchronized(mPages) {
+			return mPages.get(page);
+		}
+	}
+
+	private int generation() {
+		synchronized(mPages) {
+			return mGeneration;
+		}
+	}
+
+	public Summary getCachedSummary() {
+		synchronized(mPages) {
+			return mSummary;
+		}
+	}
+
+	/**
+	 * Reads a page of matches, newest first. Blocks, so call it off the UI thread.
+	 * @return up to PAGE_SIZE matches, fewer on the last page
+	 */
+	public MatchRecord[] readPage(int page) {
+		MatchRecord[] cached = getCachedPage(page);
+		if(cached != null) return cached;
+		int generation = generation();
+
+		// Seek past the previous page by id when we have it instead of
+		// counting through every row before this one
+		MatchRecord[] previous = (page > 0) ? getCachedPage(page - 1) : null;
+		Cursor c;
+		if(previous != null && previous.length > 0) {
+			c = getReadableDatabase().rawQuery("SELECT " + COLUMNS + " FROM matches WHERE _id < ? "
+					+ "ORDER BY _id DESC LIMIT " + PAGE_SIZE,
+					new String[] { Long.toString(previous[previous.length - 1].id) });
+		}
+		else {
+			c = getReadableDatabase().rawQuery("SELECT " + COLUMNS + " FROM matches "
+					+ "ORDER BY _id DESC LIMIT " + PAGE_SIZE + " OFFSET " + page * PAGE_SIZE, null);
+		}
+
+		ArrayList<MatchRecord> rows = new ArrayList<MatchRecord>(PAGE_SIZE);
+		try {
+			while(c.moveToNext()) {
+				rows.add(readRow(c));
+			}
+		}
+		finally {
+			c.close();
+		}
+
+		MatchRecord[] result = rows.toArray(new MatchRecord[rows.size()]);
+		synchronized(mPages) {
+			if(generation == mGeneration) mPages.put(page, result);
+		}
+		return result;
+	}
+
+	private static MatchRecord readRow(Cursor c) {
+		MatchRecord r = new MatchRecord();
+		int i = 0;
+		r.id = c.getLong(i++);
+		r.time = c.getLong(i++);
+		r.players = c.getInt(i++);
+		r.winner = c.getInt(i++);
+		r.result = c.getInt(i++);
+		r.strategy = c.getInt(i++);
+		r.speed = c.getInt(i++);
+		r.lives = c.getInt(i++);
+		r.handicap = c.getInt(i++);
+		r.fixed = c.getInt(i++) != 0;
+		r.ticks = c.getInt(i++);
+		r.longestRally = c.getInt(i++);
+		r.hitsRed = c.getInt(i++);
+		r.hitsBlue = c.getInt(i++);
+		r.walls = c.getInt(i++);
+		r.aimError = c.getInt(i++);
+		r.averageRally = c.getFloat(i++);
+		r.topSpeed = c.getFloat(i++);
+		return r;
+	}
+
+	/**
+	 * Reads the win rates and records. Blocks, so call it off the UI thread.
+	 * @param strategies, how many AI strategies there are
+	 */
+	public Summary readSummary(int strategies) {
+		Summary cached = getCachedSummary();
+		if(cached != null && cached.played.length == strategies) return cached;
+		int generation = generation();
+
+		SQLiteDatabase db = getReadableDatabase();
+		Summary s = new Summary();
+		s.played = new int[strategies];
+		s.won = new int[strategies];
+
+		Cursor c = db.rawQuery("SELECT COUNT(*) FROM matches", null);
+		try {
+			if(c.moveToFirst()) s.matches = c.getInt(0);
+		}
+		finally {
+			c.close();
+		}
+
+		c = db.rawQuery("SELECT strategy, COUNT(*), SUM(result) FROM matches WHERE result >= 0 "
+				+ "GROUP BY strategy", null);
+		try {
+			while(c.moveToNext()) {
+				int strategy = c.getInt(0);
+				if(strategy < 0 || strategy >= strategies) continue;
+				s.played[strategy] = c.getInt(1);
+				s.won[strategy] = c.getInt(2);
+			}
+		}
+		finally {
+			c.close();
+		}
+
+		c = db.rawQuery("SELECT (SELECT MAX(longest_rally) FROM matches WHERE human = 1), "
+				+ "(SELECT MAX(ticks) FROM matches WHERE human = 1), "
+				+ "(SELECT MAX(top_speed) FROM matches WHERE human = 1)", null);
+		try {
+			if(c.moveToFirst()) {
+				s.longestRally = c.getInt(0);
+				s.longestTicks = c.getInt(1);
+				s.topSpeed = c.getFloat(2);
+			}
+		}
+		finally {
+			c.close();
+		}
+
+		synchronized(mPages) {
+			if(generation == mGeneration) mSummary = s;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,79 @@
+package org.oep.pong;
+
+/**
+ * One finished match as the history keeps it: who played and won, the
+ * settings it was played with, how long it took and its statistics.
+ * @author OEP
+ *
+ */
+public class MatchRecord {
+	/** Row id, 0 until stored */
+	public long id;
+
+	/** When the match ended, in milliseconds since the epoch */
+	public long time;
+
+	/** Bit mask of the human paddles, PLAYER_RED and PLAYER_BLUE */
+	public int players;
+
+	/** GameEvents.ACTOR_RED or ACTOR_BLUE, or ACTOR_NONE for nobody */
+	public int winner;
+
+	/** WON or LOST for a human against the AI, otherwise NOT_SOLO */
+	public int result;
+
+	/** Settings */
+	public int strategy, speed, lives, handicap;
+	public boolean fixed;
+
+	/** Ticks of play */
+	public int ticks;
+
+	/** Statistics, see {@link MatchStats} */
+	public int longestRally, hitsRed, hitsBlue, walls, aimError;
+	public float averageRally, topSpeed;
+
+	public static final int
+		PLAYER_RED = 1,
+		PLAYER_BLUE = 2;
+
+	public static final int
+		NOT_SOLO = -1,
+		LOST = 0,
+		WON = 1;
+
+	/**
+	 * Copies what is worth keeping out of a finished game.
+	 */
+	public static MatchRecord capture(PongGame game, long time) {
+		MatchRecord r = new MatchRecord();
+		MatchStats stats = game.getStats();
+		Paddle red = game.getRed(), blue = game.getBlue();
+
+		r.time = time;
+		r.players = ((red.player) ? PLAYER_RED : 0) | ((blue.player) ? PLAYER_BLUE : 0);
+		r.winner = (!blue.living() && red.living()) ? GameEvents.ACTOR_RED
+				: (!red.living() && blue.living()) ? GameEvents.ACTOR_BLUE
+				: GameEvents.ACTOR_NONE;
+
+		if(red.player == blue.player) r.result = NOT_SOLO;
+		else if(red.player) r.result = (r.winner == GameEvents.ACTOR_RED) ? WON : LOST;
+		else r.result = (r.winner == GameEvents.ACTOR_BLUE) ? WON : LOST;
+
+		r.strategy = game.getAiStrategy();
+		r.speed = game.getBallSpeedModifier();
+		r.lives = game.getLivesModifier();
+		r.handicap = game.getCpuHandicap();
+		r.fixed = game.isFixed();
+		r.ticks = stats.getPlayedTicks();
+
+		r.longestRally = stats.getLongestRally();
+		r.hitsRed = stats.getHits(GameEvents.ACTOR_RED);
+		r.hitsBlue = stats.getHits(GameEvents.ACTOR_BLUE);
+		r.walls = stats.getWallBounces();
+		r.aimError = Math.max(stats.getAimError(GameEvents.ACTOR_RED), stats.getAimError(GameEvents.ACTOR_BLUE));
+		r.averageRally = stats.getAverageRally();
+		r.topSpeed = stats.getTopSpeed();
+		return r;
+	}
+}
@@ -0,0 +1,286 @@
+package org.oep.pong;
+
+/**
+ * Numbers about the match so far, collected from the game's events: rally
+ * lengths, hits per paddle, the top ball speed, how long each serve lasted,
+ * wall bounces per rally and how far off the AI was when the ball arrived.
+ * Everything is a fixed-size primitive counter or histogram, so keeping
+ * it up to date costs a few increments per event and never allocates.
+ * @author OEP
+ *
+ */
+public final class MatchStats implements GameEvents.Consumer {
+	/** Histogram sizes. The last bucket holds everything past it. */
+	public static final int
+		RALLY_BUCKETS = 16,
+		SECOND_BUCKETS = 32,
+		WALL_BUCKETS = 8;
+
+	private final PongGame mGame;
+
+	/** Hits by GameEvents.ACTOR_* */
+	private final int[] mHits = new int[4];
+
+	/** Histograms of paddle hits per rally, seconds per rally and wall bounces per rally */
+	private final int[] mRallyHits = new int[RALLY_BUCKETS];
+	private final int[] mRallySeconds = new int[SECOND_BUCKETS];
+	private final int[] mRallyWalls = new int[WALL_BUCKETS];
+
+	/** Finished rallies and the totals and records over them */
+	private int mRallies, mTotalHits, mTotalTicks, mTotalWalls;
+	private int mLongestRally, mLongestTicks, mMostWalls;
+
+	/** The rally in progress */
+	private int mServeTick = -1, mHitsNow, mWallsNow;
+
+	private float mTopSpeed;
+
+	/** Distance between where an AI paddle was headed and where the ball came, by actor */
+	private final int[] mAimSamples = new int[4];
+	private final long[] mAimError = new long[4];
+	private final int[] mAimWorst = new int[4];
+
+	public MatchStats(PongGame game) {
+		mGame = game;
+	}
+
+	public void onEvent(GameEvents events, long seq) {
+		int actor = events.actor(seq);
+		float speed = events.speed(seq);
+		if(speed > mTopSpeed) mTopSpeed = speed;
+
+		switch(events.kind(seq)) {
+		case GameEvents.KIND_SERVE:
+			mServeTick = events.tick(seq);
+			mHitsNow = 0;
+			mWallsNow = 0;
+			break;
+
+		case GameEvents.KIND_PADDLE:
+			mHits[actor]++;
+			mHitsNow++;
+			aim(actor, events.x(seq));
+			break;
+
+		case GameEvents.KIND_WALL:
+			mWallsNow++;
+			break;
+
+		case GameEvents.KIND_MISS:
+			aim(actor, events.x(seq));
+			endRally(events.tick(seq));
+			break;
+
+		case GameEvents.KIND_WIN:
+			aim((actor == GameEvents.ACTOR_RED) ? GameEvents.ACTOR_BLUE : GameEvents.ACTOR_RED, events.x(seq));
+			endRally(events.tick(seq));
+			break;
+		}
+	}
+
+	/**
+	 * Records how far an AI paddle's target was from the ball reaching it.
+	 */
+	private void aim(int actor, float ballX) {
+		Paddle p = paddle(actor);
+		if(p == null || p.player) return;
+
+		int error = Math.abs(p.destination - (int) ballX);
+		mAimSamples[actor]++;
+		mAimError[actor] += error;
+		if(error > mAimWorst[actor]) mAimWorst[actor] = error;
+	}
+
+	private void endRally(int tick) {
+		if(mServeTick < 0) return;
+
+		int ticks = tick - mServeTick;
+		mRallies++;
+		mTotalHits += mHitsNow;
+		mTotalTicks += ticks;
+		mTotalWalls += mWallsNow;
+		if(mHitsNow > mLongestRally) mLongestRally = mHitsNow;
+		if(ticks > mLongestTicks) mLongestTicks = ticks;
+		if(mWallsNow > mMostWalls) mMostWalls = mWallsNow;
+
+		mRallyHits[Math.min(mHitsNow, RALLY_BUCKETS - 1)]++;
+		mRallySeconds[Math.min(ticks / PongGame.FPS, SECOND_BUCKETS - 1)]++;
+		mRallyWalls[Math.min(mWallsNow, WALL_BUCKETS - 1)]++;
+		mServeTick = -1;
+	}
+
+	private Paddle paddle(int actor) {
+		switch(actor) {
+		case GameEvents.ACTOR_RED: return mGame.getRed();
+		case GameEvents.ACTOR_BLUE: return mGame.getBlue();
+		case GameEvents.ACTOR_GRAY: return mGame.getGray();
+		default: return null;
+		}
+	}
+
+	/**
+	 * Starts over for a new match.
+	 */
+	public void reset() {
+		for(int i = 0; i < 4; i++) {
+			mHits[i] = 0;
+			mAimSamples[i] = 0;
+			mAimError[i] = 0;
+			mAimWorst[i] = 0;
+		}
+		clear(mRallyHits);
+		clear(mRallySeconds);
+		clear(mRallyWalls);
+		mRallies = mTotalHits = mTotalTicks = mTotalWalls = 0;
+		mLongestRally = mLongestTicks = mMostWalls = 0;
+		mServeTick = -1;
+		mHitsNow = mWallsNow = 0;
+		mTopSpeed = 0;
+	}
+
+	private static void clear(int[] a) {
+		for(int i = 0; i < a.length; i++) a[i] = 0;
+	}
+
+	/**
+	 * Writes every counter into <code>s</code> starting at <code>i</code>,
+	 * so the stats go along with the rest of the game's saved state.
+	 * @return the index after the last int written
+	 */
+	public int save(int[] s, int i) {
+		i = copy(mHits, s, i);
+		i = copy(mRallyHits, s, i);
+		i = copy(mRallySeconds, s, i);
+		i = copy(mRallyWalls, s, i);
+		s[i++] = mRallies;
+		s[i++] = mTotalHits;
+		s[i++] = mTotalTicks;
+		s[i++] = mTotalWalls;
+		s[i++] = mLongestRally;
+		s[i++] = mLongestTicks;
+		s[i++] = mMostWalls;
+		s[i++] = mServeTick;
+		s[i++] = mHitsNow;
+		s[i++] = mWallsNow;
+		s[i++] = Float.floatToIntBits(mTopSpeed);
+		i = copy(mAimSamples, s, i);
+		i = copy(mAimWorst, s, i);
+		for(int k = 0; k < 4; k++) {
+			s[i++] = (int) (mAimError[k] >>> 32);
+			s[i++] = (int) mAimError[k];
+		}
+		return i;
+	}
+
+	/**
+	 * Reads back what save() wrote.
+	 * @return the index after the last int read
+	 */
+	public int load(int[] s, int i) {
+		i = fill(mHits, s, i);
+		i = fill(mRallyHits, s, i);
+		i = fill(mRallySeconds, s, i);
+		i = fill(mRallyWalls, s, i);
+		mRallies = s[i++];
+		mTotalHits = s[i++];
+		mTotalTicks = s[i++];
+		mTotalWalls = s[i++];
+		mLongestRally = s[i++];
+		mLongestTicks = s[i++];
+		mMostWalls = s[i++];
+		mServeTick = s[i++];
+		mHitsNow = s[i++];
+		mWallsNow = s[i++];
+		mTopSpeed = Float.intBitsToFloat(s[i++]);
+		i = fill(mAimSamples, s, i);
+		i = fill(mAimWorst, s, i);
+		for(int k = 0; k < 4; k++) {
+			long hi = s[i++], lo = s[i++];
+			mAimError[k] = (hi << 32) | (lo & 0xffffffffL);
+		}
+		return i;
+	}
+
+	private static int copy(int[] a, int[] s, int i) {
+		System.arraycopy(a, 0, s, i, a.length);
+		return i + a.length;
+	}
+
+	private static int fill(int[] a, int[] s, int i) {
+		System.arraycopy(s, i, a, 0, a.length);
+		return i + a.length;
+	}
+
+	/**
+	 * @param actor, one of GameEvents.ACTOR_*
+	 */
+	public int getHits(int actor) {
+		return mHits[actor];
+	}
+
+	public int getRallies() {
+		return mRallies;
+	}
+
+	/** @return the most paddle hits in one rally */
+	public int getLongestRally() {
+		return mLongestRally;
+	}
+
+	public float getAverageRally() {
+		return (mRallies == 0) ? 0 : (float) mTotalHits / mRallies;
+	}
+
+	/** @return seconds from serve to miss, on average and at most */
+	public float getAverageSeconds() {
+		return (mRallies == 0) ? 0 : (float) mTotalTicks / mRallies / PongGame.FPS;
+	}
+
+	public float getLongestSeconds() {
+		return (float) mLongestTicks / PongGame.FPS;
+	}
+
+	/** @return ticks spent in rallies, which is the match minus the time paused */
+	public int getPlayedTicks() {
+		return mTotalTicks;
+	}
+
+	public int getWallBounces() {
+		return mTotalWalls;
+	}
+
+	public int getMostWalls() {
+		return mMostWalls;
+	}
+
+	public float getTopSpeed() {
+		return mTopSpeed;
+	}
+
+	/**
+	 * @return the mean aim error of an AI paddle in pixels, or -1 if it never had to aim
+	 */
+	public int getAimError(int actor) {
+		return (mAimSamples[actor] == 0) ? -1 : (int) (mAimError[actor] / mAimSamples[actor]);
+	}
+
+	public int getWorstAim(int actor) {
+		return mAimWorst[actor];
+	}
+
+	/** The histograms are live, not copies */
+	public int[] getRallyHistogram() {
+		return mRallyHits;
+	}
+
+	public int[] getSecondsHistogram() {
+		return mRallySeconds;
+	}
+
+	public int[] getWallHistogram() {
+		return mRallyWalls;
+	}
+
+	/** Ints written by save() */
+	public static final int STATE_SIZE = 4 + RALLY_BUCKETS + SECOND_BUCKETS + WALL_BUCKETS + 11 + 4 + 4 + 2 * 4;
+}
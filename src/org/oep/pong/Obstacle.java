@@ -0,0 +1,145 @@
+package org.oep.pong;
+
+/**
+ * Something fixed in the arena that the ball bounces off: a rectangle, a
+ * circle, or a bar that slides along a path. Everything is in whole world
+ * units, and a bar's position is worked out from the tick alone, so the
+ * fixed-point physics stay deterministic and obstacles add nothing to the
+ * saved state.
+ * @author OEP
+ *
+ */
+public class Obstacle {
+	/** Kinds of obstacle */
+	public static final int
+		RECT = 0,
+		CIRCLE = 1,
+		BAR = 2;
+
+	protected final int mKind;
+
+	/** Where the obstacle is this tick. A circle's box is its bounding square. */
+	protected int mLeft, mTop, mRight, mBottom;
+
+	/** A circle's radius, or a bar's width and height */
+	protected final int mRadius, mWidth, mHeight;
+
+	/** A bar's center at each point of its path, as x, y pairs, and the ticks between points */
+	protected final int[] mPath;
+	protected final int mLegTicks;
+
+	/** Every place the obstacle can be, which is what the tree is built on */
+	protected int mReachLeft, mReachTop, mReachRight, mReachBottom;
+
+	private Obstacle(int kind, int left, int top, int right, int bottom, int radius, int[] path, int legTicks) {
+		mKind = kind;
+		mLeft = left;
+		mTop = top;
+		mRight = right;
+		mBottom = bottom;
+		mRadius = radius;
+		mWidth = right - left;
+		mHeight = bottom - top;
+		mPath = path;
+		mLegTicks = legTicks;
+
+		mReachLeft = left;
+		mReachTop = top;
+		mReachRight = right;
+		mReachBottom = bottom;
+		for(int i = 0; path != null && i < path.length; i += 2) {
+			mReachLeft = Math.min(mReachLeft, path[i] - mWidth / 2);
+			mReachTop = Math.min(mReachTop, path[i + 1] - mHeight / 2);
+			mReachRight = Math.max(mReachRight, path[i] - mWidth / 2 + mWidth);
+			mReachBottom = Math.max(mReachBottom, path[i + 1] - mHeight / 2 + mHeight);
+		}
+	}
+
+	public static Obstacle rect(int left, int top, int right, int bottom) {
+		return new Obstacle(RECT, left, top, right, bottom, 0, null, 0);
+	}
+
+	public static Obstacle circle(int cx, int cy, int radius) {
+		return new Obstacle(CIRCLE, cx - radius, cy - radius, cx + radius, cy + radius, radius, null, 0);
+	}
+
+	/**
+	 * A bar that goes from point to point of a path and back to the first.
+	 * @param path, the bar's center at each point, as x, y pairs
+	 * @param legTicks, ticks from one point to the next
+	 */
+	public static Obstacle bar(int width, int height, int[] path, int legTicks) {
+		int left = path[0] - width / 2, top = path[1] - height / 2;
+		return new Obstacle(BAR, left, top, left + width, top + height, 0, path, Math.max(1, legTicks));
+	}
+
+	/**
+	 * Puts a bar where it is on tick <code>tick</code>. Other kinds stay put.
+	 */
+	public void moveTo(int tick) {
+		if(mKind != BAR) return;
+
+		int points = mPath.length / 2;
+		int leg = (tick / mLegTicks) % points, along = tick % mLegTicks;
+		int from = 2 * leg, to = 2 * ((leg + 1) % points);
+		int cx = mPath[from] + (mPath[to] - mPath[from]) * along / mLegTicks;
+		int cy = mPath[from + 1] + (mPath[to + 1] - mPath[from + 1]) * along / mLegTicks;
+
+		mLeft = cx - mWidth / 2;
+		mTop = cy - mHeight / 2;
+		mRight = mLeft + mWidth;
+		mBottom = mTop + mHeight;
+	}
+
+	public int getKind() {
+		return mKind;
+	}
+
+	public boolean isCircle() {
+		return mKind == CIRCLE;
+	}
+
+	public int getLeft() {
+		return mLeft;
+	}
+
+	public int getTop() {
+		return mTop;
+	}
+
+	public int getRight() {
+		return mRight;
+	}
+
+	public int getBottom() {
+		return mBottom;
+	}
+
+	public int centerX() {
+		return (mLeft + mRight) >> 1;
+	}
+
+	public int centerY() {
+		return (mTop + mBottom) >> 1;
+	}
+
+	public int getRadius() {
+		return mRadius;
+	}
+
+	public int getReachLeft() {
+		return mReachLeft;
+	}
+
+	public int getReachTop() {
+		return mReachTop;
+	}
+
+	public int getReachRight() {
+		return mReachRight;
+	}
+
+	public int getReachBottom() {
+		return mReachBottom;
+	}
+}
@@ -0,0 +1,144 @@
+package org.oep.pong;
+
+import java.util.Arrays;
+
+/**
+ * A bounding-volume hierarchy over a level's obstacles, built once when the
+ * level is loaded. Each obstacle is boxed by everywhere it can reach, so
+ * moving bars never make the tree stale. Nodes are kept in flat int arrays,
+ * with a node's first child right after it, and a query walks them with a
+ * preallocated stack, so asking what a moving ball might touch takes a few
+ * box tests and never allocates, however many obstacles there are.
+ * @author OEP
+ *
+ */
+public final class ObstacleTree {
+	/** Node boxes, as left, top, right, bottom of each node in turn */
+	private final int[] mBoxes;
+
+	/**
+	 * A leaf's first index into mItems, or an inner node's second child, and
+	 * how many items a leaf holds. Inner nodes hold none.
+	 */
+	private final int[] mFirst, mCount;
+
+	/** Obstacle indices, grouped by leaf, and each one's box in the same order */
+	private final int[] mItems, mItemBoxes;
+
+	private final int[] mStack = new int[MAX_DEPTH];
+	private int mNodes = 0;
+
+	public ObstacleTree(Obstacle[] obstacles) {
+		int n = obstacles.length;
+		int capacity = Math.max(1, 2 * n);
+		mBoxes = new int[4 * capacity];
+		mFirst = new int[capacity];
+		mCount = new int[capacity];
+		mItems = new int[n];
+		mItemBoxes = new int[4 * n];
+
+		for(int i = 0; i < n; i++) mItems[i] = i;
+		if(n > 0) build(obstacles, 0, n, new long[n], 0);
+
+		for(int i = 0; i < n; i++) {
+			Obstacle o = obstacles[mItems[i]];
+			mItemBoxes[4 * i] = o.getReachLeft();
+			mItemBoxes[4 * i + 1] = o.getReachTop();
+			mItemBoxes[4 * i + 2] = o.getReachRight();
+			mItemBoxes[4 * i + 3] = o.getReachBottom();
+		}
+	}
+
+	/**
+	 * Lists the obstacles whose reach overlaps a box.
+	 * @param out, receives obstacle indices. Must hold one per obstacle.
+	 * @return how many were written to <code>out</code>
+	 */
+	public int query(int left, int top, int right, int bottom, int[] out) {
+		if(mNodes == 0) return 0;
+
+		int[] boxes = mBoxes, items = mItemBoxes, stack = mStack;
+		int found = 0, depth = 0;
+		stack[depth++] = 0;
+		while(depth > 0) {
+			int node = stack[--depth], b = 4 * node;
+			if(boxes[b + 2] < left || boxes[b] > right || boxes[b + 3] < top || boxes[b + 1] > bottom) continue;
+
+			int count = mCount[node];
+			if(count > 0) {
+				for(int i = mFirst[node], end = i + count; i < end; i++) {
+					int j = 4 * i;
+					if(items[j + 2] < left || items[j] > right || items[j + 3] < top || items[j + 1] > bottom) continue;
+					out[found++] = mItems[i];
+				}
+			}
+			else {
+				stack[depth++] = mFirst[node];
+				stack[depth++] = node + 1;
+			}
+		}
+		return found;
+	}
+
+	/** Nodes in the tree, for tools */
+	public int size() {
+		return mNodes;
+	}
+
+	/**
+	 * Makes the node for items [from, to) and everything under it, splitting
+	 * at the median center along the wider side of the centers' box.
+	 * @param keys, scratch space for sorting
+	 * @return the node's index
+	 */
+	private int build(Obstacle[] obstacles, int from, int to, long[] keys, int depth) {
+		int node = mNodes++;
+		int l = Integer.MAX_VALUE, t = Integer.MAX_VALUE, r = Integer.MIN_VALUE, b = Integer.MIN_VALUE;
+		int cl = Integer.MAX_VALUE, ct = Integer.MAX_VALUE, cr = Integer.MIN_VALUE, cb = Integer.MIN_VALUE;
+		for(int i = from; i < to; i++) {
+			Obstacle o = obstacles[mItems[i]];
+			l = Math.min(l, o.getReachLeft());
+			t = Math.min(t, o.getReachTop());
+			r = Math.max(r, o.getReachRight());
+			b = Math.max(b, o.getReachBottom());
+
+			int cx = (o.getReachLeft() + o.getReachRight()) >> 1, cy = (o.getReachTop() + o.getReachBottom()) >> 1;
+			cl = Math.min(cl, cx);
+			ct = Math.min(ct, cy);
+			cr = Math.max(cr, cx);
+			cb = Math.max(cb, cy);
+		}
+		mBoxes[4 * node] = l;
+		mBoxes[4 * node + 1] = t;
+		mBoxes[4 * node + 2] = r;
+		mBoxes[4 * node + 3] = b;
+
+		// The stack only has room for so many levels; the median split keeps
+		// the tree far shallower than that for any level that fits in memory
+		if(to - from <= LEAF_SIZE || depth >= MAX_DEPTH / 2 - 1) {
+			mFirst[node] = from;
+			mCount[node] = to - from;
+			return node;
+		}
+
+		boolean vertical = cb - ct > cr - cl;
+		for(int i = from; i < to; i++) {
+			Obstacle o = obstacles[mItems[i]];
+			long center = (vertical) ? o.getReachTop() + o.getReachBottom() : o.getReachLeft() + o.getReachRight();
+			keys[i] = (center << 32) | mItems[i];
+		}
+		Arrays.sort(keys, from, to);
+		for(int i = from; i < to; i++) mItems[i] = (int) keys[i];
+
+		int mid = (from + to) >>> 1;
+		build(obstacles, from, mid, keys, depth + 1);
+		mFirst[node] = build(obstacles, mid, to, keys, depth + 1);
+		mCount[node] = 0;
+		return node;
+	}
+
+	/** Most obstacles in a leaf */
+	private static final int LEAF_SIZE = 4;
+
+	private static final int MAX_DEPTH = 64;
+}
@@ -0,0 +1,173 @@
+package org.oep.pong;
+
+/**
+ * A paddle on the playing field. Positions are kept in integer pixels so the
+ * paddle behaves the same in both the float and the fixed-point physics modes.
+ * @author OEP
+ *
+ */
+public class Paddle {
+	protected int mLeft, mTop, mRight, mBottom;
+	protected int mHandicap = 0;
+	protected int mSpeed = PongGame.PLAYER_PADDLE_SPEED;
+	protected int mLives = PongGame.STARTING_LIVES;
+
+	public boolean player = false;
+
+	public int destination;
+
+	/**
+	 * Creates a paddle centered on <code>mid</code>.
+	 * @param y, the top edge of the paddle
+	 * @param mid, the x-coordinate to center on
+	 */
+	public Paddle(int y, int mid) {
+		mLeft = mid - PADDLE_WIDTH;
+		mRight = mid + PADDLE_WIDTH;
+		mTop = y;
+		mBottom = y + PADDLE_THICKNESS;
+		destination = mid;
+	}
+
+	public void move() {
+		move(mSpeed);
+	}
+
+	public void move(boolean handicapped) {
+		move((handicapped) ? mSpeed - mHandicap : mSpeed);
+	}
+
+	public void move(int s) {
+		int cx = centerX();
+		int dx = Math.abs(cx - destination);
+
+		if(destination < cx) {
+			offset( (dx > s) ? -s : -dx );
+		}
+		else if(destination > cx) {
+			offset( (dx > s) ? s : dx );
+		}
+	}
+
+	protected void offset(int dx) {
+		mLeft += dx;
+		mRight += dx;
+	}
+
+	public void setLives(int lives) {
+		mLives = Math.max(0, lives);
+	}
+
+	public void setPosition(int x) {
+		offset(x - centerX());
+	}
+
+	public void setSpeed(int s) {
+		mSpeed = (s > 0) ? s : mSpeed;
+	}
+
+	public void setHandicap(int h) {
+		mHandicap = (h >= 0 && h < mSpeed) ? h : mHandicap;
+	}
+
+	public void loseLife() {
+		mLives = Math.max(0, mLives - 1);
+	}
+
+	public boolean living() {
+		return mLives > 0;
+	}
+
+	/**
+	 * Half the paddle's width, which PADDLE_WIDTH also is.
+	 */
+	public int getWidth() {
+		return (mRight - mLeft) >> 1;
+	}
+
+	/**
+	 * Grows or shrinks the paddle about its center.
+	 * @param half, half the new width
+	 */
+	public void setWidth(int half) {
+		int cx = centerX();
+		mLeft = cx - half;
+		mRight = cx + half;
+	}
+
+	public int getTop() {
+		return mTop;
+	}
+
+	public int getBottom() {
+		return mBottom;
+	}
+
+	public int centerX() {
+		return (mLeft + mRight) >> 1;
+	}
+
+	public int centerY() {
+		return (mTop + mBottom) >> 1;
+	}
+
+	public int getLeft() {
+		return mLeft;
+	}
+
+	public int getRight() {
+		return mRight;
+	}
+
+	public int getLives() {
+		return mLives;
+	}
+
+	/**
+	 * Writes the paddle's state into <code>s</code> starting at <code>i</code>.
+	 * @return the index after the last int written
+	 */
+	public int save(int[] s, int i) {
+		s[i++] = mLeft;
+		s[i++] = mTop;
+		s[i++] = mRight;
+		s[i++] = mBottom;
+		s[i++] = destination;
+		s[i++] = mLives;
+		s[i++] = mSpeed;
+		s[i++] = mHandicap;
+		s[i++] = (player) ? 1 : 0;
+		return i;
+	}
+
+	/**
+	 * Reads back what save() wrote.
+	 * @return the index after the last int read
+	 */
+	public int load(int[] s, int i) {
+		mLeft = s[i++];
+		mTop = s[i++];
+		mRight = s[i++];
+		mBottom = s[i++];
+		destination = s[i++];
+		mLives = s[i++];
+		mSpeed = s[i++];
+		mHandicap = s[i++];
+		player = s[i++] != 0;
+		return i;
+	}
+
+	public boolean collides(Ball b) {
+		return b.x >= mLeft && b.x <= mRight &&
+		b.y >= mTop - Ball.RADIUS && b.y <= mBottom + Ball.RADIUS;
+	}
+
+	/** Thickness of the paddle */
+	public static final int PADDLE_THICKNESS = 10;
+
+	/** Width of the paddle */
+	public static final int PADDLE_WIDTH = 30;
+
+	/** Ints written by save() */
+	public static final int STATE_SIZE = 9;
+}
@@ -0,0 +1,268 @@
+package org.oep.pong;
+
+/**
+ * Sparks, trails and bursts drawn over a match. They are only for show:
+ * nothing about them goes into the game state, so they can be dropped at
+ * any time without the match noticing.
+ *
+ * Every particle lives in the same slot of a set of parallel primitive
+ * arrays allocated up front. Free slots are chained through mNext, so
+ * spawning and expiring are a couple of stores and nothing is ever
+ * allocated once this is made. It reads the game's events as a consumer to
+ * spark where the ball bounced and burst where it was missed, and each
+ * frame lays a trail behind the balls.
+ *
+ * There are never more than the capacity, and the view can lower the
+ * budget below that when frames run late. Near the budget, bursts are
+ * thinned and trails dropped before sparks are, so under load the effects
+ * fade out rather than the frame rate.
+ * @author OEP
+ *
+ */
+public final class Particles implements GameEvents.Consumer {
+	/** Particles alive at once, at most */
+	public static final int CAPACITY = 512;
+
+	/** The budget never goes below this, however late frames run */
+	public static final int MIN_BUDGET = 32;
+
+	/** Slot free-list end */
+	private static final int NONE = -1;
+
+	private final float[] mX = new float[CAPACITY], mY = new float[CAPACITY];
+	private final float[] mDx = new float[CAPACITY], mDy = new float[CAPACITY];
+	private final float[] mSize = new float[CAPACITY];
+	private final int[] mLife = new int[CAPACITY], mSpan = new int[CAPACITY];
+	private final int[] mColor = new int[CAPACITY];
+
+	/** Next free slot after this one, for the free ones */
+	private final int[] mNext = new int[CAPACITY];
+
+	/** First free slot, or NONE when all are taken */
+	private int mFree = 0;
+
+	/** One past the highest slot ever used, so walks can stop short */
+	private int mHigh = 0;
+
+	private int mAlive = 0, mBudget = CAPACITY;
+
+	/** Particles that were asked for but not made, for want of budget */
+	private long mDropped = 0;
+
+	/** For spread, kept apart from the game's own generator */
+	private int mRandom = 0x2545f491;
+
+	public Particles() {
+		clear();
+	}
+
+	/**
+	 * Gets rid of every particle, as when a new match starts.
+	 */
+	public void clear() {
+		for(int i = 0; i < CAPACITY; i++) {
+			mNext[i] = i + 1;
+			mLife[i] = 0;
+		}
+		mNext[CAPACITY - 1] = NONE;
+		mFree = 0;
+		mHigh = 0;
+		mAlive = 0;
+	}
+
+	public int alive() {
+		return mAlive;
+	}
+
+	public int budget() {
+		return mBudget;
+	}
+
+	public long dropped() {
+		return mDropped;
+	}
+
+	/**
+	 * @param budget, particles allowed alive at once, between MIN_BUDGET
+	 * and CAPACITY. Those alive past it are left to expire.
+	 */
+	public void setBudget(int budget) {
+		mBudget = Math.max(MIN_BUDGET, Math.min(CAPACITY, budget));
+	}
+
+	/**
+	 * Adjusts the budget to how the last frame went: halved when it ran
+	 * late, and won back a little at a time when it did not.
+	 */
+	public void adapt(boolean late) {
+		setBudget((late) ? mBudget / 2 : mBudget + BUDGET_STEP);
+	}
+
+	/**
+	 * Sparks and bursts where the ball hit something or was missed.
+	 */
+	public void onEvent(GameEvents events, long seq) {
+		float x = events.x(seq), y = events.y(seq);
+		switch(events.kind(seq)) {
+		case GameEvents.KIND_PADDLE:
+			burst(x, y, SPARKS, SPARK_SPEED, SPARK_LIFE, colorOf(events.actor(seq)));
+			break;
+		case GameEvents.KIND_WALL:
+		case GameEvents.KIND_OBSTACLE:
+			burst(x, y, SPARKS / 2, SPARK_SPEED, SPARK_LIFE, PongScene.WHITE);
+			break;
+		case GameEvents.KIND_POWERUP:
+			burst(x, y, SPARKS, SPARK_SPEED / 2, BURST_LIFE, PongScene.WHITE);
+			break;
+		case GameEvents.KIND_MISS:
+		case GameEvents.KIND_WIN:
+			burst(x, y, BURST, BURST_SPEED, BURST_LIFE, colorOf(events.actor(seq)));
+			break;
+		}
+	}
+
+	/**
+	 * Leaves a fading dot where each ball is. Call once a drawn frame.
+	 */
+	public void trail(PongGame game) {
+		Ball ball = game.getBall();
+		if(ball.visible()) trail(ball);
+		Ball[] extras = game.getExtras();
+		for(int i = 0; i < game.getExtraCount(); i++) trail(extras[i]);
+	}
+
+	private void trail(Ball ball) {
+		// Trails are the first thing to go
+		if(mAlive >= mBudget * 3 / 4) {
+			mDropped++;
+			return;
+		}
+		spawn(ball.x, ball.y, 0, 0, Ball.RADIUS * 0.75f, TRAIL_LIFE, PongScene.GREEN);
+	}
+
+	/**
+	 * Throws out up to <code>count</code> particles in all directions. Past
+	 * half the budget, fewer the closer it is to full.
+	 */
+	private void burst(float x, float y, int count, float speed, int life, int color) {
+		int room = mBudget - mAlive, asked = count;
+		if(mAlive > mBudget / 2) count = count * room / (mBudget - mBudget / 2);
+		count = Math.max(0, Math.min(count, room));
+		mDropped += asked - count;
+
+		for(int i = 0; i < count; i++) {
+			int d = nextRandom() & (DIRECTIONS - 1);
+			float v = speed * (0.5f + (nextRandom() & 0xff) / 512f);
+			spawn(x, y, COS[d] * v, SIN[d] * v, SPARK_SIZE, life - (nextRandom() & 3), color);
+		}
+	}
+
+	/**
+	 * @return false if there was no slot or budget for it
+	 */
+	private boolean spawn(float x, float y, float dx, float dy, float size, int life, int color) {
+		if(mFree == NONE || mAlive >= mBudget) {
+			mDropped++;
+			return false;
+		}
+
+		int i = mFree;
+		mFree = mNext[i];
+		mX[i] = x;
+		mY[i] = y;
+		mDx[i] = dx;
+		mDy[i] = dy;
+		mSize[i] = size;
+		mLife[i] = mSpan[i] = Math.max(1, life);
+		mColor[i] = color;
+		mAlive++;
+		if(i >= mHigh) mHigh = i + 1;
+		return true;
+	}
+
+	/**
+	 * Moves every particle along a frame, slowing it down, and frees the
+	 * ones that have run their course.
+	 */
+	public void step() {
+		for(int i = 0; i < mHigh; i++) {
+			if(mLife[i] == 0) continue;
+
+			if(--mLife[i] == 0) {
+				mNext[i] = mFree;
+				mFree = i;
+				mAlive--;
+				continue;
+			}
+			mX[i] += mDx[i];
+			mY[i] += mDy[i];
+			mDx[i] *= DRAG;
+			mDy[i] *= DRAG;
+		}
+
+		// Trim the walk back to the last particle still alive
+		while(mHigh > 0 && mLife[mHigh - 1] == 0) mHigh--;
+	}
+
+	/**
+	 * Draws every particle in one pass, fading each toward black as it
+	 * ages. Call inside the arena's layer.
+	 */
+	public void draw(Renderer r) {
+		for(int i = 0; i < mHigh; i++) {
+			if(mLife[i] == 0) continue;
+
+			float half = mSize[i] * mLife[i] / mSpan[i];
+			r.rect(mX[i] - half, mY[i] - half, mX[i] + half, mY[i] + half, fade(mColor[i], mLife[i], mSpan[i]), true);
+		}
+	}
+
+	/**
+	 * @return color scaled toward black by what is left of a life
+	 */
+	private static int fade(int color, int life, int span) {
+		int k = 256 * life / span;
+		int red = (((color >> 16) & 0xff) * k) >> 8;
+		int green = (((color >> 8) & 0xff) * k) >> 8;
+		int blue = ((color & 0xff) * k) >> 8;
+		return 0xff000000 | (red << 16) | (green << 8) | blue;
+	}
+
+	private static int colorOf(int actor) {
+		switch(actor) {
+		case GameEvents.ACTOR_RED: return PongScene.RED;
+		case GameEvents.ACTOR_BLUE: return PongScene.BLUE;
+		case GameEvents.ACTOR_GRAY: return PongScene.GRAY;
+		default: return PongScene.WHITE;
+		}
+	}
+
+	/** xorshift, which is plenty for where sparks fly */
+	private int nextRandom() {
+		mRandom ^= mRandom << 13;
+		mRandom ^= mRandom >>> 17;
+		mRandom ^= mRandom << 5;
+		return mRandom;
+	}
+
+	/** Directions sparks fly in, as a table so spawning needs no trig */
+	private static final int DIRECTIONS = 64;
+	private static final float[] COS = new float[DIRECTIONS], SIN = new float[DIRECTIONS];
+	static {
+		for(int d = 0; d < DIRECTIONS; d++) {
+			COS[d] = (float) Math.cos(2 * Math.PI * d / DIRECTIONS);
+			SIN[d] = (float) Math.sin(2 * Math.PI * d / DIRECTIONS);
+		}
+	}
+
+	/** How many, how fast in world units a frame, and for how many frames */
+	private static final int SPARKS = 12, BURST = 48;
+	private static final float SPARK_SPEED = 6, BURST_SPEED = 10, SPARK_SIZE = 2;
+	private static final int SPARK_LIFE = 12, BURST_LIFE = 24, TRAIL_LIFE = 8;
+
+	/** Speed kept from one frame to the next */
+	private static final float DRAG = 0.9f;
+
+	/** Budget won back for each frame that was on time */
+	private static final int BUDGET_STEP = 8;
+}
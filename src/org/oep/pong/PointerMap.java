@@ -0,0 +1,117 @@
+package org.oep.pong;
+
+import java.util.Arrays;
+
+/**
+ * A small map from int keys to int values, open-addressed over two int
+ * arrays, so looking up or binding a key never allocates or boxes. Sized
+ * for touch pointer ids, of which there are rarely more than ten at once;
+ * it grows if there ever are more.
+ * @author OEP
+ *
+ */
+public final class PointerMap {
+	private int[] mKeys, mValues;
+	private int mSize = 0;
+
+	public PointerMap() {
+		mKeys = new int[CAPACITY];
+		mValues = new int[CAPACITY];
+		Arrays.fill(mKeys, EMPTY);
+	}
+
+	/**
+	 * @return the value bound to a key, or <code>missing</code>
+	 */
+	public int get(int key, int missing) {
+		int[] keys = mKeys;
+		int mask = keys.length - 1;
+		for(int i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+			if(keys[i] == key) return mValues[i];
+		}
+		return missing;
+	}
+
+	/**
+	 * Binds a key to a value, replacing what it was bound to.
+	 * @param key, any int but Integer.MIN_VALUE
+	 */
+	public void put(int key, int value) {
+		if(key == EMPTY) throw new IllegalArgumentException("Key " + key + " is reserved");
+
+		int mask = mKeys.length - 1;
+		int i = hash(key) & mask;
+		while(mKeys[i] != EMPTY && mKeys[i] != key) i = (i + 1) & mask;
+		if(mKeys[i] == EMPTY) {
+			if(2 * (mSize + 1) > mKeys.length) {
+				grow();
+				put(key, value);
+				return;
+			}
+			mKeys[i] = key;
+			mSize++;
+		}
+		mValues[i] = value;
+	}
+
+	/**
+	 * Unbinds a key. Later keys in its run are moved back so lookups never
+	 * stop short at the hole.
+	 * @return true if the key was bound
+	 */
+	public boolean remove(int key) {
+		int[] keys = mKeys;
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while(keys[i] != key) {
+			if(keys[i] == EMPTY) return false;
+			i = (i + 1) & mask;
+		}
+
+		for(int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			// An entry may fill the hole only if the hole lies between where
+			// it hashes to and where it sits
+			int home = hash(keys[j]) & mask;
+			if(((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				mValues[i] = mValues[j];
+				i = j;
+			}
+		}
+		keys[i] = EMPTY;
+		mSize--;
+		return true;
+	}
+
+	public void clear() {
+		if(mSize == 0) return;
+		Arrays.fill(mKeys, EMPTY);
+		mSize = 0;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	private void grow() {
+		int[] keys = mKeys, values = mValues;
+		mKeys = new int[2 * keys.length];
+		mValues = new int[2 * keys.length];
+		Arrays.fill(mKeys, EMPTY);
+		mSize = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != EMPTY) put(keys[i], values[i]);
+		}
+	}
+
+	/** Spreads small neighbouring keys across the table */
+	private static int hash(int key) {
+		return key * 0x9E3779B9 >>> 16 ^ key;
+	}
+
+	/** Marks a free slot */
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	/** Slots to start with, a power of two */
+	private static final int CAPACITY = 32;
+}
@@ -59,6 +59,38 @@ public class Pong extends Activity {
 				startGame(true,true);
 			}
 		});
+		
+		this.findViewById(R.id.title_btnHostLan)
+		.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				startNetGame(PongView.NET_HOST);
+			}
+		});
+		
+		this.findViewById(R.id.title_btnJoinLan)
+		.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				startNetGame(PongView.NET_CLIENT);
+			}
+		});
+		
+		this.findViewById(R.id.title_btnWatchLan)
+		.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				startNetGame(PongView.NET_SPECTATE);
+			}
+		});
+		
+		this.findViewById(R.id.title_btnHistory)
+		.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				startActivity(new Intent(Pong.this, HistoryActivity.class));
+			}
+		});
 	}
 	
 	protected void startGame(boolean redPlayer, boolean bluePlayer) {
@@ -68,13 +100,39 @@ public class Pong extends Activity {
 		startActivity(i);
 	}
 	
+	/**
+	 * Starts a LAN game. Clients find the host by broadcasting, so there is
+	 * no address to type in.
+	 * @param mode, PongView.NET_HOST, NET_CLIENT or NET_SPECTATE
+	 */
+	protected void startNetGame(int mode) {
+		Intent i = new Intent(this, GameActivity.class);
+		i.putExtra(GameActivity.EXTRA_NET_MODE, mode);
+		startActivity(i);
+	}
+	
 	
 	public static final String
 		PREF_BALL_SPEED = "ball_speed",
 		PREF_STRATEGY = "strategy",
 		PREF_LIVES = "lives",
 		PREF_HANDICAP = "handicap",
-		PREF_MUTED = "muted";
+		PREF_AI_THINK = "ai_think",
+		PREF_AI_REACTION = "ai_reaction",
+		PREF_MUTED = "muted",
+		PREF_FIXED_POINT = "fixed_point",
+		PREF_ROLLBACK = "rollback",
+		PREF_INPUT_DELAY = "input_delay",
+		PREF_BROADCAST = "broadcast",
+		PREF_BOTS = "bots",
+		PREF_LEVEL = "level",
+		PREF_POWERUPS = "powerups",
+		PREF_REPLAY = "replay",
+		PREF_PARTICLES = "particles",
+		PREF_TIME_SCALE = "time_scale",
+		PREF_CONTROLLER_SIDE = "controller_side",
+		PREF_STICK_DEADZONE = "stick_deadzone",
+		PREF_STICK_CURVE = "stick_curve";
 	
 	public static final String
 		KEY_AI_STRATEGY = "key_ai_strategy";
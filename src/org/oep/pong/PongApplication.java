@@ -0,0 +1,23 @@
+package org.oep.pong;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+/**
+ * Hands memory warnings to the caches that live as long as the process.
+ * @author OEP
+ *
+ */
+public class PongApplication extends Application {
+	/**
+	 * Only called from Ice Cream Sandwich on, hence no @Override.
+	 */
+	public void onTrimMemory(int level) {
+		SoundEffects.trim(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		SoundEffects.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+}
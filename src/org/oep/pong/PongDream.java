@@ -0,0 +1,40 @@
+package org.oep.pong;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.service.dreams.DreamService;
+
+/**
+ * The screensaver: two AI paddles playing on a dark screen while the device
+ * is docked or charging. Only offered on Jelly Bean MR1 and later, where
+ * the system knows about dreams; older devices never see the service.
+ * @author OEP
+ *
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+public class PongDream extends DreamService {
+	private AmbientView mView;
+
+	@Override
+	public void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		setInteractive(false);
+		setFullscreen(true);
+		setScreenBright(false);
+
+		mView = new AmbientView(this);
+		setContentView(mView);
+	}
+
+	@Override
+	public void onDreamingStarted() {
+		super.onDreamingStarted();
+		mView.start();
+	}
+
+	@Override
+	public void onDreamingStopped() {
+		mView.stop();
+		super.onDreamingStopped();
+	}
+}
@@ -0,0 +1,1006 @@
+package org.oep.pong;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The state of a Pong match and the logic that advances it. This has no
+ * Android dependencies so that the same simulation can be driven by
+ * {@link PongView} or run headless.
+ * @author OEP
+ *
+ */
+public class PongGame {
+	public static final int
+		STARTING_LIVES = 1,
+		PLAYER_PADDLE_SPEED = 100;
+
+	/** Game steps per second */
+	public static final int FPS = 30;
+
+	/** Ticks a serve waits before the ball moves */
+	public static final int SERVE_TICKS = 60;
+
+	/** Power-ups, which are also the kinds of pickup */
+	public static final int
+		POWERUP_WIDE = 0,
+		POWERUP_SLOW = 1,
+		POWERUP_MULTIBALL = 2,
+		POWERUPS = 3;
+
+	/** Sound effects the game asks its listener to play */
+	public static final int
+		SFX_WIN = 0,
+		SFX_MISS = 1,
+		SFX_PADDLE = 2,
+		SFX_WALL = 3;
+
+	/** Indices into R.array.values_ai_strategies */
+	public static final int
+		AI_PREDICTION = 0,
+		AI_EXACT = 1,
+		AI_FOLLOW = 2,
+		AI_TABLE = 3;
+
+	/** Padding for touch zones and paddles */
+	public static final int PADDING = 3;
+
+	/**
+	 * The arena the app plays in, in world units. Speeds and sizes are all
+	 * in these units, so a match plays the same on any screen; the view
+	 * scales the arena to fit.
+	 */
+	public static final int WORLD_WIDTH = 480, WORLD_HEIGHT = 800;
+
+	/**
+	 * Receives the side effects of a game step.
+	 */
+	public interface Listener {
+		public void onSound(int sfx);
+	}
+
+	/** Size of the arena */
+	protected final int mWidth, mHeight;
+
+	/** True when the ball uses fixed-point physics */
+	protected final boolean mFixed;
+
+	/** Seed the random number generator was started with */
+	protected final long mSeed;
+
+	/** Random number generator */
+	protected final GameRandom mRng;
+
+	protected Ball mBall;
+
+	protected Paddle mRed, mBlue, mGray;
+
+	/** Starts a new round when set to true */
+	protected boolean mNewRound = true;
+
+	/** Number of steps taken since the game was created */
+	protected int mTick = 0;
+
+	/** Preferences */
+	protected int mBallSpeedModifier, mLivesModifier, mAiStrategy, mCpuHandicap;
+
+	protected Listener mListener;
+
+	/** Everything that happened in recent steps. Sounds are played from here. */
+	protected final GameEvents mEvents = new GameEvents(EVENTS);
+
+	/**
+	 * Numbers for the end screen, kept from the events. They are part of the
+	 * saved state, so they are fed every event straight from the ring,
+	 * including the ones a rollback replays without dispatching.
+	 */
+	protected final MatchStats mStats = new MatchStats(this);
+
+	/** Events up to here have been counted in mStats */
+	protected long mStatsSeen = 0;
+
+	/** Obstacles to play around, or null for an open arena */
+	protected Level mLevel;
+
+	/** Obstacle bounces since the ball was served or last hit a paddle */
+	protected int mObstacleRun = 0;
+
+	/** Obstacles near the ball this tick, from the level's tree */
+	private int[] mCandidates = new int[0];
+
+	/** Everything that happens a while from now, keyed on ticks */
+	protected final TimerWheel mWheel = new TimerWheel(TIMERS);
+
+	/** The pending timer of each TIMER_* kind, or TimerWheel.NONE */
+	protected final int[] mTimers = new int[TIMERS];
+
+	private final TimerWheel.Handler mTimerHandler = new TimerWheel.Handler() {
+		public void onTimer(int kind, int arg) {
+			timerFired(kind);
+		}
+	};
+
+	/** True if power-ups turn up during play */
+	protected boolean mPowerups = false;
+
+	/** The POWERUP_* waiting to be picked up, or -1, and where it is */
+	protected int mPickup = -1, mPickupX, mPickupY;
+
+	/** ACTOR_RED or ACTOR_BLUE, whichever hit the ball last this round */
+	protected int mLastHit = GameEvents.ACTOR_NONE;
+
+	/** Balls from a multiball. The first mExtraCount are in play. */
+	protected final Ball[] mExtras = new Ball[MULTIBALL];
+	protected int mExtraCount = 0;
+
+	/** Copies a ball's state into an extra one */
+	private final int[] mBallScratch = new int[Ball.STATE_SIZE];
+
+	/** Precomputed targets for AI_TABLE */
+	protected AiPolicy mPolicy;
+
+	/** The AI decides every mAiThinkInterval ticks, seeing the ball as it was mAiReaction ticks ago */
+	protected int mAiThinkInterval = 1, mAiReaction = 0;
+
+	/**
+	 * AI paddles told where to go for the coming step by steer(), which
+	 * skip their own strategy for it. Cleared by every step.
+	 */
+	private boolean mRedSteered = false, mBlueSteered = false;
+
+	/** The ball as the AI sees it this tick. Either mBall or mDelayed. */
+	protected Ball mSeen;
+
+	/** Recent ball states, at tick % HISTORY, and a ball to replay them into */
+	private final int[][] mHistory = new int[HISTORY][Ball.STATE_SIZE];
+	private int mHistoryCount = 0;
+	private final Ball mDelayed;
+	private int mSeenTick = -1;
+
+	/**
+	 * Creates a new game in an arena of the given size.
+	 * @param width
+	 * @param height
+	 * @param fixed, use the deterministic fixed-point ball
+	 * @param seed, seed for serve angles
+	 */
+	public PongGame(int width, int height, boolean fixed, long seed) {
+		mWidth = width;
+		mHeight = height;
+		mFixed = fixed;
+		mSeed = seed;
+		mRng = new GameRandom(seed);
+		mBall = (fixed) ? new FixedBall(width, mRng) : new Ball(width, mRng);
+		mDelayed = (fixed) ? new FixedBall(width, mRng) : new Ball(width, mRng);
+		mSeen = mBall;
+		for(int i = 0; i < MULTIBALL; i++) mExtras[i] = (fixed) ? new FixedBall(width, mRng) : new Ball(width, mRng);
+		Arrays.fill(mTimers, TimerWheel.NONE);
+		mEvents.addConsumer(new GameEvents.Consumer() {
+			public void onEvent(GameEvents events, long seq) {
+				playSound(soundFor(events.kind(seq)));
+			}
+		});
+	}
+
+	public void setBallSpeedModifier(int m) {
+		mBallSpeedModifier = m;
+	}
+
+	public void setLivesModifier(int m) {
+		mLivesModifier = m;
+	}
+
+	public void setAiStrategy(int s) {
+		mAiStrategy = s;
+	}
+
+	public void setCpuHandicap(int h) {
+		mCpuHandicap = h;
+	}
+
+	/**
+	 * @param ticks, how often the AI makes a decision. In between, its
+	 * paddles keep heading for the last target.
+	 */
+	public void setAiThinkInterval(int ticks) {
+		mAiThinkInterval = Math.max(1, ticks);
+	}
+
+	/**
+	 * @param ticks, how old the ball state is that the AI decides on
+	 */
+	public void setAiReaction(int ticks) {
+		mAiReaction = Math.max(0, Math.min(HISTORY - 1, ticks));
+	}
+
+	/**
+	 * Sends an AI paddle toward <code>x</code> on the next step in place of
+	 * the built-in strategy, as an outside program playing it would. It
+	 * moves with the AI's handicap. Holds for one step only, so a paddle that
+	 * is not steered again goes back to the strategy on the step after.
+	 * @param cpu, the red or blue paddle
+	 */
+	public void steer(Paddle cpu, int x) {
+		cpu.destination = x;
+		if(cpu == mRed) mRedSteered = true;
+		else if(cpu == mBlue) mBlueSteered = true;
+	}
+
+	/**
+	 * @param p, the table used by AI_TABLE. Without one it falls back to AI_PREDICTION.
+	 */
+	public void setAiPolicy(AiPolicy p) {
+		mPolicy = p;
+	}
+
+	/**
+	 * @param level, obstacles to play around, or null for none. Not part of
+	 * the saved state, so set the same level again after loading one.
+	 */
+	public void setLevel(Level level) {
+		mLevel = level;
+		mCandidates = new int[(level != null) ? level.getObstacles().length : 0];
+	}
+
+	/**
+	 * @param on, true to have power-ups turn up every so often. A ball that
+	 * runs into one gives it to whoever hit the ball last.
+	 */
+	public void setPowerups(boolean on) {
+		mPowerups = on;
+	}
+
+	public void setListener(Listener l) {
+		mListener = l;
+	}
+
+	/**
+	 * Places the paddles. Call once after the preferences have been set.
+	 */
+	public void initializePaddles(boolean redPlayer, boolean bluePlayer) {
+		int mid = mWidth / 2;
+
+		mRed = new Paddle(mHeight / 8 + PADDING, mid);
+		mBlue = new Paddle(7 * mHeight / 8 - PADDING - Paddle.PADDLE_THICKNESS, mid);
+		mGray = new Paddle(7 * mHeight / 8 + PADDING, mid);
+
+		mRed.setHandicap(mCpuHandicap);
+		mBlue.setHandicap(mCpuHandicap);
+		mGray.setHandicap(mCpuHandicap);
+
+		mRed.player = redPlayer;
+		mBlue.player = bluePlayer;
+
+		mRed.setLives(STARTING_LIVES + mLivesModifier);
+		mBlue.setLives(STARTING_LIVES + mLivesModifier);
+	}
+
+	/**
+	 * Advances the game by one tick, serving first if a round just ended,
+	 * then hands what happened to the event consumers.
+	 */
+	public void step() {
+		if(mNewRound) {
+			serveBall();
+			mNewRound = false;
+			publish(GameEvents.KIND_SERVE, GameEvents.ACTOR_NONE);
+		}
+		doGameLogic();
+		mTick++;
+
+		if(GameTrace.ENABLED) GameTrace.begin("timers");
+		mWheel.advance(mTimerHandler);
+		if(GameTrace.ENABLED) GameTrace.end();
+
+		if(GameTrace.ENABLED) GameTrace.begin("events");
+		for(long seq = Math.max(mStatsSeen, mEvents.oldest()); seq < mEvents.written(); seq++) {
+			mStats.onEvent(mEvents, seq);
+		}
+		mStatsSeen = mEvents.written();
+		mEvents.dispatch();
+		if(GameTrace.ENABLED) GameTrace.end();
+	}
+
+	/**
+	 * All of the game's logic (per game iteration) is in this function.
+	 * Given some initial game state, it computes the next game state.
+	 */
+	protected void doGameLogic() {
+		if(GameTrace.ENABLED) GameTrace.begin("doGameLogic");
+		mBall.move();
+
+		// What is left of the serve after this tick, for the blink and the AI
+		if(mBall.serving()) mBall.setServeCounter(mWheel.remaining(mTimers[TIMER_SERVE]) - 1);
+
+		// Shake it up if it appears to not be moving vertically
+		if(mBall.stalled()) {
+			mBall.randomAngle();
+		}
+		for(int i = 0; i < mExtraCount; i++) {
+			mExtras[i].move();
+			if(mExtras[i].stalled()) mExtras[i].randomAngle();
+		}
+
+		if(mAiReaction > 0) recordBall();
+
+		// Do some basic paddle AI
+		if(mRed.player) mRed.move();
+		else if(mRedSteered) mRed.move(true);
+		else think(mRed, mBlue, 0);
+
+		if(mBlue.player) mBlue.move();
+		else if(mBlueSteered) mBlue.move(true);
+		else think(mBlue, mRed, mAiThinkInterval / 2);
+		mRedSteered = mBlueSteered = false;
+
+		handleBounces(mBall);
+		for(int i = 0; i < mExtraCount; i++) handleBounces(mExtras[i]);
+
+		if(mPickup >= 0) {
+			collectPickup(mBall);
+			for(int i = 0; i < mExtraCount; i++) collectPickup(mExtras[i]);
+		}
+
+		// See if all is lost. Any ball will do.
+		if(!checkMiss(mBall)) {
+			for(int i = 0; i < mExtraCount && !checkMiss(mExtras[i]); i++);
+		}
+		if(GameTrace.ENABLED) GameTrace.end();
+	}
+
+	/**
+	 * Ends the round if a ball has got past a paddle.
+	 * @return true if it has
+	 */
+	protected boolean checkMiss(Ball ball) {
+		if(ball.pastBottom(mHeight)) {
+			mNewRound = true;
+			mBlue.loseLife();
+
+			if(mBlue.living()) publish(GameEvents.KIND_MISS, GameEvents.ACTOR_BLUE, ball);
+			else publish(GameEvents.KIND_WIN, GameEvents.ACTOR_RED, ball);
+			return true;
+		}
+		else if (ball.pastTop()) {
+			mNewRound = true;
+			mRed.loseLife();
+			if(mRed.living()) publish(GameEvents.KIND_MISS, GameEvents.ACTOR_RED, ball);
+			else publish(GameEvents.KIND_WIN, GameEvents.ACTOR_BLUE, ball);
+			return true;
+		}
+		return false;
+	}
+
+	protected void handleBounces(Ball ball) {
+		if(GameTrace.ENABLED) GameTrace.begin("handleBounces");
+		handleTopFastBounce(ball, mRed);
+		handleBottomFastBounce(ball, mBlue);
+		handleMiddleFastBounce(ball, mGray);
+		if(mLevel != null) handleObstacles(ball);
+
+		// Handle bouncing off of a wall
+		if(ball.sweepWalls()) {
+			publish(GameEvents.KIND_WALL, GameEvents.ACTOR_NONE, ball);
+		}
+		if(GameTrace.ENABLED) GameTrace.end();
+	}
+
+	protected void handleTopFastBounce(Ball ball, Paddle paddle) {
+		if(ball.goingUp() == false) return;
+
+		if(ball.sweepUp(paddle)) paddleHit(ball, paddle);
+	}
+
+	protected void handleMiddleFastBounce(Ball ball, Paddle paddle) {
+		if(ball.sweepUp(paddle)) paddleHit(ball, paddle);
+	}
+
+	protected void handleBottomFastBounce(Ball ball, Paddle paddle) {
+		if(ball.goingDown() == false) return;
+
+		if(ball.sweepDown(paddle)) paddleHit(ball, paddle);
+	}
+
+	/**
+	 * Called when a ball has just bounced off a paddle.
+	 */
+	protected void paddleHit(Ball ball, Paddle paddle) {
+		publish(GameEvents.KIND_PADDLE, actorOf(paddle), ball);
+		increaseDifficulty(ball);
+		if(ball == mBall) mObstacleRun = 0;
+		if(paddle == mRed || paddle == mBlue) mLastHit = actorOf(paddle);
+	}
+
+	/**
+	 * Bounces a ball off the first obstacle in its way. Only the obstacles
+	 * the tree finds near the box the ball swept this tick are tested, so a
+	 * crowded level costs about what an empty one does.
+	 */
+	protected void handleObstacles(Ball ball) {
+		if(GameTrace.ENABLED) GameTrace.begin("handleObstacles");
+		mLevel.moveTo(mTick);
+
+		// Two units of slack: one for the float mirror of a fixed-point ball
+		// being rounded, one for the casts rounding toward zero
+		int reach = Ball.RADIUS + 2;
+		int left = (int) Math.min(ball.x, ball.xp) - reach;
+		int top = (int) Math.min(ball.y, ball.yp) - reach;
+		int right = (int) Math.max(ball.x, ball.xp) + reach;
+		int bottom = (int) Math.max(ball.y, ball.yp) + reach;
+
+		int count = mLevel.getTree().query(left, top, right, bottom, mCandidates);
+		if(count > 0 && ball.sweepObstacles(mLevel.getObstacles(), mCandidates, count) >= 0) {
+			publish(GameEvents.KIND_OBSTACLE, GameEvents.ACTOR_NONE, ball);
+
+			// Shake it up if it has found a loop between obstacles that never
+			// reaches a paddle. Extra balls do not last long enough to need it.
+			if(ball == mBall && ++mObstacleRun > OBSTACLE_RUN) {
+				mBall.randomAngle();
+				mObstacleRun = 0;
+			}
+		}
+		if(GameTrace.ENABLED) GameTrace.end();
+	}
+
+	/**
+	 * Lets the AI decide if it is this paddle's turn, and otherwise keeps
+	 * the paddle going where it was going. The two paddles think on
+	 * different ticks so the work is spread out.
+	 */
+	protected void think(Paddle cpu, Paddle opponent, int phase) {
+		if((mTick + phase) % mAiThinkInterval != 0) {
+			cpu.move(true);
+			return;
+		}
+
+		// With a multiball on, each paddle watches whichever ball is coming
+		// for it soonest, as it is now
+		if(mExtraCount > 0) {
+			mSeen = threat(cpu);
+			mSeenTick = -1;
+		}
+		else if(mSeenTick != mTick) {
+			mSeen = (mAiReaction > 0) ? delayedBall() : mBall;
+			mSeenTick = mTick;
+		}
+
+		if(GameTrace.ENABLED) GameTrace.begin("doAI");
+		doAI(cpu, opponent);
+		if(GameTrace.ENABLED) GameTrace.end();
+	}
+
+	/**
+	 * @return the nearest ball heading for a paddle, or the served ball if
+	 * none is
+	 */
+	private Ball threat(Paddle cpu) {
+		Ball seen = mBall;
+		float closest = Float.MAX_VALUE;
+		for(int i = -1; i < mExtraCount; i++) {
+			Ball b = (i < 0) ? mBall : mExtras[i];
+			if(b.serving() || ((cpu == mRed) ? !b.goingUp() : !b.goingDown())) continue;
+
+			float d = Math.abs(b.y - cpu.centerY());
+			if(d < closest) {
+				closest = d;
+				seen = b;
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * Copies this tick's ball into the history ring.
+	 */
+	private void recordBall() {
+		mBall.save(mHistory[mTick % HISTORY], 0);
+		mHistoryCount = Math.min(HISTORY, mHistoryCount + 1);
+	}
+
+	/**
+	 * @return the ball as it was mAiReaction ticks ago, or as far back as
+	 * the history goes
+	 */
+	private Ball delayedBall() {
+		int back = Math.min(mAiReaction, mHistoryCount - 1);
+		mDelayed.load(mHistory[(mTick - back) % HISTORY], 0);
+		return mDelayed;
+	}
+
+	protected void doAI(Paddle cpu, Paddle opponent) {
+		switch(mAiStrategy) {
+		case AI_FOLLOW:	aiFollow(cpu); break;
+		case AI_EXACT:	aiExact(cpu); break;
+		case AI_TABLE:	aiTable(cpu, opponent); break;
+		default: aiPrediction(cpu,opponent); break;
+		}
+	}
+
+	/**
+	 * A generalized Pong AI player. Takes a Rect object and a Ball, computes where the ball will
+	 * be when ball.y == rect.y, and tries to move toward that x-coordinate. If the ball is moving
+	 * straight it will try to clip the ball with the edge of the paddle.
+	 * @param cpu
+	 */
+	protected void aiPrediction(Paddle cpu, Paddle opponent) {
+		// Special case: move torward the center if the ball is blinking
+		if(mSeen.serving()) {
+			cpu.destination = mWidth / 2;
+			cpu.move(true);
+			return;
+		}
+
+		// Something is wrong if vy = 0.. let's wait until things fix themselves
+		if(mSeen.vy == 0) return;
+
+		cpu.destination = mSeen.predictX(cpu.centerY(), opponent.centerY());
+
+		// Try to give it a little kick if vx = 0. The salt changes every ten
+		// seconds of play, counted in ticks so a replay kicks the same way.
+		int salt = mTick / (10 * FPS);
+		Random r = new Random(mSeen.aiSeed(cpu.centerY(), salt));
+		int width = cpu.getWidth();
+		cpu.destination = bound(
+				cpu.destination + r.nextInt(2 * width - (width / 5)) - width + (width / 10),
+				0, mWidth
+		);
+		cpu.move(true);
+	}
+
+	/**
+	 * Looks the target up in the precomputed policy instead of working it out.
+	 */
+	protected void aiTable(Paddle cpu, Paddle opponent) {
+		if(mPolicy == null) {
+			aiPrediction(cpu, opponent);
+			return;
+		}
+
+		if(mSeen.serving()) {
+			cpu.destination = mWidth / 2;
+		}
+		else {
+			cpu.destination = mPolicy.target(mSeen, cpu, cpu == mRed, mWidth, mHeight);
+		}
+		cpu.move(true);
+	}
+
+	protected void aiExact(Paddle cpu) {
+		cpu.destination = mSeen.intX();
+		cpu.setPosition(cpu.destination);
+	}
+
+	protected void aiFollow(Paddle cpu) {
+		cpu.destination = mSeen.intX();
+		cpu.move(true);
+	}
+
+	/**
+	 * Knocks up the framerate a bit to keep it difficult.
+	 */
+	protected void increaseDifficulty(Ball ball) {
+		ball.accelerate();
+	}
+
+	/**
+	 * Reset ball to an initial state. It waits SERVE_TICKS before moving,
+	 * and extra balls from a multiball go away.
+	 */
+	public void serveBall() {
+		mBall.setPosition(mWidth / 2, mHeight / 2);
+		mBall.setSpeed(Ball.SPEED + mBallSpeedModifier);
+		mBall.randomAngle();
+		mBall.setServeCounter(SERVE_TICKS);
+		startTimer(TIMER_SERVE, SERVE_TICKS);
+		mObstacleRun = 0;
+		mLastHit = GameEvents.ACTOR_NONE;
+
+		mExtraCount = 0;
+		stopTimer(TIMER_MULTIBALL);
+		if(mPowerups && mTimers[TIMER_SPAWN] == TimerWheel.NONE) startTimer(TIMER_SPAWN, POWERUP_EVERY);
+	}
+
+	/**
+	 * Reset the lives and paddles for a new game.
+	 */
+	public void newGame() {
+		resetPaddles();
+		clearPowerups();
+		serveBall();
+		mStats.reset();
+	}
+
+	/**
+	 * Takes away every power-up and the one waiting to be picked up.
+	 */
+	protected void clearPowerups() {
+		for(int k = TIMER_SPAWN; k < TIMERS; k++) stopTimer(k);
+		mPickup = -1;
+		mExtraCount = 0;
+		mRed.setWidth(Paddle.PADDLE_WIDTH);
+		mBlue.setWidth(Paddle.PADDLE_WIDTH);
+		mBall.setSlow(false);
+	}
+
+	/**
+	 * Starts a timer of one of the TIMER_* kinds, replacing any of that kind
+	 * already pending.
+	 */
+	protected void startTimer(int kind, int ticks) {
+		mWheel.cancel(mTimers[kind]);
+		mTimers[kind] = mWheel.schedule(ticks, kind, 0);
+	}
+
+	protected void stopTimer(int kind) {
+		mWheel.cancel(mTimers[kind]);
+		mTimers[kind] = TimerWheel.NONE;
+	}
+
+	/**
+	 * Called by the wheel as a timer goes off. Timers due on the same tick
+	 * go off in no set order, so none of these may depend on another; the
+	 * one that uses the random numbers, TIMER_SPAWN, never shares a tick
+	 * with TIMER_PICKUP since a pickup always goes before the next comes.
+	 */
+	protected void timerFired(int kind) {
+		mTimers[kind] = TimerWheel.NONE;
+		switch(kind) {
+		case TIMER_SERVE: mBall.setServeCounter(0); break;
+		case TIMER_SPAWN:
+			spawnPickup();
+			startTimer(TIMER_SPAWN, POWERUP_EVERY);
+			break;
+		case TIMER_PICKUP: mPickup = -1; break;
+		case TIMER_WIDE_RED: mRed.setWidth(Paddle.PADDLE_WIDTH); break;
+		case TIMER_WIDE_BLUE: mBlue.setWidth(Paddle.PADDLE_WIDTH); break;
+		case TIMER_SLOW: setSlow(false); break;
+		case TIMER_MULTIBALL: mExtraCount = 0; break;
+		}
+	}
+
+	/**
+	 * Puts a random power-up somewhere in the middle of the arena for a while.
+	 */
+	protected void spawnPickup() {
+		mPickup = mRng.nextInt(POWERUPS);
+		mPickupX = PICKUP_MARGIN + mRng.nextInt(mWidth - 2 * PICKUP_MARGIN);
+		mPickupY = 3 * mHeight / 8 + mRng.nextInt(mHeight / 4);
+		startTimer(TIMER_PICKUP, PICKUP_TICKS);
+	}
+
+	/**
+	 * Hands the power-up on the field to whoever last hit a ball that has
+	 * run into it. Nobody can have it until someone has hit the ball.
+	 */
+	protected void collectPickup(Ball ball) {
+		if(mPickup < 0 || mLastHit == GameEvents.ACTOR_NONE) return;
+		int dx = ball.intX() - mPickupX, dy = ball.intY() - mPickupY, reach = Ball.RADIUS + PICKUP_RADIUS;
+		if(dx * dx + dy * dy > reach * reach) return;
+
+		int kind = mPickup;
+		mPickup = -1;
+		stopTimer(TIMER_PICKUP);
+		publish(GameEvents.KIND_POWERUP, mLastHit, ball);
+
+		switch(kind) {
+		case POWERUP_WIDE:
+			Paddle paddle = (mLastHit == GameEvents.ACTOR_RED) ? mRed : mBlue;
+			paddle.setWidth(WIDE_WIDTH);
+			startTimer((paddle == mRed) ? TIMER_WIDE_RED : TIMER_WIDE_BLUE, WIDE_TICKS);
+			break;
+		case POWERUP_SLOW:
+			setSlow(true);
+			startTimer(TIMER_SLOW, SLOW_TICKS);
+			break;
+		case POWERUP_MULTIBALL:
+			// The extras start where the ball is and go their own ways
+			ball.save(mBallScratch, 0);
+			for(int i = 0; i < MULTIBALL; i++) {
+				mExtras[i].load(mBallScratch, 0);
+				mExtras[i].randomAngle();
+			}
+			mExtraCount = MULTIBALL;
+			startTimer(TIMER_MULTIBALL, MULTIBALL_TICKS);
+			break;
+		}
+	}
+
+	private void setSlow(boolean slow) {
+		mBall.setSlow(slow);
+		for(int i = 0; i < mExtraCount; i++) mExtras[i].setSlow(slow);
+	}
+
+	/**
+	 * Resets the lives and the position of the paddles.
+	 */
+	protected void resetPaddles() {
+		int mid = mWidth / 2;
+		mRed.setPosition(mid);
+		mBlue.setPosition(mid);
+		mRed.destination = mid;
+		mBlue.destination = mid;
+		mRed.setLives(STARTING_LIVES);
+		mBlue.setLives(STARTING_LIVES);
+	}
+
+	public boolean running() {
+		return mRed != null && mBlue != null
+			&& mRed.living() && mBlue.living();
+	}
+
+	/**
+	 * A cheap hash of the simulation state. Two fixed-point games with the
+	 * same seed and inputs have the same checksum on every machine.
+	 */
+	public long checksum() {
+		long h = mTick;
+		h = 31 * h + Float.floatToIntBits(mBall.x);
+		h = 31 * h + Float.floatToIntBits(mBall.y);
+		h = 31 * h + Float.floatToIntBits(mBall.vx);
+		h = 31 * h + Float.floatToIntBits(mBall.vy);
+		h = 31 * h + mRed.centerX();
+		h = 31 * h + mBlue.centerX();
+		h = 31 * h + mRed.getLives();
+		h = 31 * h + mBlue.getLives();
+		return h;
+	}
+
+	/**
+	 * Copies everything that changes during play into <code>s</code>, which
+	 * must hold at least STATE_SIZE ints. Does not allocate.
+	 */
+	public void saveState(int[] s) {
+		int i = 0;
+		s[i++] = mTick;
+		s[i++] = (mNewRound) ? 1 : 0;
+		long rng = mRng.getState();
+		s[i++] = (int) (rng >>> 32);
+		s[i++] = (int) rng;
+		i = mBall.save(s, i);
+		i = mRed.save(s, i);
+		i = mBlue.save(s, i);
+		i = mGray.save(s, i);
+		s[i++] = mObstacleRun;
+
+		for(int k = 0; k < TIMERS; k++) s[i++] = mWheel.due(mTimers[k]);
+		s[i++] = mPickup;
+		s[i++] = mPickupX;
+		s[i++] = mPickupY;
+		s[i++] = mLastHit;
+		s[i++] = mExtraCount;
+		for(int b = 0; b < MULTIBALL; b++) i = mExtras[b].save(s, i);
+		i = mStats.save(s, i);
+	}
+
+	/**
+	 * Puts the game back the way it was when saveState() was called.
+	 */
+	public void loadState(int[] s) {
+		int i = 0;
+		mTick = s[i++];
+		mNewRound = s[i++] != 0;
+		long hi = s[i++], lo = s[i++];
+		mRng.setState((hi << 32) | (lo & 0xffffffffL));
+		i = mBall.load(s, i);
+		i = mRed.load(s, i);
+		i = mBlue.load(s, i);
+		i = mGray.load(s, i);
+		mObstacleRun = s[i++];
+
+		// Timers are put back by when they are due, which is all they are
+		mWheel.reset(mTick);
+		for(int k = 0; k < TIMERS; k++) {
+			int due = s[i++];
+			mTimers[k] = (due < 0) ? TimerWheel.NONE : mWheel.schedule(due - mTick, k, 0);
+		}
+		mPickup = s[i++];
+		mPickupX = s[i++];
+		mPickupY = s[i++];
+		mLastHit = s[i++];
+		mExtraCount = s[i++];
+		for(int b = 0; b < MULTIBALL; b++) i = mExtras[b].load(s, i);
+		i = mStats.load(s, i);
+
+		// The AI's view of the past is not part of the state, so it starts over
+		mHistoryCount = 0;
+		mSeenTick = -1;
+
+		// Whatever happened after this tick has not happened yet
+		mEvents.rewind(mTick);
+		mStatsSeen = mEvents.written();
+	}
+
+	protected int bound(int x, int low, int hi) {
+		return Math.max(low, Math.min(x, hi));
+	}
+
+	/**
+	 * Records an event at the ball's current position. Does not allocate.
+	 */
+	protected void publish(int kind, int actor) {
+		publish(kind, actor, mBall);
+	}
+
+	protected void publish(int kind, int actor, Ball ball) {
+		mEvents.publish(mTick, kind, actor, ball.x, ball.y, ball.speed);
+	}
+
+	protected int actorOf(Paddle p) {
+		if(p == mRed) return GameEvents.ACTOR_RED;
+		if(p == mBlue) return GameEvents.ACTOR_BLUE;
+		if(p == mGray) return GameEvents.ACTOR_GRAY;
+		return GameEvents.ACTOR_NONE;
+	}
+
+	/**
+	 * @return the SFX_* for an event kind, or -1 if it is silent
+	 */
+	protected static int soundFor(int kind) {
+		switch(kind) {
+		case GameEvents.KIND_PADDLE:
+		case GameEvents.KIND_POWERUP: return SFX_PADDLE;
+		case GameEvents.KIND_WALL:
+		case GameEvents.KIND_OBSTACLE: return SFX_WALL;
+		case GameEvents.KIND_MISS: return SFX_MISS;
+		case GameEvents.KIND_WIN: return SFX_WIN;
+		default: return -1;
+		}
+	}
+
+	protected void playSound(int sfx) {
+		if(mListener != null && sfx >= 0) mListener.onSound(sfx);
+	}
+
+	public Ball getBall() {
+		return mBall;
+	}
+
+	public Paddle getRed() {
+		return mRed;
+	}
+
+	public Paddle getBlue() {
+		return mBlue;
+	}
+
+	public Paddle getGray() {
+		return mGray;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int getTick() {
+		return mTick;
+	}
+
+	public long getSeed() {
+		return mSeed;
+	}
+
+	public boolean isFixed() {
+		return mFixed;
+	}
+
+	public boolean isNewRound() {
+		return mNewRound;
+	}
+
+	public int getBallSpeedModifier() {
+		return mBallSpeedModifier;
+	}
+
+	public int getLivesModifier() {
+		return mLivesModifier;
+	}
+
+	public int getAiStrategy() {
+		return mAiStrategy;
+	}
+
+	public int getCpuHandicap() {
+		return mCpuHandicap;
+	}
+
+	public Level getLevel() {
+		return mLevel;
+	}
+
+	public boolean hasPowerups() {
+		return mPowerups;
+	}
+
+	/**
+	 * @return the POWERUP_* waiting on the field, or -1
+	 */
+	public int getPickup() {
+		return mPickup;
+	}
+
+	public int getPickupX() {
+		return mPickupX;
+	}
+
+	public int getPickupY() {
+		return mPickupY;
+	}
+
+	/**
+	 * @return the multiball's balls, of which the first getExtraCount() are in play
+	 */
+	public Ball[] getExtras() {
+		return mExtras;
+	}
+
+	public int getExtraCount() {
+		return mExtraCount;
+	}
+
+	/**
+	 * @param kind, one of POWERUP_WIDE and POWERUP_SLOW
+	 * @return ticks until the power-up runs out, or 0 if it is not on.
+	 * Wide is either paddle's.
+	 */
+	public int powerupTicks(int kind, int actor) {
+		int timer = TIMER_SLOW;
+		if(kind == POWERUP_WIDE) timer = (actor == GameEvents.ACTOR_RED) ? TIMER_WIDE_RED : TIMER_WIDE_BLUE;
+		else if(kind == POWERUP_MULTIBALL) timer = TIMER_MULTIBALL;
+		return mWheel.remaining(mTimers[timer]);
+	}
+
+	public Listener getListener() {
+		return mListener;
+	}
+
+	public GameEvents getEvents() {
+		return mEvents;
+	}
+
+	public MatchStats getStats() {
+		return mStats;
+	}
+
+	/** Events kept in the ring, a few seconds of play */
+	public static final int EVENTS = 256;
+
+	/** Ticks of ball history kept for the AI's reaction delay */
+	public static final int HISTORY = 16;
+
+	/** Obstacle bounces in a row before the ball is sent off in a new direction */
+	public static final int OBSTACLE_RUN = 48;
+
+	/** Kinds of game timer. Each kind has at most one pending. */
+	protected static final int
+		TIMER_SERVE = 0,
+		TIMER_SPAWN = 1,
+		TIMER_PICKUP = 2,
+		TIMER_WIDE_RED = 3,
+		TIMER_WIDE_BLUE = 4,
+		TIMER_SLOW = 5,
+		TIMER_MULTIBALL = 6,
+		TIMERS = 7;
+
+	/** How often a power-up turns up, and how long it waits to be picked up */
+	public static final int POWERUP_EVERY = 10 * FPS, PICKUP_TICKS = 6 * FPS;
+
+	/** How long each power-up lasts */
+	public static final int WIDE_TICKS = 10 * FPS, SLOW_TICKS = 6 * FPS, MULTIBALL_TICKS = 8 * FPS;
+
+	/** Half the width of a widened paddle */
+	public static final int WIDE_WIDTH = 2 * Paddle.PADDLE_WIDTH;
+
+	/** Extra balls a multiball puts in play */
+	public static final int MULTIBALL = 2;
+
+	/** Size of a pickup, and how far from the side walls one may be */
+	public static final int PICKUP_RADIUS = 12, PICKUP_MARGIN = 40;
+
+	/** Ints written by saveState() */
+	public static final int STATE_SIZE = 5 + TIMERS + 5 + (1 + MULTIBALL) * Ball.STATE_SIZE + 3 * Paddle.STATE_SIZE
+		+ MatchStats.STATE_SIZE;
+}
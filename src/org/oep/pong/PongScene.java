@@ -0,0 +1,314 @@
+package org.oep.pong;
+
+import java.util.Locale;
+
+/**
+ * Draws a frame of a match through a {@link Renderer}: the arena fitted to
+ * the screen with a letterbox, the level's obstacles, the paddles, balls
+ * and power-ups, the touch lines, the serve and pause hints, the lives and
+ * the end screen with its statistics. It can also draw a frame of an
+ * instant replay in place of the live match.
+ * It keeps no platform objects, so the same frame can be drawn to a Canvas
+ * on a device or to a RasterRenderer on the JVM.
+ * @author OEP
+ *
+ */
+public class PongScene {
+	/** Indices into the labels handed to the constructor */
+	public static final int
+		LABEL_JOIN = 0,
+		LABEL_PAUSE = 1,
+		LABEL_PAUSED = 2,
+		LABEL_RED_WINS = 3,
+		LABEL_BLUE_WINS = 4,
+		STATS_RALLY = 5,
+		STATS_HITS = 6,
+		STATS_SPEED = 7,
+		STATS_SERVE = 8,
+		STATS_WALLS = 9,
+		STATS_AIM = 10,
+		LABEL_REPLAY = 11,
+		LABELS = 12;
+
+	/** Colors, the same values as android.graphics.Color */
+	public static final int
+		BLACK = 0xff000000,
+		WHITE = 0xffffffff,
+		RED = 0xffff0000,
+		GREEN = 0xff00ff00,
+		BLUE = 0xff0000ff,
+		GRAY = 0xff888888;
+
+	/** Level obstacles, dimmer than anything that moves on its own */
+	public static final int OBSTACLE = 0xff505050;
+
+	/** Pickups, by PongGame.POWERUP_*: yellow for wide, cyan for slow, magenta for multiball */
+	private static final int[] PICKUP = { 0xffffff00, 0xff00ffff, 0xffff00ff };
+
+	/** Fills the bars beside an arena that does not have the screen's shape */
+	public static final int LETTERBOX = 0xff202020;
+
+	/** Size of on-screen text in world units */
+	public static final float TEXT_SIZE = 16;
+
+	private final String[] mLabels;
+
+	/** The end screen's statistics, made when first shown */
+	private String[] mStatsLines;
+
+	/** How fast the match is running, or null at real time */
+	private String mSpeedLabel;
+
+	/** How the arena was last fitted to the screen */
+	private float mScale = 1, mOffsetX, mOffsetY;
+
+	/**
+	 * @param labels, LABELS strings indexed by LABEL_* and STATS_*. The
+	 * statistics are format strings taking the same arguments as
+	 * R.string.stats_*.
+	 */
+	public PongScene(String[] labels) {
+		mLabels = labels;
+	}
+
+	/**
+	 * Works out how to show an arena as large as it will go on a screen
+	 * without stretching it, centered between bars on the sides it does not
+	 * fill.
+	 */
+	public void fit(int screenWidth, int screenHeight, int worldWidth, int worldHeight) {
+		mScale = Math.min((float) screenWidth / worldWidth, (float) screenHeight / worldHeight);
+		mOffsetX = (screenWidth - worldWidth * mScale) / 2;
+		mOffsetY = (screenHeight - worldHeight * mScale) / 2;
+	}
+
+	/** Screen to world coordinates, for touches */
+	public float toWorldX(float x) {
+		return (x - mOffsetX) / mScale;
+	}
+
+	public float toWorldY(float y) {
+		return (y - mOffsetY) / mScale;
+	}
+
+	/**
+	 * Height of the touch zones at the top and bottom of an arena.
+	 */
+	public static int touchHeight(int worldHeight) {
+		return worldHeight / 8;
+	}
+
+	/**
+	 * Half the side of the square in the middle that pauses the game.
+	 */
+	public static int pauseHalf(int worldWidth, int worldHeight) {
+		return Math.min(worldWidth / 4, worldHeight / 4);
+	}
+
+	/**
+	 * @param label, shown in a corner while a match is sped up or slowed
+	 * down, or null
+	 */
+	public void setSpeedLabel(String label) {
+		mSpeedLabel = label;
+	}
+
+	/**
+	 * Forgets the statistics so the next end screen describes a new match.
+	 */
+	public void newMatch() {
+		mStatsLines = null;
+	}
+
+	/**
+	 * Draws a whole frame. Call fit() first.
+	 * @param paused, true if the player paused the match
+	 */
+	public void draw(Renderer r, PongGame game, boolean paused) {
+		int width = game.getWidth(), height = game.getHeight();
+		Paddle red = game.getRed(), blue = game.getBlue();
+		Ball ball = game.getBall();
+		boolean running = game.running();
+
+		r.clear(LETTERBOX);
+		r.pushLayer(mScale, mOffsetX, mOffsetY, width, height);
+		r.clear(BLACK);
+
+		Level level = game.getLevel();
+		if(level != null) drawObstacles(r, level.getObstacles());
+
+		drawPaddle(r, red, RED);
+		drawPaddle(r, blue, BLUE);
+		drawPaddle(r, game.getGray(), GRAY);
+
+		int pickup = game.getPickup();
+		if(pickup >= 0) {
+			r.circle(game.getPickupX(), game.getPickupY(), PongGame.PICKUP_RADIUS, PICKUP[pickup], false);
+			r.circle(game.getPickupX(), game.getPickupY(), PongGame.PICKUP_RADIUS / 2, PICKUP[pickup], true);
+		}
+
+		if(ball.visible()) r.circle(ball.x, ball.y, Ball.RADIUS, GREEN, true);
+		Ball[] extras = game.getExtras();
+		for(int i = 0; i < game.getExtraCount(); i++) r.circle(extras[i].x, extras[i].y, Ball.RADIUS, GREEN, true);
+
+		// The edge of each player's touch zone nearest the middle
+		int touch = touchHeight(height);
+		if(running && red.player && !paused) r.line(0, touch, width, touch, RED);
+		if(running && blue.player && !paused) r.line(0, height - touch, width, height - touch, BLUE);
+
+		// If either is a not a player, blink and let them know they can join in!
+		// This blinks with the ball.
+		if(ball.serving()) {
+			String join = mLabels[LABEL_JOIN];
+			float joinw = r.textWidth(join);
+			if(!red.player) r.text(join, width / 2 - joinw / 2, touch / 2, RED);
+			if(!blue.player) r.text(join, width / 2 - joinw / 2, height - touch / 2, BLUE);
+
+			// Show where the player can touch to pause the game
+			String pause = mLabels[LABEL_PAUSE];
+			int half = pauseHalf(width, height);
+			r.rect(width / 2 - half, height / 2 - half, width / 2 + half, height / 2 + half, RED, false);
+			r.text(pause, width / 2 - r.textWidth(pause) / 2, height / 2, RED);
+		}
+
+		if(running && paused) centerText(r, mLabels[LABEL_PAUSED], width, height / 2, WHITE);
+		if(mSpeedLabel != null) {
+			r.text(mSpeedLabel, width - PongGame.PADDING - r.textWidth(mSpeedLabel), PongGame.PADDING + r.textAscent(), GRAY);
+		}
+
+		drawLives(r, red.getLives(), blue.getLives(), height);
+
+		// Announce the winner!
+		if(!running) {
+			String s = "You both lose";
+			int color = GREEN;
+			if(!blue.living()) {
+				s = mLabels[LABEL_RED_WINS];
+				color = RED;
+			}
+			else if(!red.living()) {
+				s = mLabels[LABEL_BLUE_WINS];
+				color = BLUE;
+			}
+			centerText(r, s, width, height / 2, color);
+			drawStats(r, game.getStats(), width, height / 2 + r.textAscent() / 2 + 2 * r.lineSpacing());
+		}
+
+		r.popLayer();
+	}
+
+	/**
+	 * Draws the frame under a replay's cursor instead of the live match. The
+	 * level's bars are put where they were on that tick while it is drawn
+	 * and put back after, so the game is left as it was.
+	 */
+	public void drawReplay(Renderer r, PongGame game, ReplayBuffer replay) {
+		int width = game.getWidth(), height = game.getHeight();
+		Paddle red = game.getRed(), blue = game.getBlue(), gray = game.getGray();
+
+		r.clear(LETTERBOX);
+		r.pushLayer(mScale, mOffsetX, mOffsetY, width, height);
+		r.clear(BLACK);
+
+		Level level = game.getLevel();
+		if(level != null) {
+			level.moveTo(replay.tick());
+			drawObstacles(r, level.getObstacles());
+			level.moveTo(Math.max(0, game.getTick() - 1));
+		}
+
+		r.rect(replay.redLeft(), red.getTop(), replay.redRight(), red.getBottom(), RED, true);
+		r.rect(replay.blueLeft(), blue.getTop(), replay.blueRight(), blue.getBottom(), BLUE, true);
+		r.rect(replay.grayLeft(), gray.getTop(), replay.grayRight(), gray.getBottom(), GRAY, true);
+
+		int pickup = replay.pickup();
+		if(pickup >= 0) {
+			r.circle(replay.pickupX(), replay.pickupY(), PongGame.PICKUP_RADIUS, PICKUP[pickup], false);
+			r.circle(replay.pickupX(), replay.pickupY(), PongGame.PICKUP_RADIUS / 2, PICKUP[pickup], true);
+		}
+
+		if(replay.ballVisible()) r.circle(replay.ballX(), replay.ballY(), Ball.RADIUS, GREEN, true);
+		for(int i = 0; i < replay.extraCount(); i++) r.circle(replay.extraX(i), replay.extraY(i), Ball.RADIUS, GREEN, true);
+
+		// Blink the label while in slow motion
+		if(!replay.slow() || (replay.tick() / 4) % 2 == 0) {
+			String s = mLabels[LABEL_REPLAY];
+			r.text(s, width / 2 - r.textWidth(s) / 2, touchHeight(height) + r.lineSpacing(), WHITE);
+		}
+
+		drawLives(r, replay.redLives(), replay.blueLives(), height);
+		r.popLayer();
+	}
+
+	/**
+	 * Draws the particles over a frame drawn by draw(), in the arena.
+	 */
+	public void drawParticles(Renderer r, PongGame game, Particles particles) {
+		r.pushLayer(mScale, mOffsetX, mOffsetY, game.getWidth(), game.getHeight());
+		particles.draw(r);
+		r.popLayer();
+	}
+
+	private static void drawLives(Renderer r, int redLives, int blueLives, int height) {
+		for(int i = 0; i < redLives; i++) {
+			r.circle(Ball.RADIUS + PongGame.PADDING + i * (2 * Ball.RADIUS + PongGame.PADDING),
+					PongGame.PADDING + Ball.RADIUS, Ball.RADIUS, WHITE, true);
+		}
+		for(int i = 0; i < blueLives; i++) {
+			r.circle(Ball.RADIUS + PongGame.PADDING + i * (2 * Ball.RADIUS + PongGame.PADDING),
+					height - PongGame.PADDING - Ball.RADIUS, Ball.RADIUS, WHITE, true);
+		}
+	}
+
+	/**
+	 * Draws a line of text centered on <code>(width / 2, y)</code>.
+	 */
+	private static void centerText(Renderer r, String s, int width, float y, int color) {
+		r.text(s, width / 2 - r.textWidth(s) / 2, y + r.textAscent() / 2, color);
+	}
+
+	private static void drawPaddle(Renderer r, Paddle paddle, int color) {
+		r.rect(paddle.getLeft(), paddle.getTop(), paddle.getRight(), paddle.getBottom(), color, true);
+	}
+
+	private static void drawObstacles(Renderer r, Obstacle[] obstacles) {
+		for(int i = 0; i < obstacles.length; i++) {
+			Obstacle o = obstacles[i];
+			if(o.isCircle()) r.circle(o.centerX(), o.centerY(), o.getRadius(), OBSTACLE, true);
+			else r.rect(o.getLeft(), o.getTop(), o.getRight(), o.getBottom(), OBSTACLE, true);
+		}
+	}
+
+	/**
+	 * Lists the match statistics under the winner. The lines are made once
+	 * per match, so the end screen does not allocate on every frame.
+	 */
+	private void drawStats(Renderer r, MatchStats stats, int width, float y) {
+		if(mStatsLines == null) mStatsLines = describeStats(stats);
+
+		float spacing = r.lineSpacing();
+		for(int i = 0; i < mStatsLines.length; i++) {
+			String line = mStatsLines[i];
+			r.text(line, width / 2 - r.textWidth(line) / 2, y + i * spacing, WHITE);
+		}
+	}
+
+	private String[] describeStats(MatchStats stats) {
+		int redAim = stats.getAimError(GameEvents.ACTOR_RED);
+		int blueAim = stats.getAimError(GameEvents.ACTOR_BLUE);
+		int aim = (redAim < 0) ? blueAim : (blueAim < 0) ? redAim : (redAim + blueAim) / 2;
+
+		String[] lines = new String[(aim < 0) ? 5 : 6];
+		lines[0] = format(STATS_RALLY, stats.getLongestRally(), stats.getAverageRally());
+		lines[1] = format(STATS_HITS, stats.getHits(GameEvents.ACTOR_RED), stats.getHits(GameEvents.ACTOR_BLUE));
+		lines[2] = format(STATS_SPEED, stats.getTopSpeed());
+		lines[3] = format(STATS_SERVE, stats.getAverageSeconds(), stats.getLongestSeconds());
+		lines[4] = format(STATS_WALLS, stats.getWallBounces(), stats.getMostWalls());
+		if(aim >= 0) lines[5] = format(STATS_AIM, aim);
+		return lines;
+	}
+
+	private String format(int label, Object... args) {
+		return String.format(Locale.getDefault(), mLabels[label], args);
+	}
+}
@@ -1,18 +1,28 @@
 package org.oep.pong;
 
-import java.util.Random;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.oep.pong.net.BotServer;
+import org.oep.pong.net.Broadcaster;
+import org.oep.pong.net.NetClient;
+import org.oep.pong.net.NetHost;
+import org.oep.pong.net.NetProtocol;
+import org.oep.pong.net.RollbackPeer;
+import org.oep.pong.net.RollbackSession;
+import org.oep.pong.net.Spectator;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Paint.Style;
-import android.media.AudioManager;
-import android.media.SoundPool;
 import android.os.Handler;
 import android.os.Message;
 import android.preference.PreferenceManager;
@@ -31,15 +41,11 @@ import android.widget.Toast;
  *
  */
 @SuppressLint("HandlerLeak")
-public class PongView extends View implements OnTouchListener, OnKeyListener {
+public class PongView extends View implements OnTouchListener, OnKeyListener, PongGame.Listener {
 	/** Debug tag */
 	@SuppressWarnings("unused")
 	private static final String TAG = "PongView";
-	protected static final int FPS = 30;
-	
-	public static final int
-		STARTING_LIVES = 1,
-		PLAYER_PADDLE_SPEED = 100;
+	protected static final int FPS = PongGame.FPS;
 	
 	/**
 	 * This is mostly deprecated but kept around if the need
@@ -64,47 +70,177 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
 	/** CPU handicap */
 	private int mCpuHandicap;
 	
-	/** Starts a new round when set to true */
-	private boolean mNewRound = true;
+	/** Ticks between AI decisions, and how stale the ball it sees is */
+	private int mAiThinkInterval, mAiReaction;
 	
 	/** Keeps the game thread alive */
 	private boolean mContinue = true;
 	
 	/** Mutes sounds when true */
 	private boolean mMuted = false;
+	
+	/** Use the deterministic fixed-point ball */
+	private boolean mFixedPoint = false;
+	
+	/** Play LAN games with rollback instead of mirroring the host */
+	private boolean mRollback = false;
+	
+	/** Input delay for rollback games, in ticks */
+	private int mInputDelay = 2;
+	
+	/** Stream matches to spectators */
+	private boolean mBroadcast = false;
+	
+	/** Let programs on this device play the AI paddles of local matches */
+	private boolean mBotsOn = false;
+	
+	/** Level asset to play around, or LEVEL_OPEN for none */
+	private String mLevelName = LEVEL_OPEN;
+	
+	/** Have power-ups turn up in local matches */
+	private boolean mPowerups = false;
+	
+	/** Show an instant replay when a point is lost in a local match */
+	private boolean mReplayOn = false;
+	
+	/** The point so far, and whether the last step lost it. Null unless replays are on. */
+	private ReplayBuffer mReplay;
+	private boolean mPointLost = false;
+	
+	/** Notes a lost point from the game's events, for the replay */
+	private final GameEvents.Consumer mMissWatcher = new GameEvents.Consumer() {
+		public void onEvent(GameEvents events, long seq) {
+			if(events.kind(seq) == GameEvents.KIND_MISS) mPointLost = true;
+		}
+	};
+	
+	/** Sparks, trails and bursts over the match. Null when turned off. */
+	private Particles mParticles;
+	
+	/** Keys, D-pads, sticks and trackballs, polled once a tick */
+	private final InputState mInput = new InputState();
+	
+	/** Which paddle controllers take unless told otherwise */
+	private int mControllerSide = InputState.SIDE_BLUE;
+	
+	/** Scratch for reading a controller's axes */
+	private final float[] mAxes = new float[InputState.AXES];
+	
+	/** What each finger on the screen is steering, by pointer id */
+	private final PointerMap mTouchOwners = new PointerMap();
+	
+	/** The lookup-table AI, loaded once per process the first time it is needed */
+	private static AiPolicy sPolicy;
+	
+	/** A saved match to pick up instead of starting a new one */
+	private byte[] mPendingSnapshot;
+	private boolean mSnapshotMustMatch;
+	
+	/** Set while a saved match is still being read, which holds off the first layout */
+	private boolean mAwaitingSnapshot = false;
 
+	/** The match being played. Created in initializePongView() */
+	protected PongGame mGame;
+	
 	private Paddle mRed, mBlue, mGray;
 	
-	/** Touch boxes for various functions. These are assigned in initialize() */
-	private Rect mPauseTouchBox;
+	protected Ball mBall;
+	
+	/** Touch boxes for various functions, in world units. These are assigned in fitWorld() */
+	private Rect mPauseTouchBox, mRedTouch, mBlueTouch;
+	
+	/** View and arena sizes the scene was last fitted to */
+	private int mFitWidth, mFitHeight, mFitGameWidth, mFitGameHeight;
 
 	/** Timestamp of the last frame created */
 	private long mLastFrame = 0;
-
-	protected Ball mBall = new Ball();
-
-	/** Random number generator */
-	private static final Random RNG = new Random();
 	
-	/** Pool for our sound effects */
-	protected SoundPool mPool = new SoundPool(3, AudioManager.STREAM_MUSIC, 0);
+	/** How fast a match with no players runs, and when we last drew one in turbo */
+	private final TimeScale mTimeScale = new TimeScale();
+	private long mLastTurboFrame = 0;
+	private String mTurboLabel;
 	
-	protected int mWinSFX, mMissSFX, mPaddleSFX, mWallSFX;
+	/** False when the last update() changed nothing worth drawing */
+	private boolean mDrawFrame = true;
+
+	/** Our sound effects, shared with every other game in the process */
+	protected SoundEffects mSounds;
 	
-	/** Paint object */
-	private final Paint mPaint = new Paint();
+	/** Draws each frame, letterboxed, through the canvas */
+	private PongScene mScene;
+	private final CanvasRenderer mRenderer = new CanvasRenderer(PongScene.TEXT_SIZE);
 
 	/** Padding for touch zones and paddles */
-	private static final int PADDING = 3;
+	private static final int PADDING = PongGame.PADDING;
+	
+	/** Asset holding the AI_TABLE policy */
+	private static final String POLICY_ASSET = "ai_policy.bin";
+	
+	/** Level assets are levels/name.txt, except for the open arena */
+	private static final String LEVEL_ASSETS = "levels/", LEVEL_OPEN = "open";
 	
-	/** Scrollwheel sensitivity */
-	private static final int SCROLL_SENSITIVITY = 100;
+	/**
+	 * The left hand of a keyboard (A and D) counts as a device of its own, so
+	 * two players can share one. Its id is the keyboard's with this bit set.
+	 */
+	private static final int LEFT_HAND = 0x40000000;
+	
+	/** What a finger can be steering. TOUCH_LOCAL is our paddle in a rollback game. */
+	private static final int
+		TOUCH_NONE = 0,
+		TOUCH_RED = 1,
+		TOUCH_BLUE = 2,
+		TOUCH_LOCAL = 3;
+	
+	/** How long turbo steps before letting the UI thread go, and how often it draws */
+	private static final int TURBO_SLICE_MS = 1000 / FPS - 5, TURBO_FRAME_MS = 250;
+	
+	/** Ticks of each point kept for the replay */
+	private static final int REPLAY_TICKS = 4 * FPS;
+	
+	/** Drawing a frame for longer than this costs the particles some of their budget */
+	private static final long PARTICLE_DRAW_NS = 1000000000L / FPS / 2;
+	
+	/**
+	 * Bots get every tick as it happens and are asked to answer within a few
+	 * milliseconds. The game never waits for them.
+	 */
+	private static final int BOT_BATCH = 1, BOT_DEADLINE_US = 4000;
+	
+	/** Value of the controller side preference that means red */
+	private static final String CONTROLLER_RED = "red";
 
 	/** Redraws the screen according to FPS */
 	private RefreshHandler mRedrawHandler = new RefreshHandler();
 	
 	/** Flags indicating who is a player */
 	private boolean mRedPlayer = false, mBluePlayer = false;
+	
+	/** Network roles */
+	public static final int
+		NET_NONE = 0,
+		NET_HOST = 1,
+		NET_CLIENT = 2,
+		NET_SPECTATE = 3;
+	
+	/** Which end of a LAN game this is, and the host to join */
+	private int mNetMode = NET_NONE;
+	private String mNetAddress;
+	
+	/** Only one of these is set, depending on mNetMode */
+	private NetHost mHost;
+	private NetClient mClient;
+	
+	/** Used instead of the above for rollback games */
+	private RollbackPeer mPeer;
+	private RollbackSession mSession;
+	
+	/** Streams our match to viewers, or watches someone else's */
+	private Broadcaster mBroadcaster;
+	private Spectator mSpectator;
+	
+	/** Bots playing the AI paddles, if they are let in */
+	private BotServer mBots;
 
 	/**
 	 * An overloaded class that repaints this view in a separate thread.
@@ -116,7 +252,7 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
 		@Override
 		public void handleMessage(Message msg) {
 			PongView.this.update();
-			PongView.this.invalidate(); // Mark the view as 'dirty'
+			if(mDrawFrame) PongView.this.invalidate(); // Mark the view as 'dirty'
 		}
 		
 		public void sleep(long delay) {
@@ -150,15 +286,23 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
     	
     	Context ctx = this.getContext();
     	loadPreferences( PreferenceManager.getDefaultSharedPreferences(ctx) );
-    	loadSFX();
-    }
-    
-    protected void loadSFX() {
-    	Context ctx = getContext();
-    	mWinSFX = mPool.load(ctx, R.raw.wintone, 1);
-    	mMissSFX = mPool.load(ctx, R.raw.ballmiss, 1);
-    	mPaddleSFX = mPool.load(ctx, R.raw.paddle, 1);
-    	mWallSFX = mPool.load(ctx, R.raw.wall, 1);
+    	mSounds = SoundEffects.acquire(ctx);
+    	
+    	String[] labels = new String[PongScene.LABELS];
+    	labels[PongScene.LABEL_JOIN] = ctx.getString(R.string.join_in);
+    	labels[PongScene.LABEL_PAUSE] = ctx.getString(R.string.pause);
+    	labels[PongScene.LABEL_PAUSED] = ctx.getString(R.string.paused);
+    	labels[PongScene.LABEL_RED_WINS] = ctx.getString(R.string.red_wins);
+    	labels[PongScene.LABEL_BLUE_WINS] = ctx.getString(R.string.blue_wins);
+    	labels[PongScene.STATS_RALLY] = ctx.getString(R.string.stats_rally);
+    	labels[PongScene.STATS_HITS] = ctx.getString(R.string.stats_hits);
+    	labels[PongScene.STATS_SPEED] = ctx.getString(R.string.stats_speed);
+    	labels[PongScene.STATS_SERVE] = ctx.getString(R.string.stats_serve);
+    	labels[PongScene.STATS_WALLS] = ctx.getString(R.string.stats_walls);
+    	labels[PongScene.STATS_AIM] = ctx.getString(R.string.stats_aim);
+    	labels[PongScene.LABEL_REPLAY] = ctx.getString(R.string.replay);
+    	mTurboLabel = ctx.getString(R.string.turbo);
+    	mScene = new PongScene(labels);
     }
     
     protected void loadPreferences(SharedPreferences prefs) {
@@ -168,7 +312,36 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
     	mBallSpeedModifier = Math.max(0, prefs.getInt(Pong.PREF_BALL_SPEED, 0));
     	mMuted = prefs.getBoolean(Pong.PREF_MUTED, mMuted);
     	mLivesModifier = Math.max(0, prefs.getInt(Pong.PREF_LIVES, 2));
-    	mCpuHandicap = Math.max(0, Math.min(PLAYER_PADDLE_SPEED-1, prefs.getInt(Pong.PREF_HANDICAP, 4)));
+    	mCpuHandicap = Math.max(0, Math.min(PongGame.PLAYER_PADDLE_SPEED-1, prefs.getInt(Pong.PREF_HANDICAP, 4)));
+    	mAiThinkInterval = Math.max(1, prefs.getInt(Pong.PREF_AI_THINK, 1));
+    	mAiReaction = Math.max(0, Math.min(PongGame.HISTORY - 1, prefs.getInt(Pong.PREF_AI_REACTION, 0)));
+    	mFixedPoint = prefs.getBoolean(Pong.PREF_FIXED_POINT, mFixedPoint);
+    	mRollback = prefs.getBoolean(Pong.PREF_ROLLBACK, mRollback);
+    	mInputDelay = Math.max(0, Math.min(RollbackSession.MAX_DELAY, prefs.getInt(Pong.PREF_INPUT_DELAY, mInputDelay)));
+    	mBroadcast = prefs.getBoolean(Pong.PREF_BROADCAST, mBroadcast);
+    	mBotsOn = prefs.getBoolean(Pong.PREF_BOTS, mBotsOn);
+    	mLevelName = prefs.getString(Pong.PREF_LEVEL, LEVEL_OPEN);
+    	mPowerups = prefs.getBoolean(Pong.PREF_POWERUPS, mPowerups);
+    	mReplayOn = prefs.getBoolean(Pong.PREF_REPLAY, mReplayOn);
+    	if(prefs.getBoolean(Pong.PREF_PARTICLES, true)) mParticles = new Particles();
+    	try {
+    		mTimeScale.set(Integer.parseInt(prefs.getString(Pong.PREF_TIME_SCALE, "4")));
+    	}
+    	catch(NumberFormatException e) {
+    		mTimeScale.set(TimeScale.REAL_TIME);
+    	}
+    	
+    	mControllerSide = (CONTROLLER_RED.equals(prefs.getString(Pong.PREF_CONTROLLER_SIDE, null)))
+    			? InputState.SIDE_RED : InputState.SIDE_BLUE;
+    	float deadzone = Math.max(0, prefs.getInt(Pong.PREF_STICK_DEADZONE, 15)) / 100f;
+    	float curve;
+    	try {
+    		curve = Float.parseFloat(prefs.getString(Pong.PREF_STICK_CURVE, "2"));
+    	}
+    	catch(NumberFormatException e) {
+    		curve = InputState.CURVE;
+    	}
+    	mInput.setDefaults(mControllerSide, deadzone, curve);
     	
     	String strategy = prefs.getString(Pong.PREF_STRATEGY, null);
     	String strategies[] = r.getStringArray(R.array.values_ai_strategies);
@@ -187,7 +360,7 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
      * The main loop. Call this to update the game state.
      */
     public void update() {
-    	if(getHeight() == 0 || getWidth() == 0) {
+    	if(getHeight() == 0 || getWidth() == 0 || mAwaitingSnapshot) {
     		mRedrawHandler.sleep(1000 / FPS);
     		return;
     	}
@@ -197,17 +370,51 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
     		mInitialized = true;
     	}
     	
+    	if(GameTrace.ENABLED) GameTrace.begin("update");
     	long now = System.currentTimeMillis();
-    	if(gameRunning() && mCurrentState != State.Stopped) {
+    	mDrawFrame = true;
+    	pollNetwork();
+    	pollInput();
+    	if(mPeer != null) {
+    		// Rollback games never pause, the other end would stall
+    		advanceRollback();
+    	}
+    	else if(mSpectator != null) {
+    		watchBroadcast();
+    	}
+    	else if(gameRunning() && mCurrentState != State.Stopped) {
 	    	if(now - mLastFrame >= 1000 / FPS) {
-	    		if(mNewRound) {
-	    			nextRound();
-	    			mNewRound = false;
+	    		if(mClient != null) {
+	    			mirrorHost();
+	    		}
+	    		else if(mReplay != null && mReplay.playing()) {
+	    			// The match waits for the replay to finish
+	    			if(!mReplay.advance()) mReplay.clear();
+	    		}
+	    		else if(!timeScaled()) {
+	    			stepOnce();
+	    		}
+	    		else if(mTimeScale.turbo()) {
+	    			// As many ticks as fit in a frame, drawing only now and then
+	    			while(stepOnce() && System.currentTimeMillis() - now < TURBO_SLICE_MS);
+	    			mDrawFrame = now - mLastTurboFrame >= TURBO_FRAME_MS || !mGame.running();
+	    			if(mDrawFrame) mLastTurboFrame = now;
+	    		}
+	    		else {
+	    			// Only the last of the ticks is drawn, and none if there were none
+	    			int ticks = mTimeScale.ticksThisFrame();
+	    			for(int i = 0; i < ticks && stepOnce(); i++);
+	    			mDrawFrame = ticks > 0;
 	    		}
-	    		doGameLogic();
 	    	}
     	}
     	
+    	// Particles move with the frames, not the ticks, and wait out pauses and replays
+    	if(mParticles != null && mDrawFrame && mCurrentState != State.Stopped && (mReplay == null || !mReplay.playing())) {
+    		mParticles.step();
+    		if(gameRunning()) mParticles.trail(mGame);
+    	}
+    	
     	// We will take this much time off of the next update() call to normalize for
     	// CPU time used updating the game state.
     	
@@ -215,229 +422,40 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
     		long diff = System.currentTimeMillis() - now;
     		mRedrawHandler.sleep(Math.max(0, (1000 / FPS) - diff) );
     	}
+    	if(GameTrace.ENABLED) GameTrace.end();
     }
 
-    /**
-     * All of the game's logic (per game iteration) is in this function.
-     * Given some initial game state, it computes the next game state.
-     */
-	private void doGameLogic() {
-		float px = mBall.x;
-		float py = mBall.y;
-		
-		mBall.move();
-		
-		// Shake it up if it appears to not be moving vertically
-		if(py == mBall.y && mBall.serving() == false) {
-			mBall.randomAngle();
-		}
-		
-		// Do some basic paddle AI
-		if(!mRed.player) doAI(mRed, mBlue);
-		else mRed.move();
-		
-		if(!mBlue.player) doAI(mBlue, mRed);
-		else mBlue.move();
-		
-		handleBounces(px,py);
-		
-		// See if all is lost
-		if(mBall.y >= getHeight()) {
-			mNewRound = true;
-			mBlue.loseLife();
-			
-			if(mBlue.living()) playSound(mMissSFX);
-			else playSound(mWinSFX);
-		}
-		else if (mBall.y <= 0) {
-			mNewRound = true;
-			mRed.loseLife();
-			if(mRed.living()) playSound(mMissSFX);
-			else playSound(mWinSFX);
-		}
-	}
-	
-	protected void handleBounces(float px, float py) {
-		handleTopFastBounce(mRed, px, py);
-		handleBottomFastBounce(mBlue, px, py);
-		handleMiddleFastBounce(mGray, px,py);
-		
-		// Handle bouncing off of a wall
-		if(mBall.x <= Ball.RADIUS || mBall.x >= getWidth() - Ball.RADIUS) {
-			mBall.bounceWall();
-			playSound(mWallSFX);
-			if(mBall.x == Ball.RADIUS)
-				mBall.x++;
-			else
-				mBall.x--;
-		}
-		
-	}
-	
-	protected void handleTopFastBounce(Paddle paddle, float px, float py) {
-		if(mBall.goingUp() == false) return;
-		
-		float tx = mBall.x;
-		float ty = mBall.y - Ball.RADIUS;
-		float ptx = px;
-		float pty = py - Ball.RADIUS;
-		float dyp = ty - paddle.getBottom();
-		float xc = tx + (tx - ptx) * dyp / (ty - pty);
-		
-		if(ty < paddle.getBottom() && pty > paddle.getBottom()
-				&& xc > paddle.getLeft() && xc < paddle.getRight()) {
-			
-			mBall.x = xc;
-			mBall.y = paddle.getBottom() + Ball.RADIUS;
-			mBall.bouncePaddle(paddle);
-			playSound(mPaddleSFX);
-			increaseDifficulty();
-		}
-	}
-	
-	protected void handleMiddleFastBounce(Paddle paddle, float px, float py )
-	{
-	
-		float mx = mBall.x;
-		float my = mBall.y - Ball.RADIUS;
-		float pmx = px;
-		float pmy = py - Ball.RADIUS;
-		float dyp = my - paddle.getBottom();
-		float xc = mx + (mx - pmx) * dyp / (my - pmy);
-		
-		if(my < paddle.getBottom() && pmy > paddle.getBottom()
-				&& xc > paddle.getLeft() && xc < paddle.getRight()) {
-			
-			mBall.x = xc;
-			mBall.y = paddle.getBottom() + Ball.RADIUS;
-			mBall.bouncePaddle(paddle);
-			playSound(mPaddleSFX);
-			increaseDifficulty();
-			
-		}
-	}
-	
-	protected void handleBottomFastBounce(Paddle paddle, float px, float py) {
-		if(mBall.goingDown() == false) return;
-		
-		float bx = mBall.x;
-		float by = mBall.y + Ball.RADIUS;
-		float pbx = px;
-		float pby = py + Ball.RADIUS;
-		float dyp = by - paddle.getTop();
-		float xc = bx + (bx - pbx) * dyp / (pby - by);
-		
-		if(by > paddle.getTop() && pby < paddle.getTop()
-				&& xc > paddle.getLeft() && xc < paddle.getRight()) {
-			
-			mBall.x = xc;
-			mBall.y = paddle.getTop() - Ball.RADIUS;
-			mBall.bouncePaddle(paddle);
-			playSound(mPaddleSFX);
-			increaseDifficulty();
-		}
-	}
-	
-	private void doAI(Paddle cpu, Paddle opponent) {
-		switch(mAiStrategy) {
-		case 2:	aiFollow(cpu); break;
-		case 1:	aiExact(cpu); break;
-		default: aiPrediction(cpu,opponent); break;
-		}
-	}
-	
 	/**
-	 * A generalized Pong AI player. Takes a Rect object and a Ball, computes where the ball will
-	 * be when ball.y == rect.y, and tries to move toward that x-coordinate. If the ball is moving
-	 * straight it will try to clip the ball with the edge of the paddle.
-	 * @param cpu
+	 * Plays a tick of a match run on this device.
+	 * @return false if the match ended or stopped for a replay
 	 */
-	private void aiPrediction(Paddle cpu, Paddle opponent) {
-		Ball ball = new Ball(mBall);
-		
-		// Special case: move torward the center if the ball is blinking
-		if(mBall.serving()) {
-			cpu.destination = getWidth() / 2;
-			cpu.move(true);
-			return;
-		}
-		
-		// Something is wrong if vy = 0.. let's wait until things fix themselves
-		if(ball.vy == 0) return;
-		
-		// Y-Distance from ball to Rect 'cpu'
-		float cpuDist = Math.abs(ball.y - cpu.centerY());
-		// Y-Distance to opponent.
-		float oppDist = Math.abs( ball.y - opponent.centerY() );
-		
-		// Distance between two paddles.
-		float paddleDistance = Math.abs(cpu.centerY() - opponent.centerY());
-		
-		// Is the ball coming at us?
-		boolean coming = (cpu.centerY() < ball.y && ball.vy < 0)
-			|| (cpu.centerY() > ball.y && ball.vy > 0);
-		
-		// Total amount of x-distance the ball covers
-		float total = ((((coming) ? cpuDist : oppDist + paddleDistance)) / Math.abs(ball.vy)) * Math.abs( ball.vx );
-		
-		// Playable width of the stage
-		float playWidth = getWidth() - 2 * Ball.RADIUS;
-		
-		
-		float wallDist = (ball.goingLeft()) ? ball.x - Ball.RADIUS : playWidth - ball.x + Ball.RADIUS;
-		
-		// Effective x-translation left over after first bounce 
-		float remains = (total - wallDist) % playWidth;
-		
-		// Bounces the ball will incur
-		int bounces = (int) ((total) / playWidth);
-		
-		boolean left = (bounces % 2 == 0) ? !ball.goingLeft() : ball.goingLeft();
-		
-		cpu.destination = getWidth() / 2;
-		
-		// Now we need to compute the final x. That's all that matters.
-		if(bounces == 0) {
-			cpu.destination = (int) (ball.x + total * Math.signum(ball.vx));
-		}
-		else if(left) {
-			cpu.destination = (int) (Ball.RADIUS + remains);
-		}
-		else { // The ball is going right...
-			cpu.destination = (int) ((Ball.RADIUS + playWidth) - remains);
-		}
-		
-		// Try to give it a little kick if vx = 0
-		int salt = (int) (System.currentTimeMillis() / 10000);
-		Random r = new Random((long) (cpu.centerY() + ball.vx + ball.vy + salt));
-		int width = cpu.getWidth();
-		cpu.destination = (int) bound(
-				cpu.destination + r.nextInt(2 * width - (width / 5)) - width + (width / 10),
-				0, getWidth()
-		);
-		cpu.move(true);
+	private boolean stepOnce() {
+		if(mHost != null) mHost.applyInput(mGame);
+		if(mBots != null) {
+			mBots.poll(mGame);
+			mBots.steer(mGame);
+		}
+		mGame.step();
+		if(mBots != null) mBots.record(mGame);
+		if(mReplay != null) recordReplay();
+		if(mHost != null) sendState();
+		if(mBroadcaster != null) mBroadcaster.publish(mGame);
+		if(!mGame.running()) {
+			recordMatch();
+			return false;
+		}
+		return mReplay == null || !mReplay.playing();
 	}
 	
-	private void aiExact(Paddle cpu) {
-		cpu.destination = (int) mBall.x;
-		cpu.setPosition(cpu.destination);
-	}
-	
-	private void aiFollow(Paddle cpu) {
-		cpu.destination = (int) mBall.x;
-		cpu.move(true);
-	}
-	
-	
-	
 	/**
-	 * Knocks up the framerate a bit to keep it difficult.
+	 * @return true if the match runs at the chosen time scale, which is only
+	 * for local matches nobody is playing in. Anyone joining in brings it
+	 * back to real time.
 	 */
-	private void increaseDifficulty() {
-		
-		mBall.speed++;
+	private boolean timeScaled() {
+		return mNetMode == NET_NONE && !mTimeScale.realTime() && !mRed.player && !mBlue.player;
 	}
-
+	
 	/**
 	 * Set the state, start a new round, start the loop if needed.
 	 * @param next, the next state
@@ -452,7 +470,7 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
      * Reset the paddles/touchboxes/framespersecond/ballcounter for the next round.
      */
     private void nextRound() {
-    	serveBall();
+    	mGame.serveBall();
     }
     
     /**
@@ -461,54 +479,309 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
      * its inflated size.
      */
     private void initializePongView() {
-    	initializePause();
     	initializePaddles();
+    	initializeNetwork();
+    	fitWorld();
     }
     
-    private void initializePause() {
-    	int min = Math.min(getWidth() / 4, getHeight() / 4);
-    	int xmid = getWidth() / 2;
-    	int ymid = getHeight() / 2;
-    	mPauseTouchBox = new Rect(xmid - min, ymid - min, xmid + min, ymid + min);
+    private void initializePaddles() {
+    	mGame = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, mFixedPoint, System.currentTimeMillis());
+    	mGame.setBallSpeedModifier(mBallSpeedModifier);
+    	mGame.setLivesModifier(mLivesModifier);
+    	mGame.setAiStrategy(mAiStrategy);
+    	mGame.setCpuHandicap(mCpuHandicap);
+    	mGame.initializePaddles(mRedPlayer, mBluePlayer);
+    	restorePendingSnapshot();
+    	
+    	// How the AI thinks is up to this device, even for a restored match
+    	if(mGame.getAiStrategy() == PongGame.AI_TABLE) mGame.setAiPolicy(loadPolicy());
+    	mGame.setAiThinkInterval(mAiThinkInterval);
+    	mGame.setAiReaction(mAiReaction);
+    	mGame.setListener(this);
+    	if(mParticles != null) mGame.getEvents().addConsumer(mParticles);
+    	
+    	// The network protocols do not carry the level or power-ups, so only
+    	// local matches get them
+    	if(mNetMode == NET_NONE) {
+    		mGame.setLevel(loadLevel());
+    		mGame.setPowerups(mPowerups);
+    		
+    		// Nobody else is waiting on a local match, so it can stop for a replay
+    		if(mReplayOn) {
+    			mReplay = new ReplayBuffer(REPLAY_TICKS);
+    			mGame.getEvents().addConsumer(mMissWatcher);
+    		}
+    	}
+    	
+    	mRed = mGame.getRed();
+    	mBlue = mGame.getBlue();
+    	mGray = mGame.getGray();
+    	mBall = mGame.getBall();
     }
     
-    private void initializePaddles() {
-    	Rect redTouch = new Rect(0,0,getWidth(),getHeight() / 8);
-    	Rect blueTouch = new Rect(0, 7 * getHeight() / 8, getWidth(), getHeight());
-    	Rect grayTouch = new Rect(0, 7 * getHeight() / 8, getWidth(), getHeight());
+    /**
+     * Swaps in the match handed to restoreSnapshot(), if there is one and it
+     * is for the same players.
+     */
+    private void restorePendingSnapshot() {
+    	PongGame saved = GameSnapshot.read(mPendingSnapshot);
+    	int flags = GameSnapshot.flags(mPendingSnapshot);
+    	mPendingSnapshot = null;
     	
-    	mRed = new Paddle(Color.RED, redTouch.bottom + PADDING);
-    	mBlue = new Paddle(Color.BLUE, blueTouch.top - PADDING - Paddle.PADDLE_THICKNESS);
-    	mGray = new Paddle(Color.GRAY, grayTouch.top + PADDING);
+    	if(saved == null || mNetMode != NET_NONE) return;
+    	if(mSnapshotMustMatch && (saved.getRed().player != mRedPlayer || saved.getBlue().player != mBluePlayer)) return;
     	
-    	mRed.setTouchbox( redTouch );
-    	mBlue.setTouchbox( blueTouch );
-    	mGray.setTouchbox(grayTouch);
+    	mGame = saved;
+    	if((flags & GameSnapshot.FLAG_PAUSED) != 0) {
+    		mLastState = State.Running;
+    		mCurrentState = State.Stopped;
+    	}
+    }
+    
+    /**
+     * Maps the policy asset if it is stored uncompressed, and otherwise
+     * copies it into a direct buffer.
+     * @return the policy, or null if it could not be loaded
+     */
+    private AiPolicy loadPolicy() {
+    	if(sPolicy != null) return sPolicy;
     	
-    	mRed.setHandicap(mCpuHandicap);
-    	mBlue.setHandicap(mCpuHandicap);
-    	mGray.setHandicap(mCpuHandicap);
+    	AssetManager assets = getContext().getAssets();
+    	try {
+    		AssetFileDescriptor fd = assets.openFd(POLICY_ASSET);
+    		FileInputStream in = fd.createInputStream();
+    		try {
+    			sPolicy = AiPolicy.map(in.getChannel(), fd.getStartOffset(), fd.getLength());
+    		}
+    		finally {
+    			in.close();
+    		}
+    	}
+    	catch(IOException e) {
+    		// Compressed assets cannot be opened as a file descriptor
+    		try {
+    			InputStream in = assets.open(POLICY_ASSET);
+    			try {
+    				sPolicy = AiPolicy.read(in);
+    			}
+    			finally {
+    				in.close();
+    			}
+    		}
+    		catch(IOException e2) {
+    			sPolicy = null;
+    		}
+    	}
+    	return sPolicy;
+    }
+    
+    /**
+     * Reads the level picked in the preferences. It is read again for each
+     * match, since the moving obstacles belong to the match playing them.
+     * @return the level, or null for the open arena or if it could not be read
+     */
+    private Level loadLevel() {
+    	if(mLevelName == null || mLevelName.equals(LEVEL_OPEN)) return null;
     	
-    	mRed.player = mRedPlayer;
-    	mBlue.player = mBluePlayer;
+    	try {
+    		InputStream in = getContext().getAssets().open(LEVEL_ASSETS + mLevelName + ".txt");
+    		try {
+    			return Level.read(in, mLevelName);
+    		}
+    		finally {
+    			in.close();
+    		}
+    	}
+    	catch(IOException e) {
+    		return null;
+    	}
+    }
+    
+    private void initializeNetwork() {
+    	try {
+    		SocketAddress host = (mNetAddress != null)
+    			? new InetSocketAddress(mNetAddress, NetProtocol.PORT) : null;
+    		
+    		if(mNetMode == NET_HOST && mRollback) {
+    			mPeer = new RollbackPeer(NetProtocol.PORT, null, System.currentTimeMillis(),
+    					PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, mInputDelay, mBallSpeedModifier, mLivesModifier);
+    		}
+    		else if(mNetMode == NET_CLIENT && mRollback) {
+    			mPeer = new RollbackPeer(host, null);
+    		}
+    		else if(mNetMode == NET_HOST) {
+    			mHost = new NetHost(NetProtocol.PORT, null);
+    		}
+    		else if(mNetMode == NET_CLIENT) {
+    			mClient = new NetClient(host, null);
+    		}
+    		else if(mNetMode == NET_SPECTATE) {
+    			mSpectator = new Spectator((mNetAddress != null)
+    					? new InetSocketAddress(mNetAddress, NetProtocol.SPECTATE_PORT) : null);
+    		}
+    		
+    		// A client only mirrors the host, so it leaves broadcasting to them
+    		if(mBroadcast && mClient == null && mSpectator == null) {
+    			mBroadcaster = new Broadcaster(NetProtocol.SPECTATE_PORT, NetProtocol.SPECTATE_PORT);
+    		}
+    	}
+    	catch(IOException e) {
+    		networkFailed();
+    	}
     	
-    	mRed.setLives(STARTING_LIVES + mLivesModifier);
-    	mBlue.setLives(STARTING_LIVES + mLivesModifier);
+    	if(mBotsOn && mNetMode == NET_NONE) {
+    		try {
+    			mBots = new BotServer(NetProtocol.BOT_PORT, BOT_BATCH, BOT_DEADLINE_US);
+    		}
+    		catch(IOException e) {
+    			// Another game holds the port. This one plays its own AI.
+    			mBots = null;
+    		}
+    	}
     }
     
     /**
-     * Reset ball to an initial state
+     * Hands a match that just ended to the history. Only local games are
+     * kept; a network game has no statistics on the client's side.
      */
-    private void serveBall() {
-    	mBall.x = getWidth() / 2;
-    	mBall.y = getHeight() / 2;
-    	mBall.speed = Ball.SPEED + mBallSpeedModifier;
-    	mBall.randomAngle();
-    	mBall.pause();
+    private void recordMatch() {
+    	if(mNetMode != NET_NONE) return;
+    	MatchHistory.get(getContext()).record(MatchRecord.capture(mGame, System.currentTimeMillis()));
     }
     
-    protected float bound(float x, float low, float hi) {
-    	return Math.max(low, Math.min(x, hi));
+    /**
+     * Reads whatever the other device has sent. Runs even while paused so
+     * the connection does not time out.
+     */
+    private void pollNetwork() {
+    	try {
+    		if(mHost != null) mHost.poll();
+    		if(mClient != null) mClient.poll();
+    		if(mPeer != null) mPeer.poll();
+    		if(mSpectator != null) mSpectator.poll();
+    	}
+    	catch(IOException e) {
+    		networkFailed();
+    	}
+    }
+    
+    private void sendState() {
+    	try {
+    		mHost.sendState(mGame);
+    	}
+    	catch(IOException e) {
+    		networkFailed();
+    	}
+    }
+    
+    /**
+     * Sends our paddle to the host and shows the next frame it sent us.
+     */
+    private void mirrorHost() {
+    	try {
+    		mClient.sendInput(mGame);
+    	}
+    	catch(IOException e) {
+    		networkFailed();
+    		return;
+    	}
+    	
+    	if(mClient.applyState(mGame)) {
+    		int events = mClient.takeEvents();
+    		for(int sfx = 0; events != 0; sfx++, events >>>= 1) {
+    			if((events & 1) != 0) onSound(sfx);
+    		}
+    	}
+    }
+    
+    /**
+     * Runs a rollback frame. Both ends share a game built from the host's
+     * settings, which we switch to as soon as the two ends have met.
+     */
+    private void advanceRollback() {
+    	boolean stepped;
+    	try {
+    		stepped = mPeer.tick();
+    	}
+    	catch(IOException e) {
+    		networkFailed();
+    		return;
+    	}
+    	
+    	if(mSession == null && mPeer.getSession() != null) {
+    		mSession = mPeer.getSession();
+    		mGame = mSession.getGame();
+    		mGame.setListener(this);
+    		if(mParticles != null) mGame.getEvents().addConsumer(mParticles);
+    		mRed = mGame.getRed();
+    		mBlue = mGame.getBlue();
+    		mGray = mGame.getGray();
+    		mBall = mGame.getBall();
+    	}
+    	
+    	if(stepped && mBroadcaster != null) mBroadcaster.publish(mGame);
+    }
+    
+    /**
+     * Shows the newest frame from the match we are watching.
+     */
+    private void watchBroadcast() {
+    	if(mSpectator.applyState(mGame)) {
+    		int events = mSpectator.takeEvents();
+    		for(int sfx = 0; events != 0; sfx++, events >>>= 1) {
+    			if((events & 1) != 0) onSound(sfx);
+    		}
+    	}
+    }
+    
+    /**
+     * Fits the game's arena in the view as large as it will go without
+     * stretching, centered between bars on the sides it does not fill, and
+     * lays out the touch boxes in it. Everything after this works in world
+     * units. Only does anything when the view or the arena changed size,
+     * which covers resizing as well as switching to a game made elsewhere.
+     */
+    private void fitWorld() {
+    	int w = getWidth(), h = getHeight();
+    	int gw = mGame.getWidth(), gh = mGame.getHeight();
+    	if(w == mFitWidth && h == mFitHeight && gw == mFitGameWidth && gh == mFitGameHeight) return;
+    	
+    	mScene.fit(w, h, gw, gh);
+    	int touch = PongScene.touchHeight(gh);
+    	mRedTouch = new Rect(0, 0, gw, touch);
+    	mBlueTouch = new Rect(0, gh - touch, gw, gh);
+    	int min = PongScene.pauseHalf(gw, gh);
+    	mPauseTouchBox = new Rect(gw / 2 - min, gh / 2 - min, gw / 2 + min, gh / 2 + min);
+    	
+    	mFitWidth = w;
+    	mFitHeight = h;
+    	mFitGameWidth = gw;
+    	mFitGameHeight = gh;
+    }
+    
+    /**
+     * Drops back to a local game when the socket fails.
+     */
+    private void networkFailed() {
+    	closeNetwork();
+    	mNetMode = NET_NONE;
+    	Toast.makeText(getContext(), R.string.connection_lost, Toast.LENGTH_SHORT).show();
+    }
+    
+    private void closeNetwork() {
+    	if(mHost != null) mHost.close();
+    	if(mClient != null) mClient.close();
+    	if(mPeer != null) mPeer.close();
+    	if(mBroadcaster != null) mBroadcaster.close();
+    	if(mSpectator != null) mSpectator.close();
+    	if(mBots != null) mBots.close();
+    	mHost = null;
+    	mClient = null;
+    	mPeer = null;
+    	mSession = null;
+    	mBroadcaster = null;
+    	mSpectator = null;
+    	mBots = null;
     }
     
     /**
@@ -538,7 +811,17 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
     	}
     }
     
+    /**
+     * Refits the arena to the new size, for instance when rotated or put in
+     * a split screen. The match carries on as it was.
+     */
+    @Override
     public void onSizeChanged(int w, int h, int ow, int oh) {
+    	super.onSizeChanged(w, h, ow, oh);
+    	if(mInitialized) {
+    		fitWorld();
+    		invalidate();
+    	}
     }
     
     /**
@@ -552,189 +835,193 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
         	return;
         }
         
-    	Context context = getContext();
-    	
-        // Draw the paddles / touch boundaries
-    	mRed.draw(canvas);
-    	mBlue.draw(canvas);
-    	mGray.draw(canvas);
-
-    	// Draw touchboxes if needed
-    	if(gameRunning() && mRed.player && mCurrentState == State.Running)
-        	mRed.drawTouchbox(canvas);
-        
-        if(gameRunning() && mBlue.player && mCurrentState == State.Running)
-        	mBlue.drawTouchbox(canvas);
-        
-        // Draw ball stuff
-        mPaint.setStyle(Style.FILL);
-        mPaint.setColor(Color.GREEN);
-        
-        mBall.draw(canvas);
-        
-        
-        // If either is a not a player, blink and let them know they can join in!
-        // This blinks with the ball.
-        if(mBall.serving()) {
-        	String join = context.getString(R.string.join_in);
-        	int joinw = (int) mPaint.measureText(join);
-        	
-        	if(!mRed.player) {
-        		mPaint.setColor(Color.RED);
-        		canvas.drawText(join, getWidth() / 2 - joinw / 2, mRed.touchCenterY(), mPaint);
-        	}
-        	
-        	if(!mBlue.player) {
-        		mPaint.setColor(Color.BLUE);
-        		canvas.drawText(join, getWidth() / 2 - joinw / 2, mBlue.touchCenterY(), mPaint);
-        	}
-        }
-        
-        // Show where the player can touch to pause the game
-        if(mBall.serving()) {
-        	String pause = context.getString(R.string.pause);
-        	int pausew = (int) mPaint.measureText(pause);
-        
-        	mPaint.setColor(Color.RED);
-        	mPaint.setStyle(Style.STROKE);
-        	canvas.drawRect(mPauseTouchBox, mPaint);
-        	canvas.drawText(pause, getWidth() / 2 - pausew / 2, getHeight() / 2, mPaint);
-        }
-
-    	// Paint a PAUSED message
-        if(gameRunning() && mCurrentState == State.Stopped) {
-        	String s = context.getString(R.string.paused);
-        	int width = (int) mPaint.measureText(s);
-        	int height = (int) (mPaint.ascent() + mPaint.descent()); 
-        	mPaint.setColor(Color.WHITE);
-        	canvas.drawText(s, getWidth() / 2 - width / 2, getHeight() / 2 - height / 2, mPaint);
+        if(GameTrace.ENABLED) GameTrace.begin("onDraw");
+        fitWorld();
+        if(mReplay != null && mReplay.playing()) {
+        	mScene.drawReplay(mRenderer.wrap(canvas), mGame, mReplay);
         }
-        
-        // Draw a 'lives' counter
-    	mPaint.setColor(Color.WHITE);
-    	mPaint.setStyle(Style.FILL_AND_STROKE);
-    	for(int i = 0; i < mRed.getLives(); i++) {
-    		canvas.drawCircle(Ball.RADIUS + PADDING + i * (2 * Ball.RADIUS + PADDING),
-    				PADDING + Ball.RADIUS,
-    				Ball.RADIUS,
-    				mPaint);
-    	}
-    	
-    	for(int i = 0; i < mBlue.getLives(); i++) {
-    		canvas.drawCircle(Ball.RADIUS + PADDING + i * (2 * Ball.RADIUS + PADDING),
-    				getHeight() - PADDING - Ball.RADIUS,
-    				Ball.RADIUS,
-    				mPaint);
-    	}
-        
-        // Announce the winner!
-        if(!gameRunning()) {
-        	mPaint.setColor(Color.GREEN);
-        	String s = "You both lose";
-        	
-        	if(!mBlue.living()) {
-        		s = context.getString(R.string.red_wins);
-        		mPaint.setColor(Color.RED);
+        else {
+        	mScene.setSpeedLabel((timeScaled()) ? mTimeScale.label(mTurboLabel) : null);
+        	long start = System.nanoTime();
+        	mScene.draw(mRenderer.wrap(canvas), mGame, mCurrentState == State.Stopped);
+        	if(mParticles != null) {
+        		mScene.drawParticles(mRenderer, mGame, mParticles);
+        		mParticles.adapt(System.nanoTime() - start > PARTICLE_DRAW_NS);
         	}
-        	else if(!mRed.living()) {
-        		s = context.getString(R.string.blue_wins);
-        		mPaint.setColor(Color.BLUE);
-        	}
-        	
-        	int width = (int) mPaint.measureText(s);
-        	int height = (int) (mPaint.ascent() + mPaint.descent()); 
-        	canvas.drawText(s, getWidth() / 2 - width / 2, getHeight() / 2 - height / 2, mPaint);
-        }        
+        }
+        if(GameTrace.ENABLED) GameTrace.end();
     }
 
     /**
      * Touching is the method of movement. Touching the touchscreen, that is.
      * A player can join in simply by touching where they would in a normal
      * game.
+     * 
+     * Each finger is given a paddle when it goes down and keeps it until it
+     * comes up, so a finger that strays across the screen never steers the
+     * other player's paddle.
      */
 	public boolean onTouch(View v, MotionEvent mo) {
-		if(v != this || !gameRunning()) return false;
+		if(v != this || mSpectator != null) return false;
+		if(!gameRunning()) {
+			mTouchOwners.clear();
+			return false;
+		}
 		
 		// We want to support multiple touch and single touch
 		InputHandler handle = InputHandler.getInstance();
+		fitWorld();
+		
+		// Any touch skips a replay
+		if(mReplay != null && mReplay.playing()) {
+			if(handle.getActionMasked(mo) == MotionEvent.ACTION_DOWN) mReplay.clear();
+			return true;
+		}
 
-		// Loop through all the pointers that we detected and 
-		// process them as normal touch events.
-		for(int i = 0; i < handle.getTouchCount(mo); i++) {
-			int tx = (int) handle.getX(mo, i);
-			int ty = (int) handle.getY(mo, i);
-			
-			// Bottom paddle moves when we are playing in one or two player mode and the touch
-			// was in the lower quartile of the screen.
-			if(mBlue.player && mBlue.inTouchbox(tx,ty)) {
-				mBlue.destination = tx;
-			}
-			else if(mRed.player && mRed.inTouchbox(tx,ty)) {
-				mRed.destination = tx;
-			}
-			else if(mo.getAction() == MotionEvent.ACTION_DOWN && mPauseTouchBox.contains(tx, ty)) {
-				if(mCurrentState != State.Stopped) {
-					mLastState = mCurrentState;
-					mCurrentState = State.Stopped;
-				}
-				else {
-					mCurrentState = mLastState;
-					mLastState = State.Stopped;
-				}
+		switch(handle.getActionMasked(mo)) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			int i = handle.getActionIndex(mo);
+			int tx = (int) mScene.toWorldX(handle.getX(mo, i));
+			int ty = (int) mScene.toWorldY(handle.getY(mo, i));
+			int owner = claimTouch(tx, ty);
+			mTouchOwners.put(handle.getPointerId(mo, i), owner);
+			steerTouch(owner, tx);
+			break;
+		}
+		
+		case MotionEvent.ACTION_MOVE:
+			// Moves carry every pointer that is down
+			for(int i = 0; i < handle.getTouchCount(mo); i++) {
+				int owner = mTouchOwners.get(handle.getPointerId(mo, i), TOUCH_NONE);
+				if(owner != TOUCH_NONE) steerTouch(owner, (int) mScene.toWorldX(handle.getX(mo, i)));
 			}
+			break;
 			
-			// In case a player wants to join in...
-			if(mo.getAction() == MotionEvent.ACTION_DOWN) {
-				if(!mBlue.player && mBlue.inTouchbox(tx,ty)) {
-					mBlue.player = true;
-				}
-				else if(!mRed.player && mRed.inTouchbox(tx,ty)) {
-					mRed.player = true;
-				}
-			}
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			mTouchOwners.remove(handle.getPointerId(mo, handle.getActionIndex(mo)));
+			break;
+			
+		case MotionEvent.ACTION_CANCEL:
+			mTouchOwners.clear();
+			break;
 		}
 		
 		return true;
 	}
 	
-	@Override
-	public boolean onTrackballEvent(MotionEvent event) {
-		if(!gameRunning()) return false;
+	/**
+	 * Decides what a finger that just went down is for, joining the player
+	 * in or pausing if that is what it touched.
+	 * @return one of TOUCH_*
+	 */
+	private int claimTouch(int tx, int ty) {
+		// In a rollback game we only steer our own paddle, through the session
+		if(mPeer != null) {
+			Rect local = (mPeer.isHosting()) ? mBlueTouch : mRedTouch;
+			return (local.contains(tx, ty)) ? TOUCH_LOCAL : TOUCH_NONE;
+		}
 		
-		if(mBlue.player == false) {
+		// Bottom paddle moves when we are playing in one or two player mode and the touch
+		// was in the lower quartile of the screen. In case a player wants to join in,
+		// touching there makes them one.
+		if(mBlueTouch.contains(tx, ty)) {
 			mBlue.player = true;
-			mBlue.destination = mBlue.centerX();
+			return TOUCH_BLUE;
 		}
-		
-		switch(event.getAction()) {
-		case MotionEvent.ACTION_MOVE:
-			mBlue.destination = (int) Math.max(0, Math.min(getWidth(), mBlue.destination + SCROLL_SENSITIVITY * event.getX()));
+		else if(mRedTouch.contains(tx, ty)) {
+			mRed.player = true;
+			return TOUCH_RED;
+		}
+		else if(mClient == null && mPauseTouchBox.contains(tx, ty)) {
+			togglePause();
+		}
+		return TOUCH_NONE;
+	}
+	
+	private void steerTouch(int owner, int tx) {
+		switch(owner) {
+		case TOUCH_RED:
+			mRed.destination = tx;
+			break;
+		case TOUCH_BLUE:
+			mBlue.destination = tx;
+			break;
+		case TOUCH_LOCAL:
+			if(mSession != null) mSession.setLocalInput(tx);
 			break;
 		}
+	}
+	
+	/**
+	 * A trackball only notes how far it rolled; pollInput() moves the paddle.
+	 */
+	@Override
+	public boolean onTrackballEvent(MotionEvent event) {
+		if(!gameRunning() || mSpectator != null) return false;
 		
+		if(event.getAction() == MotionEvent.ACTION_MOVE) {
+			mInput.roll(event.getDeviceId(), event.getX());
+		}
 		return true;
 	}
-    
+	
 	/**
-	 * Reset the lives, paddles and the like for a new game.
+	 * Sticks and hats, from Honeycomb on. Only the latest position matters,
+	 * so the samples batched into the event are skipped.
 	 */
-	public void newGame() {
-		resetPaddles();
-		serveBall();
-		resumeLastState();
+	public boolean onGenericMotionEvent(MotionEvent event) {
+		if(!InputHandler.getInstance().getAxes(event, mAxes)) return false;
+		
+		int device = event.getDeviceId();
+		mInput.axis(device, InputState.AXIS_STICK, mAxes[InputState.AXIS_STICK]);
+		mInput.axis(device, InputState.AXIS_HAT, mAxes[InputState.AXIS_HAT]);
+		return true;
 	}
 	
 	/**
-	 * Resets the lives and the position of the paddles.
+	 * Moves the paddles by whatever the controllers have been doing since
+	 * the last tick. A controller used for a paddle nobody is playing joins
+	 * that paddle in, as touching it would. In LAN games every controller
+	 * steers our own paddle.
 	 */
-	private void resetPaddles() {
-		int mid = getWidth() / 2;
-		mRed.setPosition(mid);
-		mBlue.setPosition(mid);
-		mRed.destination = mid;
-		mBlue.destination = mid;
-		mRed.setLives(STARTING_LIVES);
-		mBlue.setLives(STARTING_LIVES);
+	private void pollInput() {
+		mInput.poll();
+		if(!gameRunning() || mSpectator != null) return;
+		if(mPeer == null && mCurrentState == State.Stopped) return;
+		
+		if(mNetMode != NET_NONE) {
+			if(!mInput.active(InputState.SIDE_RED) && !mInput.active(InputState.SIDE_BLUE)) return;
+			int moved = mInput.moved(InputState.SIDE_RED) + mInput.moved(InputState.SIDE_BLUE);
+			
+			if(mPeer != null) {
+				if(mSession != null) mSession.setLocalInput(mSession.getLocalTarget() + moved);
+			}
+			else {
+				steer((mClient != null) ? mRed : mBlue, moved);
+			}
+			return;
+		}
+		
+		if(mInput.active(InputState.SIDE_RED)) steer(mRed, mInput.moved(InputState.SIDE_RED));
+		if(mInput.active(InputState.SIDE_BLUE)) steer(mBlue, mInput.moved(InputState.SIDE_BLUE));
+	}
+	
+	private void steer(Paddle paddle, int moved) {
+		paddle.player = true;
+		paddle.destination = Math.max(0, Math.min(mGame.getWidth(), paddle.centerX() + moved));
+	}
+    
+	/**
+	 * Reset the lives, paddles and the like for a new game.
+	 */
+	public void newGame() {
+		mGame.newGame();
+		mScene.newMatch();
+		if(mReplay != null) mReplay.clear();
+		if(mParticles != null) mParticles.clear();
+		resumeLastState();
 	}
 	
 	/**
@@ -754,23 +1041,147 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
 	}
 	
 	public boolean gameRunning() {
-		return mInitialized && mRed != null && mBlue != null
-			&& mRed.living() && mBlue.living();
+		return mInitialized && mGame.running();
 	}
 	
 	public void pause() {
 		mLastState = mCurrentState;
 		mCurrentState = State.Stopped;
+		
+		// We will not hear about keys let go while we are away
+		mInput.release();
 	}
 	
+	private void togglePause() {
+		if(mCurrentState != State.Stopped) {
+			mLastState = mCurrentState;
+			mCurrentState = State.Stopped;
+		}
+		else {
+			mCurrentState = mLastState;
+			mLastState = State.Stopped;
+		}
+	}
+	
+	/**
+	 * Keys only go into the input table; pollInput() acts on them. The
+	 * D-pad and shoulder buttons steer, A and D steer the other paddle so two
+	 * can share a keyboard, select moves a controller to the other paddle and
+	 * start, space or P pause.
+	 */
 	public boolean onKey(View v, int keyCode, KeyEvent event) {
-		return false;
+		int action = event.getAction();
+		if(action != KeyEvent.ACTION_DOWN && action != KeyEvent.ACTION_UP) return false;
+		boolean down = action == KeyEvent.ACTION_DOWN;
+		int device = event.getDeviceId();
+		int button;
+		
+		switch(keyCode) {
+		case KeyEvent.KEYCODE_DPAD_LEFT:
+		case KeyEvent.KEYCODE_BUTTON_L1:
+			button = InputState.BUTTON_LEFT;
+			break;
+		case KeyEvent.KEYCODE_DPAD_RIGHT:
+		case KeyEvent.KEYCODE_BUTTON_R1:
+			button = InputState.BUTTON_RIGHT;
+			break;
+		case KeyEvent.KEYCODE_A:
+		case KeyEvent.KEYCODE_D:
+			button = (keyCode == KeyEvent.KEYCODE_A) ? InputState.BUTTON_LEFT : InputState.BUTTON_RIGHT;
+			device |= LEFT_HAND;
+			if(mInput.sideOf(device) < 0) {
+				mInput.bind(device, (mControllerSide == InputState.SIDE_RED) ? InputState.SIDE_BLUE : InputState.SIDE_RED);
+			}
+			break;
+		case KeyEvent.KEYCODE_BUTTON_SELECT:
+			if(down && event.getRepeatCount() == 0) mInput.swap(device);
+			return true;
+		case KeyEvent.KEYCODE_COMMA:
+		case KeyEvent.KEYCODE_PERIOD:
+			// Speeds up or slows down a match with no players
+			if(!mInitialized || mNetMode != NET_NONE || mRed.player || mBlue.player) return false;
+			if(down && event.getRepeatCount() == 0) {
+				if(keyCode == KeyEvent.KEYCODE_PERIOD) mTimeScale.faster();
+				else mTimeScale.slower();
+			}
+			return true;
+		case KeyEvent.KEYCODE_BUTTON_START:
+		case KeyEvent.KEYCODE_SPACE:
+		case KeyEvent.KEYCODE_P:
+		case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE:
+			if(mPeer != null || mClient != null || mSpectator != null || !gameRunning()) return false;
+			if(down && event.getRepeatCount() == 0) togglePause();
+			return true;
+		default:
+			return false;
+		}
+		
+		// Held keys repeat; the table already knows they are down
+		if(down) {
+			if(event.getRepeatCount() == 0) mInput.keyDown(device, button);
+		}
+		else {
+			mInput.keyUp(device, button);
+		}
+		return true;
 	}
 
 	public void setPlayerControl(boolean red, boolean blue) {
 		mRedPlayer = red;
 		mBluePlayer = blue;
 	}
+	
+	/**
+	 * Makes this a LAN game. The host keeps blue and takes red's moves from
+	 * the network; the client plays red and mirrors the host. A spectator
+	 * only shows a match someone else is broadcasting.
+	 * @param mode, one of NET_*
+	 * @param address, the host to join, or null to find one by broadcast
+	 */
+	public void setNetwork(int mode, String address) {
+		mNetMode = mode;
+		mNetAddress = address;
+		if(mode != NET_NONE) setPlayerControl(true, true);
+	}
+
+	/**
+	 * @return the match as a GameSnapshot, or null if there is nothing worth
+	 * keeping. Network games are never saved.
+	 */
+	public byte[] saveSnapshot() {
+		// A match not laid out yet is still the one it was handed
+		if(!mInitialized) return (mNetMode == NET_NONE) ? mPendingSnapshot : null;
+		if(mNetMode != NET_NONE) return null;
+		return GameSnapshot.write(mGame, (mCurrentState == State.Stopped) ? GameSnapshot.FLAG_PAUSED : 0);
+	}
+	
+	/**
+	 * Picks up a saved match when the view is first laid out. Call before
+	 * the first update().
+	 * @param data, from saveSnapshot()
+	 * @param mustMatch, ignore the snapshot unless it has the same players
+	 */
+	public void restoreSnapshot(byte[] data, boolean mustMatch) {
+		mPendingSnapshot = data;
+		mSnapshotMustMatch = mustMatch;
+		mAwaitingSnapshot = false;
+	}
+	
+	/**
+	 * Holds off starting a match until restoreSnapshot() is called, for a
+	 * snapshot that is being read in the background.
+	 */
+	public void awaitSnapshot() {
+		if(!mInitialized) mAwaitingSnapshot = true;
+	}
+	
+	/**
+	 * @return true if there is a match that has not been won yet, laid out
+	 * or still waiting to be
+	 */
+	public boolean matchUnfinished() {
+		return (mInitialized) ? mGame.running() : mPendingSnapshot != null;
+	}
 
 	public void resume() {
 		mContinue = true;
@@ -785,7 +1196,11 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
 	 * Release all resource locks.
 	 */
 	public void release() {
-		mPool.release();
+		if(mSounds != null) {
+			mSounds.release();
+			mSounds = null;
+		}
+		closeNetwork();
 	}
 	
 	public void toggleMuted() {
@@ -810,341 +1225,25 @@ public class PongView extends View implements OnTouchListener, OnKeyListener {
 		Toast.makeText(ctx, rid, Toast.LENGTH_SHORT).show();
 	}
 	
-	private void playSound(int rid) {
-		if(mMuted == true) return;
-		mPool.play(rid, 0.6f, 0.6f, 1, 0, 2.0f);
+	public void onSound(int sfx) {
+		if(GameTrace.ENABLED) GameTrace.begin("onSound");
+		if(mHost != null) mHost.onSound(sfx);
+		if(mBroadcaster != null) mBroadcaster.onSound(sfx);
+		if(mBots != null) mBots.onSound(sfx);
+		
+		if(!mMuted && mSounds != null) mSounds.play(sfx);
+		if(GameTrace.ENABLED) GameTrace.end();
 	}
 	
-	class Ball {
-		public float x, y, xp, yp, vx, vy;
-		public float speed = SPEED;
-		
-		protected double mAngle;
-		protected boolean mNextPointKnown = false;
-		protected int mCounter = 0;
-		
-		public Ball() {
-			findVector();
-		}
-		
-		public Ball(Ball other) {
-			x = other.x;
-			y = other.y;
-			xp = other.xp;
-			yp = other.yp;
-			vx = other.vx;
-			vy = other.vy;
-			speed = other.speed;
-			mAngle = other.mAngle;
-		}
-		
-		protected void findVector() {
-			vx = (float) (speed * Math.cos(mAngle));
-			vy = (float) (speed * Math.sin(mAngle));
-		}
-		
-		public boolean goingUp() {
-			return mAngle >= Math.PI;
-		}
-		
-		public boolean goingDown() {
-			return !goingUp();
-		}
-		
-		public boolean goingLeft() {
-			return mAngle <= 3 * Math.PI / 2 && mAngle > Math.PI / 2;
-		}
-		
-		public boolean goingRight() {
-			return !goingLeft();
-		}
-		
-		public double getAngle() {
-			return mAngle;
-		}
-		
-		public boolean serving() {
-			return mCounter > 0;
-		}
-		
-		public void pause() {
-			mCounter = 60;
-		}
-		
-		public void move() {
-			if(mCounter <= 0) {
-				x = keepX(x + vx); 
-				y += vy;
-			}
-			else {
-				mCounter--;
-			}
-		}
-		
-		public void randomAngle() {
-			setAngle( Math.PI / 2 + RNG.nextInt(2) * Math.PI + Math.PI / 2 * RNG.nextGaussian() );
-		}
-		
-		public void setAngle(double angle) {
-			mAngle = angle % (2 * Math.PI);
-			mAngle = boundAngle(mAngle);
-			findVector();
-		}
-		
-		public void draw(Canvas canvas) {
-	        if((mCounter / 10) % 2 == 1 || mCounter == 0)
-	        	canvas.drawCircle(x, y, Ball.RADIUS, mPaint);
-		}
-		
-		/**
-		 * Tells us if the ball collides with a rectangle.
-		 * @param r, the rectangle
-		 * @return true if the ball is colliding, false if not
-		 */
-		public boolean collides(Paddle p) {
-			return p.collides(this); 
-		}
-		
-		/**
-		 * Method bounces the ball across a vertical axis. Seriously it's that easy.
-		 * Math failed me when figuring this out so I guessed instead.
-		 */
-		public void bouncePaddle(Paddle p) {
-			double angle;
-			
-			// up-right case
-			if(mAngle >= Math.PI) {
-				angle = 4 * Math.PI - mAngle;
-			}
-			// down-left case
-			else {
-				angle = 2 * Math.PI - mAngle;
-			}
-			
-			angle %= (2 * Math.PI);
-			angle = salt(angle, p);
-//			normalize(p);
-			setAngle(angle);
-		}
-
-		/**
-		 * Bounce the ball off a horizontal axis.
-		 */
-		public void bounceWall() {
-			setAngle(3 * Math.PI - mAngle);
-		}
-		
-		protected double salt(double angle, Paddle paddle) {
-			int cx = paddle.centerX();
-			double halfWidth = paddle.getWidth() / 2;
-			double change = 0.0;
-			
-			if(goingUp()) change = SALT * ((cx - x) / halfWidth);
-			else change = SALT * ((x - cx) / halfWidth);
-			
-			return boundAngle(angle, change);
-		}
-		
-		/**
-		 * Normalizes a ball's position after it has hit a paddle.
-		 * @param r The paddle the ball has hit.
-		 */
-		protected void normalize(Paddle p) {
-			// Quit if the ball is outside the width of the paddle
-			if(x < p.getLeft() || x > p.getRight()) {
-				return;
-			}
-			
-			// Case if ball is above the paddle
-			if(y < p.getTop()) {
-				y = Math.min(y, p.getTop() - Ball.RADIUS);
-			}
-			else if(y > p.getBottom()) {
-				y = Math.max(y, p.getBottom() + Ball.RADIUS);
-			}
-		}
-		
-		/**
-		 * Bounds sum of <code>angle</code> and <code>angleChange</code> to the side of the
-		 * unit circle that <code>angle</code> is on.
-		 * @param angle The initial angle.
-		 * @param angleChange Amount to add to angle.
-		 * @return bounded angle sum
-		 */
-		protected double boundAngle(double angle, double angleChange) {
-			return boundAngle(angle + angleChange, angle >= Math.PI);
-		}
-		
-		protected double boundAngle(double angle) {
-			return boundAngle(angle, angle >= Math.PI);
-		}
-		
-		/**
-		 * Bounds an angle in radians to a subset of the top
-		 * or bottom part of the unit circle.
-		 * @param angle The angle in radians to bound.
-		 * @param top Flag which indicates if we should bound to the top or not.
-		 * @return the bounded angle
-		 */
-		protected double boundAngle(double angle, boolean top) {
-			if(top) {
-				return Math.max(Math.PI + BOUND, Math.min(2 * Math.PI - BOUND, angle));
-			}
-
-			return Math.max(BOUND, Math.min(Math.PI - BOUND, angle));
-		}
-		
-
-		/**
-		 * Given it a coordinate, it transforms it into a proper x-coordinate for the ball.
-		 * @param x, the x-coord to transform
-		 * @return
-		 */
-		protected float keepX(float x) {
-			return bound(x, Ball.RADIUS, getWidth() - Ball.RADIUS);
-		}
-		//change the ball speed from 4.0f to 12.0f
-		public static final double BOUND = Math.PI / 9;
-		public static final float SPEED = 12.0f; 
-		public static final int RADIUS = 8;
-		public static final double SALT = 4 * Math.PI / 9;
-	}
-
-	class Paddle {
-		protected int mColor;
-		protected Rect mRect;
-		protected Rect mTouch;
-		protected int mHandicap = 0;
-		protected int mSpeed = PLAYER_PADDLE_SPEED;
-		protected int mLives = STARTING_LIVES;
-		
-		public boolean player = false;
-
-		public int destination;
-		
-		public Paddle(int c, int y) {
-			mColor = c;
-			
-			int mid = PongView.this.getWidth() / 2;
-			mRect = new Rect(mid - PADDLE_WIDTH, y,
-					mid + PADDLE_WIDTH, y + PADDLE_THICKNESS);
-			destination = mid;
-		}
-		
-		public void move() {
-			move(mSpeed);
-		}
-		
-		public void move(boolean handicapped) {
-			move((handicapped) ? mSpeed - mHandicap : mSpeed);
-		}
-		
-		public void move(int s) {
-			int dx = (int) Math.abs(mRect.centerX() - destination);
-			
-			if(destination < mRect.centerX()) {
-				mRect.offset( (dx > s) ? -s : -dx, 0);
-			}
-			else if(destination > mRect.centerX()) {
-				mRect.offset( (dx > s) ? s : dx, 0);
-			}
-		}
-		
-		public void setLives(int lives) {
-			mLives = Math.max(0, lives);
-		}
-		
-		public void setPosition(int x) {
-			mRect.offset(x - mRect.centerX(), 0);
-		}
-		
-		public void setTouchbox(Rect r) {
-			mTouch = r;
-		}
-		
-		public void setSpeed(int s) {
-			mSpeed = (s > 0) ? s : mSpeed;
-		}
-		
-		public void setHandicap(int h) {
-			mHandicap = (h >= 0 && h < mSpeed) ? h : mHandicap; 
-		}
-		
-		public boolean inTouchbox(int x, int y) {
-			return mTouch.contains(x, y);
-		}
-		
-		public void loseLife() {
-			mLives = Math.max(0, mLives - 1);
-		}
-		
-		public boolean living() {
-			return mLives > 0;
-		}
-		
-		public int getWidth() {
-			return Paddle.PADDLE_WIDTH;
-		}
-		
-		public int getTop() {
-			return mRect.top;
-		}
-		
-		public int getBottom() {
-			return mRect.bottom;
-		}
-		
-		public int centerX() {
-			return mRect.centerX();
-		}
-		
-		public int centerY() {
-			return mRect.centerY();
-		}
-		
-		public int getLeft() {
-			return mRect.left;
-		}
-		
-		public int getRight() {
-			return mRect.right;
-		}
-		
-		public int touchCenterY() {
-			return mTouch.centerY();
-		}
-		
-		public int getLives() {
-			return mLives;
-		}
-		
-		public void draw(Canvas canvas) {
-			mPaint.setColor(mColor);
-			mPaint.setStyle(Style.FILL);
-			canvas.drawRect(mRect, mPaint);
-		}
-		
-		public void drawTouchbox(Canvas canvas) {
-			mPaint.setColor(mColor);
-			mPaint.setStyle(Style.STROKE);
-			
-			// Heuristic for deciding which line to paint:
-			// draw the one closest to middle
-			int mid = getHeight() / 2;
-			int top = Math.abs(mTouch.top - mid), bot = Math.abs(mTouch.bottom - mid);
-			float y = (top < bot) ? mTouch.top : mTouch.bottom;
-			canvas.drawLine(mTouch.left, y, mTouch.right, y, mPaint);
-		}
-		
-		public boolean collides(Ball b) {
-			return b.x >= mRect.left && b.x <= mRect.right && 
-			b.y >= mRect.top - Ball.RADIUS && b.y <= mRect.bottom + Ball.RADIUS;
+	/**
+	 * Keeps the tick just played, and starts the replay if it lost a point.
+	 * A point that ends the match is left for the end screen.
+	 */
+	private void recordReplay() {
+		mReplay.record(mGame);
+		if(mPointLost) {
+			mPointLost = false;
+			mReplay.play();
 		}
-		
-		/** Thickness of the paddle */
-		private static final int PADDLE_THICKNESS = 10;
-		
-		/** Width of the paddle */
-		private static final int PADDLE_WIDTH = 30;
 	}
 }
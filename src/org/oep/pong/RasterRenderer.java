@@ -0,0 +1,264 @@
+package org.oep.pong;
+
+/**
+ * Draws into an <code>int[]</code> of 0xAARRGGBB pixels with no platform
+ * help at all, so frames can be drawn and compared on any JVM. A pixel is
+ * painted when its center is inside a shape; outlines and lines are one
+ * pixel wide whatever the scale. Text uses a built-in 7x9 bitmap font
+ * scaled to the text size, so it looks the same everywhere.
+ * @author OEP
+ *
+ */
+public final class RasterRenderer implements Renderer {
+	private final int mWidth, mHeight;
+	private final int[] mPixels;
+
+	/** Text size in the units of the layer it is drawn in */
+	private final float mTextSize;
+
+	/** Layer stack: scale, offset and clip in pixels, the clip as left, top, right, bottom exclusive */
+	private final float[] mScale = new float[MAX_LAYERS], mDx = new float[MAX_LAYERS], mDy = new float[MAX_LAYERS];
+	private final int[] mClip = new int[4 * MAX_LAYERS];
+	private int mLayer = 0;
+
+	public RasterRenderer(int width, int height, float textSize) {
+		mWidth = width;
+		mHeight = height;
+		mPixels = new int[width * height];
+		mTextSize = textSize;
+		mScale[0] = 1;
+		mClip[2] = width;
+		mClip[3] = height;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/** The framebuffer itself, row by row */
+	public int[] getPixels() {
+		return mPixels;
+	}
+
+	public void clear(int color) {
+		fill(clipLeft(), clipTop(), clipRight(), clipBottom(), color);
+	}
+
+	public void rect(float left, float top, float right, float bottom, int color, boolean fill) {
+		int l = px(sx(left)), t = px(sy(top)), r = px(sx(right)), b = px(sy(bottom));
+		if(fill || r - l <= 2 || b - t <= 2) {
+			fill(l, t, r, b, color);
+			return;
+		}
+		fill(l, t, r, t + 1, color);
+		fill(l, b - 1, r, b, color);
+		fill(l, t + 1, l + 1, b - 1, color);
+		fill(r - 1, t + 1, r, b - 1, color);
+	}
+
+	public void circle(float cx, float cy, float radius, int color, boolean fill) {
+		float x = sx(cx), y = sy(cy), rad = radius * mScale[mLayer];
+		int top = Math.max(clipTop(), px(y - rad - 1)), bottom = Math.min(clipBottom(), px(y + rad + 1));
+
+		for(int j = top; j < bottom; j++) {
+			float dy = j + 0.5f - y;
+			if(fill) {
+				float span = rad * rad - dy * dy;
+				if(span <= 0) continue;
+				float half = (float) Math.sqrt(span);
+				fill(px(x - half), j, px(x + half), j + 1, color);
+			}
+			else {
+				int left = Math.max(clipLeft(), px(x - rad - 1)), right = Math.min(clipRight(), px(x + rad + 1));
+				for(int i = left; i < right; i++) {
+					float dx = i + 0.5f - x;
+					float d = (float) Math.sqrt(dx * dx + dy * dy);
+					if(d >= rad - 0.5f && d < rad + 0.5f) plot(i, j, color);
+				}
+			}
+		}
+	}
+
+	public void line(float x0, float y0, float x1, float y1, int color) {
+		float ax = sx(x0), ay = sy(y0), bx = sx(x1), by = sy(y1);
+		float dx = bx - ax, dy = by - ay;
+
+		// One pixel for each pixel center crossed along the longer axis
+		if(Math.abs(dx) >= Math.abs(dy)) {
+			if(dx == 0) {
+				plot((int) Math.floor(ax), (int) Math.floor(ay), color);
+				return;
+			}
+			for(int i = px(Math.min(ax, bx)), end = px(Math.max(ax, bx)); i < end; i++) {
+				plot(i, (int) Math.floor(ay + (i + 0.5f - ax) * dy / dx), color);
+			}
+		}
+		else {
+			for(int j = px(Math.min(ay, by)), end = px(Math.max(ay, by)); j < end; j++) {
+				plot((int) Math.floor(ax + (j + 0.5f - ay) * dx / dy), j, color);
+			}
+		}
+	}
+
+	public void text(String s, float x, float y, int color) {
+		float unit = mTextSize / GLYPH_LINE;
+		for(int c = 0; c < s.length(); c++) {
+			char ch = s.charAt(c);
+			long glyph = (ch >= FIRST_GLYPH && ch < FIRST_GLYPH + GLYPHS.length) ? GLYPHS[ch - FIRST_GLYPH] : GLYPHS['?' - FIRST_GLYPH];
+			float left = x + c * GLYPH_ADVANCE * unit;
+
+			for(int row = 0; row < GLYPH_ROWS; row++) {
+				float top = y + (row - GLYPH_ASCENT) * unit;
+				int t = px(sy(top)), b = Math.max(t + 1, px(sy(top + unit)));
+				for(int col = 0; col < GLYPH_COLUMNS; col++) {
+					long bit = 1L << (GLYPH_ROWS * GLYPH_COLUMNS - 1 - row * GLYPH_COLUMNS - col);
+					if((glyph & bit) == 0) continue;
+
+					// Cells never vanish, even when the text is smaller than the font
+					int l = px(sx(left + col * unit)), r = Math.max(l + 1, px(sx(left + (col + 1) * unit)));
+					fill(l, t, r, b, color);
+				}
+			}
+		}
+	}
+
+	public float textWidth(String s) {
+		return s.length() * GLYPH_ADVANCE * mTextSize / GLYPH_LINE;
+	}
+
+	public float textAscent() {
+		return GLYPH_ASCENT * mTextSize / GLYPH_LINE;
+	}
+
+	public float lineSpacing() {
+		return mTextSize;
+	}
+
+	public void pushLayer(float scale, float dx, float dy, float clipWidth, float clipHeight) {
+		if(mLayer + 1 == MAX_LAYERS) throw new IllegalStateException("Too many layers");
+
+		float s = mScale[mLayer] * scale;
+		float ndx = sx(dx), ndy = sy(dy);
+		int l = Math.max(clipLeft(), px(ndx)), t = Math.max(clipTop(), px(ndy));
+		int r = Math.min(clipRight(), px(ndx + clipWidth * s)), b = Math.min(clipBottom(), px(ndy + clipHeight * s));
+
+		mLayer++;
+		mScale[mLayer] = s;
+		mDx[mLayer] = ndx;
+		mDy[mLayer] = ndy;
+		mClip[4 * mLayer] = l;
+		mClip[4 * mLayer + 1] = t;
+		mClip[4 * mLayer + 2] = Math.max(l, r);
+		mClip[4 * mLayer + 3] = Math.max(t, b);
+	}
+
+	public void popLayer() {
+		if(mLayer == 0) throw new IllegalStateException("No layer to pop");
+		mLayer--;
+	}
+
+	/** Layer units to pixels */
+	private float sx(float x) {
+		return x * mScale[mLayer] + mDx[mLayer];
+	}
+
+	private float sy(float y) {
+		return y * mScale[mLayer] + mDy[mLayer];
+	}
+
+	/**
+	 * @return the first pixel whose center is at or past <code>v</code>
+	 */
+	private static int px(float v) {
+		return (int) Math.ceil(v - 0.5f);
+	}
+
+	private int clipLeft() {
+		return mClip[4 * mLayer];
+	}
+
+	private int clipTop() {
+		return mClip[4 * mLayer + 1];
+	}
+
+	private int clipRight() {
+		return mClip[4 * mLayer + 2];
+	}
+
+	private int clipBottom() {
+		return mClip[4 * mLayer + 3];
+	}
+
+	/**
+	 * Fills pixels [l, r) x [t, b), clipped.
+	 */
+	private void fill(int l, int t, int r, int b, int color) {
+		l = Math.max(l, clipLeft());
+		t = Math.max(t, clipTop());
+		r = Math.min(r, clipRight());
+		b = Math.min(b, clipBottom());
+		for(int j = t; j < b; j++) {
+			int row = j * mWidth;
+			for(int i = l; i < r; i++) {
+				mPixels[row + i] = blend(mPixels[row + i], color);
+			}
+		}
+	}
+
+	private void plot(int i, int j, int color) {
+		if(i < clipLeft() || i >= clipRight() || j < clipTop() || j >= clipBottom()) return;
+		mPixels[j * mWidth + i] = blend(mPixels[j * mWidth + i], color);
+	}
+
+	/**
+	 * Draws <code>src</code> over <code>dst</code>.
+	 */
+	private static int blend(int dst, int src) {
+		int a = src >>> 24;
+		if(a == 0xff) return src;
+		if(a == 0) return dst;
+
+		int rb = ((src & 0xff00ff) * a + (dst & 0xff00ff) * (0xff - a)) / 0xff;
+		int g = ((src & 0xff00) * a + (dst & 0xff00) * (0xff - a)) / 0xff;
+		return 0xff000000 | (rb & 0xff00ff) | (g & 0xff00);
+	}
+
+	private static final int MAX_LAYERS = 8;
+
+	/** Font cells: 7 columns by 9 rows, 7 of them above the baseline, on a 10 row line */
+	private static final int GLYPH_COLUMNS = 7, GLYPH_ROWS = 9, GLYPH_ASCENT = 7, GLYPH_LINE = 10;
+	private static final int GLYPH_ADVANCE = 7;
+	private static final char FIRST_GLYPH = ' ';
+
+	/** Printable ASCII, one glyph per long, rows from the top and the high bit leftmost */
+	private static final long[] GLYPHS = {
+		0x0000000000000000L, 0x0810204080020000L, 0x1428500000000000L, 0x1428f947c50a0000L,
+		0x083ca1c0e14f0400L, 0x70a1d0c2e1438000L, 0x1c20615264868000L, 0x0810200000000000L,
+		0x1020408102040400L, 0x1010204081040800L, 0x2a38715000000000L, 0x001021f081000000L,
+		0x0000000000040810L, 0x00000001c0000000L, 0x0000000000040000L, 0x0208104082041000L,
+		0x1c44895224470000L, 0x38102040810f8000L, 0x1c440830c20f8000L, 0x1c4408e024470000L,
+		0x041851a3e0810000L, 0x3c40f010204f0000L, 0x1e6081e224470000L, 0x3e0c102081040000L,
+		0x1c4488e224470000L, 0x1c4488f020cf0000L, 0x0000400000040000L, 0x0000400000040810L,
+		0x00047101c0400000L, 0x0001f007c0000000L, 0x00407011c4000000L, 0x3c08208100040000L,
+		0x1c24b952a54b880cL, 0x081050a1c4488000L, 0x3c4489e2244f0000L, 0x1e64810206478000L,
+		0x3c4c891224cf0000L, 0x3e4081f2040f8000L, 0x3e4081f204080000L, 0x1c64813226478000L,
+		0x224489f224488000L, 0x3e102040810f8000L, 0x1c08102044860000L, 0x2248a18284888000L,
+		0x20408102040f8000L, 0x226cd95224488000L, 0x2264c95264c88000L, 0x1c44891224470000L,
+		0x3c4489e204080000L, 0x1c44891224470300L, 0x3c4489e264484000L, 0x1c4480e024470000L,
+		0x3e10204081020000L, 0x2244891224470000L, 0x224450a141020000L, 0x42b569e244890000L,
+		0x2228504142888000L, 0x2228504081020000L, 0x3e081041020f8000L, 0x1020408102040c00L,
+		0x2020404080810100L, 0x0810204081020c00L, 0x1051100000000000L, 0x000000000000007eL,
+		0x1000000000000000L, 0x0000f011e44f8000L, 0x2040f112244f0000L, 0x0000710204070000L,
+		0x0204791224478000L, 0x00007113e4078000L, 0x1020f08102040000L, 0x000079122447811cL,
+		0x2040b19224488000L, 0x00006040810f8000L, 0x0000e04081020430L, 0x2040914384888000L,
+		0x1020408102030000L, 0x0000f952a54a8000L, 0x0000b19224488000L, 0x0000711224470000L,
+		0x0000f112244f1020L, 0x0000791224478102L, 0x0000789102040000L, 0x00007901e04f0000L,
+		0x1020f08102070000L, 0x0000891224478000L, 0x000088a142820000L, 0x0000895142850000L,
+		0x0000d8a0828d8000L, 0x000088a141020430L, 0x0000f820820f8000L, 0x0810218081020600L,
+		0x0810204081020408L, 0x0810203081020c00L, 0x000001c060000000L
+	};
+}
@@ -0,0 +1,47 @@
+package org.oep.pong;
+
+/**
+ * Somewhere to draw a frame. The game only ever draws filled and outlined
+ * rectangles and circles, lines and text, so that is all a renderer has to
+ * do. Colors are 0xAARRGGBB, the same as android.graphics.Color.
+ *
+ * Drawing happens in layers. pushLayer() starts one with its own scale,
+ * offset and clip on top of the current one, and popLayer() goes back;
+ * this is how the world is fitted into the screen.
+ * @author OEP
+ *
+ */
+public interface Renderer {
+	/**
+	 * Fills everything inside the current clip.
+	 */
+	public void clear(int color);
+
+	public void rect(float left, float top, float right, float bottom, int color, boolean fill);
+
+	public void circle(float cx, float cy, float radius, int color, boolean fill);
+
+	public void line(float x0, float y0, float x1, float y1, int color);
+
+	/**
+	 * Draws text with its baseline at <code>y</code>.
+	 */
+	public void text(String s, float x, float y, int color);
+
+	/** Text metrics in the current layer's units */
+	public float textWidth(String s);
+
+	/** @return the height of a capital letter above the baseline, as a positive number */
+	public float textAscent();
+
+	/** @return how far apart lines of text go */
+	public float lineSpacing();
+
+	/**
+	 * Starts a layer that draws at <code>x * scale + dx</code> and is clipped
+	 * to <code>(0, 0, clipWidth, clipHeight)</code> in its own units.
+	 */
+	public void pushLayer(float scale, float dx, float dy, float clipWidth, float clipHeight);
+
+	public void popLayer();
+}
@@ -0,0 +1,258 @@
+package org.oep.pong;
+
+/**
+ * The last few seconds of a match, kept for an instant replay when a point
+ * is lost. Each tick the balls, paddles, lives and pickup are written as a
+ * fixed-size row of ints into one array allocated up front, overwriting the
+ * oldest row once it is full, so recording costs a few stores and the
+ * memory is known before the first tick.
+ *
+ * Playing back only reads rows. It moves through them at full speed and
+ * slows down for the last moments before the miss; the scene draws the row
+ * under the cursor instead of the live game, which is left as it is.
+ * @author OEP
+ *
+ */
+public final class ReplayBuffer {
+	/** Where each value sits in a row. Ball and extra positions are float bits. */
+	private static final int
+		TICK = 0,
+		BALL_X = 1,
+		BALL_Y = 2,
+		BALL_VISIBLE = 3,
+		EXTRAS = 4,
+		EXTRA_XY = 5,
+		RED_LEFT = EXTRA_XY + 2 * PongGame.MULTIBALL,
+		RED_RIGHT = RED_LEFT + 1,
+		RED_LIVES = RED_LEFT + 2,
+		BLUE_LEFT = RED_LEFT + 3,
+		BLUE_RIGHT = RED_LEFT + 4,
+		BLUE_LIVES = RED_LEFT + 5,
+		GRAY_LEFT = RED_LEFT + 6,
+		GRAY_RIGHT = RED_LEFT + 7,
+		PICKUP = RED_LEFT + 8,
+		PICKUP_X = RED_LEFT + 9,
+		PICKUP_Y = RED_LEFT + 10;
+
+	/** Ints in a row */
+	public static final int FRAME_SIZE = PICKUP_Y + 1;
+
+	private final int[] mFrames;
+	private final int mCapacity;
+
+	/** Rows written since the last clear(), of which the last mCapacity are kept */
+	private int mWritten = 0;
+
+	/** Playback cursor, in rows from the oldest kept; negative when not playing */
+	private float mCursor = -1;
+	private int mPlayFrames = 0;
+
+	/**
+	 * @param capacity, ticks to keep
+	 */
+	public ReplayBuffer(int capacity) {
+		mCapacity = Math.max(1, capacity);
+		mFrames = new int[mCapacity * FRAME_SIZE];
+	}
+
+	/**
+	 * Writes the game as it stands after a step into the next row.
+	 */
+	public void record(PongGame game) {
+		int[] f = mFrames;
+		int o = (mWritten % mCapacity) * FRAME_SIZE;
+		mWritten++;
+
+		Ball ball = game.getBall();
+		f[o + TICK] = game.getTick() - 1;
+		f[o + BALL_X] = Float.floatToRawIntBits(ball.x);
+		f[o + BALL_Y] = Float.floatToRawIntBits(ball.y);
+		f[o + BALL_VISIBLE] = (ball.visible()) ? 1 : 0;
+
+		Ball[] extras = game.getExtras();
+		int count = game.getExtraCount();
+		f[o + EXTRAS] = count;
+		for(int i = 0; i < count; i++) {
+			f[o + EXTRA_XY + 2 * i] = Float.floatToRawIntBits(extras[i].x);
+			f[o + EXTRA_XY + 2 * i + 1] = Float.floatToRawIntBits(extras[i].y);
+		}
+
+		Paddle red = game.getRed(), blue = game.getBlue(), gray = game.getGray();
+		f[o + RED_LEFT] = red.getLeft();
+		f[o + RED_RIGHT] = red.getRight();
+		f[o + RED_LIVES] = red.getLives();
+		f[o + BLUE_LEFT] = blue.getLeft();
+		f[o + BLUE_RIGHT] = blue.getRight();
+		f[o + BLUE_LIVES] = blue.getLives();
+		f[o + GRAY_LEFT] = gray.getLeft();
+		f[o + GRAY_RIGHT] = gray.getRight();
+		f[o + PICKUP] = game.getPickup();
+		f[o + PICKUP_X] = game.getPickupX();
+		f[o + PICKUP_Y] = game.getPickupY();
+	}
+
+	/**
+	 * Forgets every row, as when a new point is served.
+	 */
+	public void clear() {
+		mWritten = 0;
+		mCursor = -1;
+	}
+
+	/** Rows kept */
+	public int size() {
+		return Math.min(mWritten, mCapacity);
+	}
+
+	public int capacity() {
+		return mCapacity;
+	}
+
+	/** Bytes the rows take up, for tools */
+	public int bytes() {
+		return 4 * mFrames.length;
+	}
+
+	/**
+	 * Starts playing from the oldest row kept.
+	 * @return false if there is nothing to play
+	 */
+	public boolean play() {
+		mPlayFrames = size();
+		mCursor = (mPlayFrames > 0) ? 0 : -1;
+		return mCursor >= 0;
+	}
+
+	public boolean playing() {
+		return mCursor >= 0;
+	}
+
+	/**
+	 * Moves playback on by one display frame, slowly over the last
+	 * SLOW_FRAMES rows.
+	 * @return false once the replay is over
+	 */
+	public boolean advance() {
+		if(mCursor < 0) return false;
+
+		mCursor += (mCursor >= mPlayFrames - SLOW_FRAMES) ? SLOW_SPEED : 1;
+		if(mCursor > mPlayFrames - 1) mCursor = -1;
+		return mCursor >= 0;
+	}
+
+	/** Ends playback early */
+	public void stop() {
+		mCursor = -1;
+	}
+
+	/**
+	 * @return true while the replay is in slow motion
+	 */
+	public boolean slow() {
+		return mCursor >= mPlayFrames - SLOW_FRAMES;
+	}
+
+	/*
+	 * What the row under the cursor holds. Positions between rows are
+	 * blended so slow motion does not stutter; everything else comes from
+	 * the row before.
+	 */
+
+	public int tick() {
+		return get(0, TICK);
+	}
+
+	public float ballX() {
+		return blend(BALL_X);
+	}
+
+	public float ballY() {
+		return blend(BALL_Y);
+	}
+
+	public boolean ballVisible() {
+		return get(0, BALL_VISIBLE) != 0;
+	}
+
+	public int extraCount() {
+		return get(0, EXTRAS);
+	}
+
+	public float extraX(int i) {
+		return extra(EXTRA_XY + 2 * i, i);
+	}
+
+	public float extraY(int i) {
+		return extra(EXTRA_XY + 2 * i + 1, i);
+	}
+
+	public int redLeft() {
+		return get(0, RED_LEFT);
+	}
+
+	public int redRight() {
+		return get(0, RED_RIGHT);
+	}
+
+	public int redLives() {
+		return get(0, RED_LIVES);
+	}
+
+	public int blueLeft() {
+		return get(0, BLUE_LEFT);
+	}
+
+	public int blueRight() {
+		return get(0, BLUE_RIGHT);
+	}
+
+	public int blueLives() {
+		return get(0, BLUE_LIVES);
+	}
+
+	public int grayLeft() {
+		return get(0, GRAY_LEFT);
+	}
+
+	public int grayRight() {
+		return get(0, GRAY_RIGHT);
+	}
+
+	public int pickup() {
+		return get(0, PICKUP);
+	}
+
+	public int pickupX() {
+		return get(0, PICKUP_X);
+	}
+
+	public int pickupY() {
+		return get(0, PICKUP_Y);
+	}
+
+	/**
+	 * @param ahead, 0 for the row under the cursor, 1 for the one after
+	 */
+	private int get(int ahead, int field) {
+		int row = Math.min((int) Math.max(0, mCursor) + ahead, mPlayFrames - 1);
+		int oldest = (mWritten > mCapacity) ? mWritten - mCapacity : 0;
+		return mFrames[((oldest + row) % mCapacity) * FRAME_SIZE + field];
+	}
+
+	private float blend(int field) {
+		float a = Float.intBitsToFloat(get(0, field)), b = Float.intBitsToFloat(get(1, field));
+		float t = Math.max(0, mCursor) % 1;
+		return a + (b - a) * t;
+	}
+
+	/**
+	 * Blends an extra ball only if it is still there in the next row.
+	 */
+	private float extra(int field, int i) {
+		return (get(1, EXTRAS) > i) ? blend(field) : Float.intBitsToFloat(get(0, field));
+	}
+
+	/** Rows before the miss played in slow motion, and how fast */
+	public static final int SLOW_FRAMES = PongGame.FPS / 2;
+	public static final float SLOW_SPEED = 0.25f;
+}
@@ -0,0 +1,91 @@
+package org.oep.pong;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+
+/**
+ * The game's sound effects, decoded once per process and shared by every
+ * game that is open. Each PongView acquires them when it is made and
+ * releases them when it goes away, but letting go of the last reference
+ * keeps them loaded, so the next game starts without decoding them again.
+ * They are only thrown away when the system is short of memory and no game
+ * is using them; see {@link PongApplication}.
+ * @author OEP
+ *
+ */
+public final class SoundEffects {
+	/** Debug tag */
+	private static final String TAG = "SoundEffects";
+
+	private static SoundEffects sInstance;
+
+	/** Times the effects have been decoded in this process */
+	private static int sDecodes = 0;
+
+	private final SoundPool mPool = new SoundPool(STREAMS, AudioManager.STREAM_MUSIC, 0);
+
+	/** Pool ids, by PongGame.SFX_* */
+	private final int[] mSounds = new int[RESOURCES.length];
+
+	/** Games holding on to the effects */
+	private int mReferences = 0;
+
+	private SoundEffects(Context context) {
+		for(int i = 0; i < RESOURCES.length; i++) {
+			mSounds[i] = mPool.load(context, RESOURCES[i], 1);
+		}
+		sDecodes++;
+		Log.d(TAG, "Decoded sound effects, " + sDecodes + " times in this process");
+	}
+
+	/**
+	 * Takes a reference to the shared effects, loading them if this is the
+	 * first game since the process started or they were trimmed.
+	 */
+	public static synchronized SoundEffects acquire(Context context) {
+		if(sInstance == null) sInstance = new SoundEffects(context.getApplicationContext());
+		sInstance.mReferences++;
+		return sInstance;
+	}
+
+	/**
+	 * Gives back a reference from acquire(). The effects stay loaded.
+	 */
+	public void release() {
+		synchronized(SoundEffects.class) {
+			mReferences = Math.max(0, mReferences - 1);
+		}
+	}
+
+	/**
+	 * @param sfx, one of PongGame.SFX_*
+	 */
+	public void play(int sfx) {
+		mPool.play(mSounds[sfx], VOLUME, VOLUME, 1, 0, RATE);
+	}
+
+	/**
+	 * Frees the effects if no game is using them and the system says memory
+	 * is short. The UI merely being hidden is not reason enough.
+	 * @param level, as handed to ComponentCallbacks2.onTrimMemory()
+	 */
+	public static synchronized void trim(int level) {
+		if(sInstance == null || sInstance.mReferences > 0) return;
+		if(level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return;
+
+		sInstance.mPool.release();
+		sInstance = null;
+		Log.d(TAG, "Released sound effects at trim level " + level);
+	}
+
+	/** Sound resources, by PongGame.SFX_* */
+	private static final int[] RESOURCES = { R.raw.wintone, R.raw.ballmiss, R.raw.paddle, R.raw.wall };
+
+	/** Effects that may play at once */
+	private static final int STREAMS = 3;
+
+	private static final float VOLUME = 0.6f, RATE = 2.0f;
+}
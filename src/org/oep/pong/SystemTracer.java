@@ -0,0 +1,33 @@
+package org.oep.pong;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Sends {@link GameTrace} sections to the platform's system trace, where
+ * systrace and Perfetto show them inside the app's Handler messages.
+ * @author OEP
+ *
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class SystemTracer implements GameTrace.Tracer {
+	public void begin(String name) {
+		Trace.beginSection(name);
+	}
+
+	public void end() {
+		Trace.endSection();
+	}
+
+	/**
+	 * Installs a SystemTracer if tracing is compiled in and the platform
+	 * has android.os.Trace.
+	 */
+	public static void installIfEnabled() {
+		if(GameTrace.ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+				&& GameTrace.installed() == null) {
+			GameTrace.install(new SystemTracer());
+		}
+	}
+}
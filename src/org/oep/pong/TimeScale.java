@@ -0,0 +1,81 @@
+package org.oep.pong;
+
+/**
+ * How fast a watched match runs, from a quarter of real time to 64 times
+ * it, or turbo, which is as fast as the CPU goes. The speed is kept in
+ * quarter ticks per displayed frame and what is left over carries to the
+ * next frame, so 0.25x steps once every fourth frame and 64x steps 64 times
+ * a frame, drawing only the last of them.
+ * @author OEP
+ *
+ */
+public final class TimeScale {
+	/** Speeds, in quarter ticks per frame */
+	public static final int
+		TURBO = 0,
+		QUARTER = 1,
+		REAL_TIME = 4,
+		MAX = 256;
+
+	private int mQuarters = REAL_TIME;
+
+	/** Quarter ticks owed from earlier frames */
+	private int mOwed = 0;
+
+	private String mLabel;
+
+	/**
+	 * @param quarters, quarter ticks per frame between QUARTER and MAX, or TURBO
+	 */
+	public void set(int quarters) {
+		mQuarters = (quarters == TURBO) ? TURBO : Math.max(QUARTER, Math.min(MAX, quarters));
+		mOwed = 0;
+		mLabel = null;
+	}
+
+	public int get() {
+		return mQuarters;
+	}
+
+	public boolean turbo() {
+		return mQuarters == TURBO;
+	}
+
+	public boolean realTime() {
+		return mQuarters == REAL_TIME;
+	}
+
+	/** Doubles the speed, going to turbo after MAX */
+	public void faster() {
+		if(mQuarters != TURBO) set((mQuarters == MAX) ? TURBO : 2 * mQuarters);
+	}
+
+	/** Halves the speed, coming down from turbo to MAX */
+	public void slower() {
+		set((mQuarters == TURBO) ? MAX : Math.max(QUARTER, mQuarters / 2));
+	}
+
+	/**
+	 * @return ticks to step before the next frame is drawn. Not meaningful
+	 * in turbo, which runs for as long as it is given.
+	 */
+	public int ticksThisFrame() {
+		mOwed += mQuarters;
+		int ticks = mOwed / REAL_TIME;
+		mOwed -= ticks * REAL_TIME;
+		return ticks;
+	}
+
+	/**
+	 * @return the speed for the screen, as "0.25x" or "turbo". Made once per
+	 * change of speed.
+	 */
+	public String label(String turbo) {
+		if(mLabel == null) {
+			if(mQuarters == TURBO) mLabel = turbo;
+			else if(mQuarters % REAL_TIME == 0) mLabel = (mQuarters / REAL_TIME) + "x";
+			else mLabel = (mQuarters / (float) REAL_TIME) + "x";
+		}
+		return mLabel;
+	}
+}
@@ -0,0 +1,259 @@
+package org.oep.pong;
+
+import java.util.Arrays;
+
+/**
+ * Timers that go off after a number of simulation ticks, kept in a
+ * two-level hashed wheel. The near wheel has a slot for each of the next
+ * NEAR ticks; the far wheel has a slot for each block of NEAR ticks after
+ * that, and a block's timers are moved down to the near wheel when it
+ * begins. Scheduling and cancelling take a few stores whatever the delay,
+ * and a tick only touches the timers due on it.
+ *
+ * Entries live in parallel primitive arrays with a free list, and are
+ * linked both ways so one can be unlinked from the middle of a slot. The
+ * arrays only grow when more timers are pending than ever before, so a
+ * game that keeps thousands of them going allocates nothing once it has
+ * warmed up. A timer is named by a handle that carries a generation, so
+ * cancelling one that has already gone off does nothing.
+ * @author OEP
+ *
+ */
+public final class TimerWheel {
+	/**
+	 * Told about timers as they go off.
+	 */
+	public interface Handler {
+		/**
+		 * Called once the timer has been freed, so it may schedule more.
+		 * @param kind, arg, as given to schedule()
+		 */
+		public void onTimer(int kind, int arg);
+	}
+
+	/** Handle of no timer */
+	public static final int NONE = -1;
+
+	private int[] mDue, mKind, mArg, mNext, mPrev, mSlot, mGen;
+
+	/** First entry in each slot, near wheel then far wheel */
+	private final int[] mHeads = new int[NEAR + FAR];
+
+	private int mFree = -1, mSize = 0, mNow = 0;
+
+	/**
+	 * @param capacity, how many timers to make room for up front
+	 */
+	public TimerWheel(int capacity) {
+		mDue = new int[0];
+		mKind = new int[0];
+		mArg = new int[0];
+		mNext = new int[0];
+		mPrev = new int[0];
+		mSlot = new int[0];
+		mGen = new int[0];
+		grow(Math.max(1, capacity));
+		Arrays.fill(mHeads, -1);
+	}
+
+	/**
+	 * Drops every timer and sets the clock. Does not allocate.
+	 */
+	public void reset(int now) {
+		for(int s = 0; s < mHeads.length; s++) {
+			for(int e = mHeads[s]; e >= 0; ) {
+				int next = mNext[e];
+				free(e);
+				e = next;
+			}
+			mHeads[s] = -1;
+		}
+		mSize = 0;
+		mNow = now;
+	}
+
+	/**
+	 * Sets a timer to go off <code>delay</code> ticks from now, at least one.
+	 * @param kind, arg, handed back to the handler
+	 * @return a handle for cancel()
+	 */
+	public int schedule(int delay, int kind, int arg) {
+		if(mFree < 0) grow(2 * mDue.length);
+
+		int e = mFree;
+		mFree = mNext[e];
+		mDue[e] = mNow + Math.max(1, delay);
+		mKind[e] = kind;
+		mArg[e] = arg;
+		link(e);
+		mSize++;
+		return (mGen[e] << INDEX_BITS) | e;
+	}
+
+	/**
+	 * Stops a timer before it goes off.
+	 * @return true if it was still pending
+	 */
+	public boolean cancel(int handle) {
+		int e = entry(handle);
+		if(e < 0) return false;
+
+		unlink(e);
+		free(e);
+		mSize--;
+		return true;
+	}
+
+	public boolean pending(int handle) {
+		return entry(handle) >= 0;
+	}
+
+	/**
+	 * @return the tick a pending timer goes off on, or -1
+	 */
+	public int due(int handle) {
+		int e = entry(handle);
+		return (e < 0) ? -1 : mDue[e];
+	}
+
+	/**
+	 * @return ticks until a pending timer goes off, or 0
+	 */
+	public int remaining(int handle) {
+		int e = entry(handle);
+		return (e < 0) ? 0 : mDue[e] - mNow;
+	}
+
+	/**
+	 * Moves the clock on a tick and sets off the timers due then. Timers due
+	 * on the same tick go off in no particular order.
+	 */
+	public void advance(Handler handler) {
+		mNow++;
+
+		// A new block begins: bring its timers down to the near wheel
+		if((mNow & NEAR_MASK) == 0) {
+			int slot = NEAR + ((mNow >>> NEAR_BITS) & FAR_MASK);
+			int e = mHeads[slot];
+			mHeads[slot] = -1;
+			while(e >= 0) {
+				int next = mNext[e];
+				link(e);
+				e = next;
+			}
+		}
+
+		// Everything in this slot is due now; taking one at a time lets a
+		// handler cancel another that is due on the same tick
+		int slot = mNow & NEAR_MASK;
+		int e;
+		while((e = mHeads[slot]) >= 0) {
+			int kind = mKind[e], arg = mArg[e];
+			unlink(e);
+			free(e);
+			mSize--;
+			handler.onTimer(kind, arg);
+		}
+	}
+
+	/** The tick the clock is on */
+	public int now() {
+		return mNow;
+	}
+
+	/** Timers pending */
+	public int size() {
+		return mSize;
+	}
+
+	/** Timers there is room for before the arrays have to grow */
+	public int capacity() {
+		return mDue.length;
+	}
+
+	/**
+	 * @return the entry a handle names, or -1 if that timer is gone
+	 */
+	private int entry(int handle) {
+		if(handle < 0) return -1;
+		int e = handle & INDEX_MASK;
+		if(e >= mDue.length || mSlot[e] < 0 || mGen[e] != handle >>> INDEX_BITS) return -1;
+		return e;
+	}
+
+	/**
+	 * Puts an entry at the head of the slot its due tick falls in. Timers
+	 * further off than the far wheel reaches wait in its last slot and are
+	 * placed again when that comes around.
+	 */
+	private void link(int e) {
+		int due = mDue[e], slot;
+		if(due - mNow < NEAR) {
+			slot = due & NEAR_MASK;
+		}
+		else {
+			int now = mNow >>> NEAR_BITS;
+			int block = Math.min(due >>> NEAR_BITS, now + FAR - 1);
+			slot = NEAR + (block & FAR_MASK);
+		}
+
+		int head = mHeads[slot];
+		mNext[e] = head;
+		mPrev[e] = -1;
+		if(head >= 0) mPrev[head] = e;
+		mHeads[slot] = e;
+		mSlot[e] = slot;
+	}
+
+	private void unlink(int e) {
+		int next = mNext[e], prev = mPrev[e];
+		if(prev >= 0) mNext[prev] = next;
+		else mHeads[mSlot[e]] = next;
+		if(next >= 0) mPrev[next] = prev;
+	}
+
+	/**
+	 * Returns an entry to the free list. Its generation moves on, so old
+	 * handles to it stop working.
+	 */
+	private void free(int e) {
+		mSlot[e] = -1;
+		mGen[e] = (mGen[e] + 1) & GEN_MASK;
+		mNext[e] = mFree;
+		mFree = e;
+	}
+
+	private void grow(int capacity) {
+		int old = mDue.length;
+		if(capacity > INDEX_MASK + 1) throw new IllegalStateException("More than " + (INDEX_MASK + 1) + " timers");
+
+		mDue = copy(mDue, capacity);
+		mKind = copy(mKind, capacity);
+		mArg = copy(mArg, capacity);
+		mNext = copy(mNext, capacity);
+		mPrev = copy(mPrev, capacity);
+		mSlot = copy(mSlot, capacity);
+		mGen = copy(mGen, capacity);
+
+		for(int e = capacity - 1; e >= old; e--) {
+			mSlot[e] = -1;
+			mNext[e] = mFree;
+			mFree = e;
+		}
+	}
+
+	private static int[] copy(int[] a, int length) {
+		int[] b = new int[length];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/** Slots in the near wheel, each one tick */
+	private static final int NEAR_BITS = 8, NEAR = 1 << NEAR_BITS, NEAR_MASK = NEAR - 1;
+
+	/** Slots in the far wheel, each NEAR ticks */
+	private static final int FAR = 64, FAR_MASK = FAR - 1;
+
+	/** A handle is a generation above an entry index */
+	private static final int INDEX_BITS = 20, INDEX_MASK = (1 << INDEX_BITS) - 1, GEN_MASK = (1 << (31 - INDEX_BITS)) - 1;
+}
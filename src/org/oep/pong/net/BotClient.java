@@ -0,0 +1,173 @@
+package org.oep.pong.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The bot's end of a {@link BotServer} connection, for bots written in
+ * Java. Unlike the rest of the network code it blocks: a bot has nothing
+ * to do but wait for the next batch of frames and answer it.
+ *
+ * Coordinates are the protocol's quantized ones, from 0 to
+ * NetProtocol.QUANT across the arena, for frames and targets alike.
+ * @author OEP
+ *
+ */
+public class BotClient {
+	private final SocketChannel mChannel;
+	private final ByteBuffer mIn = ByteBuffer.allocate(MESSAGE_BYTES);
+	private final ByteBuffer mOut = ByteBuffer.allocate(MESSAGE_BYTES);
+
+	private final int mSide, mBatch, mDeadlineMicros, mWidth, mHeight, mFace;
+
+	/** Tick of the last frame read */
+	private int mLastTick;
+
+	/**
+	 * Connects and says hello.
+	 * @param side, the NetProtocol.BOT_SIDE_* wanted
+	 * @throws IOException if the game would not have us, for instance
+	 * because the side is taken
+	 */
+	public BotClient(SocketAddress game, int side) throws IOException {
+		mChannel = SocketChannel.open(game);
+		mChannel.socket().setTcpNoDelay(true);
+
+		mOut.clear();
+		mOut.putShort((short) 3);
+		mOut.put(NetProtocol.TYPE_BOT_HELLO);
+		mOut.put(NetProtocol.VERSION);
+		mOut.put((byte) side);
+		write();
+
+		ByteBuffer b = next();
+		if(b.get() != NetProtocol.TYPE_BOT_WELCOME || b.get() != NetProtocol.VERSION) {
+			close();
+			throw new IOException("Not a bot server");
+		}
+		mSide = b.get();
+		mBatch = b.get() & 0xff;
+		mDeadlineMicros = NetProtocol.getU16(b);
+		mWidth = NetProtocol.getU16(b);
+		mHeight = NetProtocol.getU16(b);
+		mFace = NetProtocol.getU16(b);
+		if(mSide == NetProtocol.BOT_SIDE_ANY) {
+			close();
+			throw new IOException("No side free");
+		}
+	}
+
+	/**
+	 * Waits for the next batch of frames.
+	 * @param frames, filled from the start, at least getBatch() long
+	 * @return how many frames were read, or -1 once the game has gone
+	 */
+	public int readFrames(StateFrame[] frames) throws IOException {
+		ByteBuffer b;
+		try {
+			b = next();
+		}
+		catch(EOFException e) {
+			return -1;
+		}
+		if(b.get() != NetProtocol.TYPE_BOT_FRAMES) return 0;
+
+		int first = NetProtocol.getVarint(b);
+		int count = b.get() & 0xff;
+		for(int i = 0; i < count; i++) {
+			frames[i].read(b, (i == 0) ? null : frames[i - 1]);
+			frames[i].tick = first + i;
+		}
+		mLastTick = first + count - 1;
+		return count;
+	}
+
+	/**
+	 * Sends targets for the ticks after the last batch, one per tick. The
+	 * first is for the tick of the last frame read, since that is the state
+	 * the next tick is played from.
+	 * @param targets, quantized paddle centers
+	 */
+	public void sendTargets(int[] targets, int count) throws IOException {
+		int first = mLastTick;
+		mOut.clear();
+		mOut.putShort((short) 0);
+		mOut.put(NetProtocol.TYPE_BOT_TARGETS);
+		NetProtocol.putVarint(mOut, first);
+		mOut.put((byte) count);
+		for(int i = 0; i < count; i++) {
+			if(i == 0) NetProtocol.putU16(mOut, targets[0]);
+			else NetProtocol.putDelta(mOut, targets[i] - targets[i - 1]);
+		}
+		mOut.putShort(0, (short) (mOut.position() - 2));
+		write();
+	}
+
+	private void write() throws IOException {
+		mOut.flip();
+		while(mOut.hasRemaining()) mChannel.write(mOut);
+	}
+
+	/**
+	 * @return the next message, after its length
+	 */
+	private ByteBuffer next() throws IOException {
+		mIn.clear();
+		fill(2);
+		int length = mIn.getShort(0) & 0xffff;
+		if(length == 0 || length > MESSAGE_BYTES - 2) throw new IOException("Bad message length " + length);
+		fill(2 + length);
+		mIn.flip();
+		mIn.position(2);
+		return mIn;
+	}
+
+	private void fill(int bytes) throws IOException {
+		mIn.limit(bytes);
+		while(mIn.hasRemaining()) {
+			if(mChannel.read(mIn) < 0) throw new EOFException();
+		}
+	}
+
+	/** NetProtocol.BOT_SIDE_RED or BOT_SIDE_BLUE */
+	public int getSide() {
+		return mSide;
+	}
+
+	/** Frames in each batch, and targets wanted back */
+	public int getBatch() {
+		return mBatch;
+	}
+
+	public int getDeadlineMicros() {
+		return mDeadlineMicros;
+	}
+
+	/** Arena size in world units, for its shape */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/** Where the ball meets our paddle, quantized along the height */
+	public int getFace() {
+		return mFace;
+	}
+
+	public void close() {
+		try {
+			mChannel.close();
+		}
+		catch(IOException e) {
+			// Already gone
+		}
+	}
+
+	private static final int MESSAGE_BYTES = 8 + 16 * BotServer.MAX_BATCH;
+}
@@ -0,0 +1,438 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.oep.pong.Paddle;
+import org.oep.pong.PongGame;
+
+/**
+ * Lets programs outside the app play the AI paddles. Up to one bot a side
+ * connects over TCP on the loopback address, is sent the state after every
+ * tick as {@link StateFrame}s, a batch of ticks to a message, and answers
+ * each batch with the paddle targets for the ticks to come.
+ *
+ * The game never waits for a bot. A bot that has no target in for a tick
+ * when it is played keeps its paddle on the newest target it did send, for
+ * up to HOLD_TICKS, and after that leaves the paddle to the game's own
+ * strategy until it catches up. So a slow or stuck bot never stops the
+ * match. Targets that turn up late are still used for whichever of their
+ * ticks have not been played yet.
+ *
+ * Everything runs on the game thread with a selector that is only polled,
+ * as NetPeer is, so no thread is needed. Call poll() and steer() before
+ * each step and record() after it. A headless caller that would rather play
+ * in lockstep with its bots can also call await() after record().
+ * @author OEP
+ *
+ */
+public class BotServer {
+	private final Selector mSelector;
+	private final ServerSocketChannel mServer;
+
+	/** Connected bots, by NetProtocol.BOT_SIDE_*. The first is never used. */
+	private final Bot[] mBots = new Bot[3];
+
+	private final int mBatchSize, mDeadlineMicros;
+
+	/** Frames recorded since the last batch was sent */
+	private final StateFrame[] mBatch = new StateFrame[MAX_BATCH];
+	private int mBatched = 0;
+
+	/**
+	 * Ticks on the wire only ever go up, even when a new game starts
+	 * counting from 0 again, so targets sent for the last game never match
+	 * a tick of the next. They are the game's tick plus mTickBase.
+	 */
+	private int mTickBase = 0, mLastTick = -1;
+
+	/** The batch being sent, encoded once for every bot */
+	private final ByteBuffer mFrames = ByteBuffer.allocate(MESSAGE_BYTES);
+
+	/** Sound effects played since the last recorded frame */
+	private int mEvents = 0;
+
+	/**
+	 * Ticks played on a bot's target for them, on its newest target held
+	 * over, and on the game's strategy, and batches not answered in time
+	 */
+	private long mSteered, mHeld, mFallbacks, mMissed;
+
+	/**
+	 * @param port, TCP port on the loopback address, or 0 for any
+	 * @param batch, ticks to a message, from 1 to MAX_BATCH
+	 * @param deadlineMicros, how long a bot has for each tick of a batch
+	 */
+	public BotServer(int port, int batch, int deadlineMicros) throws IOException {
+		mBatchSize = Math.max(1, Math.min(MAX_BATCH, batch));
+		mDeadlineMicros = Math.max(1, Math.min(0xffff, deadlineMicros));
+		for(int i = 0; i < MAX_BATCH; i++) {
+			mBatch[i] = new StateFrame();
+		}
+
+		mSelector = Selector.open();
+		mServer = ServerSocketChannel.open();
+		mServer.configureBlocking(false);
+		mServer.socket().setReuseAddress(true);
+		mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 2);
+		mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Takes in new bots and whatever targets have arrived. Call once per
+	 * tick from the game loop.
+	 */
+	public void poll(PongGame game) {
+		try {
+			if(mSelector.selectNow() > 0) handleKeys(game);
+		}
+		catch(IOException e) {
+			// The selector failed; bots already connected carry on until they drop
+		}
+	}
+
+	/**
+	 * Points each bot's paddle at its target for the tick about to be
+	 * played. Paddles a person is playing are left alone.
+	 */
+	public void steer(PongGame game) {
+		if(game.getTick() + mTickBase < mLastTick) mTickBase = mLastTick + 1 - game.getTick();
+		int tick = mLastTick = game.getTick() + mTickBase;
+		steer(game, game.getRed(), mBots[NetProtocol.BOT_SIDE_RED], tick);
+		steer(game, game.getBlue(), mBots[NetProtocol.BOT_SIDE_BLUE], tick);
+	}
+
+	private void steer(PongGame game, Paddle paddle, Bot bot, int tick) {
+		if(bot == null || paddle.player) return;
+
+		int slot = tick & (RING - 1);
+		if(bot.mTicks[slot] == tick) {
+			game.steer(paddle, NetProtocol.dequantize(bot.mTargets[slot], game.getWidth()));
+			mSteered++;
+			return;
+		}
+
+		// Late, so keep to what it last asked for while that is still recent
+		int newest = bot.mNewest & (RING - 1);
+		if(bot.mNewest >= 0 && bot.mTicks[newest] == bot.mNewest && tick - bot.mNewest <= HOLD_TICKS) {
+			game.steer(paddle, NetProtocol.dequantize(bot.mTargets[newest], game.getWidth()));
+			mHeld++;
+		}
+		else {
+			mFallbacks++;
+		}
+	}
+
+	/**
+	 * Remembers a sound effect so bots hear about it in the next frame.
+	 */
+	public void onSound(int sfx) {
+		mEvents |= 1 << sfx;
+	}
+
+	/**
+	 * Records the state after a step. Once a batch is full it is sent to
+	 * every bot. Never waits for them to answer.
+	 */
+	public void record(PongGame game) {
+		StateFrame frame = mBatch[mBatched++];
+		frame.capture(game, mEvents);
+		frame.tick = mLastTick = game.getTick() + mTickBase;
+		mEvents = 0;
+		if(mBatched < mBatchSize) return;
+
+		if(mBots[NetProtocol.BOT_SIDE_RED] == null && mBots[NetProtocol.BOT_SIDE_BLUE] == null) {
+			mBatched = 0;
+			return;
+		}
+		encode();
+		mBatched = 0;
+		for(int side = 1; side < mBots.length; side++) {
+			Bot bot = mBots[side];
+			if(bot == null) continue;
+			if(bot.mNewest < bot.mOwed) mMissed++;
+			bot.mOwed = mLastTick + mBatchSize - 1;
+			bot.send(mFrames);
+		}
+	}
+
+	private void encode() {
+		mFrames.clear();
+		mFrames.putShort((short) 0);
+		mFrames.put(NetProtocol.TYPE_BOT_FRAMES);
+		NetProtocol.putVarint(mFrames, mBatch[0].tick);
+		mFrames.put((byte) mBatched);
+		for(int i = 0; i < mBatched; i++) {
+			mBatch[i].write(mFrames, (i == 0) ? null : mBatch[i - 1]);
+		}
+		mFrames.putShort(0, (short) (mFrames.position() - 2));
+		mFrames.flip();
+	}
+
+	/**
+	 * Blocks until every bot has answered the batch sent last, or the batch
+	 * size times the per-tick deadline is up. For headless callers only; it
+	 * must never be called on a UI thread.
+	 */
+	public void await(PongGame game) {
+		long deadline = System.nanoTime() + 1000L * mDeadlineMicros * mBatchSize;
+		try {
+			while(!answered()) {
+				long left = deadline - System.nanoTime();
+				if(left <= 0) break;
+
+				// select() only counts milliseconds, so it may overshoot by less than one
+				if(mSelector.select(Math.max(1, left / 1000000)) > 0) handleKeys(game);
+			}
+		}
+		catch(IOException e) {
+			// As in poll()
+		}
+	}
+
+	private boolean answered() {
+		for(int side = 1; side < mBots.length; side++) {
+			if(mBots[side] != null && mBots[side].mNewest < mBots[side].mOwed) return false;
+		}
+		return true;
+	}
+
+	private void handleKeys(PongGame game) throws IOException {
+		Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+		while(it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			if(!key.isValid()) continue;
+
+			if(key.isAcceptable()) accept();
+			else {
+				Bot bot = (Bot) key.attachment();
+				if(key.isReadable()) bot.read(game);
+				if(key.isValid() && key.isWritable()) bot.flush();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch;
+		while((ch = mServer.accept()) != null) {
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			Bot bot = new Bot(ch);
+			bot.mSelectionKey = ch.register(mSelector, SelectionKey.OP_READ, bot);
+		}
+	}
+
+	/**
+	 * One connected program and what it has told us.
+	 */
+	private class Bot {
+		final SocketChannel mChannel;
+		SelectionKey mSelectionKey;
+		final ByteBuffer mIn = ByteBuffer.allocate(MESSAGE_BYTES);
+		final ByteBuffer mOut = ByteBuffer.allocate(BACKLOG);
+
+		/** NetProtocol.BOT_SIDE_*, or BOT_SIDE_ANY until it has said hello */
+		int mSide = NetProtocol.BOT_SIDE_ANY;
+
+		/** Targets by tick, at tick % RING, and the tick each is for */
+		final int[] mTargets = new int[RING], mTicks = new int[RING];
+
+		/** Newest tick we have a target for, and the last one it was asked for */
+		int mNewest = -1, mOwed = -1;
+
+		Bot(SocketChannel ch) {
+			mChannel = ch;
+			Arrays.fill(mTicks, -1);
+		}
+
+		void read(PongGame game) {
+			try {
+				if(mChannel.read(mIn) < 0) {
+					close();
+					return;
+				}
+				mIn.flip();
+				while(mIn.remaining() >= 2) {
+					int length = mIn.getShort(mIn.position()) & 0xffff;
+					if(mIn.remaining() < 2 + length) break;
+
+					int end = mIn.position() + 2 + length;
+					mIn.position(mIn.position() + 2);
+					if(length > 0) handle(game, mIn.get());
+					mIn.position(end);
+				}
+				mIn.compact();
+
+				// A message that can never fit is not from a bot that speaks our protocol
+				if(!mIn.hasRemaining()) close();
+			}
+			catch(IOException e) {
+				close();
+			}
+			catch(BufferUnderflowException e) {
+				close();
+			}
+		}
+
+		void handle(PongGame game, byte type) {
+			switch(type) {
+			case NetProtocol.TYPE_BOT_HELLO:
+				if(mSide != NetProtocol.BOT_SIDE_ANY || mIn.get() != NetProtocol.VERSION) return;
+				welcome(game, mIn.get());
+				break;
+
+			case NetProtocol.TYPE_BOT_TARGETS:
+				if(mSide == NetProtocol.BOT_SIDE_ANY) return;
+				int first = NetProtocol.getVarint(mIn);
+				int count = mIn.get() & 0xff;
+				int target = 0;
+				for(int i = 0; i < count; i++) {
+					target = (i == 0) ? NetProtocol.getU16(mIn) : target + NetProtocol.getDelta(mIn);
+					int slot = (first + i) & (RING - 1);
+					mTargets[slot] = target;
+					mTicks[slot] = first + i;
+				}
+				if(count > 0) mNewest = Math.max(mNewest, first + count - 1);
+				break;
+			}
+		}
+
+		/**
+		 * Gives the bot the side it asked for if it is free, or either free
+		 * side if it did not mind, and tells it how the game is played.
+		 */
+		void welcome(PongGame game, int wanted) {
+			int side = NetProtocol.BOT_SIDE_ANY;
+			if(wanted != NetProtocol.BOT_SIDE_BLUE && mBots[NetProtocol.BOT_SIDE_RED] == null) side = NetProtocol.BOT_SIDE_RED;
+			else if(wanted != NetProtocol.BOT_SIDE_RED && mBots[NetProtocol.BOT_SIDE_BLUE] == null) side = NetProtocol.BOT_SIDE_BLUE;
+
+			Paddle paddle = (side == NetProtocol.BOT_SIDE_RED) ? game.getRed() : game.getBlue();
+			int face = (side == NetProtocol.BOT_SIDE_RED) ? paddle.getBottom() : paddle.getTop();
+
+			ByteBuffer b = ByteBuffer.allocate(WELCOME_BYTES);
+			b.putShort((short) (WELCOME_BYTES - 2));
+			b.put(NetProtocol.TYPE_BOT_WELCOME);
+			b.put(NetProtocol.VERSION);
+			b.put((byte) side);
+			b.put((byte) mBatchSize);
+			NetProtocol.putU16(b, mDeadlineMicros);
+			NetProtocol.putU16(b, game.getWidth());
+			NetProtocol.putU16(b, game.getHeight());
+			NetProtocol.putU16(b, NetProtocol.quantize(face, game.getHeight()));
+			b.flip();
+			send(b);
+
+			if(side == NetProtocol.BOT_SIDE_ANY) {
+				flush();
+				close();
+				return;
+			}
+			mSide = side;
+			mBots[side] = this;
+		}
+
+		/**
+		 * Queues a message. A bot too far behind to take it is dropped.
+		 */
+		void send(ByteBuffer message) {
+			if(mOut.remaining() < message.remaining()) {
+				close();
+				return;
+			}
+			mOut.put(message.array(), message.position(), message.remaining());
+			flush();
+		}
+
+		void flush() {
+			if(mOut.position() == 0 || !mChannel.isOpen()) return;
+			try {
+				mOut.flip();
+				mChannel.write(mOut);
+				mOut.compact();
+				mSelectionKey.interestOps((mOut.position() > 0)
+						? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+			catch(IOException e) {
+				close();
+			}
+		}
+
+		void close() {
+			if(mSide != NetProtocol.BOT_SIDE_ANY && mBots[mSide] == this) mBots[mSide] = null;
+			mSelectionKey.cancel();
+			try {
+				mChannel.close();
+			}
+			catch(IOException e) {
+				// Already gone
+			}
+		}
+	}
+
+	public int getPort() {
+		return mServer.socket().getLocalPort();
+	}
+
+	/**
+	 * @param side, NetProtocol.BOT_SIDE_RED or BOT_SIDE_BLUE
+	 */
+	public boolean connected(int side) {
+		return mBots[side] != null;
+	}
+
+	public long getSteered() {
+		return mSteered;
+	}
+
+	public long getHeld() {
+		return mHeld;
+	}
+
+	public long getFallbacks() {
+		return mFallbacks;
+	}
+
+	public long getMissed() {
+		return mMissed;
+	}
+
+	public void close() {
+		try {
+			for(SelectionKey key : mSelector.keys()) {
+				key.channel().close();
+			}
+			mSelector.close();
+		}
+		catch(IOException e) {
+			// Nothing left to do with it anyway
+		}
+		Arrays.fill(mBots, null);
+	}
+
+	/** Most ticks to a message */
+	public static final int MAX_BATCH = 32;
+
+	/** Ticks a late bot's newest target is kept to before the game's strategy takes over */
+	public static final int HOLD_TICKS = PongGame.FPS / 2;
+
+	/** Targets kept for each bot. A power of two, well over a batch. */
+	private static final int RING = 4 * MAX_BATCH;
+
+	/** Largest message either way: a header and a full batch of frames or targets */
+	private static final int MESSAGE_BYTES = 8 + 16 * MAX_BATCH;
+
+	private static final int WELCOME_BYTES = 14;
+
+	/** Bytes that may queue up for a bot before it is dropped */
+	private static final int BACKLOG = 8 * MESSAGE_BYTES;
+}
@@ -0,0 +1,374 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.oep.pong.PongGame;
+
+/**
+ * Streams a match to spectators. The game thread only captures each tick
+ * into a small ring of frames and hands it over, waking the selector thread
+ * if it is asleep. That thread encodes the tick once, as both a keyframe
+ * and a delta from the tick before, and copies those bytes to every
+ * subscriber, so the game thread's cost does not grow with the viewers.
+ * Each subscriber has a bounded backlog; when it fills up the
+ * subscriber misses frames and picks up again with the next keyframe that
+ * fits, so one slow viewer never holds back the game or anyone else.
+ *
+ * The same selector answers spectate probes on a datagram socket so viewers
+ * can find us without typing an address.
+ * @author OEP
+ *
+ */
+public class Broadcaster implements Runnable {
+	private final Selector mSelector;
+	private final ServerSocketChannel mServer;
+	private final DatagramChannel mProbes;
+	private final Thread mThread;
+	private volatile boolean mRunning = true;
+
+	/** Captured ticks waiting for the selector thread, at seq % SLOTS */
+	private final StateFrame[] mFrames = new StateFrame[SLOTS];
+	private volatile long mPublished = -1;
+
+	/** Set while the selector thread is in, or about to go into, select() */
+	private volatile boolean mSelecting = false;
+
+	/** Game thread only */
+	private long mSeq = -1;
+	private int mEvents = 0;
+
+	/** Selector thread only */
+	private final ArrayList<Subscriber> mSubscribers = new ArrayList<Subscriber>();
+	private final ByteBuffer mKey = ByteBuffer.allocate(FRAME_BYTES);
+	private final ByteBuffer mDelta = ByteBuffer.allocate(FRAME_BYTES);
+	private final ByteBuffer mProbe = ByteBuffer.allocate(16);
+	private long mSent = -1;
+
+	/** Counters, written by the selector thread */
+	private volatile int mViewers, mKeyframes, mDropped;
+	private volatile long mBytesSent;
+
+	/**
+	 * @param port, TCP port for viewers, or 0 for any
+	 * @param probePort, datagram port for discovery, or -1 for none
+	 */
+	public Broadcaster(int port, int probePort) throws IOException {
+		for(int i = 0; i < SLOTS; i++) {
+			mFrames[i] = new StateFrame();
+		}
+
+		mSelector = Selector.open();
+		mServer = ServerSocketChannel.open();
+		mServer.configureBlocking(false);
+		mServer.socket().setReuseAddress(true);
+		mServer.socket().bind(new InetSocketAddress(port), MAX_VIEWERS);
+		mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+
+		if(probePort >= 0) {
+			mProbes = DatagramChannel.open();
+			mProbes.configureBlocking(false);
+			mProbes.socket().setReuseAddress(true);
+			mProbes.socket().bind(new InetSocketAddress(probePort));
+			mProbes.register(mSelector, SelectionKey.OP_READ);
+		}
+		else {
+			mProbes = null;
+		}
+
+		mThread = new Thread(this, "Broadcaster");
+		mThread.setDaemon(true);
+		// Below the game thread, so waking it does not take the game's CPU
+		// mid-frame. Viewers it cannot keep up with fall back to keyframes.
+		mThread.setPriority(Thread.NORM_PRIORITY - 1);
+		mThread.start();
+	}
+
+	/**
+	 * Remembers a sound effect so spectators can play it too.
+	 */
+	public void onSound(int sfx) {
+		mEvents |= 1 << sfx;
+	}
+
+	/**
+	 * Captures the state after a step for the selector thread, and wakes it
+	 * if it is waiting. Call from the game thread once per tick.
+	 */
+	public void publish(PongGame game) {
+		int slot = (int) ((mSeq + 1) % SLOTS);
+		mFrames[slot].capture(game, mEvents);
+		mEvents = 0;
+
+		mPublished = ++mSeq;
+		if(mSelecting) mSelector.wakeup();
+	}
+
+	private static void encode(ByteBuffer b, byte type, StateFrame frame, StateFrame prev) {
+		b.clear();
+		b.putShort((short) 0);
+		b.put(type);
+		NetProtocol.putVarint(b, frame.tick);
+		frame.write(b, prev);
+		b.putShort(0, (short) (b.position() - 2));
+		b.flip();
+	}
+
+	public void run() {
+		try {
+			while(mRunning) {
+				// Announce the select first, so a tick published after the
+				// check below is sure to wake it
+				mSelecting = true;
+				if(mPublished > mSent) mSelector.selectNow();
+				else mSelector.select();
+				mSelecting = false;
+
+				Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if(!key.isValid()) continue;
+
+					if(key.isAcceptable()) accept();
+					else if(key.channel() == mProbes) answerProbes();
+					else {
+						Subscriber s = (Subscriber) key.attachment();
+						if(key.isReadable()) s.read();
+						if(key.isValid() && key.isWritable()) s.flush();
+					}
+				}
+
+				fanOut();
+			}
+		}
+		catch(IOException e) {
+			// The selector itself failed, nothing more we can do
+		}
+		catch(ClosedSelectorException e) {
+			// close() got here first
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch;
+		while((ch = mServer.accept()) != null) {
+			if(mSubscribers.size() >= MAX_VIEWERS) {
+				ch.close();
+				continue;
+			}
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			// Keep the kernel from hiding a slow viewer behind a huge buffer
+			ch.socket().setSendBufferSize(SEND_BUFFER);
+			Subscriber s = new Subscriber(ch);
+			s.mSelectionKey = ch.register(mSelector, SelectionKey.OP_READ, s);
+			mSubscribers.add(s);
+		}
+		mViewers = mSubscribers.size();
+	}
+
+	private void answerProbes() throws IOException {
+		SocketAddress from;
+		mProbe.clear();
+		while((from = mProbes.receive(mProbe)) != null) {
+			mProbe.flip();
+			if(mProbe.remaining() >= 2 && mProbe.get() == NetProtocol.TYPE_SPECTATE_PROBE
+					&& mProbe.get() == NetProtocol.VERSION) {
+				mProbe.clear();
+				mProbe.put(NetProtocol.TYPE_SPECTATE_OFFER);
+				mProbe.put(NetProtocol.VERSION);
+				NetProtocol.putU16(mProbe, getPort());
+				mProbe.flip();
+				mProbes.send(mProbe, from);
+			}
+			mProbe.clear();
+		}
+	}
+
+	/**
+	 * Hands every tick published since the last pass to every subscriber.
+	 */
+	private void fanOut() {
+		long published = mPublished;
+
+		// The game thread lapped us. Whatever we missed is gone.
+		if(published - mSent > SLOTS - 2) {
+			mSent = published - 1;
+			resync();
+		}
+
+		while(mSent < published) {
+			long seq = mSent + 1;
+			StateFrame frame = mFrames[(int) (seq % SLOTS)];
+			StateFrame prev = (seq == 0) ? null : mFrames[(int) ((seq - 1) % SLOTS)];
+			encode(mKey, NetProtocol.TYPE_KEYFRAME, frame, null);
+			encode(mDelta, NetProtocol.TYPE_DELTA, frame, prev);
+			mSent = seq;
+
+			// Either frame may have been rewritten while we encoded it. The
+			// one before is reused first, while the game is SLOTS - 2 ahead.
+			if(mPublished - seq > SLOTS - 3) {
+				resync();
+				continue;
+			}
+
+			for(int i = 0; i < mSubscribers.size(); i++) {
+				mSubscribers.get(i).offer(mKey, mDelta);
+			}
+		}
+
+		for(int i = mSubscribers.size() - 1; i >= 0; i--) {
+			Subscriber s = mSubscribers.get(i);
+			if(s.mClosed) {
+				mSubscribers.remove(i);
+			}
+			else {
+				s.flush();
+			}
+		}
+		mViewers = mSubscribers.size();
+	}
+
+	/**
+	 * Makes every subscriber wait for a keyframe after a tick was lost.
+	 */
+	private void resync() {
+		for(int i = 0; i < mSubscribers.size(); i++) {
+			mSubscribers.get(i).mNeedsKey = true;
+		}
+	}
+
+	/**
+	 * One connected viewer and the bytes queued for it.
+	 */
+	private class Subscriber {
+		final SocketChannel mChannel;
+		final ByteBuffer mOut = ByteBuffer.allocate(BACKLOG);
+		SelectionKey mSelectionKey;
+		boolean mNeedsKey = true;
+		boolean mClosed = false;
+
+		Subscriber(SocketChannel ch) {
+			mChannel = ch;
+		}
+
+		/**
+		 * Queues the delta, or a keyframe if this viewer missed something.
+		 * If neither fits the viewer is behind and skips this tick.
+		 */
+		void offer(ByteBuffer key, ByteBuffer delta) {
+			ByteBuffer b = (mNeedsKey) ? key : delta;
+			if(mOut.remaining() < b.remaining()) {
+				if(!mNeedsKey) mDropped++;
+				mNeedsKey = true;
+				return;
+			}
+			if(mNeedsKey) mKeyframes++;
+			mOut.put(b.array(), 0, b.limit());
+			mNeedsKey = false;
+		}
+
+		void flush() {
+			if(mOut.position() == 0 || mClosed) return;
+			try {
+				mOut.flip();
+				mBytesSent += mChannel.write(mOut);
+				mOut.compact();
+				mSelectionKey.interestOps((mOut.position() > 0)
+						? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+			catch(IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Viewers never send anything, so reading only tells us they left.
+		 */
+		void read() {
+			try {
+				mProbe.clear();
+				if(mChannel.read(mProbe) < 0) close();
+			}
+			catch(IOException e) {
+				close();
+			}
+		}
+
+		void close() {
+			mClosed = true;
+			mSelectionKey.cancel();
+			try {
+				mChannel.close();
+			}
+			catch(IOException e) {
+				// Already gone
+			}
+		}
+	}
+
+	public int getPort() {
+		return mServer.socket().getLocalPort();
+	}
+
+	public int getViewers() {
+		return mViewers;
+	}
+
+	public int getKeyframes() {
+		return mKeyframes;
+	}
+
+	public int getDropped() {
+		return mDropped;
+	}
+
+	public long getBytesSent() {
+		return mBytesSent;
+	}
+
+	public void close() {
+		mRunning = false;
+		mSelector.wakeup();
+		try {
+			mThread.join(1000);
+		}
+		catch(InterruptedException e) {
+			// Close anyway
+		}
+		try {
+			for(SelectionKey key : mSelector.keys()) {
+				key.channel().close();
+			}
+			mSelector.close();
+		}
+		catch(IOException e) {
+			// Nothing left to do with it anyway
+		}
+	}
+
+	/** Ticks the game thread may get ahead of the selector thread */
+	private static final int SLOTS = 16;
+
+	/** Largest encoded message for one tick */
+	private static final int FRAME_BYTES = 64;
+
+	/** Bytes that may queue up for one viewer before it starts missing ticks */
+	private static final int BACKLOG = 2048;
+
+	/** Kernel send buffer we ask for on each viewer socket */
+	private static final int SEND_BUFFER = 4096;
+
+	public static final int MAX_VIEWERS = 512;
+}
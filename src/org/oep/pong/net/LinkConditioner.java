@@ -0,0 +1,112 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * Sits between a peer and its socket and adds artificial latency, jitter and
+ * packet loss to outgoing datagrams, so bad Wi-Fi can be reproduced over
+ * loopback. With everything at zero it sends straight through.
+ * Delayed packets wait in a fixed ring of preallocated buffers and always
+ * leave in the order they were sent.
+ * @author OEP
+ *
+ */
+public class LinkConditioner {
+	private int mLatency, mJitter;
+	private float mLoss;
+	private final Random mRng;
+
+	private final ByteBuffer[] mQueue = new ByteBuffer[CAPACITY];
+	private final SocketAddress[] mTargets = new SocketAddress[CAPACITY];
+	private final long[] mRelease = new long[CAPACITY];
+	private int mHead = 0, mCount = 0;
+
+	/** Packets this conditioner has thrown away */
+	private int mDropped = 0;
+
+	public LinkConditioner() {
+		this(0, 0, 0f, 0);
+	}
+
+	/**
+	 * @param latency, one-way delay in milliseconds
+	 * @param jitter, extra random delay of up to this many milliseconds
+	 * @param loss, chance from 0 to 1 that a packet is dropped
+	 * @param seed, seed for the loss and jitter rolls
+	 */
+	public LinkConditioner(int latency, int jitter, float loss, long seed) {
+		mLatency = Math.max(0, latency);
+		mJitter = Math.max(0, jitter);
+		mLoss = Math.max(0f, Math.min(1f, loss));
+		mRng = new Random(seed);
+	}
+
+	public void setLatency(int ms) {
+		mLatency = Math.max(0, ms);
+	}
+
+	public void setJitter(int ms) {
+		mJitter = Math.max(0, ms);
+	}
+
+	public void setLoss(float loss) {
+		mLoss = Math.max(0f, Math.min(1f, loss));
+	}
+
+	public int getDropped() {
+		return mDropped;
+	}
+
+	/**
+	 * Sends <code>data</code> now or queues it for later. The buffer is
+	 * copied, so the caller may reuse it straight away.
+	 */
+	public void send(DatagramChannel ch, ByteBuffer data, SocketAddress to, long now) throws IOException {
+		if(mLoss > 0 && mRng.nextFloat() < mLoss) {
+			mDropped++;
+			return;
+		}
+
+		if(mLatency == 0 && mJitter == 0) {
+			ch.send(data, to);
+			return;
+		}
+
+		if(mCount == CAPACITY) {
+			mDropped++;
+			return;
+		}
+
+		long release = now + mLatency + ((mJitter > 0) ? mRng.nextInt(mJitter + 1) : 0);
+		int last = (mHead + mCount - 1) % CAPACITY;
+		if(mCount > 0 && release < mRelease[last]) release = mRelease[last];
+
+		int slot = (mHead + mCount) % CAPACITY;
+		if(mQueue[slot] == null) mQueue[slot] = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+		mQueue[slot].clear();
+		mQueue[slot].put(data);
+		mQueue[slot].flip();
+		mTargets[slot] = to;
+		mRelease[slot] = release;
+		mCount++;
+	}
+
+	/**
+	 * Sends every queued packet whose delay has passed.
+	 */
+	public void flush(DatagramChannel ch, long now) throws IOException {
+		while(mCount > 0 && mRelease[mHead] <= now) {
+			ch.send(mQueue[mHead], mTargets[mHead]);
+			mTargets[mHead] = null;
+			mHead = (mHead + 1) % CAPACITY;
+			mCount--;
+		}
+	}
+
+	/** Most packets that can be in flight at once */
+	private static final int CAPACITY = 256;
+}
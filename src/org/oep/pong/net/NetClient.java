@@ -0,0 +1,170 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.oep.pong.PongGame;
+
+/**
+ * The mirroring end of a LAN game. The client does not simulate; it sends
+ * the red paddle's target every few ticks and plays back the host's state
+ * one frame per tick from a small jitter buffer.
+ * @author OEP
+ *
+ */
+public class NetClient extends NetPeer {
+	/** Where to say hello. May be a broadcast address. */
+	private final SocketAddress mHost;
+
+	/** Ticks until the next hello while waiting for a welcome */
+	private int mHelloTimer = 0;
+
+	/** Recent local inputs, newest at mInputTick */
+	private final int[] mInputs = new int[REDUNDANCY];
+	private int mInputTick = -1;
+	private int mBatchSize = NetHost.DEFAULT_BATCH;
+
+	/** Received frames waiting to be shown */
+	private final StateFrame[] mFrames = new StateFrame[BUFFER];
+	private int mHead = 0, mCount = 0;
+	private int mNewestTick = -1;
+	private final StateFrame mPrev = new StateFrame();
+
+	/** Sound effects from frames applied since the last call to takeEvents() */
+	private int mEvents = 0;
+
+	/**
+	 * @param host, address of the host, or null to broadcast on the LAN
+	 * @param link
+	 */
+	public NetClient(SocketAddress host, LinkConditioner link) throws IOException {
+		super(0, link);
+		if(host == null) {
+			host = new InetSocketAddress("255.255.255.255", NetProtocol.PORT);
+			mChannel.socket().setBroadcast(true);
+		}
+		mHost = host;
+		for(int i = 0; i < BUFFER; i++) {
+			mFrames[i] = new StateFrame();
+		}
+	}
+
+	/**
+	 * @param ticks, how many ticks of input to collect before sending
+	 */
+	public void setBatchSize(int ticks) {
+		mBatchSize = Math.max(1, Math.min(REDUNDANCY, ticks));
+	}
+
+	@Override
+	protected void handle(SocketAddress from, byte type, ByteBuffer in) {
+		switch(type) {
+		case NetProtocol.TYPE_WELCOME:
+			if(in.get() != NetProtocol.VERSION) return;
+			mRemote = from;
+			break;
+
+		case NetProtocol.TYPE_STATE:
+			if(!from.equals(mRemote)) return;
+			int tick = NetProtocol.getVarint(in);
+			int count = in.get() & 0xff;
+			for(int i = 0; i < count; i++, tick++) {
+				StateFrame f = (tick > mNewestTick) ? push() : mPrev;
+				f.read(in, (i == 0) ? null : mPrev);
+				f.tick = tick;
+				if(f != mPrev) mPrev.set(f);
+				mNewestTick = Math.max(mNewestTick, tick);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Makes room for a new frame at the end of the buffer, dropping the
+	 * oldest one if the buffer is full.
+	 */
+	private StateFrame push() {
+		if(mCount == BUFFER) {
+			mHead = (mHead + 1) % BUFFER;
+			mCount--;
+		}
+		return mFrames[(mHead + mCount++) % BUFFER];
+	}
+
+	/**
+	 * Records this tick's target for the red paddle and sends the recent
+	 * ones once a batch is full. Says hello instead until the host answers.
+	 */
+	public void sendInput(PongGame game) throws IOException {
+		if(mRemote == null) {
+			if(mHelloTimer-- <= 0) {
+				begin(NetProtocol.TYPE_HELLO);
+				mOut.put(NetProtocol.VERSION);
+				send(mHost);
+				mHelloTimer = HELLO_INTERVAL;
+			}
+			return;
+		}
+
+		mInputTick++;
+		mInputs[mInputTick % REDUNDANCY] = NetProtocol.quantize(game.getRed().destination, game.getWidth());
+
+		if(mInputTick % mBatchSize != 0) return;
+
+		int count = Math.min(REDUNDANCY, mInputTick + 1);
+		begin(NetProtocol.TYPE_INPUT);
+		NetProtocol.putVarint(mOut, mInputTick);
+		mOut.put((byte) count);
+		NetProtocol.putU16(mOut, mInputs[mInputTick % REDUNDANCY]);
+		for(int i = 1; i < count; i++) {
+			int newer = mInputs[(mInputTick - i + 1) % REDUNDANCY];
+			int older = mInputs[(mInputTick - i) % REDUNDANCY];
+			NetProtocol.putDelta(mOut, newer - older);
+		}
+		send(mRemote);
+	}
+
+	/**
+	 * Shows the next buffered frame. If the buffer has backed up it skips
+	 * ahead so the delay behind the host stays bounded.
+	 * @return true if a frame was applied
+	 */
+	public boolean applyState(PongGame game) {
+		if(mCount == 0) return false;
+
+		while(mCount > 2 * mBatchSize) {
+			mEvents |= mFrames[mHead].events;
+			mHead = (mHead + 1) % BUFFER;
+			mCount--;
+		}
+
+		StateFrame f = mFrames[mHead];
+		mHead = (mHead + 1) % BUFFER;
+		mCount--;
+
+		f.apply(game);
+		mEvents |= f.events;
+		return true;
+	}
+
+	/**
+	 * @return the sound effects from the frames shown since the last call,
+	 * as a bit mask of 1 << PongGame.SFX_*
+	 */
+	public int takeEvents() {
+		int e = mEvents;
+		mEvents = 0;
+		return e;
+	}
+
+	/** Ticks between hellos */
+	private static final int HELLO_INTERVAL = 15;
+
+	/** Inputs repeated in every datagram to ride out loss */
+	public static final int REDUNDANCY = 8;
+
+	/** Frames the jitter buffer can hold */
+	private static final int BUFFER = 32;
+}
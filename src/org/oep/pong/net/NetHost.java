@@ -0,0 +1,133 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.oep.pong.PongGame;
+
+/**
+ * The authoritative end of a LAN game. The host runs the simulation, takes
+ * the red paddle's target from the client and streams state back in
+ * batches of a few ticks per datagram.
+ * @author OEP
+ *
+ */
+public class NetHost extends NetPeer {
+	private final StateFrame[] mBatch = new StateFrame[MAX_BATCH];
+	private int mBatched = 0;
+	private int mBatchSize = DEFAULT_BATCH;
+
+	/** Sound effects played since the last captured frame */
+	private int mEvents = 0;
+
+	/** Newest input received from the client and its tick */
+	private int mRemoteTarget = -1;
+	private int mLastInputTick = -1;
+
+	public NetHost(int port, LinkConditioner link) throws IOException {
+		super(port, link);
+		for(int i = 0; i < MAX_BATCH; i++) {
+			mBatch[i] = new StateFrame();
+		}
+	}
+
+	/**
+	 * @param ticks, how many ticks to pack into each state datagram
+	 */
+	public void setBatchSize(int ticks) {
+		mBatchSize = Math.max(1, Math.min(MAX_BATCH, ticks));
+	}
+
+	@Override
+	protected void handle(SocketAddress from, byte type, ByteBuffer in) {
+		switch(type) {
+		case NetProtocol.TYPE_HELLO:
+			if(in.get() != NetProtocol.VERSION) return;
+			mRemote = from;
+			try {
+				begin(NetProtocol.TYPE_WELCOME);
+				mOut.put(NetProtocol.VERSION);
+				send(from);
+			}
+			catch(IOException e) {
+				// The client will say hello again
+			}
+			break;
+
+		case NetProtocol.TYPE_INPUT:
+			if(!from.equals(mRemote)) return;
+			int newest = NetProtocol.getVarint(in);
+			int count = in.get() & 0xff;
+			int target = NetProtocol.getU16(in);
+			for(int i = 0; i < count; i++) {
+				if(i > 0) target -= NetProtocol.getDelta(in);
+				onInput(newest - i, target);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Called for every input in a datagram, newest first. Older inputs are
+	 * repeats that cover for lost datagrams.
+	 */
+	protected void onInput(int tick, int target) {
+		if(tick > mLastInputTick) {
+			mLastInputTick = tick;
+			mRemoteTarget = target;
+		}
+	}
+
+	/**
+	 * Points the remote player's paddle at the newest target we have.
+	 */
+	public void applyInput(PongGame game) {
+		if(mRemoteTarget >= 0) {
+			game.getRed().destination = NetProtocol.dequantize(mRemoteTarget, game.getWidth());
+		}
+	}
+
+	/**
+	 * Remembers a sound effect so the client can play it too.
+	 */
+	public void onSound(int sfx) {
+		mEvents |= 1 << sfx;
+	}
+
+	/**
+	 * Records the state after a step and sends a datagram once a batch is full.
+	 */
+	public void sendState(PongGame game) throws IOException {
+		mBatch[mBatched++].capture(game, mEvents);
+		mEvents = 0;
+
+		if(mBatched >= mBatchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends whatever frames are batched. The first frame of every datagram is
+	 * complete so a lost datagram never corrupts the next one.
+	 */
+	public void flush() throws IOException {
+		if(mBatched == 0) return;
+		if(mRemote == null) {
+			mBatched = 0;
+			return;
+		}
+
+		begin(NetProtocol.TYPE_STATE);
+		NetProtocol.putVarint(mOut, mBatch[0].tick);
+		mOut.put((byte) mBatched);
+		for(int i = 0; i < mBatched; i++) {
+			mBatch[i].write(mOut, (i == 0) ? null : mBatch[i - 1]);
+		}
+		send(mRemote);
+		mBatched = 0;
+	}
+
+	public static final int DEFAULT_BATCH = 3;
+	public static final int MAX_BATCH = 16;
+}
@@ -0,0 +1,131 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Common plumbing for both ends of a LAN game: a non-blocking datagram
+ * channel that is polled once per game tick, so no extra thread is needed.
+ * @author OEP
+ *
+ */
+public abstract class NetPeer {
+	protected final DatagramChannel mChannel;
+	protected final LinkConditioner mLink;
+
+	protected final ByteBuffer mIn = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+	protected final ByteBuffer mOut = ByteBuffer.allocateDirect(NetProtocol.MAX_PACKET);
+
+	/** The other end, once known */
+	protected SocketAddress mRemote;
+
+	/** Traffic counters */
+	protected int mPacketsSent, mPacketsReceived, mBytesSent, mBytesReceived;
+
+	/** Ticks since anything was heard from the other end */
+	protected int mSilentTicks = 0;
+
+	protected NetPeer(int port, LinkConditioner link) throws IOException {
+		mLink = (link != null) ? link : new LinkConditioner();
+		mChannel = DatagramChannel.open();
+		mChannel.configureBlocking(false);
+		mChannel.socket().setReuseAddress(true);
+		mChannel.socket().bind(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Reads everything waiting on the socket and releases delayed packets.
+	 * Call once per tick from the game loop.
+	 */
+	public void poll() throws IOException {
+		mLink.flush(mChannel, System.currentTimeMillis());
+		mSilentTicks++;
+
+		SocketAddress from;
+		while((from = mChannel.receive(mIn)) != null) {
+			mIn.flip();
+			mPacketsReceived++;
+			mBytesReceived += mIn.remaining();
+			try {
+				if(mIn.remaining() > 0) {
+					mSilentTicks = 0;
+					handle(from, mIn.get(), mIn);
+				}
+			}
+			catch(BufferUnderflowException e) {
+				// Truncated or garbled packet. Drop it.
+			}
+			mIn.clear();
+		}
+	}
+
+	/**
+	 * Handles one incoming datagram.
+	 * @param from, where it came from
+	 * @param type, one of NetProtocol.TYPE_*
+	 * @param in, the rest of the datagram
+	 */
+	protected abstract void handle(SocketAddress from, byte type, ByteBuffer in);
+
+	/**
+	 * Starts a new outgoing datagram of the given type in mOut.
+	 */
+	protected void begin(byte type) {
+		mOut.clear();
+		mOut.put(type);
+	}
+
+	/**
+	 * Sends whatever has been written to mOut since begin().
+	 */
+	protected void send(SocketAddress to) throws IOException {
+		mOut.flip();
+		mPacketsSent++;
+		mBytesSent += mOut.remaining();
+		mLink.send(mChannel, mOut, to, System.currentTimeMillis());
+	}
+
+	public boolean connected() {
+		return mRemote != null && mSilentTicks < TIMEOUT_TICKS;
+	}
+
+	public int getLocalPort() {
+		return mChannel.socket().getLocalPort();
+	}
+
+	public int getPacketsSent() {
+		return mPacketsSent;
+	}
+
+	public int getPacketsReceived() {
+		return mPacketsReceived;
+	}
+
+	public int getBytesSent() {
+		return mBytesSent;
+	}
+
+	public int getBytesReceived() {
+		return mBytesReceived;
+	}
+
+	public LinkConditioner getLink() {
+		return mLink;
+	}
+
+	public void close() {
+		try {
+			mChannel.close();
+		}
+		catch(IOException e) {
+			// Nothing left to do with it anyway
+		}
+	}
+
+	/** Five seconds at the game's tick rate */
+	public static final int TIMEOUT_TICKS = 150;
+}
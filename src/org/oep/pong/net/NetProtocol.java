@@ -0,0 +1,145 @@
+package org.oep.pong.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding helpers for the LAN protocol. Every datagram starts
+ * with a one byte type. Coordinates travel as unsigned 16-bit fractions of
+ * the arena size so the two devices do not need the same screen resolution,
+ * and anything that changes slowly is sent as a zigzag varint delta.
+ *
+ * <pre>
+ * HELLO   client to host  [type][version]
+ * WELCOME host to client  [type][version]
+ * INPUT   client to host  [type][newest tick][count] then count paddle
+ *                         targets, newest first, each a delta from the last
+ * STATE   host to client  [type][first tick][count] then count frames,
+ *                         the first one full and the rest deltas
+ * </pre>
+ *
+ * Rollback games, where both devices simulate, use their own messages:
+ *
+ * <pre>
+ * PEER_HELLO    [type][version]
+ * PEER_WELCOME  [type][version][seed:8][width:2][height:2][delay][speed][lives]
+ * PEER_INPUT    [type][ack + 1][newest tick][count] then inputs as in INPUT
+ * </pre>
+ *
+ * Spectators find a broadcasting game with a datagram and then watch over
+ * TCP, where every message is prefixed with its length:
+ *
+ * <pre>
+ * SPECTATE_PROBE  [type][version]                  datagram to SPECTATE_PORT
+ * SPECTATE_OFFER  [type][version][tcp port:2]      datagram reply
+ * KEYFRAME        [length:2][type][tick] then a full frame
+ * DELTA           [length:2][type][tick] then a delta from the previous tick
+ * </pre>
+ *
+ * Bots, programs on the same device that play a paddle, connect over TCP
+ * on the loopback address with the same length prefix. Each batch of
+ * frames is answered with the targets for as many ticks to come:
+ *
+ * <pre>
+ * BOT_HELLO    bot to game  [length:2][type][version][side wanted]
+ * BOT_WELCOME  game to bot  [length:2][type][version][side][batch]
+ *                           [deadline us:2][width:2][height:2][face y:2]
+ * BOT_FRAMES   game to bot  [length:2][type][first tick][count] then count
+ *                           frames, the first one full and the rest deltas
+ * BOT_TARGETS  bot to game  [length:2][type][first tick][count] then count
+ *                           paddle targets, oldest first, each a delta from
+ *                           the one before
+ * </pre>
+ * @author OEP
+ *
+ */
+public final class NetProtocol {
+	public static final int PORT = 47474;
+	public static final int SPECTATE_PORT = 47475;
+	public static final int BOT_PORT = 47476;
+	public static final byte VERSION = 1;
+
+	public static final byte
+		TYPE_HELLO = 1,
+		TYPE_WELCOME = 2,
+		TYPE_INPUT = 3,
+		TYPE_STATE = 4,
+		TYPE_PEER_HELLO = 5,
+		TYPE_PEER_WELCOME = 6,
+		TYPE_PEER_INPUT = 7,
+		TYPE_SPECTATE_PROBE = 8,
+		TYPE_SPECTATE_OFFER = 9,
+		TYPE_KEYFRAME = 10,
+		TYPE_DELTA = 11,
+		TYPE_BOT_HELLO = 12,
+		TYPE_BOT_WELCOME = 13,
+		TYPE_BOT_FRAMES = 14,
+		TYPE_BOT_TARGETS = 15;
+
+	/** Sides a bot can ask for in BOT_HELLO, and is given in BOT_WELCOME */
+	public static final int
+		BOT_SIDE_ANY = 0,
+		BOT_SIDE_RED = 1,
+		BOT_SIDE_BLUE = 2;
+
+	/** Largest datagram either side will send */
+	public static final int MAX_PACKET = 512;
+
+	/** Scale of a quantized coordinate */
+	public static final int QUANT = 0xffff;
+
+	private NetProtocol() { }
+
+	public static void putVarint(ByteBuffer b, int v) {
+		while((v & ~0x7f) != 0) {
+			b.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		b.put((byte) v);
+	}
+
+	public static int getVarint(ByteBuffer b) {
+		int v = 0, shift = 0;
+		byte x;
+		do {
+			x = b.get();
+			v |= (x & 0x7f) << shift;
+			shift += 7;
+		} while((x & 0x80) != 0 && shift < 35);
+		return v;
+	}
+
+	/**
+	 * Writes a signed delta so that small negative numbers stay short.
+	 */
+	public static void putDelta(ByteBuffer b, int d) {
+		putVarint(b, (d << 1) ^ (d >> 31));
+	}
+
+	public static int getDelta(ByteBuffer b) {
+		int v = getVarint(b);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	public static void putU16(ByteBuffer b, int v) {
+		b.putShort((short) v);
+	}
+
+	public static int getU16(ByteBuffer b) {
+		return b.getShort() & 0xffff;
+	}
+
+	/**
+	 * @param x, a coordinate in pixels
+	 * @param size, the arena size along that axis
+	 * @return x as a fraction of size, clamped to [0, QUANT]
+	 */
+	public static int quantize(float x, int size) {
+		if(x <= 0) return 0;
+		if(x >= size) return QUANT;
+		return (int) (x * QUANT / size);
+	}
+
+	public static int dequantize(int q, int size) {
+		return (int) ((long) q * size / QUANT);
+	}
+}
@@ -0,0 +1,191 @@
+package org.oep.pong.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.oep.pong.PongGame;
+
+/**
+ * One end of a rollback game. Unlike NetHost and NetClient, both ends run
+ * the full simulation and only paddle targets are exchanged. The host picks
+ * the seed and arena, hands them over in the welcome, and from then on the
+ * two ends are equals. The host plays blue and the joining end plays red.
+ * @author OEP
+ *
+ */
+public class RollbackPeer extends NetPeer {
+	private final boolean mHosting;
+
+	/** Where to say hello when joining. May be a broadcast address. */
+	private final SocketAddress mHost;
+	private int mHelloTimer = 0;
+
+	/** Match settings, chosen by the host and copied by the joiner */
+	private long mSeed;
+	private int mWidth, mHeight, mDelay, mSpeed, mLives;
+
+	private RollbackSession mSession;
+
+	/** Every local input up to this tick has reached the other end */
+	private int mAcked = -1;
+
+	/**
+	 * Hosts a match.
+	 * @param port, where to listen
+	 * @param link
+	 * @param seed, seeds the shared game
+	 * @param width, width of the shared arena
+	 * @param height, height of the shared arena
+	 * @param delay, input delay in ticks for both ends
+	 * @param speed, ball speed modifier
+	 * @param lives, lives modifier
+	 */
+	public RollbackPeer(int port, LinkConditioner link, long seed, int width, int height,
+			int delay, int speed, int lives) throws IOException {
+		super(port, link);
+		mHosting = true;
+		mHost = null;
+		mSeed = seed;
+		mWidth = width;
+		mHeight = height;
+		mDelay = delay;
+		mSpeed = speed;
+		mLives = lives;
+	}
+
+	/**
+	 * Joins a match.
+	 * @param host, address of the host, or null to broadcast on the LAN
+	 * @param link
+	 */
+	public RollbackPeer(SocketAddress host, LinkConditioner link) throws IOException {
+		super(0, link);
+		mHosting = false;
+		if(host == null) {
+			host = new InetSocketAddress("255.255.255.255", NetProtocol.PORT);
+			mChannel.socket().setBroadcast(true);
+		}
+		mHost = host;
+	}
+
+	@Override
+	protected void handle(SocketAddress from, byte type, ByteBuffer in) {
+		switch(type) {
+		case NetProtocol.TYPE_PEER_HELLO:
+			if(!mHosting || in.get() != NetProtocol.VERSION) return;
+			if(mRemote != null && !from.equals(mRemote)) return;
+			mRemote = from;
+			try {
+				begin(NetProtocol.TYPE_PEER_WELCOME);
+				mOut.put(NetProtocol.VERSION);
+				mOut.putLong(mSeed);
+				NetProtocol.putU16(mOut, mWidth);
+				NetProtocol.putU16(mOut, mHeight);
+				mOut.put((byte) mDelay);
+				mOut.put((byte) mSpeed);
+				mOut.put((byte) mLives);
+				send(from);
+			}
+			catch(IOException e) {
+				// The other end will say hello again
+			}
+			if(mSession == null) start();
+			break;
+
+		case NetProtocol.TYPE_PEER_WELCOME:
+			if(mHosting || mSession != null || in.get() != NetProtocol.VERSION) return;
+			mSeed = in.getLong();
+			mWidth = NetProtocol.getU16(in);
+			mHeight = NetProtocol.getU16(in);
+			mDelay = in.get();
+			mSpeed = in.get();
+			mLives = in.get();
+			mRemote = from;
+			start();
+			break;
+
+		case NetProtocol.TYPE_PEER_INPUT:
+			if(mSession == null || !from.equals(mRemote)) return;
+			mAcked = Math.max(mAcked, NetProtocol.getVarint(in) - 1);
+			int newest = NetProtocol.getVarint(in);
+			int count = in.get() & 0xff;
+			int target = NetProtocol.getU16(in);
+			for(int i = 0; i < count; i++) {
+				if(i > 0) target -= NetProtocol.getDelta(in);
+				mSession.onRemoteInput(newest - i, target);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Builds the shared game. Both ends end up with identical copies.
+	 */
+	private void start() {
+		PongGame game = new PongGame(mWidth, mHeight, true, mSeed);
+		game.setBallSpeedModifier(mSpeed);
+		game.setLivesModifier(mLives);
+		game.initializePaddles(true, true);
+		mSession = new RollbackSession(game, !mHosting, mDelay);
+	}
+
+	/**
+	 * Runs one frame: advances the session and sends our unacknowledged
+	 * inputs. Says hello instead while waiting for the host.
+	 * @return true if the game stepped
+	 */
+	public boolean tick() throws IOException {
+		if(mSession == null) {
+			if(!mHosting && mHelloTimer-- <= 0) {
+				begin(NetProtocol.TYPE_PEER_HELLO);
+				mOut.put(NetProtocol.VERSION);
+				send(mHost);
+				mHelloTimer = HELLO_INTERVAL;
+			}
+			return false;
+		}
+
+		boolean stepped = mSession.advance();
+		sendInputs();
+		return stepped;
+	}
+
+	/**
+	 * Sends every scheduled input the other end has not acknowledged,
+	 * newest first, along with how far we have confirmed theirs.
+	 */
+	private void sendInputs() throws IOException {
+		int newest = mSession.getScheduled();
+		int count = Math.min(MAX_INPUTS, newest - mAcked);
+		if(count <= 0) return;
+
+		begin(NetProtocol.TYPE_PEER_INPUT);
+		NetProtocol.putVarint(mOut, mSession.getConfirmed() + 1);
+		NetProtocol.putVarint(mOut, newest);
+		mOut.put((byte) count);
+		NetProtocol.putU16(mOut, mSession.getLocalInput(newest));
+		for(int i = 1; i < count; i++) {
+			NetProtocol.putDelta(mOut, mSession.getLocalInput(newest - i + 1) - mSession.getLocalInput(newest - i));
+		}
+		send(mRemote);
+	}
+
+	/**
+	 * @return the running session, or null until both ends have met
+	 */
+	public RollbackSession getSession() {
+		return mSession;
+	}
+
+	public boolean isHosting() {
+		return mHosting;
+	}
+
+	/** Ticks between hellos */
+	private static final int HELLO_INTERVAL = 15;
+
+	/** Most inputs carried by one datagram */
+	private static final int MAX_INPUTS = 32;
+}
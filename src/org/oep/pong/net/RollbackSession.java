@@ -0,0 +1,249 @@
+package org.oep.pong.net;
+
+import org.oep.pong.Paddle;
+import org.oep.pong.PongGame;
+
+/**
+ * Runs a game where both devices simulate and only paddle targets cross
+ * the network. Local input is scheduled a few ticks ahead (the input delay).
+ * The remote paddle is predicted to keep its last known target. When a real
+ * remote input turns out to differ from the prediction, the game is put back
+ * to the snapshot taken before that tick and the missed ticks are simulated
+ * again, all inside the same frame.
+ *
+ * Snapshots live in a fixed ring of preallocated int buffers, so advancing
+ * and rolling back never allocate. The game must use fixed-point physics so
+ * that both devices come up with the same results.
+ * @author OEP
+ *
+ */
+public class RollbackSession {
+	private final PongGame mGame;
+	private final Paddle mLocal, mRemote;
+	private final int mDelay;
+
+	/** State before simulating tick t is kept at t % RING */
+	private final int[][] mSnapshots = new int[RING][PongGame.STATE_SIZE];
+
+	/** The remote target each simulated tick actually used */
+	private final int[] mUsed = new int[RING];
+
+	/** Inputs by tick, at t % INPUTS. mRemoteTicks says which tick a slot holds. */
+	private final int[] mLocalInputs = new int[INPUTS];
+	private final int[] mRemoteInputs = new int[INPUTS];
+	private final int[] mRemoteTicks = new int[INPUTS];
+
+	/** Next tick to simulate */
+	private int mFrame = 0;
+
+	/** Newest tick with local input scheduled */
+	private int mScheduled = -1;
+
+	/** Every remote input up to and including this tick has arrived */
+	private int mConfirmed = -1;
+
+	/** Earliest tick simulated with a wrong prediction */
+	private int mRollbackTo = Integer.MAX_VALUE;
+
+	/** Where the local player wants the paddle */
+	private int mLocalTarget;
+
+	/** Newest tick whose state can no longer change, and its checksum */
+	private int mSyncTick = -1;
+	private long mSyncChecksum;
+
+	/** Counters for tuning */
+	private int mRollbacks = 0, mResimulated = 0, mMaxResimulated = 0, mStalls = 0;
+
+	/**
+	 * @param game, a fixed-point game set up the same way on both devices
+	 * @param localIsRed, which paddle this device controls
+	 * @param delay, ticks between sampling local input and using it
+	 */
+	public RollbackSession(PongGame game, boolean localIsRed, int delay) {
+		mGame = game;
+		mLocal = (localIsRed) ? game.getRed() : game.getBlue();
+		mRemote = (localIsRed) ? game.getBlue() : game.getRed();
+		mDelay = Math.max(0, Math.min(MAX_DELAY, delay));
+		mLocalTarget = game.getWidth() / 2;
+
+		mLocal.player = true;
+		mRemote.player = true;
+		for(int i = 0; i < INPUTS; i++) {
+			mRemoteTicks[i] = -1;
+		}
+	}
+
+	/**
+	 * Where the local player is pointing. Sampled on the next advance().
+	 */
+	public void setLocalInput(int x) {
+		mLocalTarget = Math.max(0, Math.min(mGame.getWidth(), x));
+	}
+
+	/**
+	 * @return where the local player was last pointing
+	 */
+	public int getLocalTarget() {
+		return mLocalTarget;
+	}
+
+	/**
+	 * Records a remote input. Inputs may arrive late, twice or out of order.
+	 */
+	public void onRemoteInput(int tick, int target) {
+		if(tick <= mConfirmed || tick > mConfirmed + INPUTS - 1) return;
+
+		int slot = tick % INPUTS;
+		if(mRemoteTicks[slot] == tick) return;
+		mRemoteInputs[slot] = target;
+		mRemoteTicks[slot] = tick;
+
+		if(tick < mFrame && mUsed[tick % RING] != target) {
+			mRollbackTo = Math.min(mRollbackTo, tick);
+		}
+
+		while(mRemoteTicks[(mConfirmed + 1) % INPUTS] == mConfirmed + 1) {
+			mConfirmed++;
+		}
+	}
+
+	/**
+	 * Call once per frame. Schedules local input, repairs any mispredicted
+	 * ticks, then simulates one new tick unless we are too far ahead of the
+	 * remote player.
+	 * @return true if a new tick was simulated
+	 */
+	public boolean advance() {
+		while(mScheduled < mFrame + mDelay) {
+			mScheduled++;
+			mLocalInputs[mScheduled % INPUTS] = (mScheduled < mDelay) ? mGame.getWidth() / 2 : mLocalTarget;
+		}
+
+		if(mRollbackTo < mFrame) {
+			rollback();
+		}
+
+		if(mFrame - mConfirmed > MAX_ROLLBACK) {
+			mStalls++;
+			return false;
+		}
+
+		simulate(mFrame);
+		mFrame++;
+		return true;
+	}
+
+	/**
+	 * Restores the snapshot before the first mispredicted tick and simulates
+	 * forward to where we were. Sounds are muted while catching up, and the
+	 * corrected events go into the ring without being handed out again.
+	 */
+	private void rollback() {
+		int from = mRollbackTo;
+		mRollbackTo = Integer.MAX_VALUE;
+
+		PongGame.Listener listener = mGame.getListener();
+		mGame.setListener(null);
+		mGame.getEvents().setDispatching(false);
+		mGame.loadState(mSnapshots[from % RING]);
+		for(int t = from; t < mFrame; t++) {
+			simulate(t);
+		}
+		mGame.getEvents().setDispatching(true);
+		mGame.setListener(listener);
+
+		int count = mFrame - from;
+		mRollbacks++;
+		mResimulated += count;
+		mMaxResimulated = Math.max(mMaxResimulated, count);
+	}
+
+	private void simulate(int tick) {
+		int[] snapshot = mSnapshots[tick % RING];
+		mGame.saveState(snapshot);
+
+		// Everything before this tick is confirmed, so this state is final
+		if(tick - 1 <= mConfirmed && tick > mSyncTick) {
+			mSyncTick = tick;
+			mSyncChecksum = mGame.checksum();
+		}
+
+		int remote = remoteInput(tick);
+		mUsed[tick % RING] = remote;
+		mLocal.destination = mLocalInputs[tick % INPUTS];
+		mRemote.destination = remote;
+
+		if(mGame.running()) mGame.step();
+	}
+
+	/**
+	 * The remote input for a tick, or a guess that the remote paddle keeps
+	 * heading where it was last confirmed to be heading.
+	 */
+	private int remoteInput(int tick) {
+		int slot = tick % INPUTS;
+		if(mRemoteTicks[slot] == tick) return mRemoteInputs[slot];
+		if(mConfirmed >= 0) return mRemoteInputs[mConfirmed % INPUTS];
+		return mGame.getWidth() / 2;
+	}
+
+	public int getLocalInput(int tick) {
+		return mLocalInputs[tick % INPUTS];
+	}
+
+	/**
+	 * @return the newest tick with local input scheduled
+	 */
+	public int getScheduled() {
+		return mScheduled;
+	}
+
+	/**
+	 * @return the newest tick for which every remote input has arrived
+	 */
+	public int getConfirmed() {
+		return mConfirmed;
+	}
+
+	public int getFrame() {
+		return mFrame;
+	}
+
+	public int getSyncTick() {
+		return mSyncTick;
+	}
+
+	public long getSyncChecksum() {
+		return mSyncChecksum;
+	}
+
+	public int getRollbacks() {
+		return mRollbacks;
+	}
+
+	public int getResimulated() {
+		return mResimulated;
+	}
+
+	public int getMaxResimulated() {
+		return mMaxResimulated;
+	}
+
+	public int getStalls() {
+		return mStalls;
+	}
+
+	public PongGame getGame() {
+		return mGame;
+	}
+
+	/** Most ticks we will simulate past the last confirmed remote input */
+	public static final int MAX_ROLLBACK = 10;
+
+	/** Largest input delay, in ticks */
+	public static final int MAX_DELAY = 8;
+
+	private static final int RING = MAX_ROLLBACK + 2;
+	private static final int INPUTS = 64;
+}
@@ -0,0 +1,214 @@
+package org.oep.pong.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+
+import org.oep.pong.PongGame;
+
+/**
+ * Watches a match streamed by a {@link Broadcaster}. Like the other network
+ * classes it never blocks and is polled once per tick. Without an address
+ * it finds a broadcaster on the LAN by probing first.
+ * @author OEP
+ *
+ */
+public class Spectator {
+	/** The broadcaster, or null until a probe has been answered */
+	private SocketAddress mTarget;
+
+	private DatagramChannel mProbe;
+	private SocketChannel mChannel;
+	private int mProbeTimer = 0;
+	private int mReceiveBuffer = 0;
+
+	private final ByteBuffer mIn = ByteBuffer.allocate(4096);
+	private final ByteBuffer mPacket = ByteBuffer.allocate(16);
+
+	/** Newest decoded tick, and whether it has been shown yet */
+	private final StateFrame mFrame = new StateFrame();
+	private boolean mHaveFrame = false, mFresh = false;
+
+	/** Sound effects from frames received since the last call to takeEvents() */
+	private int mEvents = 0;
+
+	private int mFrames, mKeyframes, mGaps;
+
+	/**
+	 * @param broadcaster, where to connect, or null to probe the LAN
+	 */
+	public Spectator(SocketAddress broadcaster) {
+		mTarget = broadcaster;
+	}
+
+	/**
+	 * Asks for a small socket buffer. Only useful for testing backpressure.
+	 * Takes effect on the next connect.
+	 */
+	public void setReceiveBufferSize(int bytes) {
+		mReceiveBuffer = bytes;
+	}
+
+	/**
+	 * Finds and connects to the broadcaster, then decodes everything that
+	 * has arrived. Call once per tick.
+	 * @throws IOException if the broadcaster went away
+	 */
+	public void poll() throws IOException {
+		if(mChannel == null) {
+			if(mTarget == null) probe();
+			if(mTarget == null) return;
+
+			mChannel = SocketChannel.open();
+			mChannel.configureBlocking(false);
+			if(mReceiveBuffer > 0) mChannel.socket().setReceiveBufferSize(mReceiveBuffer);
+			mChannel.connect(mTarget);
+		}
+
+		if(mChannel.isConnectionPending() && !mChannel.finishConnect()) return;
+
+		int n;
+		while((n = mChannel.read(mIn)) > 0) {
+			mIn.flip();
+			decode();
+			mIn.compact();
+		}
+		if(n < 0) throw new EOFException();
+	}
+
+	private void probe() throws IOException {
+		if(mProbe == null) {
+			mProbe = DatagramChannel.open();
+			mProbe.configureBlocking(false);
+			mProbe.socket().setBroadcast(true);
+		}
+
+		if(mProbeTimer-- <= 0) {
+			mPacket.clear();
+			mPacket.put(NetProtocol.TYPE_SPECTATE_PROBE);
+			mPacket.put(NetProtocol.VERSION);
+			mPacket.flip();
+			mProbe.send(mPacket, new InetSocketAddress("255.255.255.255", NetProtocol.SPECTATE_PORT));
+			mProbeTimer = PROBE_INTERVAL;
+		}
+
+		SocketAddress from;
+		mPacket.clear();
+		while((from = mProbe.receive(mPacket)) != null) {
+			mPacket.flip();
+			if(mPacket.remaining() >= 4 && mPacket.get() == NetProtocol.TYPE_SPECTATE_OFFER
+					&& mPacket.get() == NetProtocol.VERSION) {
+				int port = NetProtocol.getU16(mPacket);
+				mTarget = new InetSocketAddress(((InetSocketAddress) from).getAddress(), port);
+				mProbe.close();
+				mProbe = null;
+				return;
+			}
+			mPacket.clear();
+		}
+	}
+
+	/**
+	 * Reads every complete message in mIn. A delta that does not follow the
+	 * last frame is skipped until the next keyframe.
+	 */
+	private void decode() {
+		while(mIn.remaining() >= 2) {
+			int length = mIn.getShort(mIn.position()) & 0xffff;
+			if(mIn.remaining() < 2 + length) return;
+
+			int end = mIn.position() + 2 + length;
+			mIn.position(mIn.position() + 2);
+			byte type = mIn.get();
+			int tick = NetProtocol.getVarint(mIn);
+
+			if(type == NetProtocol.TYPE_KEYFRAME) {
+				mFrame.read(mIn, null);
+				mKeyframes++;
+				accept(tick);
+			}
+			else if(type == NetProtocol.TYPE_DELTA && mHaveFrame && tick == mFrame.tick + 1) {
+				mFrame.read(mIn, mFrame);
+				accept(tick);
+			}
+			else if(type == NetProtocol.TYPE_DELTA) {
+				mHaveFrame = false;
+				mGaps++;
+			}
+			mIn.position(end);
+		}
+	}
+
+	private void accept(int tick) {
+		mFrame.tick = tick;
+		mEvents |= mFrame.events;
+		mHaveFrame = true;
+		mFresh = true;
+		mFrames++;
+	}
+
+	/**
+	 * Shows the newest frame if it has not been shown yet.
+	 * @return true if a frame was applied
+	 */
+	public boolean applyState(PongGame game) {
+		if(!mFresh) return false;
+		mFrame.apply(game);
+		mFresh = false;
+		return true;
+	}
+
+	/**
+	 * @return the sound effects received since the last call, as a bit
+	 * mask of 1 << PongGame.SFX_*
+	 */
+	public int takeEvents() {
+		int e = mEvents;
+		mEvents = 0;
+		return e;
+	}
+
+	public boolean connected() {
+		return mChannel != null && mChannel.isConnected();
+	}
+
+	/**
+	 * @return the newest tick received, or -1
+	 */
+	public int getTick() {
+		return (mHaveFrame) ? mFrame.tick : -1;
+	}
+
+	public int getFrames() {
+		return mFrames;
+	}
+
+	public int getKeyframes() {
+		return mKeyframes;
+	}
+
+	/**
+	 * @return deltas that arrived without the frame before them, which the
+	 * broadcaster should never send
+	 */
+	public int getGaps() {
+		return mGaps;
+	}
+
+	public void close() {
+		try {
+			if(mProbe != null) mProbe.close();
+			if(mChannel != null) mChannel.close();
+		}
+		catch(IOException e) {
+			// Nothing left to do with it anyway
+		}
+	}
+
+	/** Ticks between probes */
+	private static final int PROBE_INTERVAL = 15;
+}
@@ -0,0 +1,147 @@
+package org.oep.pong.net;
+
+import java.nio.ByteBuffer;
+
+import org.oep.pong.Ball;
+import org.oep.pong.Paddle;
+import org.oep.pong.PongGame;
+
+/**
+ * One tick of authoritative game state as the host sends it. Coordinates
+ * are quantized with {@link NetProtocol#quantize(float, int)}.
+ * @author OEP
+ *
+ */
+public class StateFrame {
+	public int tick;
+	public int ballX, ballY, red, blue;
+	public int redLives, blueLives;
+
+	/** Ticks left in the serve blink */
+	public int serve;
+
+	/** Bit mask of PongGame.SFX_* played this tick */
+	public int events;
+
+	/** Flags marking the fields present in a delta frame */
+	private static final int
+		F_BALL_X = 1,
+		F_BALL_Y = 2,
+		F_RED = 4,
+		F_BLUE = 8,
+		F_LIVES = 16,
+		F_SERVE = 32,
+		F_EVENTS = 64,
+		F_ALL = 127;
+
+	public void capture(PongGame game, int events) {
+		Ball ball = game.getBall();
+		int w = game.getWidth(), h = game.getHeight();
+
+		this.tick = game.getTick();
+		this.ballX = NetProtocol.quantize(ball.x, w);
+		this.ballY = NetProtocol.quantize(ball.y, h);
+		this.red = NetProtocol.quantize(game.getRed().centerX(), w);
+		this.blue = NetProtocol.quantize(game.getBlue().centerX(), w);
+		this.redLives = game.getRed().getLives();
+		this.blueLives = game.getBlue().getLives();
+		this.serve = ball.getServeCounter();
+		this.events = events;
+	}
+
+	/**
+	 * Copies this frame into a game that is only mirroring the host. Paddle
+	 * destinations are left alone so local input is not overwritten.
+	 */
+	public void apply(PongGame game) {
+		Ball ball = game.getBall();
+		Paddle red = game.getRed(), blue = game.getBlue();
+		int w = game.getWidth(), h = game.getHeight();
+
+		ball.setPosition(NetProtocol.dequantize(ballX, w), NetProtocol.dequantize(ballY, h));
+		ball.setServeCounter(serve);
+		red.setPosition(NetProtocol.dequantize(this.red, w));
+		blue.setPosition(NetProtocol.dequantize(this.blue, w));
+		red.setLives(redLives);
+		blue.setLives(blueLives);
+	}
+
+	public void set(StateFrame other) {
+		tick = other.tick;
+		ballX = other.ballX;
+		ballY = other.ballY;
+		red = other.red;
+		blue = other.blue;
+		redLives = other.redLives;
+		blueLives = other.blueLives;
+		serve = other.serve;
+		events = other.events;
+	}
+
+	/**
+	 * Writes this frame as a delta from <code>prev</code>, or in full if
+	 * prev is null. The tick is implied by the packet header.
+	 */
+	public void write(ByteBuffer b, StateFrame prev) {
+		int flags = F_ALL;
+		if(prev != null) {
+			flags = 0;
+			if(ballX != prev.ballX) flags |= F_BALL_X;
+			if(ballY != prev.ballY) flags |= F_BALL_Y;
+			if(red != prev.red) flags |= F_RED;
+			if(blue != prev.blue) flags |= F_BLUE;
+			if(redLives != prev.redLives || blueLives != prev.blueLives) flags |= F_LIVES;
+			if(serve != prev.serve) flags |= F_SERVE;
+			if(events != 0) flags |= F_EVENTS;
+		}
+		b.put((byte) flags);
+
+		if(prev == null) {
+			NetProtocol.putU16(b, ballX);
+			NetProtocol.putU16(b, ballY);
+			NetProtocol.putU16(b, red);
+			NetProtocol.putU16(b, blue);
+		}
+		else {
+			if((flags & F_BALL_X) != 0) NetProtocol.putDelta(b, ballX - prev.ballX);
+			if((flags & F_BALL_Y) != 0) NetProtocol.putDelta(b, ballY - prev.ballY);
+			if((flags & F_RED) != 0) NetProtocol.putDelta(b, red - prev.red);
+			if((flags & F_BLUE) != 0) NetProtocol.putDelta(b, blue - prev.blue);
+		}
+		if((flags & F_LIVES) != 0) {
+			b.put((byte) redLives);
+			b.put((byte) blueLives);
+		}
+		if((flags & F_SERVE) != 0) b.put((byte) serve);
+		if((flags & F_EVENTS) != 0) b.put((byte) events);
+	}
+
+	/**
+	 * Reads a frame written by {@link #write(ByteBuffer, StateFrame)}.
+	 */
+	public void read(ByteBuffer b, StateFrame prev) {
+		int flags = b.get();
+
+		if(prev == null) {
+			ballX = NetProtocol.getU16(b);
+			ballY = NetProtocol.getU16(b);
+			red = NetProtocol.getU16(b);
+			blue = NetProtocol.getU16(b);
+		}
+		else {
+			ballX = prev.ballX + (((flags & F_BALL_X) != 0) ? NetProtocol.getDelta(b) : 0);
+			ballY = prev.ballY + (((flags & F_BALL_Y) != 0) ? NetProtocol.getDelta(b) : 0);
+			red = prev.red + (((flags & F_RED) != 0) ? NetProtocol.getDelta(b) : 0);
+			blue = prev.blue + (((flags & F_BLUE) != 0) ? NetProtocol.getDelta(b) : 0);
+			redLives = prev.redLives;
+			blueLives = prev.blueLives;
+			serve = prev.serve;
+		}
+		if((flags & F_LIVES) != 0) {
+			redLives = b.get();
+			blueLives = b.get();
+		}
+		serve = ((flags & F_SERVE) != 0) ? b.get() & 0xff : serve;
+		events = ((flags & F_EVENTS) != 0) ? b.get() & 0xff : 0;
+	}
+}
@@ -0,0 +1,65 @@
+package org.oep.pong.tools;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.MatchStats;
+import org.oep.pong.PongGame;
+
+/**
+ * Plays the prediction AI against itself at several think intervals and
+ * reaction delays, and reports how long the matches last (a sloppier AI
+ * misses sooner), the average rally and aim error from {@link MatchStats},
+ * and how long a tick takes.
+ *
+ * Usage: AiThinkBench [games]
+ * @author OEP
+ *
+ */
+public class AiThinkBench {
+	private static final int[][] SETTINGS = {
+		{ 1, 0 }, { 2, 0 }, { 4, 0 }, { 8, 0 },
+		{ 1, 4 }, { 1, 8 }, { 1, 15 }, { 4, 8 },
+	};
+
+	public static void main(String[] args) {
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+
+		// The first pass only warms up the JIT
+		for(int pass = 0; pass < 2; pass++) {
+			for(int i = 0; i < SETTINGS.length; i++) {
+				play(SETTINGS[i][0], SETTINGS[i][1], games, pass == 1);
+			}
+		}
+	}
+
+	private static void play(int interval, int reaction, int games, boolean report) {
+		long ticks = 0, nanos = 0;
+		float rally = 0;
+		int aim = 0;
+
+		for(int g = 0; g < games; g++) {
+			PongGame game = new PongGame(480, 800, true, g);
+			game.setAiStrategy(PongGame.AI_PREDICTION);
+			game.setAiThinkInterval(interval);
+			game.setAiReaction(reaction);
+			game.setLivesModifier(0);
+			game.initializePaddles(false, false);
+
+			long start = System.nanoTime();
+			for(int t = 0; t < 200000 && game.running(); t++) {
+				game.step();
+				ticks++;
+			}
+			nanos += System.nanoTime() - start;
+
+			MatchStats stats = game.getStats();
+			rally += stats.getAverageRally();
+			aim += Math.max(0, stats.getAimError(GameEvents.ACTOR_BLUE));
+		}
+
+		if(report) System.out.println("think every " + interval + ", react after " + reaction + ": "
+				+ (ticks / games) + " ticks per game, "
+				+ String.format("%.1f", rally / games) + " hits per rally, "
+				+ (aim / games) + "px aim error, "
+				+ String.format("%.0f", (double) nanos / Math.max(1, ticks)) + "ns per tick");
+	}
+}
@@ -0,0 +1,166 @@
+package org.oep.pong.tools;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.oep.pong.AmbientScene;
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+import org.oep.pong.RasterRenderer;
+
+/**
+ * Checks the screensaver's drawing and compares what it costs with the
+ * normal game loop. First it plays zero-player matches drawing only the
+ * {@link AmbientScene}'s dirty boxes into one framebuffer and the whole
+ * scene into another, and fails unless the two match after every tick.
+ *
+ * Then it runs each loop for a while at its own frame rate, the game's
+ * with PongScene redrawing the whole screen and the screensaver's with
+ * AmbientScene redrawing its boxes, and reports three stand-ins for the
+ * power they would draw, since a battery cannot be measured from here:
+ * CPU time a second of display takes, pixels written a second, and how
+ * bright the screen is on average, which is what an OLED panel pays for.
+ *
+ * Run from the top of the project, since it reads res/values/strings.xml.
+ *
+ * Usage: AmbientBench [seconds] [seed]
+ * @author OEP
+ *
+ */
+public class AmbientBench {
+	public static void main(String[] args) throws IOException {
+		int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 60;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		check(seconds * AmbientScene.FPS, seed);
+
+		PongScene scene = SceneFrames.scene();
+		game(seconds, seed, scene);
+		ambient(seconds, seed);
+
+		System.out.println(String.format("%-8s %4s %14s %14s %12s", "loop", "fps", "CPU ms/s", "Mpixels/s", "brightness"));
+		long[] normal = game(seconds, seed, scene);
+		long[] dim = ambient(seconds, seed);
+		report("game", PongGame.FPS, normal, seconds);
+		report("ambient", AmbientScene.FPS, dim, seconds);
+		System.out.println(String.format("ambient takes %.1f%% of the CPU time, %.2f%% of the pixels and %.1f%% of the brightness",
+				100.0 * dim[0] / normal[0], 100.0 * dim[1] / normal[1], 100.0 * dim[2] / normal[2]));
+	}
+
+	/**
+	 * Draws each tick in pieces and in full, and compares the two.
+	 */
+	private static void check(int ticks, long seed) {
+		AmbientScene pieces = new AmbientScene(), whole = new AmbientScene();
+		RasterRenderer a = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		RasterRenderer b = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		pieces.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+		whole.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+		int[] dirty = new int[AmbientScene.dirtyCapacity()];
+
+		PongGame game = null;
+		long boxes = 0, area = 0;
+		for(int t = 0; t < ticks; t++) {
+			if(game == null || !game.running()) {
+				game = game(seed + t, AmbientScene.AI_THINK_INTERVAL);
+				pieces.invalidate();
+			}
+			game.step();
+
+			int n = pieces.dirty(game, dirty);
+			boxes += n;
+			for(int d = 0; d < 4 * n; d += 4) area += (long) (dirty[d + 2] - dirty[d]) * (dirty[d + 3] - dirty[d + 1]);
+			pieces.draw(a, game);
+
+			whole.invalidate();
+			whole.dirty(game, dirty);
+			whole.draw(b, game);
+
+			if(!Arrays.equals(a.getPixels(), b.getPixels())) {
+				throw new IllegalStateException("Drawing the dirty boxes differs from a full redraw at tick " + t);
+			}
+		}
+		System.out.println(String.format("%d ticks drawn in pieces match full redraws, %.1f boxes a tick covering %.2f%% of the screen",
+				ticks, (double) boxes / ticks, 100.0 * area / ticks / (WIDTH * HEIGHT)));
+	}
+
+	/**
+	 * Plays the game loop: a tick and a full redraw each frame.
+	 * @return nanoseconds and pixels written, and the mean brightness
+	 */
+	private static long[] game(int seconds, long seed, PongScene scene) {
+		RasterRenderer r = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		scene.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+		PongGame game = game(seed, 1);
+
+		long nanos = 0, pixels = 0, light = 0;
+		for(int frame = 0; frame < seconds * PongGame.FPS; frame++) {
+			long start = System.nanoTime();
+			if(!game.running()) game = game(seed + frame, 1);
+			game.step();
+			scene.draw(r, game, false);
+			nanos += System.nanoTime() - start;
+
+			pixels += WIDTH * HEIGHT;
+			if(frame % PongGame.FPS == 0) light += brightness(r.getPixels());
+		}
+		return new long[] { nanos, pixels, light / seconds };
+	}
+
+	/**
+	 * Plays the screensaver loop: a tick and the dirty boxes each frame.
+	 */
+	private static long[] ambient(int seconds, long seed) {
+		RasterRenderer r = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		AmbientScene scene = new AmbientScene();
+		scene.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+		int[] dirty = new int[AmbientScene.dirtyCapacity()];
+		PongGame game = game(seed, AmbientScene.AI_THINK_INTERVAL);
+
+		long nanos = 0, pixels = 0, light = 0;
+		for(int frame = 0; frame < seconds * AmbientScene.FPS; frame++) {
+			long start = System.nanoTime();
+			if(!game.running()) {
+				game = game(seed + frame, AmbientScene.AI_THINK_INTERVAL);
+				scene.invalidate();
+			}
+			game.step();
+			int n = scene.dirty(game, dirty);
+			if(n > 0) scene.draw(r, game);
+			nanos += System.nanoTime() - start;
+
+			for(int d = 0; d < 4 * n; d += 4) pixels += (long) (dirty[d + 2] - dirty[d]) * (dirty[d + 3] - dirty[d + 1]);
+			if(frame % AmbientScene.FPS == 0) light += brightness(r.getPixels());
+		}
+		return new long[] { nanos, pixels, light / seconds };
+	}
+
+	/**
+	 * @return the mean luma of a frame, in millionths of full white
+	 */
+	private static long brightness(int[] pixels) {
+		long sum = 0;
+		for(int p : pixels) {
+			sum += 2126 * ((p >> 16) & 0xff) + 7152 * ((p >> 8) & 0xff) + 722 * (p & 0xff);
+		}
+		return sum * 100 / 255 / pixels.length;
+	}
+
+	private static void report(String name, int fps, long[] result, int seconds) {
+		System.out.println(String.format("%-8s %4d %14.2f %14.2f %11.3f%%", name, fps,
+				result[0] / 1e6 / seconds, result[1] / 1e6 / seconds, result[2] / 1e4));
+	}
+
+	/**
+	 * @param think, ticks between AI decisions
+	 */
+	private static PongGame game(long seed, int think) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, seed);
+		game.setAiThinkInterval(think);
+		game.initializePaddles(false, false);
+		return game;
+	}
+
+	/** A phone-sized screen */
+	private static final int WIDTH = 480, HEIGHT = 800;
+}
@@ -0,0 +1,275 @@
+package org.oep.pong.tools;
+
+import java.util.Random;
+
+import org.oep.pong.Ball;
+import org.oep.pong.Paddle;
+
+/**
+ * Compares the float ball against the angle-based ball it replaced, which
+ * is kept here as LegacyBall. First both are given the same random bounces
+ * and the outcomes compared, then both play one long rally in lockstep off
+ * the same paddles to see how far they drift apart, and finally each is
+ * timed on paddle bounces alone and on whole rally ticks with a prediction
+ * every tick.
+ *
+ * Usage: BallBench [cases] [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class BallBench {
+	private static final int W = PhysicsBench.WIDTH, H = PhysicsBench.HEIGHT;
+	private static final int TOP = H / 8, BOTTOM = 7 * H / 8;
+
+	/** How far off center the rally paddles place themselves, leaving room for a tick of travel */
+	private static final int REACH = Paddle.PADDLE_WIDTH / 3;
+
+	public static void main(String[] args) {
+		int cases = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 5000000;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+
+		compareBounces(cases, seed);
+		compareRally(ticks, seed);
+
+		// The first pass warms up the JIT. Keep the best of the rest, since a
+		// late compile can land in the middle of any one of them.
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		for(int pass = 0; pass < 6; pass++) {
+			int n = (pass == 0) ? ticks / 10 : ticks;
+			long[] times = {
+				timeBounces(new LegacyBall(W, new Random(seed)), n, seed),
+				timeBounces(new Ball(W, new Random(seed)), n, seed),
+				timeRally(new LegacyBall(W, new Random(seed)), n, seed),
+				timeRally(new Ball(W, new Random(seed)), n, seed)
+			};
+			for(int i = 0; pass > 0 && i < best.length; i++) {
+				best[i] = Math.min(best[i], times[i]);
+			}
+		}
+		System.out.println("paddle bounce: angle " + best[0] + "ns, vector " + best[1] + "ns");
+		System.out.println("rally tick: angle " + best[2] + "ns, vector " + best[3] + "ns");
+	}
+
+	/**
+	 * Bounces both balls off a paddle, and then a wall, from the same states.
+	 */
+	private static void compareBounces(int cases, long seed) {
+		Random r = new Random(seed);
+		Ball legacy = new LegacyBall(W, new Random(0));
+		Ball vector = new Ball(W, new Random(0));
+		double worstAngle = 0, worstVelocity = 0;
+		int disagree = 0;
+
+		for(int i = 0; i < cases; i++) {
+			boolean up = r.nextBoolean();
+			double angle = Ball.BOUND + r.nextDouble() * (Math.PI - 2 * Ball.BOUND) + ((up) ? Math.PI : 0);
+			float speed = Ball.SPEED + r.nextInt((int) (Ball.MAX_SPEED - Ball.SPEED) + 1);
+			Paddle p = (up) ? new Paddle(TOP, W / 2) : new Paddle(BOTTOM, W / 2);
+			float x = W / 2 + (r.nextFloat() * 2 - 1) * Paddle.PADDLE_WIDTH;
+
+			for(Ball b : new Ball[] { legacy, vector }) {
+				b.setPosition(x, (up) ? p.getBottom() + Ball.RADIUS : p.getTop() - Ball.RADIUS);
+				b.setSpeed(speed);
+				b.setAngle(angle);
+				b.bouncePaddle(p);
+			}
+			worstAngle = Math.max(worstAngle, angleBetween(legacy, vector));
+			worstVelocity = Math.max(worstVelocity, velocityBetween(legacy, vector));
+			if(!sameHeading(legacy, vector)) disagree++;
+
+			legacy.bounceWall();
+			vector.bounceWall();
+			worstAngle = Math.max(worstAngle, angleBetween(legacy, vector));
+			worstVelocity = Math.max(worstVelocity, velocityBetween(legacy, vector));
+			if(!sameHeading(legacy, vector)) disagree++;
+		}
+
+		System.out.println(cases + " paddle and wall bounces: worst angle difference " + worstAngle
+				+ " rad, worst velocity difference " + worstVelocity + " px/tick, "
+				+ disagree + " headings disagree");
+	}
+
+	/**
+	 * Plays both balls through one rally that never ends, with the paddles
+	 * always placed under the legacy ball so both see the same paddles.
+	 * The salt turns a difference in where the ball meets a paddle into a
+	 * bigger one at the other end, so any difference at all, even a last bit
+	 * of rounding, grows by a large factor per bounce. Once the two are a
+	 * pixel apart the vector ball is put back on the legacy ball's course,
+	 * and we report how many bounces that took and how far apart they were
+	 * after the first one.
+	 */
+	private static void compareRally(int ticks, long seed) {
+		Random r = new Random(seed);
+		Ball legacy = new LegacyBall(W, new Random(seed));
+		Ball vector = new Ball(W, new Random(seed));
+		Paddle top = new Paddle(TOP, W / 2), bottom = new Paddle(BOTTOM, W / 2);
+		double worstFirst = 0;
+		int bounces = 0, resyncs = 0, since = 0, shortest = Integer.MAX_VALUE;
+
+		legacy.setPosition(W / 2, H / 2);
+		vector.setPosition(W / 2, H / 2);
+		legacy.setAngle(Math.PI / 3);
+		vector.setAngle(Math.PI / 3);
+		int offset = 0;
+
+		for(int t = 0; t < ticks; t++) {
+			top.setPosition((int) legacy.x + offset);
+			bottom.setPosition((int) legacy.x + offset);
+
+			boolean hit = step(legacy, top, bottom);
+			step(vector, top, bottom);
+			if(legacy.pastTop() || legacy.pastBottom(H)) {
+				legacy.setPosition(W / 2, H / 2);
+				vector.setPosition(W / 2, H / 2);
+			}
+			if(hit) {
+				bounces++;
+				since++;
+				offset = r.nextInt(2 * REACH + 1) - REACH;
+			}
+
+			double drift = Math.hypot(legacy.x - vector.x, legacy.y - vector.y);
+			if(since <= 1) worstFirst = Math.max(worstFirst, drift);
+			if(drift >= 1) {
+				resyncs++;
+				shortest = Math.min(shortest, since);
+				since = 0;
+				vector.setPosition(legacy.x, legacy.y);
+				vector.setSpeed(legacy.speed);
+				vector.setAngle(legacy.getAngle());
+			}
+		}
+
+		System.out.println(ticks + " rally ticks, " + bounces + " paddle bounces: a pixel apart every "
+				+ (bounces / Math.max(1, resyncs)) + " bounces on average, after " + shortest
+				+ " at the soonest; worst drift over one bounce " + worstFirst + " px");
+	}
+
+	private static long timeBounces(Ball ball, int n, long seed) {
+		Random r = new Random(seed);
+		Paddle p = new Paddle(BOTTOM, W / 2);
+		float[] xs = new float[1024];
+		for(int i = 0; i < xs.length; i++) {
+			xs[i] = W / 2 + (r.nextFloat() * 2 - 1) * Paddle.PADDLE_WIDTH;
+		}
+
+		ball.setAngle(Math.PI / 3);
+		long sum = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < n; i++) {
+			ball.x = xs[i & 1023];
+			ball.bouncePaddle(p);
+			sum += Float.floatToRawIntBits(ball.vx);
+		}
+		long elapsed = System.nanoTime() - start;
+		return elapsed / n + ((sum == 42) ? 1 : 0);
+	}
+
+	private static long timeRally(Ball ball, int n, long seed) {
+		Random r = new Random(seed);
+		Paddle top = new Paddle(TOP, W / 2), bottom = new Paddle(BOTTOM, W / 2);
+		ball.setPosition(W / 2, H / 2);
+		ball.setAngle(Math.PI / 3);
+		int offset = 0;
+		long sum = 0;
+
+		long start = System.nanoTime();
+		for(int i = 0; i < n; i++) {
+			top.setPosition((int) ball.x + offset);
+			bottom.setPosition((int) ball.x + offset);
+			if(step(ball, top, bottom)) offset = r.nextInt(2 * REACH + 1) - REACH;
+			if(ball.pastTop() || ball.pastBottom(H)) ball.setPosition(W / 2, H / 2);
+			sum += ball.predictX(bottom.centerY(), top.centerY());
+		}
+		long elapsed = System.nanoTime() - start;
+		return elapsed / n + ((sum == 42) ? 1 : 0);
+	}
+
+	/**
+	 * One tick of a rally, the way PongGame orders it. A paddle that ends up
+	 * too far from the ball can still miss, after which the caller serves it
+	 * again from the middle.
+	 * @return true if the ball hit a paddle
+	 */
+	private static boolean step(Ball ball, Paddle top, Paddle bottom) {
+		ball.move();
+		boolean hit = (ball.goingUp()) ? ball.sweepUp(top) : ball.sweepDown(bottom);
+		ball.sweepWalls();
+		return hit;
+	}
+
+	private static double angleBetween(Ball a, Ball b) {
+		double d = Math.abs(a.getAngle() - b.getAngle());
+		return Math.min(d, 2 * Math.PI - d);
+	}
+
+	private static double velocityBetween(Ball a, Ball b) {
+		return Math.hypot(a.vx - b.vx, a.vy - b.vy);
+	}
+
+	private static boolean sameHeading(Ball a, Ball b) {
+		return a.goingUp() == b.goingUp() && a.goingLeft() == b.goingLeft();
+	}
+
+	/**
+	 * The ball as it was when its angle was the source of truth, copied
+	 * from before the change.
+	 */
+	private static class LegacyBall extends Ball {
+		private double mAngle;
+
+		public LegacyBall(int width, Random rng) {
+			super(width, rng);
+		}
+
+		@Override
+		protected void findVector() {
+			vx = (float) (speed * Math.cos(mAngle));
+			vy = (float) (speed * Math.sin(mAngle));
+		}
+
+		@Override
+		public boolean goingUp() {
+			return mAngle >= Math.PI;
+		}
+
+		@Override
+		public boolean goingLeft() {
+			return mAngle <= 3 * Math.PI / 2 && mAngle > Math.PI / 2;
+		}
+
+		@Override
+		public double getAngle() {
+			return mAngle;
+		}
+
+		@Override
+		public void setAngle(double angle) {
+			mAngle = angle % (2 * Math.PI);
+			mAngle = boundAngle(mAngle);
+			findVector();
+		}
+
+		@Override
+		public void bouncePaddle(Paddle p) {
+			double angle;
+			if(mAngle >= Math.PI) {
+				angle = 4 * Math.PI - mAngle;
+			}
+			else {
+				angle = 2 * Math.PI - mAngle;
+			}
+
+			angle %= (2 * Math.PI);
+			angle = boundAngle(angle + salt(p), angle >= Math.PI);
+			setAngle(angle);
+		}
+
+		@Override
+		public void bounceWall() {
+			setAngle(3 * Math.PI - mAngle);
+		}
+	}
+}
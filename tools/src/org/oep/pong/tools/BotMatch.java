@@ -0,0 +1,179 @@
+package org.oep.pong.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.net.BotClient;
+import org.oep.pong.net.BotServer;
+import org.oep.pong.net.NetProtocol;
+import org.oep.pong.net.StateFrame;
+
+/**
+ * Plays headless matches between two bots, each its own JVM started from
+ * here, connected to a {@link BotServer} over loopback. The game steps as
+ * fast as the bots answer, waiting for them with await() after each tick,
+ * which the view never does. Both bots aim for where the ball will cross
+ * their paddle, worked out from the last two frames they were sent.
+ *
+ * The first run has both bots answer every batch. In the second the blue
+ * bot stalls now and then for longer than its deadline, and its paddle
+ * should hold its last target, then fall back to the game's own AI, for
+ * those ticks while the match carries on, waiting no longer than the
+ * deadline. Reports ticks a second, how many ticks each way was played,
+ * and the longest wait for a batch.
+ *
+ * The last run plays as the view does, a tick every frame and never
+ * waiting, so its longest tick is only the cost of polling.
+ *
+ * Usage: BotMatch [ticks] [batch] [deadline us]
+ * @author OEP
+ *
+ */
+public class BotMatch {
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0 && args[0].equals("--bot")) {
+			bot(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+		int batch = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int deadline = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+
+		match("punctual", ticks, batch, deadline, 0, false);
+		match("blue stalls", ticks, batch, deadline, STALL_EVERY, false);
+		match("paced like the view", PACED_TICKS, 1, deadline, 0, true);
+	}
+
+	/**
+	 * Starts two bots and plays <code>ticks</code> against them.
+	 * @param stallEvery, batches between the blue bot's stalls, or 0 for never
+	 * @param paced, play a tick a frame without waiting for the bots
+	 */
+	private static void match(String name, int ticks, int batch, int deadline, int stallEvery, boolean paced) throws Exception {
+		BotServer server = new BotServer(0, batch, deadline);
+		PongGame game = game(0);
+		Process red = start(server.getPort(), NetProtocol.BOT_SIDE_RED, 0);
+		Process blue = start(server.getPort(), NetProtocol.BOT_SIDE_BLUE, stallEvery);
+
+		try {
+			long waitUntil = System.currentTimeMillis() + CONNECT_MS;
+			while(!server.connected(NetProtocol.BOT_SIDE_RED) || !server.connected(NetProtocol.BOT_SIDE_BLUE)) {
+				if(System.currentTimeMillis() > waitUntil) throw new IllegalStateException("Bots did not connect");
+				server.poll(game);
+				Thread.sleep(1);
+			}
+
+			int redWins = 0, blueWins = 0;
+			long longest = 0, busy = 0;
+			long start = System.nanoTime();
+			for(int t = 0; t < ticks; t++) {
+				if(!game.running()) {
+					if(game.getRed().living()) redWins++;
+					else blueWins++;
+					game = game(t);
+				}
+
+				long before = System.nanoTime();
+				server.poll(game);
+				server.steer(game);
+				game.step();
+				server.record(game);
+				if(!paced) server.await(game);
+				long took = System.nanoTime() - before;
+				longest = Math.max(longest, took);
+				busy += took;
+				if(paced) Thread.sleep(1000 / PongGame.FPS);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			long played = server.getSteered() + server.getHeld() + server.getFallbacks();
+			System.out.println(String.format("%s: %.0f ticks/s, %.2f%% of paddle ticks on bot targets, %d held over, %d on the AI, %d batches missed",
+					name, ticks * 1e9 / elapsed, 100.0 * server.getSteered() / Math.max(1, played), server.getHeld(),
+					server.getFallbacks(), server.getMissed()));
+			System.out.println(String.format("  red won %d, blue won %d; ticks %.3f ms on average, %.2f ms at most, against a batch deadline of %.2f ms",
+					redWins, blueWins, busy / 1e6 / ticks, longest / 1e6, batch * deadline / 1e3));
+			if(stallEvery == 0 && server.getMissed() > ticks / batch / 100) {
+				throw new IllegalStateException("Punctual bots missed " + server.getMissed() + " batches");
+			}
+			if(stallEvery > 0 && server.getHeld() + server.getFallbacks() == 0) {
+				throw new IllegalStateException("A stalling bot was never played without its targets");
+			}
+		}
+		finally {
+			server.close();
+			red.waitFor();
+			blue.waitFor();
+		}
+	}
+
+	private static Process start(int port, int side, int stallEvery) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), BotMatch.class.getName(),
+				"--bot", String.valueOf(port), String.valueOf(side), String.valueOf(stallEvery));
+		pb.inheritIO();
+		return pb.start();
+	}
+
+	/**
+	 * Plays one side until the game goes away.
+	 */
+	private static void bot(int port, int side, int stallEvery) throws Exception {
+		BotClient client = new BotClient(new InetSocketAddress("127.0.0.1", port), side);
+		StateFrame[] frames = new StateFrame[BotServer.MAX_BATCH];
+		for(int i = 0; i < frames.length; i++) frames[i] = new StateFrame();
+		StateFrame last = new StateFrame();
+		int[] targets = new int[BotServer.MAX_BATCH];
+		boolean red = client.getSide() == NetProtocol.BOT_SIDE_RED;
+		int face = client.getFace();
+
+		int batches = 0, n;
+		while((n = client.readFrames(frames)) >= 0) {
+			if(n == 0) continue;
+
+			StateFrame now = frames[n - 1], before = (n > 1) ? frames[n - 2] : last;
+			int target = aim(now, before, face, red);
+			for(int i = 0; i < client.getBatch(); i++) targets[i] = target;
+
+			if(stallEvery > 0 && ++batches % stallEvery == 0) {
+				Thread.sleep(STALL_MS);
+			}
+			client.sendTargets(targets, client.getBatch());
+			last.set(now);
+		}
+		client.close();
+	}
+
+	/**
+	 * @return where the ball will cross our paddle's face, bounced off the
+	 * side walls, or the middle if it is not coming our way
+	 */
+	private static int aim(StateFrame now, StateFrame before, int face, boolean red) {
+		int dx = now.ballX - before.ballX, dy = now.ballY - before.ballY;
+		boolean coming = (red) ? dy < 0 : dy > 0;
+		if(now.serve > 0 || !coming || now.tick != before.tick + 1) return NetProtocol.QUANT / 2;
+
+		long x = now.ballX + (long) dx * (face - now.ballY) / dy;
+		long period = 2L * NetProtocol.QUANT;
+		x = ((x % period) + period) % period;
+		return (int) ((x > NetProtocol.QUANT) ? period - x : x);
+	}
+
+	private static PongGame game(long seed) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, seed);
+		game.setLivesModifier(2);
+		game.initializePaddles(false, false);
+		return game;
+	}
+
+	/** How long to wait for the bots to start and connect */
+	private static final int CONNECT_MS = 10000;
+
+	/** Ten seconds of play for the paced run */
+	private static final int PACED_TICKS = 10 * PongGame.FPS;
+
+	/** The stalling bot sleeps this long every STALL_EVERY batches */
+	private static final int STALL_MS = 20, STALL_EVERY = 200;
+}
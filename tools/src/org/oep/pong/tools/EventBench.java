@@ -0,0 +1,68 @@
+package org.oep.pong.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.PongGame;
+
+/**
+ * Measures what the event ring costs the simulation: ticks per second with
+ * only the game's own consumers (sound and stats) and with four more, and
+ * the bytes allocated per tick where the JVM can tell.
+ *
+ * Usage: EventBench [ticks]
+ * @author OEP
+ *
+ */
+public class EventBench {
+	public static void main(String[] args) {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+
+		for(int pass = 0; pass < 2; pass++) {
+			run(0, ticks / ((pass == 0) ? 10 : 1), pass == 1);
+			run(4, ticks / ((pass == 0) ? 10 : 1), pass == 1);
+		}
+	}
+
+	private static void run(int consumers, int ticks, boolean report) {
+		PongGame game = new PongGame(PhysicsBench.WIDTH, PhysicsBench.HEIGHT, true, 1);
+		game.initializePaddles(false, false);
+
+		final long[] counts = new long[5];
+		for(int c = 0; c < consumers; c++) {
+			game.getEvents().addConsumer(new GameEvents.Consumer() {
+				public void onEvent(GameEvents events, long seq) {
+					counts[events.kind(seq)]++;
+				}
+			});
+		}
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < ticks; i++) {
+			if(!game.running()) game.newGame();
+			game.step();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		if(!report) return;
+		System.out.println(consumers + " extra consumers: " + (ticks * 1000000000L / Math.max(1, elapsed))
+				+ " ticks/s, " + game.getEvents().written() + " events, "
+				+ ((allocated < 0) ? "allocation unknown"
+						: String.format("%.3f", (double) allocated / ticks) + " bytes allocated per tick"));
+	}
+
+	/**
+	 * @return bytes this thread has allocated so far, or a negative number
+	 * if the JVM does not say
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
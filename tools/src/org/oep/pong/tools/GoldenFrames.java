@@ -0,0 +1,89 @@
+package org.oep.pong.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+import org.oep.pong.RasterRenderer;
+
+/**
+ * Draws each of the SceneFrames with the RasterRenderer and compares it
+ * pixel for pixel with the PNG kept for it. Any difference fails, and the
+ * frame that was drawn is written beside the golden one as
+ * <code>name.actual.png</code> so the two can be looked at. After a change
+ * that is meant to alter the picture, run with --update to replace the
+ * golden images.
+ *
+ * Run from the top of the project, since it reads res/values/strings.xml.
+ *
+ * Usage: GoldenFrames [--update] [directory]
+ * @author OEP
+ *
+ */
+public class GoldenFrames {
+	public static void main(String[] args) throws IOException {
+		boolean update = args.length > 0 && args[0].equals("--update");
+		File dir = new File((args.length > (update ? 1 : 0)) ? args[update ? 1 : 0] : "tools/golden");
+		dir.mkdirs();
+
+		int failed = 0;
+		for(int i = 0; i < SceneFrames.NAMES.length; i++) {
+			String name = SceneFrames.NAMES[i];
+			int[] frame = draw(i);
+			int w = SceneFrames.screenWidth(i), h = SceneFrames.screenHeight(i);
+			File golden = new File(dir, name + ".png");
+
+			if(update) {
+				write(frame, w, h, golden);
+				System.out.println(name + ": wrote " + golden);
+				continue;
+			}
+
+			if(!golden.exists()) {
+				System.out.println(name + ": no golden image, run with --update");
+				failed++;
+				continue;
+			}
+
+			BufferedImage expected = ImageIO.read(golden);
+			int differ = (expected.getWidth() != w || expected.getHeight() != h) ? w * h : 0;
+			for(int y = 0; differ == 0 && y < h; y++) {
+				for(int x = 0; x < w; x++) {
+					if(expected.getRGB(x, y) != frame[y * w + x]) differ++;
+				}
+			}
+
+			File actual = new File(dir, name + ".actual.png");
+			if(differ == 0) {
+				actual.delete();
+				System.out.println(name + ": ok");
+			}
+			else {
+				write(frame, w, h, actual);
+				System.out.println(name + ": " + differ + " pixels differ, see " + actual);
+				failed++;
+			}
+		}
+
+		if(failed > 0) System.exit(1);
+	}
+
+	private static int[] draw(int i) throws IOException {
+		PongScene scene = SceneFrames.scene();
+		PongGame game = SceneFrames.game(i);
+		RasterRenderer r = new RasterRenderer(SceneFrames.screenWidth(i), SceneFrames.screenHeight(i), PongScene.TEXT_SIZE);
+		scene.fit(r.getWidth(), r.getHeight(), game.getWidth(), game.getHeight());
+		scene.draw(r, game, SceneFrames.paused(i));
+		return r.getPixels();
+	}
+
+	private static void write(int[] frame, int w, int h, File f) throws IOException {
+		BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		img.setRGB(0, 0, w, h, frame, 0, w);
+		ImageIO.write(img, "png", f);
+	}
+}
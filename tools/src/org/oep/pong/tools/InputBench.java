@@ -0,0 +1,212 @@
+package org.oep.pong.tools;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.oep.pong.InputState;
+import org.oep.pong.PointerMap;
+
+/**
+ * Checks the {@link InputState} table's deadzones, curves, key acceleration
+ * and side bindings, then floods it with controller events at rising rates
+ * and times each tick beside working out the paddle's move as every event
+ * comes in, which is what handling input in the event callbacks comes to.
+ * Also checks the {@link PointerMap} that keeps fingers on their paddles
+ * against a HashMap, and that touch moves through it allocate nothing.
+ *
+ * Usage: InputBench [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class InputBench {
+	public static void main(String[] args) {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		check();
+		checkPointers(seed);
+
+		System.out.println(String.format("%12s %14s %14s", "events/tick", "polled ns", "per-event ns"));
+		for(int rate = 1; rate <= 10000; rate *= 10) {
+			polled(rate, ticks / 10, seed);
+			perEvent(rate, ticks / 10, seed);
+			long polled = Long.MAX_VALUE, perEvent = Long.MAX_VALUE;
+			for(int p = 0; p < PASSES; p++) {
+				polled = Math.min(polled, polled(rate, ticks, seed));
+				perEvent = Math.min(perEvent, perEvent(rate, ticks, seed));
+			}
+			System.out.println(String.format("%12d %14d %14d", rate, polled / ticks, perEvent / ticks));
+		}
+	}
+
+	private static void check() {
+		InputState input = new InputState();
+		input.setDefaults(InputState.SIDE_BLUE, 0.2f, 2);
+
+		// Inside the deadzone a stick does nothing
+		input.axis(STICK, InputState.AXIS_STICK, 0.19f);
+		input.poll();
+		expect("deadzone", !input.active(InputState.SIDE_BLUE) && input.moved(InputState.SIDE_BLUE) == 0);
+
+		// Halfway past it moves a quarter of full speed on a squared curve
+		input.axis(STICK, InputState.AXIS_STICK, -0.6f);
+		input.poll();
+		expect("curve", input.moved(InputState.SIDE_BLUE) == -Math.round(InputState.STICK_MAX / 4));
+		input.axis(STICK, InputState.AXIS_STICK, 1);
+		input.poll();
+		expect("full stick", input.moved(InputState.SIDE_BLUE) == Math.round(InputState.STICK_MAX));
+		input.axis(STICK, InputState.AXIS_STICK, 0);
+
+		// A held key speeds up to its limit, and starts over once let go
+		input.keyDown(KEYS, InputState.BUTTON_RIGHT);
+		int last = 0;
+		for(int t = 0; t < 100; t++) {
+			input.poll();
+			int moved = input.moved(InputState.SIDE_BLUE);
+			expect("acceleration", moved >= last && moved <= InputState.KEY_MAX);
+			last = moved;
+		}
+		expect("top speed", last == Math.round(InputState.KEY_MAX));
+		input.keyUp(KEYS, InputState.BUTTON_RIGHT);
+		input.poll();
+		expect("key up", !input.active(InputState.SIDE_BLUE));
+		input.keyDown(KEYS, InputState.BUTTON_LEFT);
+		input.poll();
+		expect("start over", input.moved(InputState.SIDE_BLUE) == -Math.round(InputState.KEY_START));
+		input.keyUp(KEYS, InputState.BUTTON_LEFT);
+		input.poll();
+
+		// Devices steer only the paddle they are bound to
+		input.swap(KEYS);
+		input.keyDown(KEYS, InputState.BUTTON_LEFT);
+		input.axis(STICK, InputState.AXIS_STICK, 1);
+		input.poll();
+		expect("binding", input.moved(InputState.SIDE_RED) == -Math.round(InputState.KEY_START)
+				&& input.moved(InputState.SIDE_BLUE) == Math.round(InputState.STICK_MAX));
+
+		// Trackball motion is used once
+		input.release();
+		input.roll(STICK, 0.05f);
+		input.roll(STICK, 0.05f);
+		input.poll();
+		expect("roll", input.moved(InputState.SIDE_BLUE) == Math.round(0.1f * InputState.ROLL_SENSITIVITY));
+		input.poll();
+		expect("roll used", !input.active(InputState.SIDE_BLUE));
+
+		System.out.println("input table checks out");
+	}
+
+	/**
+	 * Puts fingers down and lifts them at random, as a pointer map and as a
+	 * HashMap, and fails if they ever disagree. Then counts what a flood of
+	 * moves through the map allocates.
+	 */
+	private static void checkPointers(long seed) {
+		Random r = new Random(seed);
+		PointerMap map = new PointerMap();
+		HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+		for(int op = 0; op < POINTER_OPS; op++) {
+			// Mostly small ids, as Android hands out, now and then a wild one
+			int id = (r.nextInt(50) == 0) ? r.nextInt() : r.nextInt(24);
+			if(id == Integer.MIN_VALUE) continue;
+			if(r.nextBoolean()) {
+				int owner = r.nextInt(4);
+				map.put(id, owner);
+				expected.put(id, owner);
+			}
+			else {
+				expect("pointer remove", map.remove(id) == (expected.remove(id) != null));
+			}
+
+			int probe = r.nextInt(24);
+			Integer owner = expected.get(probe);
+			expect("pointer get", map.get(probe, -1) == ((owner == null) ? -1 : owner));
+			expect("pointer size", map.size() == expected.size());
+		}
+
+		map.clear();
+		for(int id = 0; id < 10; id++) map.put(id, id & 3);
+		long allocated = EventBench.allocatedBytes();
+		int steered = 0;
+		for(int move = 0; move < POINTER_OPS; move++) {
+			for(int id = 0; id < 10; id++) steered += map.get(id, 0);
+		}
+		allocated = (allocated < 0) ? -1 : EventBench.allocatedBytes() - allocated;
+		sink(steered);
+
+		System.out.println("pointer map agrees over " + POINTER_OPS + " downs and ups, "
+				+ ((allocated < 0) ? "unknown" : String.valueOf(allocated)) + " bytes over " + POINTER_OPS + " ten-finger moves");
+	}
+
+	private static void expect(String what, boolean ok) {
+		if(!ok) throw new IllegalStateException(what);
+	}
+
+	/**
+	 * Records <code>rate</code> events a tick from four gamepads and polls
+	 * the table once a tick.
+	 * @return nanoseconds over the run
+	 */
+	private static long polled(int rate, int ticks, long seed) {
+		float[] events = events(rate * 16, seed);
+		InputState input = new InputState();
+		int position = 0, e = 0;
+
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) {
+			for(int i = 0; i < rate; i++, e++) {
+				input.axis(e & 3, InputState.AXIS_STICK, events[e % events.length]);
+			}
+			input.poll();
+			position += input.moved(InputState.SIDE_BLUE);
+		}
+		long elapsed = System.nanoTime() - start;
+		sink(position);
+		return elapsed;
+	}
+
+	/**
+	 * The same events, each one put through the deadzone and curve and
+	 * added to the paddle as it arrives.
+	 * @return nanoseconds over the run
+	 */
+	private static long perEvent(int rate, int ticks, long seed) {
+		float[] events = events(rate * 16, seed);
+		int position = 0, e = 0;
+
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) {
+			for(int i = 0; i < rate; i++, e++) {
+				float v = events[e % events.length];
+				float travel = (Math.abs(v) - InputState.DEADZONE) / (1 - InputState.DEADZONE);
+				if(travel > 0) {
+					travel = (float) Math.pow(Math.min(1, travel), InputState.CURVE);
+					position += Math.round(Math.signum(v) * travel * InputState.STICK_MAX / rate);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		sink(position);
+		return elapsed;
+	}
+
+	private static float[] events(int n, long seed) {
+		Random r = new Random(seed);
+		float[] events = new float[Math.min(n, 1 << 16)];
+		for(int i = 0; i < events.length; i++) events[i] = 2 * r.nextFloat() - 1;
+		return events;
+	}
+
+	private static int sSink;
+
+	/** Keeps the JIT from dropping work whose result is never used */
+	private static void sink(int x) {
+		sSink ^= x;
+	}
+
+	/** Device ids used in the checks */
+	private static final int STICK = 7, KEYS = 3;
+
+	private static final int PASSES = 3, POINTER_OPS = 1000000;
+}
@@ -0,0 +1,166 @@
+package org.oep.pong.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.Level;
+import org.oep.pong.Obstacle;
+import org.oep.pong.ObstacleTree;
+import org.oep.pong.PongGame;
+
+/**
+ * Checks the obstacle tree against a linear scan over random boxes, then
+ * times zero-player matches on the open arena, on each level in
+ * assets/levels and on a made-up level of a couple of thousand pegs, so
+ * the cost per tick of a crowded level can be set beside an empty one.
+ *
+ * Run from the top of the project.
+ *
+ * Usage: LevelBench [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class LevelBench {
+	public static void main(String[] args) throws IOException {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		ArrayList<Level> levels = new ArrayList<Level>();
+		levels.add(null);
+		File[] files = new File(LEVELS).listFiles();
+		if(files == null) throw new IOException("No " + LEVELS + ", run from the top of the project");
+		Arrays.sort(files);
+		for(int i = 0; i < files.length; i++) {
+			InputStream in = new FileInputStream(files[i]);
+			try {
+				levels.add(Level.read(in, files[i].getName()));
+			}
+			finally {
+				in.close();
+			}
+		}
+		levels.add(pegs(2000));
+
+		for(int i = 1; i < levels.size(); i++) checkTree(levels.get(i), seed);
+
+		System.out.println(String.format("%-12s %9s %7s %14s %14s %10s", "level", "obstacles", "nodes", "float ticks/s", "fixed ticks/s", "hits/tick"));
+		for(int i = 0; i < levels.size(); i++) {
+			Level level = levels.get(i);
+			String name = (level == null) ? "open" : level.getName();
+			int obstacles = (level == null) ? 0 : level.getObstacles().length;
+			int nodes = (level == null) ? 0 : level.getTree().size();
+
+			run(false, level, ticks / 10, seed);
+			run(true, level, ticks / 10, seed);
+			long floatRate = best(false, level, ticks, seed);
+			long fixedRate = best(true, level, ticks, seed);
+			double hits = (double) run(true, level, ticks, seed) / ticks;
+
+			System.out.println(String.format("%-12s %9d %7d %14d %14d %10.3f", name, obstacles, nodes, floatRate, fixedRate, hits));
+		}
+	}
+
+	/**
+	 * Asks the tree and a linear scan about the same random boxes and fails
+	 * if they ever disagree.
+	 */
+	private static void checkTree(Level level, long seed) {
+		Obstacle[] obstacles = level.getObstacles();
+		ObstacleTree tree = level.getTree();
+		int[] found = new int[obstacles.length];
+		int[] expected = new int[obstacles.length];
+		Random r = new Random(seed);
+
+		long treeNanos = 0, scanNanos = 0, candidates = 0;
+		for(int q = 0; q < QUERIES; q++) {
+			int left = r.nextInt(PongGame.WORLD_WIDTH), top = r.nextInt(PongGame.WORLD_HEIGHT);
+			int right = left + r.nextInt(80), bottom = top + r.nextInt(80);
+
+			long start = System.nanoTime();
+			int n = tree.query(left, top, right, bottom, found);
+			long mid = System.nanoTime();
+			int m = 0;
+			for(int i = 0; i < obstacles.length; i++) {
+				Obstacle o = obstacles[i];
+				if(o.getReachRight() >= left && o.getReachLeft() <= right
+						&& o.getReachBottom() >= top && o.getReachTop() <= bottom) expected[m++] = i;
+			}
+			long end = System.nanoTime();
+			treeNanos += mid - start;
+			scanNanos += end - mid;
+			candidates += n;
+
+			Arrays.sort(found, 0, n);
+			if(n != m || !Arrays.equals(Arrays.copyOf(found, n), Arrays.copyOf(expected, m))) {
+				throw new IllegalStateException(level.getName() + ": tree found " + n + " obstacles, scan found " + m);
+			}
+		}
+
+		System.out.println(String.format("%s: tree agrees over %d boxes, %.1f candidates, tree %dns, scan %dns per query",
+				level.getName(), QUERIES, (double) candidates / QUERIES, treeNanos / QUERIES, scanNanos / QUERIES));
+	}
+
+	/**
+	 * @return the most ticks per second of a few runs
+	 */
+	private static long best(boolean fixed, Level level, int ticks, long seed) {
+		long best = 0;
+		for(int p = 0; p < PASSES; p++) {
+			long start = System.nanoTime();
+			run(fixed, level, ticks, seed);
+			best = Math.max(best, ticks * 1000000000L / Math.max(1, System.nanoTime() - start));
+		}
+		return best;
+	}
+
+	/**
+	 * Plays <code>ticks</code> steps, starting a new game whenever one ends.
+	 * @return how many obstacles the ball bounced off
+	 */
+	private static int run(boolean fixed, Level level, int ticks, long seed) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, fixed, seed);
+		game.initializePaddles(false, false);
+		game.setLevel(level);
+
+		final int[] hits = new int[1];
+		game.getEvents().addConsumer(new GameEvents.Consumer() {
+			public void onEvent(GameEvents events, long seq) {
+				if(events.kind(seq) == GameEvents.KIND_OBSTACLE) hits[0]++;
+			}
+		});
+
+		for(int i = 0; i < ticks; i++) {
+			if(!game.running()) game.newGame();
+			game.step();
+		}
+		return hits[0];
+	}
+
+	/**
+	 * A field of about <code>count</code> tiny pegs between the paddles,
+	 * clear of the serve and far enough apart for the ball to pass.
+	 */
+	private static Level pegs(int count) {
+		int top = PongGame.WORLD_HEIGHT / 8 + 40, bottom = 7 * PongGame.WORLD_HEIGHT / 8 - 40;
+		int left = 30, right = PongGame.WORLD_WIDTH - 30;
+		int spacing = (int) Math.sqrt((double) (right - left) * (bottom - top) / count);
+
+		ArrayList<Obstacle> obstacles = new ArrayList<Obstacle>();
+		for(int y = top; y <= bottom; y += spacing) {
+			for(int x = left; x <= right; x += spacing) {
+				if(Math.abs(x - PongGame.WORLD_WIDTH / 2) < 24 && Math.abs(y - PongGame.WORLD_HEIGHT / 2) < 24) continue;
+				obstacles.add(Obstacle.circle(x, y, 1));
+			}
+		}
+		return new Level("pegs" + obstacles.size(), obstacles.toArray(new Obstacle[obstacles.size()]));
+	}
+
+	private static final String LEVELS = "assets/levels";
+	private static final int QUERIES = 100000, PASSES = 3;
+}
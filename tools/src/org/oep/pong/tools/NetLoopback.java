@@ -0,0 +1,92 @@
+package org.oep.pong.tools;
+
+import java.net.InetSocketAddress;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.net.LinkConditioner;
+import org.oep.pong.net.NetClient;
+import org.oep.pong.net.NetHost;
+import org.oep.pong.net.NetProtocol;
+
+/**
+ * Plays a LAN game between a host and a client on this machine over
+ * loopback, with artificial latency and loss on both directions. The
+ * client's red paddle follows the ball it sees, so it only returns shots if
+ * the state and inputs make it through. The two arenas have different sizes
+ * to exercise the coordinate quantization.
+ *
+ * Usage: NetLoopback [ticks] [latency ms] [jitter ms] [loss 0-1] [batch] [tick ms]
+ * @author OEP
+ *
+ */
+public class NetLoopback {
+	public static void main(String[] args) throws Exception {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 900;
+		int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 40;
+		int jitter = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		float loss = (args.length > 3) ? Float.parseFloat(args[3]) : 0.05f;
+		int batch = (args.length > 4) ? Integer.parseInt(args[4]) : NetHost.DEFAULT_BATCH;
+		int period = (args.length > 5) ? Integer.parseInt(args[5]) : 1000 / PongGame.FPS;
+
+		final NetHost host = new NetHost(0, new LinkConditioner(latency, jitter, loss, 3));
+		host.setBatchSize(batch);
+
+		final int[] hits = new int[1];
+		PongGame hostGame = new PongGame(480, 800, false, 1);
+		hostGame.initializePaddles(true, false);
+		hostGame.setListener(new PongGame.Listener() {
+			public void onSound(int sfx) {
+				host.onSound(sfx);
+				if(sfx == PongGame.SFX_PADDLE) hits[0]++;
+			}
+		});
+
+		PongGame clientGame = new PongGame(320, 480, false, 2);
+		clientGame.initializePaddles(true, true);
+
+		NetClient client = new NetClient(new InetSocketAddress("127.0.0.1", host.getLocalPort()),
+				new LinkConditioner(latency, jitter, loss, 4));
+		client.setBatchSize(batch);
+
+		int shown = 0, events = 0;
+		long error = 0;
+		long start = System.currentTimeMillis();
+
+		for(int t = 0; t < ticks; t++) {
+			long next = start + (long) t * period;
+			while(System.currentTimeMillis() < next) Thread.sleep(1);
+
+			host.poll();
+			client.poll();
+
+			if(!hostGame.running()) hostGame.newGame();
+			host.applyInput(hostGame);
+			hostGame.step();
+			host.sendState(hostGame);
+
+			clientGame.getRed().destination = clientGame.getBall().intX();
+			client.sendInput(clientGame);
+			if(client.applyState(clientGame)) {
+				shown++;
+				events += Integer.bitCount(client.takeEvents());
+				int hostX = NetProtocol.dequantize(NetProtocol.quantize(clientGame.getBall().x, 320), 480);
+				error += Math.abs(hostX - hostGame.getBall().intX());
+			}
+		}
+
+		float seconds = (System.currentTimeMillis() - start) / 1000f;
+		System.out.println("ticks " + ticks + " in " + seconds + "s, latency " + latency
+				+ "ms +" + jitter + "ms, loss " + loss + ", batch " + batch);
+		System.out.println("host -> client: " + host.getPacketsSent() + " datagrams, "
+				+ (host.getBytesSent() / Math.max(1, host.getPacketsSent())) + " bytes each, "
+				+ (int) (host.getBytesSent() / seconds) + " B/s, " + host.getLink().getDropped() + " dropped");
+		System.out.println("client -> host: " + client.getPacketsSent() + " datagrams, "
+				+ (client.getBytesSent() / Math.max(1, client.getPacketsSent())) + " bytes each, "
+				+ (int) (client.getBytesSent() / seconds) + " B/s, " + client.getLink().getDropped() + " dropped");
+		System.out.println("client showed " + shown + " frames, heard " + events + " events, host saw "
+				+ hits[0] + " paddle hits, mean ball lag " + (error / Math.max(1, shown)) + "px");
+
+		host.close();
+		client.close();
+	}
+}
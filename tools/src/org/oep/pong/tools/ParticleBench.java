@@ -0,0 +1,123 @@
+package org.oep.pong.tools;
+
+import java.io.IOException;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.Particles;
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+import org.oep.pong.RasterRenderer;
+
+/**
+ * Plays zero-player matches with power-ups on, feeding {@link Particles}
+ * from the game's events and drawing each frame with the RasterRenderer
+ * the way the view does. Reports how many particles a match keeps alive,
+ * and what moving and drawing them costs a frame beside the scene itself.
+ *
+ * Then it floods the particles with misses, many a frame, and fails if
+ * any are made past the budget. Frames are called late until the budget
+ * bottoms out, then on time until it has recovered, as a device under load
+ * would see. A lowered budget leaves the particles already alive to run
+ * their course. The flood also reports whether the particles allocate.
+ *
+ * Run from the top of the project, since it reads res/values/strings.xml.
+ *
+ * Usage: ParticleBench [frames] [seed]
+ * @author OEP
+ *
+ */
+public class ParticleBench {
+	public static void main(String[] args) throws IOException {
+		int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		PongScene scene = SceneFrames.scene();
+		RasterRenderer r = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		scene.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+
+		match(frames / 10, seed, scene, r);
+		match(frames, seed, scene, r);
+		flood(frames);
+	}
+
+	private static void match(int frames, long seed, PongScene scene, RasterRenderer r) {
+		Particles particles = new Particles();
+		PongGame game = game(seed, particles);
+
+		long sceneNanos = 0, particleNanos = 0, alive = 0;
+		int peak = 0;
+		for(int frame = 0; frame < frames; frame++) {
+			if(!game.running()) game = game(seed + frame, particles);
+			game.step();
+
+			long start = System.nanoTime();
+			scene.draw(r, game, false);
+			long drawn = System.nanoTime();
+			particles.step();
+			particles.trail(game);
+			scene.drawParticles(r, game, particles);
+			long end = System.nanoTime();
+
+			sceneNanos += drawn - start;
+			particleNanos += end - drawn;
+			alive += particles.alive();
+			peak = Math.max(peak, particles.alive());
+		}
+
+		System.out.println(String.format("%d frames: %.1f particles alive on average, %d at most, %d dropped; scene %d ns a frame, particles %d ns",
+				frames, (double) alive / frames, peak, particles.dropped(), sceneNanos / frames, particleNanos / frames));
+	}
+
+	/**
+	 * Publishes MISSES misses a frame, with frames late for the first part
+	 * and on time for the rest.
+	 */
+	private static void flood(int frames) {
+		Particles particles = new Particles();
+		GameEvents events = new GameEvents(2 * MISSES);
+		events.addConsumer(particles);
+		RasterRenderer r = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+
+		int lowest = Particles.CAPACITY, bottomedAt = -1, recoveredAt = -1;
+		long allocated = EventBench.allocatedBytes();
+		for(int frame = 0; frame < frames; frame++) {
+			int before = particles.alive();
+			for(int i = 0; i < MISSES; i++) {
+				events.publish(frame, GameEvents.KIND_MISS, GameEvents.ACTOR_RED, (i * 37) % WIDTH, (i * 53) % HEIGHT, 1);
+			}
+			events.dispatch();
+			if(particles.alive() > Math.max(before, particles.budget())) {
+				throw new IllegalStateException(particles.alive() + " alive with a budget of " + particles.budget());
+			}
+			particles.step();
+			particles.draw(r);
+
+			boolean late = frame < LATE_FRAMES;
+			particles.adapt(late);
+			lowest = Math.min(lowest, particles.budget());
+			if(late && bottomedAt < 0 && particles.budget() == Particles.MIN_BUDGET) bottomedAt = frame;
+			if(!late && recoveredAt < 0 && particles.budget() == Particles.CAPACITY) recoveredAt = frame - LATE_FRAMES;
+		}
+
+		allocated = (allocated < 0) ? -1 : EventBench.allocatedBytes() - allocated;
+
+		System.out.println(String.format("flood of %d misses a frame: none made over budget, %d dropped, %s bytes allocated",
+				MISSES, particles.dropped(), (allocated < 0) ? "unknown" : String.valueOf(allocated)));
+		System.out.println(String.format("  budget fell to %d after %d late frames and was back to %d after %d on time",
+				lowest, bottomedAt + 1, Particles.CAPACITY, recoveredAt + 1));
+	}
+
+	private static PongGame game(long seed, Particles particles) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, seed);
+		game.setLivesModifier(2);
+		game.initializePaddles(false, false);
+		game.setPowerups(true);
+		game.getEvents().addConsumer(particles);
+		return game;
+	}
+
+	/** A phone-sized screen */
+	private static final int WIDTH = 480, HEIGHT = 800;
+
+	private static final int MISSES = 64, LATE_FRAMES = 30;
+}
@@ -0,0 +1,53 @@
+package org.oep.pong.tools;
+
+import org.oep.pong.PongGame;
+
+/**
+ * Runs zero-player matches headless and reports ticks per second for the
+ * float and fixed-point physics, plus a checksum of the final fixed-point
+ * state. The checksum should be identical on every machine for the same
+ * seed and tick count.
+ *
+ * Usage: PhysicsBench [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class PhysicsBench {
+	public static void main(String[] args) {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		// Warm up the JIT on both paths before timing anything
+		run(false, ticks / 10, seed);
+		run(true, ticks / 10, seed);
+
+		report("float", false, ticks, seed);
+		report("fixed", true, ticks, seed);
+	}
+
+	private static void report(String label, boolean fixed, int ticks, long seed) {
+		long start = System.nanoTime();
+		PongGame game = run(fixed, ticks, seed);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(label + ": " + (ticks * 1000000000L / Math.max(1, elapsed))
+				+ " ticks/s, checksum " + Long.toHexString(game.checksum()));
+	}
+
+	/**
+	 * Plays <code>ticks</code> steps, starting a new game whenever one ends.
+	 */
+	public static PongGame run(boolean fixed, int ticks, long seed) {
+		PongGame game = new PongGame(WIDTH, HEIGHT, fixed, seed);
+		game.initializePaddles(false, false);
+
+		for(int i = 0; i < ticks; i++) {
+			if(!game.running()) game.newGame();
+			game.step();
+		}
+		return game;
+	}
+
+	/** The arena the app plays in */
+	public static final int WIDTH = PongGame.WORLD_WIDTH, HEIGHT = PongGame.WORLD_HEIGHT;
+}
@@ -0,0 +1,192 @@
+package org.oep.pong.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.oep.pong.AiPolicy;
+import org.oep.pong.Ball;
+import org.oep.pong.Paddle;
+import org.oep.pong.PongGame;
+
+/**
+ * Builds the AI_TABLE policy asset. For every cell the ball is started from
+ * the middle of the cell and simulated to the bottom paddle's edge, bouncing
+ * off the walls and off a plain mirror at the top paddle if it starts out
+ * going away. The paddle then aims: each contact offset is tried, and the
+ * one that sends the return farthest from the middle is kept, scaled by the
+ * aim setting and halved for fast balls.
+ *
+ * Afterwards the table is mapped back in and plays against the prediction
+ * AI to report a win rate and the cost of a decision.
+ *
+ * Usage: PolicyGen [output file] [aim 0-1] [games]
+ * @author OEP
+ *
+ */
+public class PolicyGen {
+	private static final int W = 480, H = 800;
+	private static final int RED_BOTTOM = H / 8 + PongGame.PADDING + Paddle.PADDLE_THICKNESS;
+	private static final int BLUE_TOP = 7 * H / 8 - PongGame.PADDING - Paddle.PADDLE_THICKNESS;
+
+	public static void main(String[] args) throws IOException {
+		String out = (args.length > 0) ? args[0] : "assets/ai_policy.bin";
+		float aim = (args.length > 1) ? Float.parseFloat(args[1]) : 1f;
+		int games = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+
+		long start = System.currentTimeMillis();
+		ByteBuffer table = generate(aim);
+		FileOutputStream f = new FileOutputStream(out);
+		f.write(table.array());
+		f.close();
+		System.out.println("wrote " + table.capacity() + " bytes to " + out + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		RandomAccessFile file = new RandomAccessFile(out, "r");
+		AiPolicy policy = AiPolicy.map(file.getChannel(), 0, file.length());
+		evaluate(policy, games);
+		file.close();
+	}
+
+	private static ByteBuffer generate(float aim) {
+		ByteBuffer b = ByteBuffer.allocate(AiPolicy.SIZE);
+		b.putInt(AiPolicy.MAGIC);
+		b.put(AiPolicy.VERSION);
+		b.put((byte) AiPolicy.NX);
+		b.put((byte) AiPolicy.ND);
+		b.put((byte) AiPolicy.NA);
+		b.put((byte) AiPolicy.NV);
+
+		Ball ball = new Ball(W, new Random(0));
+		for(int vb = 0; vb < AiPolicy.NV; vb++) {
+			float speed = Ball.SPEED + (vb + 0.5f) * AiPolicy.SPEED_STEP;
+			float scale = (vb == 0) ? aim : aim / 2;
+
+			for(int ab = 0; ab < AiPolicy.NA; ab++) {
+				double angle = (ab + 0.5) * 2 * Math.PI / AiPolicy.NA;
+
+				for(int db = 0; db < AiPolicy.ND; db++) {
+					float y = (BLUE_TOP + Paddle.PADDLE_THICKNESS / 2) - (db + 0.5f) * H / AiPolicy.ND;
+
+					for(int xb = 0; xb < AiPolicy.NX; xb++) {
+						float x = (xb + 0.5f) * W / AiPolicy.NX;
+
+						ball.setPosition(Math.max(Ball.RADIUS + 1, Math.min(W - Ball.RADIUS - 1, x)), y);
+						ball.setSpeed(speed);
+						ball.setAngle(angle);
+						float hit = arrive(ball);
+						float target = hit + scale * bestOffset(ball, hit, speed);
+
+						int t = Math.round(target * 256 / W - 0.5f);
+						b.put(AiPolicy.HEADER + AiPolicy.index(xb, db, ab, vb), (byte) Math.max(0, Math.min(255, t)));
+					}
+				}
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Moves the ball until it reaches the bottom paddle's edge, mirroring it
+	 * at the top paddle's edge on the way.
+	 * @return the x-coordinate where it arrives
+	 */
+	private static float arrive(Ball ball) {
+		for(int i = 0; i < 10000; i++) {
+			if(ball.goingDown() && ball.y + Ball.RADIUS >= BLUE_TOP) break;
+			if(ball.goingUp() && ball.y - Ball.RADIUS <= RED_BOTTOM) {
+				ball.setAngle(2 * Math.PI - ball.getAngle());
+			}
+			ball.move();
+			ball.sweepWalls();
+		}
+		return ball.x;
+	}
+
+	/**
+	 * Tries every contact offset that still changes the bounce and returns
+	 * the one whose return lands farthest from the middle of the arena.
+	 */
+	private static float bestOffset(Ball ball, float hit, float speed) {
+		double incoming = ball.getAngle();
+		Ball probe = new Ball(W, new Random(0));
+		float best = 0, bestScore = -1;
+
+		for(int offset = -14; offset <= 14; offset += 2) {
+			Paddle p = new Paddle(BLUE_TOP, Math.round(hit + offset));
+			probe.setPosition(hit, BLUE_TOP - Ball.RADIUS);
+			probe.setSpeed(speed);
+			probe.setAngle(incoming);
+			probe.bouncePaddle(p);
+
+			for(int i = 0; i < 10000 && probe.y - Ball.RADIUS > RED_BOTTOM; i++) {
+				probe.move();
+				probe.sweepWalls();
+			}
+
+			float score = Math.abs(probe.x - W / 2);
+			if(score > bestScore + 1) {
+				bestScore = score;
+				best = offset;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Plays the table (blue) against the prediction AI (red) and times
+	 * both kinds of decision.
+	 */
+	private static void evaluate(final AiPolicy policy, int games) {
+		int blueWins = 0, redWins = 0;
+		long ticks = 0;
+
+		for(int g = 0; g < games; g++) {
+			PongGame game = new PongGame(W, H, true, g) {
+				@Override
+				protected void doAI(Paddle cpu, Paddle opponent) {
+					if(cpu == mBlue) aiTable(cpu, opponent);
+					else aiPrediction(cpu, opponent);
+				}
+			};
+			game.setAiPolicy(policy);
+			game.setLivesModifier(0);
+			game.initializePaddles(false, false);
+
+			for(int t = 0; t < 100000 && game.running(); t++) {
+				game.step();
+				ticks++;
+			}
+			if(!game.getRed().living()) blueWins++;
+			else if(!game.getBlue().living()) redWins++;
+		}
+
+		System.out.println("table (blue) won " + blueWins + ", prediction (red) won " + redWins
+				+ " of " + games + " games, " + (ticks / Math.max(1, games)) + " ticks per game");
+
+		// Time a decision of each kind on the same ball states
+		Ball ball = new Ball(W, new Random(1));
+		Paddle cpu = new Paddle(BLUE_TOP, W / 2);
+		int n = 2000000;
+		long sum = 0;
+		for(int pass = 0; pass < 2; pass++) {
+			long t0 = System.nanoTime();
+			for(int i = 0; i < n; i++) {
+				ball.setPosition(i % W, (i * 7) % H);
+				sum += policy.target(ball, cpu, false, W, H);
+			}
+			long t1 = System.nanoTime();
+			for(int i = 0; i < n; i++) {
+				ball.setPosition(i % W, (i * 7) % H);
+				sum += ball.predictX(cpu.centerY(), RED_BOTTOM) + new Random(ball.aiSeed(cpu.centerY(), i)).nextInt(50);
+			}
+			long t2 = System.nanoTime();
+			if(pass == 1) {
+				System.out.println("table decision " + ((t1 - t0) / n) + "ns, prediction decision "
+						+ ((t2 - t1) / n) + "ns (" + (sum & 1) + ")");
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.oep.pong.tools;
+
+import java.io.IOException;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+import org.oep.pong.RasterRenderer;
+import org.oep.pong.Renderer;
+
+/**
+ * Times how long PongScene takes to draw each of the SceneFrames, into the
+ * RasterRenderer at the frame's own screen size and at 1080x1920, and into a
+ * renderer that only counts calls, which is the cost of the scene itself.
+ *
+ * Run from the top of the project, since it reads res/values/strings.xml.
+ *
+ * Usage: RenderBench [frames]
+ * @author OEP
+ *
+ */
+public class RenderBench {
+	public static void main(String[] args) throws IOException {
+		int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+		PongScene scene = SceneFrames.scene();
+
+		System.out.println(String.format("%-10s %8s %12s %12s %12s", "frame", "calls", "scene us", "own us", "1080p us"));
+		for(int i = 0; i < SceneFrames.NAMES.length; i++) {
+			PongGame game = SceneFrames.game(i);
+			boolean paused = SceneFrames.paused(i);
+			int w = SceneFrames.screenWidth(i), h = SceneFrames.screenHeight(i);
+
+			Counter counter = new Counter();
+			RasterRenderer own = new RasterRenderer(w, h, PongScene.TEXT_SIZE);
+			RasterRenderer big = new RasterRenderer(1080, 1920, PongScene.TEXT_SIZE);
+
+			scene.fit(w, h, game.getWidth(), game.getHeight());
+			double sceneUs = best(scene, counter, game, paused, frames);
+			int calls = counter.calls / (PASSES * frames);
+			double ownUs = best(scene, own, game, paused, frames);
+
+			scene.fit(big.getWidth(), big.getHeight(), game.getWidth(), game.getHeight());
+			double bigUs = best(scene, big, game, paused, frames);
+
+			System.out.println(String.format("%-10s %8d %12.1f %12.1f %12.1f", SceneFrames.NAMES[i], calls, sceneUs, ownUs, bigUs));
+		}
+	}
+
+	/**
+	 * @return the fewest microseconds per frame over several passes, after one
+	 * to warm up
+	 */
+	private static double best(PongScene scene, Renderer r, PongGame game, boolean paused, int frames) {
+		for(int f = 0; f < frames; f++) scene.draw(r, game, paused);
+		if(r instanceof Counter) ((Counter) r).calls = 0;
+
+		long best = Long.MAX_VALUE;
+		for(int p = 0; p < PASSES; p++) {
+			long start = System.nanoTime();
+			for(int f = 0; f < frames; f++) scene.draw(r, game, paused);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1000.0 / frames;
+	}
+
+	private static final int PASSES = 5;
+
+	/**
+	 * Draws nothing and counts the calls. Text is measured as the raster
+	 * font would, so the layout is the same.
+	 */
+	private static class Counter implements Renderer {
+		int calls;
+
+		public void clear(int color) { calls++; }
+		public void rect(float left, float top, float right, float bottom, int color, boolean fill) { calls++; }
+		public void circle(float cx, float cy, float radius, int color, boolean fill) { calls++; }
+		public void line(float x0, float y0, float x1, float y1, int color) { calls++; }
+		public void text(String s, float x, float y, int color) { calls++; }
+		public float textWidth(String s) { return s.length() * 0.7f * PongScene.TEXT_SIZE; }
+		public float textAscent() { return 0.7f * PongScene.TEXT_SIZE; }
+		public float lineSpacing() { return PongScene.TEXT_SIZE; }
+		public void pushLayer(float scale, float dx, float dy, float clipWidth, float clipHeight) { calls++; }
+		public void popLayer() { calls++; }
+	}
+}
@@ -0,0 +1,129 @@
+package org.oep.pong.tools;
+
+import java.util.Arrays;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.PongGame;
+import org.oep.pong.ReplayBuffer;
+
+/**
+ * Plays zero-player matches with power-ups on, recording every tick into a
+ * {@link ReplayBuffer} and replaying each lost point the way the view does.
+ * Fails unless every replay shows the ticks that were recorded, in order,
+ * ending on the miss, and leaves the live game exactly as it was. Then
+ * reports what recording costs a tick in time and allocation beside the
+ * step itself, and what the buffer takes up.
+ *
+ * Usage: ReplayBench [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class ReplayBench {
+	public static void main(String[] args) {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		check(false, ticks, seed);
+		check(true, ticks, seed);
+
+		run(true, ticks / 10, seed, false);
+		run(true, ticks / 10, seed, true);
+		long without = Long.MAX_VALUE, with = Long.MAX_VALUE;
+		for(int p = 0; p < PASSES; p++) {
+			without = Math.min(without, run(true, ticks, seed, false));
+			with = Math.min(with, run(true, ticks, seed, true));
+		}
+
+		ReplayBuffer replay = new ReplayBuffer(CAPACITY);
+		PongGame game = game(true, seed);
+		long allocated = EventBench.allocatedBytes();
+		for(int t = 0; t < ticks; t++) replay.record(game);
+		allocated = (allocated < 0) ? -1 : EventBench.allocatedBytes() - allocated;
+
+		System.out.println(String.format("%d ticks in %d bytes, %d ns a step, %d ns with recording, %s bytes allocated recording %d ticks",
+				CAPACITY, replay.bytes(), without / ticks, with / ticks, (allocated < 0) ? "unknown" : String.valueOf(allocated), ticks));
+	}
+
+	/**
+	 * Replays each lost point as it happens and checks what it shows.
+	 */
+	private static void check(boolean fixed, int ticks, long seed) {
+		final boolean[] lost = new boolean[1];
+		GameEvents.Consumer misses = new GameEvents.Consumer() {
+			public void onEvent(GameEvents events, long seq) {
+				if(events.kind(seq) == GameEvents.KIND_MISS) lost[0] = true;
+			}
+		};
+		PongGame game = null;
+
+		ReplayBuffer replay = new ReplayBuffer(CAPACITY);
+		int[] before = new int[PongGame.STATE_SIZE], after = new int[PongGame.STATE_SIZE];
+		int replays = 0, frames = 0, slow = 0;
+		for(int t = 0; t < ticks; t++) {
+			// A new game each match, since newGame() goes back to one life
+			if(game == null || !game.running()) {
+				game = game(fixed, seed + t);
+				game.getEvents().addConsumer(misses);
+				replay.clear();
+			}
+			game.step();
+			replay.record(game);
+			if(!lost[0]) continue;
+			lost[0] = false;
+
+			game.saveState(before);
+			int missTick = game.getTick() - 1;
+			int first = missTick - replay.size() + 1, last = first - 1;
+			expect(fixed, "play", replay.play());
+			do {
+				frames++;
+				if(replay.slow()) slow++;
+				int tick = replay.tick();
+				expect(fixed, "order", tick >= last && tick <= last + 1 && tick >= first);
+				last = tick;
+			} while(replay.advance());
+			expect(fixed, "end on the miss", last == missTick);
+			replay.clear();
+			replays++;
+
+			game.saveState(after);
+			expect(fixed, "live game untouched", Arrays.equals(before, after));
+		}
+
+		System.out.println(String.format("%s: %d replays, %.1f frames each, %.0f%% in slow motion",
+				(fixed) ? "fixed" : "float", replays, (double) frames / Math.max(1, replays), 100.0 * slow / Math.max(1, frames)));
+	}
+
+	private static void expect(boolean fixed, String what, boolean ok) {
+		if(!ok) throw new IllegalStateException(((fixed) ? "fixed" : "float") + ": " + what);
+	}
+
+	/**
+	 * @return nanoseconds to play <code>ticks</code> steps, recording each
+	 * one or not
+	 */
+	private static long run(boolean fixed, int ticks, long seed, boolean record) {
+		PongGame game = game(fixed, seed);
+		ReplayBuffer replay = new ReplayBuffer(CAPACITY);
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) {
+			if(!game.running()) game.newGame();
+			game.step();
+			if(record) replay.record(game);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static PongGame game(boolean fixed, long seed) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, fixed, seed);
+		game.setLivesModifier(2);
+		game.initializePaddles(false, false);
+		game.setPowerups(true);
+		return game;
+	}
+
+	/** Ticks kept, as PongView keeps */
+	private static final int CAPACITY = 4 * PongGame.FPS;
+
+	private static final int PASSES = 3;
+}
@@ -0,0 +1,150 @@
+package org.oep.pong.tools;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.net.LinkConditioner;
+import org.oep.pong.net.RollbackPeer;
+import org.oep.pong.net.RollbackSession;
+
+/**
+ * First measures what a worst-case rollback costs: restoring a snapshot and
+ * simulating MAX_ROLLBACK ticks again. Then plays a rollback game between two
+ * peers on this machine over loopback with artificial latency and loss, and
+ * checks that both ends agree on every tick they both consider final.
+ *
+ * Usage: RollbackBench [frames] [latency ms] [jitter ms] [loss 0-1] [delay] [tick ms]
+ * @author OEP
+ *
+ */
+public class RollbackBench {
+	public static void main(String[] args) throws Exception {
+		int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 900;
+		int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 60;
+		int jitter = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		float loss = (args.length > 3) ? Float.parseFloat(args[3]) : 0.05f;
+		int delay = (args.length > 4) ? Integer.parseInt(args[4]) : 2;
+		int period = (args.length > 5) ? Integer.parseInt(args[5]) : 1000 / PongGame.FPS;
+
+		resimulate(200000);
+		resimulate(200000);
+		loopback(frames, latency, jitter, loss, delay, period);
+	}
+
+	/**
+	 * Times restoring a snapshot followed by a full-length catch-up.
+	 */
+	private static void resimulate(int rollbacks) {
+		PongGame game = new PongGame(480, 800, true, 1);
+		game.setLivesModifier(9);
+		game.initializePaddles(true, true);
+		for(int t = 0; t < 300; t++) {
+			follow(game);
+			game.step();
+		}
+
+		int[] base = new int[PongGame.STATE_SIZE];
+		int[][] ring = new int[RollbackSession.MAX_ROLLBACK][PongGame.STATE_SIZE];
+		game.saveState(base);
+
+		long start = System.nanoTime();
+		long sum = 0;
+		for(int r = 0; r < rollbacks; r++) {
+			game.loadState(base);
+			for(int t = 0; t < RollbackSession.MAX_ROLLBACK; t++) {
+				game.saveState(ring[t]);
+				follow(game);
+				game.step();
+			}
+			sum += game.checksum();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		double micros = elapsed / 1000.0 / rollbacks;
+		System.out.println("rollback of " + RollbackSession.MAX_ROLLBACK + " ticks: "
+				+ String.format("%.2f", micros) + "us, " + String.format("%.3f", micros / (10 * (1000 / PongGame.FPS)))
+				+ "% of a frame (" + Long.toHexString(sum) + ")");
+	}
+
+	private static void loopback(int frames, int latency, int jitter, float loss, int delay, int period) throws Exception {
+		RollbackPeer host = new RollbackPeer(0, new LinkConditioner(latency, jitter, loss, 3),
+				7, 480, 800, delay, 0, 9);
+		RollbackPeer joiner = new RollbackPeer(new InetSocketAddress("127.0.0.1", host.getLocalPort()),
+				new LinkConditioner(latency, jitter, loss, 4));
+
+		long[] hostSums = new long[frames + 1], joinSums = new long[frames + 1];
+		boolean[] hostSeen = new boolean[frames + 1], joinSeen = new boolean[frames + 1];
+		long start = System.currentTimeMillis();
+
+		for(int f = 0; f < frames; f++) {
+			long next = start + (long) f * period;
+			while(System.currentTimeMillis() < next) Thread.sleep(1);
+
+			host.poll();
+			joiner.poll();
+			steer(host, false);
+			steer(joiner, true);
+			host.tick();
+			joiner.tick();
+			record(host.getSession(), hostSums, hostSeen);
+			record(joiner.getSession(), joinSums, joinSeen);
+		}
+
+		int compared = 0, mismatched = 0;
+		for(int t = 0; t <= frames; t++) {
+			if(hostSeen[t] && joinSeen[t]) {
+				compared++;
+				if(hostSums[t] != joinSums[t]) mismatched++;
+			}
+		}
+
+		float seconds = (System.currentTimeMillis() - start) / 1000f;
+		System.out.println("frames " + frames + " in " + seconds + "s, latency " + latency
+				+ "ms +" + jitter + "ms, loss " + loss + ", input delay " + delay);
+		report("host", host);
+		report("join", joiner);
+		System.out.println("compared " + compared + " final ticks, " + mismatched + " desynced");
+
+		host.close();
+		joiner.close();
+	}
+
+	/**
+	 * Each end chases the ball it currently sees, with a small offset so the
+	 * shots are not all straight.
+	 */
+	private static void steer(RollbackPeer peer, boolean red) {
+		RollbackSession s = peer.getSession();
+		if(s == null) return;
+		PongGame game = s.getGame();
+		s.setLocalInput(game.getBall().intX() + ((red) ? 7 : -11));
+	}
+
+	private static void follow(PongGame game) {
+		game.getRed().destination = game.getBall().intX() + 7;
+		game.getBlue().destination = game.getBall().intX() - 11;
+	}
+
+	private static void record(RollbackSession s, long[] sums, boolean[] seen) {
+		if(s == null) return;
+		int t = s.getSyncTick();
+		if(t >= 0 && t < sums.length) {
+			sums[t] = s.getSyncChecksum();
+			seen[t] = true;
+		}
+	}
+
+	private static void report(String label, RollbackPeer peer) {
+		RollbackSession s = peer.getSession();
+		if(s == null) {
+			System.out.println(label + ": never connected");
+			return;
+		}
+		System.out.println(label + ": frame " + s.getFrame() + ", " + s.getRollbacks() + " rollbacks, "
+				+ s.getResimulated() + " ticks resimulated (max " + s.getMaxResimulated() + "), "
+				+ s.getStalls() + " stalls, " + peer.getPacketsSent() + " datagrams of "
+				+ (peer.getBytesSent() / Math.max(1, peer.getPacketsSent())) + " bytes, "
+				+ Arrays.toString(new int[] { s.getGame().getRed().getLives(), s.getGame().getBlue().getLives() }) + " lives");
+	}
+}
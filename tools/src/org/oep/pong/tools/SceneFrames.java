@@ -0,0 +1,91 @@
+package org.oep.pong.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+
+/**
+ * The frames GoldenFrames checks and RenderBench times. Each is a fixed-point
+ * match played from a fixed seed to a known moment, drawn on a screen of a
+ * given size, so it comes out the same on every machine.
+ * @author OEP
+ *
+ */
+public class SceneFrames {
+	public static final String[] NAMES = { "serve", "rally", "paused", "gameover" };
+
+	/** Screen sizes, including ones that need a letterbox */
+	private static final int[][] SCREENS = { { 480, 800 }, { 720, 1280 }, { 800, 480 }, { 600, 800 } };
+
+	/**
+	 * @param i, index into NAMES
+	 */
+	public static int screenWidth(int i) {
+		return SCREENS[i][0];
+	}
+
+	public static int screenHeight(int i) {
+		return SCREENS[i][1];
+	}
+
+	/** True if frame <code>i</code> is drawn paused */
+	public static boolean paused(int i) {
+		return NAMES[i].equals("paused");
+	}
+
+	/**
+	 * Plays the match for frame <code>i</code> up to the moment it shows.
+	 */
+	public static PongGame game(int i) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, 7);
+		String name = NAMES[i];
+
+		if(name.equals("serve")) {
+			// The join and pause hints blink with the ball, so stop on a visible tick
+			game.initializePaddles(false, true);
+			while(!game.getBall().visible() || !game.getBall().serving()) game.step();
+		}
+		else if(name.equals("rally") || name.equals("paused")) {
+			// The app's default lives, stopped with the ball on its way to red
+			game.setLivesModifier(2);
+			game.initializePaddles(true, true);
+			game.getRed().destination = PongGame.WORLD_WIDTH / 3;
+			game.getBlue().destination = 2 * PongGame.WORLD_WIDTH / 3;
+			for(int t = 0; t < 80; t++) game.step();
+		}
+		else {
+			game.setLivesModifier(0);
+			game.initializePaddles(false, false);
+			while(game.running()) game.step();
+		}
+		return game;
+	}
+
+	/**
+	 * Reads the scene's labels out of the app's English strings, and makes
+	 * numbers format the same way whatever this machine's locale is.
+	 */
+	public static PongScene scene() throws IOException {
+		Locale.setDefault(Locale.US);
+		String xml = new String(Files.readAllBytes(new File(STRINGS).toPath()), Charset.forName("UTF-8"));
+
+		String[] names = { "join_in", "pause", "paused", "red_wins", "blue_wins", "stats_rally",
+				"stats_hits", "stats_speed", "stats_serve", "stats_walls", "stats_aim", "replay" };
+		String[] labels = new String[PongScene.LABELS];
+		for(int i = 0; i < names.length; i++) {
+			Matcher m = Pattern.compile("<string name=\"" + names[i] + "\">(.*?)</string>").matcher(xml);
+			if(!m.find()) throw new IOException("No string " + names[i] + " in " + STRINGS);
+			labels[i] = m.group(1).replace("\\'", "'");
+		}
+		return new PongScene(labels);
+	}
+
+	private static final String STRINGS = "res/values/strings.xml";
+}
@@ -0,0 +1,91 @@
+package org.oep.pong.tools;
+
+import java.util.Arrays;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.GameSnapshot;
+import org.oep.pong.MatchStats;
+import org.oep.pong.PongGame;
+
+/**
+ * Times writing and reading a {@link GameSnapshot} and checks that a restored
+ * match carries on exactly like the original, for both physics modes. The
+ * match stats must come back too, and still agree once both have played on.
+ *
+ * Usage: SnapshotBench [iterations]
+ * @author OEP
+ *
+ */
+public class SnapshotBench {
+	public static void main(String[] args) {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+
+		for(int pass = 0; pass < 2; pass++) {
+			check(false, iterations);
+			check(true, iterations);
+		}
+	}
+
+	private static void check(boolean fixed, int iterations) {
+		PongGame game = new PongGame(480, 800, fixed, 11);
+		game.setLivesModifier(9);
+		game.setBallSpeedModifier(3);
+		game.initializePaddles(false, true);
+		for(int t = 0; t < 1000; t++) {
+			game.getBlue().destination = game.getBall().intX();
+			game.step();
+		}
+
+		long start = System.nanoTime();
+		byte[] data = null;
+		for(int i = 0; i < iterations; i++) {
+			data = GameSnapshot.write(game, 0);
+		}
+		long written = System.nanoTime();
+		PongGame copy = null;
+		for(int i = 0; i < iterations; i++) {
+			copy = GameSnapshot.read(data);
+		}
+		long read = System.nanoTime();
+		if(game.getStats().getRallies() == 0) throw new IllegalStateException("No rallies to save");
+		String stats = sameStats(game.getStats(), copy.getStats());
+
+		// Both should now play out the same, tick for tick
+		int diverged = -1;
+		for(int t = 0; t < 5000 && diverged < 0; t++) {
+			game.getBlue().destination = game.getBall().intX();
+			copy.getBlue().destination = copy.getBall().intX();
+			game.step();
+			copy.step();
+			if(game.checksum() != copy.checksum()) diverged = t;
+		}
+		if(stats == null) stats = sameStats(game.getStats(), copy.getStats());
+
+		System.out.println(((fixed) ? "fixed" : "float") + ": " + data.length + " bytes, write "
+				+ String.format("%.2f", (written - start) / 1000.0 / iterations) + "us, read "
+				+ String.format("%.2f", (read - written) / 1000.0 / iterations) + "us, "
+				+ ((diverged < 0) ? "identical for 5000 ticks" : "diverged after " + diverged + " ticks")
+				+ ", " + game.getStats().getRallies() + " rallies of stats "
+				+ ((stats == null) ? "kept" : "lost: " + stats));
+		if(stats != null) throw new IllegalStateException("Stats differ after a restore: " + stats);
+	}
+
+	/**
+	 * @return the first thing that differs, or null if nothing does
+	 */
+	private static String sameStats(MatchStats a, MatchStats b) {
+		int[] actors = { GameEvents.ACTOR_RED, GameEvents.ACTOR_BLUE };
+		for(int actor : actors) {
+			if(a.getHits(actor) != b.getHits(actor)) return "hits";
+			if(a.getAimError(actor) != b.getAimError(actor) || a.getWorstAim(actor) != b.getWorstAim(actor)) return "aim error";
+		}
+		if(a.getRallies() != b.getRallies() || a.getLongestRally() != b.getLongestRally()) return "rallies";
+		if(a.getPlayedTicks() != b.getPlayedTicks() || a.getLongestSeconds() != b.getLongestSeconds()) return "rally time";
+		if(a.getWallBounces() != b.getWallBounces() || a.getMostWalls() != b.getMostWalls()) return "walls";
+		if(a.getTopSpeed() != b.getTopSpeed()) return "top speed";
+		if(!Arrays.equals(a.getRallyHistogram(), b.getRallyHistogram())
+				|| !Arrays.equals(a.getSecondsHistogram(), b.getSecondsHistogram())
+				|| !Arrays.equals(a.getWallHistogram(), b.getWallHistogram())) return "histograms";
+		return null;
+	}
+}
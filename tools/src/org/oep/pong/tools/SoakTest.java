@@ -0,0 +1,491 @@
+package org.oep.pong.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.oep.pong.AiPolicy;
+import org.oep.pong.Ball;
+import org.oep.pong.GameEvents;
+import org.oep.pong.GameSnapshot;
+import org.oep.pong.Paddle;
+import org.oep.pong.PongGame;
+
+/**
+ * Runs headless AI-vs-AI matches on every core, each job with its own seed
+ * and a random arena size, physics mode and set of preferences, and checks
+ * the physics after every single step:
+ * <ul>
+ * <li>the ball is inside the arena, with finite position and velocity</li>
+ * <li>it did not pass through a paddle without bouncing</li>
+ * <li>its speed is between the serve speed and what the hits account for,
+ * and no more than Ball.MAX_SPEED</li>
+ * <li>it is not too close to horizontal, and not stuck without reaching a paddle</li>
+ * </ul>
+ *
+ * A violation is written out as a reproducer: the settings and a snapshot
+ * of the game one step before it, so replaying it is a single step. The
+ * harness replays each one right away and notes whether it reproduces.
+ *
+ * Usage: SoakTest [ticks] [threads] [first seed] [output directory]
+ * <br>or: SoakTest --replay [reproducer file]
+ * @author OEP
+ *
+ */
+public class SoakTest {
+	private static final int[][] ARENAS = {
+		{ 240, 320 }, { 320, 480 }, { 480, 800 }, { 480, 854 }, { 720, 1280 }, { 1080, 1920 }, { 800, 480 },
+	};
+
+	/** Ticks per job, after which a worker takes the next seed */
+	private static final int JOB_TICKS = 2000000;
+
+	/** Workers add to the tick count every REPORT_MASK + 1 ticks */
+	private static final int REPORT_MASK = 65535;
+
+	/** Ticks a rally may go without a paddle touching the ball */
+	private static final int STUCK_TICKS = 3000;
+
+	/** Reproducers written per kind of violation */
+	private static final int MAX_PER_KIND = 5;
+
+	private static AiPolicy sPolicy;
+
+	private final long mTicks;
+	private final long mFirstSeed;
+	private final File mDirectory;
+
+	/** Ticks handed out to jobs, and ticks actually played */
+	private final AtomicLong mClaimed = new AtomicLong(), mDone = new AtomicLong();
+	private final AtomicLong mNextSeed;
+	private final AtomicInteger mViolations = new AtomicInteger();
+	private final AtomicInteger[] mKinds = new AtomicInteger[Check.KINDS.length];
+
+	public static void main(String[] args) throws Exception {
+		sPolicy = loadPolicy();
+		if(args.length > 1 && args[0].equals("--replay")) {
+			replay(new File(args[1]));
+			return;
+		}
+
+		long ticks = (args.length > 0) ? Long.parseLong(args[0]) : 1000000000L;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.currentTimeMillis();
+		File dir = new File((args.length > 3) ? args[3] : "soak");
+
+		new SoakTest(ticks, seed, dir).run(threads);
+	}
+
+	private SoakTest(long ticks, long seed, File dir) {
+		mTicks = ticks;
+		mFirstSeed = seed;
+		mNextSeed = new AtomicLong(seed);
+		mDirectory = dir;
+		for(int i = 0; i < mKinds.length; i++) mKinds[i] = new AtomicInteger();
+	}
+
+	private void run(int threads) throws InterruptedException {
+		System.out.println("soaking " + mTicks + " ticks on " + threads + " threads from seed " + mFirstSeed);
+
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "soak-" + i);
+			workers[i].start();
+		}
+
+		// Progress every ten seconds until the last worker is done, then once more
+		long start = System.currentTimeMillis();
+		for(Thread w : workers) {
+			while(w.isAlive()) {
+				w.join(10000);
+				if(w.isAlive()) report(start);
+			}
+		}
+		report(start);
+
+		for(int i = 0; i < mKinds.length; i++) {
+			if(mKinds[i].get() > 0) System.out.println("  " + Check.KINDS[i] + ": " + mKinds[i].get());
+		}
+	}
+
+	private void report(long start) {
+		long done = mDone.get();
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println(done + " ticks, " + (done * 1000 / elapsed) + " ticks/s, "
+				+ (mNextSeed.get() - mFirstSeed) + " seeds, " + mViolations.get() + " violations");
+	}
+
+	/**
+	 * Takes jobs until enough ticks have been claimed.
+	 */
+	private void work() {
+		while(mClaimed.addAndGet(JOB_TICKS) - JOB_TICKS < mTicks) {
+			soak(mNextSeed.getAndIncrement());
+		}
+	}
+
+	/**
+	 * Plays matches back to back with one seed's settings until the job is
+	 * done or something breaks.
+	 */
+	private void soak(long seed) {
+		Settings settings = new Settings(seed);
+		PongGame game = settings.create();
+		Check check = new Check(game);
+		int[] before = new int[PongGame.STATE_SIZE];
+
+		for(int t = 0; t < JOB_TICKS; t++) {
+			if(!game.running()) {
+				game.newGame();
+				check.reset();
+			}
+
+			game.saveState(before);
+			int kind = check.step();
+			if(kind >= 0) {
+				mViolations.incrementAndGet();
+				if(mKinds[kind].incrementAndGet() <= MAX_PER_KIND) {
+					writeReproducer(settings, before, kind, check.getDetail());
+				}
+				mDone.addAndGet((t & REPORT_MASK) + 1);
+				return;
+			}
+			if((t & REPORT_MASK) == REPORT_MASK) mDone.addAndGet(REPORT_MASK + 1);
+		}
+		mDone.addAndGet(JOB_TICKS & REPORT_MASK);
+	}
+
+	private void writeReproducer(Settings settings, int[] before, int kind, String detail) {
+		PongGame game = settings.create();
+		game.loadState(before);
+		byte[] snapshot = GameSnapshot.write(game, 0);
+
+		// See whether one step from the snapshot really fails the same way
+		PongGame copy = settings.restore(snapshot);
+		Check check = new Check(copy);
+		check.resume();
+		boolean reproduces = check.step() == kind;
+
+		Properties p = settings.toProperties();
+		p.setProperty("invariant", Check.KINDS[kind]);
+		p.setProperty("detail", detail);
+		p.setProperty("tick", Integer.toString(before[0]));
+		p.setProperty("reproduces", Boolean.toString(reproduces));
+		p.setProperty("snapshot", hex(snapshot));
+
+		mDirectory.mkdirs();
+		File f = new File(mDirectory, "seed-" + settings.seed + ".properties");
+		try {
+			FileWriter w = new FileWriter(f);
+			p.store(w, "SoakTest reproducer, replay with: SoakTest --replay " + f.getName());
+			w.close();
+			System.out.println(Check.KINDS[kind] + " with seed " + settings.seed + " at tick " + before[0]
+					+ ": " + detail + " -> " + f + ((reproduces) ? "" : " (does not reproduce from the snapshot)"));
+		}
+		catch(IOException e) {
+			System.err.println("Could not write " + f + ": " + e);
+		}
+	}
+
+	/**
+	 * Loads a reproducer, takes its one step and reports what the checks say.
+	 */
+	private static void replay(File f) throws IOException {
+		Properties p = new Properties();
+		FileInputStream in = new FileInputStream(f);
+		p.load(in);
+		in.close();
+
+		Settings settings = new Settings(p);
+		PongGame game = settings.restore(unhex(p.getProperty("snapshot")));
+		if(game == null) {
+			System.out.println("The snapshot is from another version of the game");
+			return;
+		}
+
+		Check check = new Check(game);
+		check.resume();
+		Ball b = game.getBall();
+		System.out.println("tick " + game.getTick() + ": ball at " + b.x + "," + b.y + " moving " + b.vx + ","
+				+ b.vy + " speed " + b.speed);
+		int kind = check.step();
+		System.out.println("after one step: ball at " + b.x + "," + b.y + " moving " + b.vx + "," + b.vy);
+		System.out.println((kind < 0) ? "no violation" : Check.KINDS[kind] + ": " + check.getDetail());
+	}
+
+	private static AiPolicy loadPolicy() {
+		File f = new File("assets/ai_policy.bin");
+		if(!f.exists()) return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(f, "r");
+			return AiPolicy.map(file.getChannel(), 0, file.length());
+		}
+		catch(IOException e) {
+			return null;
+		}
+	}
+
+	private static String hex(byte[] data) {
+		StringBuilder s = new StringBuilder(2 * data.length);
+		for(int i = 0; i < data.length; i++) {
+			s.append(Character.forDigit((data[i] >> 4) & 15, 16)).append(Character.forDigit(data[i] & 15, 16));
+		}
+		return s.toString();
+	}
+
+	private static byte[] unhex(String s) {
+		byte[] data = new byte[s.length() / 2];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		}
+		return data;
+	}
+
+	/**
+	 * The configuration a seed picks, and the parts of it a snapshot does not keep.
+	 */
+	private static class Settings {
+		final long seed;
+		final int width, height, speed, lives, strategy, handicap, think, reaction;
+		final boolean fixed;
+
+		Settings(long seed) {
+			Random r = new Random(seed);
+			int[] arena = ARENAS[r.nextInt(ARENAS.length)];
+			this.seed = seed;
+			width = arena[0];
+			height = arena[1];
+			fixed = r.nextBoolean();
+			speed = r.nextInt(11);
+			lives = r.nextInt(6);
+			strategy = r.nextInt((sPolicy != null) ? 4 : 3);
+			handicap = r.nextInt(10);
+			think = (r.nextInt(4) == 0) ? 1 + r.nextInt(8) : 1;
+			reaction = (r.nextInt(4) == 0) ? r.nextInt(PongGame.HISTORY) : 0;
+		}
+
+		Settings(Properties p) {
+			seed = Long.parseLong(p.getProperty("seed"));
+			width = Integer.parseInt(p.getProperty("width"));
+			height = Integer.parseInt(p.getProperty("height"));
+			fixed = Boolean.parseBoolean(p.getProperty("fixed"));
+			speed = Integer.parseInt(p.getProperty("speed"));
+			lives = Integer.parseInt(p.getProperty("lives"));
+			strategy = Integer.parseInt(p.getProperty("strategy"));
+			handicap = Integer.parseInt(p.getProperty("handicap"));
+			think = Integer.parseInt(p.getProperty("think"));
+			reaction = Integer.parseInt(p.getProperty("reaction"));
+		}
+
+		Properties toProperties() {
+			Properties p = new Properties();
+			p.setProperty("seed", Long.toString(seed));
+			p.setProperty("width", Integer.toString(width));
+			p.setProperty("height", Integer.toString(height));
+			p.setProperty("fixed", Boolean.toString(fixed));
+			p.setProperty("speed", Integer.toString(speed));
+			p.setProperty("lives", Integer.toString(lives));
+			p.setProperty("strategy", Integer.toString(strategy));
+			p.setProperty("handicap", Integer.toString(handicap));
+			p.setProperty("think", Integer.toString(think));
+			p.setProperty("reaction", Integer.toString(reaction));
+			return p;
+		}
+
+		PongGame create() {
+			PongGame game = new PongGame(width, height, fixed, seed);
+			game.setBallSpeedModifier(speed);
+			game.setLivesModifier(lives);
+			game.setAiStrategy(strategy);
+			game.setCpuHandicap(handicap);
+			game.initializePaddles(false, false);
+			configure(game);
+			return game;
+		}
+
+		PongGame restore(byte[] snapshot) {
+			PongGame game = GameSnapshot.read(snapshot);
+			if(game != null) configure(game);
+			return game;
+		}
+
+		private void configure(PongGame game) {
+			game.setAiPolicy(sPolicy);
+			game.setAiThinkInterval(think);
+			game.setAiReaction(reaction);
+		}
+	}
+
+	/**
+	 * Steps a game and checks the invariants. Paddle hits and serves come
+	 * from the game's events.
+	 */
+	private static class Check implements GameEvents.Consumer {
+		static final String[] KINDS = {
+			"non-finite", "outside arena", "passed paddle", "speed", "too flat", "stuck",
+		};
+		static final int NON_FINITE = 0, OUTSIDE = 1, PASSED = 2, SPEED = 3, FLAT = 4, STUCK = 5;
+
+		/** Smallest |vy| / speed that Ball.BOUND allows, with some slack */
+		private static final float MIN_STEEPNESS = (float) (0.95 * Math.sin(Ball.BOUND));
+
+		private final PongGame mGame;
+		private final Ball mBall;
+
+		/** What this step's events said */
+		private boolean mServed, mEnded, mHitRed, mHitBlue, mHitGray;
+
+		/** The rally so far */
+		private float mServeSpeed = -1;
+		private int mHits, mSinceHit;
+
+		private String mDetail;
+
+		Check(PongGame game) {
+			mGame = game;
+			mBall = game.getBall();
+			game.getEvents().addConsumer(this);
+		}
+
+		public void onEvent(GameEvents events, long seq) {
+			switch(events.kind(seq)) {
+			case GameEvents.KIND_SERVE: mServed = true; break;
+			case GameEvents.KIND_MISS:
+			case GameEvents.KIND_WIN: mEnded = true; break;
+			case GameEvents.KIND_PADDLE:
+				switch(events.actor(seq)) {
+				case GameEvents.ACTOR_RED: mHitRed = true; break;
+				case GameEvents.ACTOR_BLUE: mHitBlue = true; break;
+				case GameEvents.ACTOR_GRAY: mHitGray = true; break;
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Forgets the rally, for a new match.
+		 */
+		void reset() {
+			mServeSpeed = -1;
+		}
+
+		/**
+		 * Takes up a rally already in progress, as a restored snapshot does.
+		 */
+		void resume() {
+			mServeSpeed = 0;
+			mHits = Integer.MAX_VALUE / 2;
+			mSinceHit = 0;
+		}
+
+		String getDetail() {
+			return mDetail;
+		}
+
+		/**
+		 * @return the kind of violation, or -1 if the step was fine
+		 */
+		int step() {
+			float x = mBall.x, y = mBall.y;
+			mServed = mEnded = mHitRed = mHitBlue = mHitGray = false;
+			mGame.step();
+			Ball b = mBall;
+
+			if(mServed) {
+				mServeSpeed = b.speed;
+				mHits = 0;
+				mSinceHit = 0;
+			}
+			if(mHitRed || mHitBlue || mHitGray) {
+				mHits++;
+				mSinceHit = 0;
+			}
+			else {
+				mSinceHit++;
+			}
+
+			if(isBad(b.x) || isBad(b.y) || isBad(b.vx) || isBad(b.vy) || isBad(b.speed)) {
+				return fail(NON_FINITE, "position " + b.x + "," + b.y + " velocity " + b.vx + "," + b.vy);
+			}
+
+			// The ball leaves through the top or bottom when someone misses,
+			// but never by more than a step, and never through the sides
+			int w = mGame.getWidth(), h = mGame.getHeight();
+			float reach = b.speed + Ball.RADIUS;
+			if(b.x < Ball.RADIUS - 1 || b.x > w - Ball.RADIUS + 1 || b.y < -reach || b.y > h + reach) {
+				return fail(OUTSIDE, "at " + b.x + "," + b.y + " in " + w + "x" + h);
+			}
+
+			if(!mHitRed && crossedUp(mGame.getRed(), x, y, b)) {
+				return fail(PASSED, "through red at " + mGame.getRed().getLeft() + ".." + mGame.getRed().getRight()
+						+ " from " + x + "," + y + " to " + b.x + "," + b.y);
+			}
+			if(!mHitBlue && crossedDown(mGame.getBlue(), x, y, b)) {
+				return fail(PASSED, "through blue at " + mGame.getBlue().getLeft() + ".." + mGame.getBlue().getRight()
+						+ " from " + x + "," + y + " to " + b.x + "," + b.y);
+			}
+
+			if(mServeSpeed >= 0 && !mEnded) {
+				float v = (float) Math.sqrt(b.vx * b.vx + b.vy * b.vy);
+				if(b.speed < mServeSpeed - 0.01f || b.speed > Math.min(mServeSpeed + mHits, Ball.MAX_SPEED) + 0.01f
+						|| v > b.speed + 0.01f) {
+					return fail(SPEED, "speed " + b.speed + ", |v| " + v + ", served at " + mServeSpeed
+							+ " with " + mHits + " hits");
+				}
+				if(!b.serving() && Math.abs(b.vy) < MIN_STEEPNESS * v) {
+					return fail(FLAT, "velocity " + b.vx + "," + b.vy);
+				}
+			}
+
+			if(!b.serving() && mSinceHit > STUCK_TICKS) {
+				return fail(STUCK, mSinceHit + " ticks without a paddle, at " + b.x + "," + b.y
+						+ " moving " + b.vx + "," + b.vy);
+			}
+			return -1;
+		}
+
+		/**
+		 * True if the ball's top edge went from below red's bottom edge to
+		 * above it, over the paddle, during the step.
+		 */
+		private static boolean crossedUp(Paddle p, float x, float y, Ball b) {
+			float edge = p.getBottom();
+			float from = y - Ball.RADIUS, to = b.y - Ball.RADIUS;
+			if(!(from >= edge && to < edge)) return false;
+			return over(p, x + (b.x - x) * (from - edge) / (from - to));
+		}
+
+		private static boolean crossedDown(Paddle p, float x, float y, Ball b) {
+			float edge = p.getTop();
+			float from = y + Ball.RADIUS, to = b.y + Ball.RADIUS;
+			if(!(from <= edge && to > edge)) return false;
+			return over(p, x + (b.x - x) * (edge - from) / (to - from));
+		}
+
+		/**
+		 * Leaves a pixel either side, where the two physics modes round differently.
+		 */
+		private static boolean over(Paddle p, float xc) {
+			return xc > p.getLeft() + 1 && xc < p.getRight() - 1;
+		}
+
+		private static boolean isBad(float f) {
+			return Float.isNaN(f) || Float.isInfinite(f);
+		}
+
+		private int fail(int kind, String detail) {
+			mDetail = detail;
+			return kind;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package org.oep.pong.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.net.Broadcaster;
+import org.oep.pong.net.Spectator;
+
+/**
+ * Load generator for the spectator broadcast. Runs a headless match, streams
+ * it through a {@link Broadcaster} and opens many viewer connections on
+ * this machine. Every few viewers is a slow one that stops reading for the
+ * middle third of the run, so the broadcaster has to drop it back to
+ * keyframes while everyone else keeps up.
+ *
+ * Reports what publishing costs the game thread, as time taken and as CPU
+ * time, since a single core may switch to the selector thread right in the
+ * middle of it. The CPU time the selector thread spends encoding and sending
+ * is reported beside it.
+ *
+ * Usage: SpectatorLoad [viewers] [seconds] [tick ms] [every nth viewer is slow]
+ * @author OEP
+ *
+ */
+public class SpectatorLoad {
+	public static void main(String[] args) throws Exception {
+		int viewers = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int period = (args.length > 2) ? Integer.parseInt(args[2]) : 1000 / PongGame.FPS;
+		int slowEvery = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+
+		Broadcaster broadcaster = new Broadcaster(0, -1);
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", broadcaster.getPort());
+
+		Spectator[] spectators = new Spectator[viewers];
+		for(int i = 0; i < viewers; i++) {
+			spectators[i] = new Spectator(address);
+			if(slow(i, slowEvery)) spectators[i].setReceiveBufferSize(1024);
+		}
+
+		final PongGame game = new PongGame(480, 800, true, 1);
+		game.initializePaddles(false, false);
+		final Broadcaster b = broadcaster;
+		game.setListener(new PongGame.Listener() {
+			public void onSound(int sfx) {
+				b.onSound(sfx);
+			}
+		});
+
+		ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+		long selector = threadId("Broadcaster");
+		long selectorCpu = cpu.getThreadCpuTime(selector);
+
+		int ticks = seconds * 1000 / period;
+		long publishNanos = 0, publishCpu = 0;
+		long start = System.currentTimeMillis();
+
+		for(int t = 0; t < ticks; t++) {
+			long next = start + (long) t * period;
+			while(System.currentTimeMillis() < next) Thread.sleep(1);
+
+			if(!game.running()) game.newGame();
+			game.step();
+
+			long before = System.nanoTime(), beforeCpu = cpu.getCurrentThreadCpuTime();
+			broadcaster.publish(game);
+			publishNanos += System.nanoTime() - before;
+			publishCpu += cpu.getCurrentThreadCpuTime() - beforeCpu;
+
+			boolean stalled = t > ticks / 3 && t < 2 * ticks / 3;
+			for(int i = 0; i < viewers; i++) {
+				if(stalled && slow(i, slowEvery)) continue;
+				spectators[i].poll();
+			}
+		}
+
+		// Let everyone catch up on what is still in flight
+		Thread.sleep(200);
+		for(int i = 0; i < viewers; i++) {
+			spectators[i].poll();
+		}
+
+		selectorCpu = cpu.getThreadCpuTime(selector) - selectorCpu;
+		int connected = broadcaster.getViewers();
+		long fastFrames = 0, slowFrames = 0, slowKeys = 0;
+		int fast = 0, slowCount = 0, gaps = 0, behind = 0;
+		for(int i = 0; i < viewers; i++) {
+			Spectator s = spectators[i];
+			gaps += s.getGaps();
+			if(s.getTick() != game.getTick()) behind++;
+			if(slow(i, slowEvery)) {
+				slowCount++;
+				slowFrames += s.getFrames();
+				slowKeys += s.getKeyframes();
+			}
+			else {
+				fast++;
+				fastFrames += s.getFrames();
+			}
+			s.close();
+		}
+
+		float elapsed = (System.currentTimeMillis() - start) / 1000f;
+		System.out.println(ticks + " ticks in " + elapsed + "s to " + connected + " viewers ("
+				+ slowCount + " slow)");
+		System.out.println(String.format("publish: %.1fus per tick on the game thread, %.1fus of it CPU; selector thread %.1fus of CPU per tick",
+				publishNanos / 1000.0 / ticks, publishCpu / 1000.0 / ticks, selectorCpu / 1000.0 / ticks));
+		System.out.println((int) (broadcaster.getBytesSent() / elapsed) + " B/s out, "
+				+ broadcaster.getKeyframes() + " keyframes, " + broadcaster.getDropped() + " frames dropped");
+		System.out.println("fast viewers got " + (fastFrames / Math.max(1, fast)) + " frames each, slow viewers "
+				+ (slowFrames / Math.max(1, slowCount)) + " with " + (slowKeys / Math.max(1, slowCount))
+				+ " keyframes each");
+		System.out.println(gaps + " gaps, " + behind + " viewers not on the final tick");
+
+		broadcaster.close();
+	}
+
+	/**
+	 * @return the id of the live thread with that name
+	 */
+	private static long threadId(String name) {
+		for(Thread t : Thread.getAllStackTraces().keySet()) {
+			if(t.getName().equals(name)) return t.getId();
+		}
+		throw new IllegalStateException("No thread named " + name);
+	}
+
+	private static boolean slow(int i, int every) {
+		return every > 0 && i % every == every - 1;
+	}
+}
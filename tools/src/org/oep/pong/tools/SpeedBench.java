@@ -0,0 +1,110 @@
+package org.oep.pong.tools;
+
+import java.io.IOException;
+
+import org.oep.pong.PongGame;
+import org.oep.pong.PongScene;
+import org.oep.pong.RasterRenderer;
+import org.oep.pong.TimeScale;
+
+/**
+ * Runs a zero-player match the way PongView does at each {@link TimeScale}
+ * speed: so many ticks a displayed frame, drawing with the RasterRenderer
+ * only the frames that follow a tick. Reports the ticks and draws a second
+ * of display comes to and how much of each frame's budget they take, then
+ * runs turbo for a few seconds, drawing four frames a second.
+ *
+ * Run from the top of the project, since it reads res/values/strings.xml.
+ *
+ * Usage: SpeedBench [seconds] [seed]
+ * @author OEP
+ *
+ */
+public class SpeedBench {
+	public static void main(String[] args) throws IOException {
+		int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		PongScene scene = SceneFrames.scene();
+		RasterRenderer r = new RasterRenderer(WIDTH, HEIGHT, PongScene.TEXT_SIZE);
+		scene.fit(WIDTH, HEIGHT, PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT);
+
+		// Warm up, so the slow speeds are not timed with a cold JIT
+		scaled(TimeScale.MAX, seconds, seed, scene, r);
+
+		System.out.println(String.format("%8s %12s %12s %14s", "speed", "ticks/s", "draws/s", "frame budget"));
+		TimeScale scale = new TimeScale();
+		for(int q = TimeScale.QUARTER; q <= TimeScale.MAX; q *= 2) {
+			scale.set(q);
+			long[] result = scaled(q, seconds, seed, scene, r);
+			double budget = 100.0 * result[2] / (seconds * 1000000000L);
+			System.out.println(String.format("%8s %12.1f %12.1f %13.1f%%", scale.label("turbo"),
+					(double) result[0] / seconds, (double) result[1] / seconds, budget));
+		}
+
+		turbo(seconds / 4, seed, scene, r);
+	}
+
+	/**
+	 * Plays <code>seconds</code> of display at a speed.
+	 * @return ticks stepped, frames drawn and nanoseconds spent on both
+	 */
+	private static long[] scaled(int quarters, int seconds, long seed, PongScene scene, RasterRenderer r) {
+		TimeScale scale = new TimeScale();
+		scale.set(quarters);
+		PongGame game = game(seed);
+
+		long ticks = 0, draws = 0;
+		long start = System.nanoTime();
+		for(int frame = 0; frame < seconds * PongGame.FPS; frame++) {
+			int n = scale.ticksThisFrame();
+			for(int i = 0; i < n; i++) {
+				if(!game.running()) game = game(seed + ticks);
+				game.step();
+			}
+			ticks += n;
+			if(n > 0) {
+				scene.draw(r, game, false);
+				draws++;
+			}
+		}
+		return new long[] { ticks, draws, System.nanoTime() - start };
+	}
+
+	/**
+	 * Steps for as long as it is let, slice by slice as the view does, and
+	 * draws every TURBO_FRAME_MS.
+	 */
+	private static void turbo(int seconds, long seed, PongScene scene, RasterRenderer r) {
+		PongGame game = game(seed);
+		long ticks = 0, draws = 0, lastDraw = 0;
+		long start = System.currentTimeMillis(), end = start + 1000L * seconds;
+		for(long now = start; now < end; now = System.currentTimeMillis()) {
+			while(System.currentTimeMillis() - now < TURBO_SLICE_MS) {
+				if(!game.running()) game = game(seed + ticks);
+				game.step();
+				ticks++;
+			}
+			if(now - lastDraw >= TURBO_FRAME_MS) {
+				scene.draw(r, game, false);
+				draws++;
+				lastDraw = now;
+			}
+		}
+		System.out.println(String.format("%8s %12d %12.1f  %.0fx real time", "turbo", ticks / seconds, (double) draws / seconds,
+				(double) ticks / seconds / PongGame.FPS));
+	}
+
+	private static PongGame game(long seed) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, true, seed);
+		game.setLivesModifier(2);
+		game.initializePaddles(false, false);
+		return game;
+	}
+
+	/** A phone-sized screen */
+	private static final int WIDTH = 480, HEIGHT = 800;
+
+	/** As PongView steps and draws in turbo */
+	private static final int TURBO_SLICE_MS = 1000 / PongGame.FPS - 5, TURBO_FRAME_MS = 250;
+}
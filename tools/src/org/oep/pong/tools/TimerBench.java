@@ -0,0 +1,212 @@
+package org.oep.pong.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.oep.pong.GameEvents;
+import org.oep.pong.PongGame;
+import org.oep.pong.TimerWheel;
+
+/**
+ * Checks the {@link TimerWheel} against the due ticks it was given, times
+ * it with thousands of timers pending beside counting each one down every
+ * tick, which is what a counter per object comes to, and plays matches with
+ * power-ups on to see that saving and loading partway through changes
+ * nothing.
+ *
+ * Usage: TimerBench [ticks] [seed]
+ * @author OEP
+ *
+ */
+public class TimerBench {
+	public static void main(String[] args) {
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		check(seed);
+
+		System.out.println(String.format("%8s %12s %12s %12s %14s", "timers", "fired/tick", "wheel ns", "countdown ns", "bytes/tick"));
+		for(int n = 100; n <= 100000; n *= 10) {
+			wheel(n, ticks / 10, seed);
+			countdown(n, ticks / 10, seed);
+			long[] result = wheel(n, ticks, seed);
+			long counted = countdown(n, ticks, seed);
+			System.out.println(String.format("%8d %12.1f %12d %12d %14s", n, (double) result[1] / ticks,
+					result[0] / ticks, counted / ticks, (result[2] < 0) ? "unknown" : String.format("%.3f", (double) result[2] / ticks)));
+		}
+
+		games(false, ticks * 10, seed);
+		games(true, ticks * 10, seed);
+	}
+
+	/**
+	 * Schedules and cancels timers at random, some further off than the far
+	 * wheel reaches, and fails unless each goes off once, on its due tick,
+	 * and none that were cancelled do.
+	 */
+	private static void check(long seed) {
+		final Random r = new Random(seed);
+		final TimerWheel wheel = new TimerWheel(16);
+		final int[] due = new int[CHECKED];
+		final boolean[] fired = new boolean[CHECKED];
+		final int[] handles = new int[CHECKED];
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+
+		TimerWheel.Handler handler = new TimerWheel.Handler() {
+			public void onTimer(int kind, int arg) {
+				if(fired[kind] || due[kind] != wheel.now()) {
+					throw new IllegalStateException("Timer " + kind + " due on " + due[kind] + " went off on " + wheel.now());
+				}
+				fired[kind] = true;
+			}
+		};
+
+		int made = 0, cancelled = 0;
+		while(made < CHECKED || wheel.size() > 0) {
+			for(int k = r.nextInt(8); k > 0 && made < CHECKED; k--) {
+				int span = (r.nextInt(4) == 0) ? 100000 : (r.nextBoolean()) ? 2000 : 300;
+				int delay = 1 + r.nextInt(span);
+				due[made] = wheel.now() + delay;
+				handles[made] = wheel.schedule(delay, made, 0);
+				pending.add(made++);
+			}
+			if(!pending.isEmpty() && r.nextInt(3) == 0) {
+				int id = pending.remove(r.nextInt(pending.size()));
+				if(wheel.cancel(handles[id])) {
+					fired[id] = true;
+					cancelled++;
+				}
+				if(wheel.cancel(handles[id])) throw new IllegalStateException("Timer " + id + " cancelled twice");
+			}
+			wheel.advance(handler);
+		}
+
+		for(int i = 0; i < CHECKED; i++) {
+			if(!fired[i]) throw new IllegalStateException("Timer " + i + " never went off");
+		}
+		System.out.println("wheel agrees over " + CHECKED + " timers, " + cancelled + " cancelled, to tick " + wheel.now()
+				+ ", capacity " + wheel.capacity());
+	}
+
+	/**
+	 * Keeps <code>n</code> timers pending, each rescheduled as it goes off.
+	 * @return nanoseconds, timers fired and bytes allocated over the run
+	 */
+	private static long[] wheel(int n, int ticks, long seed) {
+		final Random r = new Random(seed);
+		final TimerWheel wheel = new TimerWheel(n);
+		final long[] fired = new long[1];
+		for(int i = 0; i < n; i++) wheel.schedule(1 + r.nextInt(SPAN), i, 0);
+
+		TimerWheel.Handler handler = new TimerWheel.Handler() {
+			int mRandom = 1;
+
+			public void onTimer(int kind, int arg) {
+				mRandom = mRandom * 1103515245 + 12345;
+				wheel.schedule(1 + ((mRandom >>> 8) % SPAN), kind, arg);
+				fired[0]++;
+			}
+		};
+
+		long allocated = EventBench.allocatedBytes();
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) wheel.advance(handler);
+		long elapsed = System.nanoTime() - start;
+		allocated = (allocated < 0) ? -1 : EventBench.allocatedBytes() - allocated;
+		return new long[] { elapsed, fired[0], allocated };
+	}
+
+	/**
+	 * The same load as counters that are each taken down by one every tick.
+	 * @return nanoseconds over the run
+	 */
+	private static long countdown(int n, int ticks, long seed) {
+		Random r = new Random(seed);
+		int[] left = new int[n];
+		for(int i = 0; i < n; i++) left[i] = 1 + r.nextInt(SPAN);
+
+		int random = 1;
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) {
+			for(int i = 0; i < n; i++) {
+				if(--left[i] == 0) {
+					random = random * 1103515245 + 12345;
+					left[i] = 1 + ((random >>> 8) % SPAN);
+				}
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Plays zero-player matches with power-ups on, one straight through and
+	 * one saved and loaded into a new game every so often, and fails if
+	 * their states ever differ. Then times matches with and without them,
+	 * taking the best of a few runs.
+	 */
+	private static void games(boolean fixed, int ticks, long seed) {
+		PongGame straight = game(fixed, seed, true);
+		PongGame hopping = game(fixed, seed, true);
+		final int[] powerups = new int[1];
+		straight.getEvents().addConsumer(new GameEvents.Consumer() {
+			public void onEvent(GameEvents events, long seq) {
+				if(events.kind(seq) == GameEvents.KIND_POWERUP) powerups[0]++;
+			}
+		});
+
+		int[] a = new int[PongGame.STATE_SIZE], b = new int[PongGame.STATE_SIZE];
+		int multiball = 0;
+		for(int t = 0; t < ticks; t++) {
+			step(straight);
+			step(hopping);
+			if(straight.getExtraCount() > 0) multiball++;
+
+			if(t % HOP == 0) {
+				hopping.saveState(b);
+				hopping = game(fixed, seed, true);
+				hopping.loadState(b);
+			}
+			straight.saveState(a);
+			hopping.saveState(b);
+			if(!Arrays.equals(a, b)) {
+				throw new IllegalStateException(((fixed) ? "fixed" : "float") + ": loaded game differs on tick " + straight.getTick());
+			}
+		}
+
+		long with = 0, without = 0;
+		for(int p = 0; p < PASSES; p++) {
+			with = Math.max(with, rate(fixed, seed, true, ticks));
+			without = Math.max(without, rate(fixed, seed, false, ticks));
+		}
+		System.out.println(String.format("%s: identical through %d loads, %d power-ups, multiball %.1f%% of ticks, "
+				+ "%d ticks/s with power-ups, %d without", (fixed) ? "fixed" : "float", ticks / HOP, powerups[0],
+				100.0 * multiball / ticks, with, without));
+	}
+
+	private static long rate(boolean fixed, long seed, boolean powerups, int ticks) {
+		PongGame game = game(fixed, seed, powerups);
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; t++) step(game);
+		return ticks * 1000000000L / Math.max(1, System.nanoTime() - start);
+	}
+
+	private static PongGame game(boolean fixed, long seed, boolean powerups) {
+		PongGame game = new PongGame(PongGame.WORLD_WIDTH, PongGame.WORLD_HEIGHT, fixed, seed);
+		game.setLivesModifier(9);
+		game.initializePaddles(false, false);
+		game.setPowerups(powerups);
+		return game;
+	}
+
+	private static void step(PongGame game) {
+		if(!game.running()) game.newGame();
+		game.step();
+	}
+
+	/** Timers checked, and the most ticks a benchmark timer is set for */
+	private static final int CHECKED = 200000, SPAN = 600;
+
+	/** Ticks between loads, and runs timed for the best rate */
+	private static final int HOP = 97, PASSES = 3;
+}
@@ -0,0 +1,49 @@
+package org.oep.pong.tools;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.oep.pong.ChromeTrace;
+import org.oep.pong.GameTrace;
+import org.oep.pong.PongGame;
+
+/**
+ * Plays a headless match with a {@link ChromeTrace} installed and writes
+ * the sections as JSON for chrome://tracing or Perfetto. The sections are
+ * the same ones a device shows in a system trace, so GameTrace.ENABLED has
+ * to be true in this build.
+ *
+ * Usage: TraceExport [output file] [ticks]
+ * @author OEP
+ *
+ */
+public class TraceExport {
+	public static void main(String[] args) throws IOException {
+		String out = (args.length > 0) ? args[0] : "trace.json";
+		int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 3000;
+
+		if(!GameTrace.ENABLED) {
+			System.err.println("Tracing is compiled out; set GameTrace.ENABLED to true and rebuild");
+			System.exit(1);
+		}
+
+		PongGame game = new PongGame(PhysicsBench.WIDTH, PhysicsBench.HEIGHT, true, 1);
+		game.initializePaddles(false, false);
+
+		ChromeTrace trace = new ChromeTrace(ticks * 16);
+		GameTrace.install(trace);
+		for(int i = 0; i < ticks; i++) {
+			if(!game.running()) game.newGame();
+			GameTrace.begin("step");
+			game.step();
+			GameTrace.end();
+		}
+		GameTrace.install(null);
+
+		FileWriter w = new FileWriter(out);
+		trace.write(w);
+		w.close();
+		System.out.println("wrote " + trace.getCount() + " events to " + out + " (" + trace.getDropped()
+				+ " sections dropped)");
+	}
+}